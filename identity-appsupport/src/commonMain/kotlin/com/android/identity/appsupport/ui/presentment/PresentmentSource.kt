@@ -5,6 +5,9 @@ import com.android.identity.document.Document
 import com.android.identity.documenttype.DocumentTypeRepository
 import com.android.identity.request.Request
 import com.android.identity.trustmanagement.TrustPoint
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 
 /**
  * An interface used for the application to provide data and policy for credential presentment.
@@ -19,6 +22,9 @@ interface PresentmentSource {
     /**
      * Finds a [TrustPoint] for a requester.
      *
+     * This may be called concurrently with [selectCredentialForPresentment], with the request
+     * passed to it, so the result should only depend on [Request.requester].
+     *
      * @param request The request.
      * @return a [TrustPoint] or `null` if none could be found.
      */
@@ -55,4 +61,23 @@ interface PresentmentSource {
         credential: Credential,
         request: Request,
     ): Boolean
-}
\ No newline at end of file
+}
+
+/**
+ * Selects credentials for a request and finds the [TrustPoint] for its requester.
+ *
+ * Finding the trust point involves validating the requester's certificate chain, so this is
+ * done on [Dispatchers.Default] while credentials are being selected.
+ *
+ * @param request the request, before a credential is selected.
+ * @param preSelectedDocument passed to [PresentmentSource.selectCredentialForPresentment].
+ * @return the selected credentials and the trust point, or `null` if none was found.
+ */
+internal suspend fun PresentmentSource.selectCredentialsAndFindTrustPoint(
+    request: Request,
+    preSelectedDocument: Document?
+): Pair<List<Credential>, TrustPoint?> = coroutineScope {
+    val trustPoint = async(Dispatchers.Default) { findTrustPoint(request) }
+    val credentials = selectCredentialForPresentment(request, preSelectedDocument)
+    Pair(credentials, trustPoint.await())
+}
@@ -34,6 +34,7 @@ import com.android.identity.request.VcRequest
 import com.android.identity.request.VcRequestedClaim
 import com.android.identity.sdjwt.SdJwtVerifiableCredential
 import com.android.identity.sdjwt.credential.SdJwtVcCredential
+import com.android.identity.sdjwt.presentation.SdJwtPresentationBuilder
 import com.android.identity.sdjwt.util.JsonWebKey
 import com.android.identity.securearea.KeyUnlockInteractive
 import com.android.identity.trustmanagement.TrustPoint
@@ -380,6 +381,7 @@ private suspend fun digitalCredentialsOpenID4VPProtocol(
             reEncAlg = reEncAlg
         )
     } else if (format == "dc+sd-jwt") {
+        // The presentation is kept as bytes until here, where the JSON encoder needs a String.
         openID4VPSdJwt(
             credential = credential,
             source = source,
@@ -393,7 +395,7 @@ private suspend fun digitalCredentialsOpenID4VPProtocol(
             requesterCertChain = requesterCertChain,
             reReaderPublicKey = reReaderPublicKey,
             reEncAlg = reEncAlg
-        )
+        )?.decodeToString()
     } else {
         throw IllegalArgumentException("Unsupported format $format")
     }
@@ -458,7 +460,7 @@ private suspend fun openID4VPMsoMdoc(
             .add(Pair(name, intentToRetain))
     }
 
-    val mdocCredentials = source.selectCredentialForPresentment(
+    val (mdocCredentials, trustPoint) = source.selectCredentialsAndFindTrustPoint(
         request = MdocRequest(
             requester = Requester(
                 certChain = requesterCertChain,
@@ -525,7 +527,6 @@ private suspend fun openID4VPMsoMdoc(
         credential = mdocCredential,
         request = request,
     )
-    val trustPoint = source.findTrustPoint(request)
     if (shouldShowConsentPrompt) {
         if (!showConsentPrompt(presentmentMechanism.document, request, trustPoint)) {
             return null
@@ -562,7 +563,7 @@ private suspend fun openID4VPSdJwt(
     requesterCertChain: X509CertChain?,
     reReaderPublicKey: EcPublicKey?,
     reEncAlg: Algorithm,
-): String? {
+): ByteArray? {
     val meta = credential["meta"]!!.jsonObject
     val vctValues = meta["vct_values"]!!.jsonArray
     // TODO: handle multiple VCT values...
@@ -596,7 +597,7 @@ private suspend fun openID4VPSdJwt(
         requestedClaims = requestedClaims,
         vct = vct
     )
-    val vcCredentials = source.selectCredentialForPresentment(
+    val (vcCredentials, trustPoint) = source.selectCredentialsAndFindTrustPoint(
         request = request,
         preSelectedDocument = presentmentMechanism.document
     )
@@ -614,7 +615,6 @@ private suspend fun openID4VPSdJwt(
         credential = sdjwtVcCredential as Credential,
         request = request,
     )
-    val trustPoint = source.findTrustPoint(request)
     if (shouldShowConsentPrompt) {
         if (!showConsentPrompt(presentmentMechanism.document, request, trustPoint)) {
             return null
@@ -622,8 +622,6 @@ private suspend fun openID4VPSdJwt(
     }
 
     val attributesToDisclose = requestedClaims.map { it.claimName }.toSet()
-    val sdJwt = SdJwtVerifiableCredential.fromString(sdjwtVcCredential.issuerProvidedData.decodeToString())
-    val filteredSdJwt = sdJwt.discloseOnly(attributesToDisclose)
 
     val secureAreaBoundCredential = if (sdjwtVcCredential is SecureAreaBoundCredential) {
         sdjwtVcCredential as SecureAreaBoundCredential
@@ -631,14 +629,28 @@ private suspend fun openID4VPSdJwt(
         null
     }
     sdjwtVcCredential.increaseUsageCount()
+    if (secureAreaBoundCredential != null) {
+        return SdJwtPresentationBuilder.fromBytes(sdjwtVcCredential.issuerProvidedData).build(
+            attributes = attributesToDisclose,
+            secureArea = secureAreaBoundCredential.secureArea,
+            alias = secureAreaBoundCredential.alias,
+            keyUnlockData = KeyUnlockInteractive(),
+            nonce = nonce,
+            audience = clientId,
+            creationTime = Clock.System.now(),
+        )
+    }
+    // Non-keybound credentials don't need to sign a key binding JWT.
+    val sdJwt = SdJwtVerifiableCredential.fromString(sdjwtVcCredential.issuerProvidedData.decodeToString())
+    val filteredSdJwt = sdJwt.discloseOnly(attributesToDisclose)
     return filteredSdJwt.createPresentation(
-        secureArea = secureAreaBoundCredential?.secureArea,
-        alias = secureAreaBoundCredential?.alias,
-        keyUnlockData = KeyUnlockInteractive(),
+        secureArea = null,
+        alias = null,
+        keyUnlockData = null,
         nonce = nonce,
         audience = clientId,
         creationTime = Clock.System.now(),
-    ).toString()
+    ).toString().encodeToByteArray()
 }
 
 @OptIn(ExperimentalEncodingApi::class)
@@ -686,7 +698,7 @@ private suspend fun digitalCredentialsArfProtocol(
         encodedSessionTranscript,
     ).parse().docRequests.first()
 
-    val mdocCredentials = source.selectCredentialForPresentment(
+    val (mdocCredentials, trustPoint) = source.selectCredentialsAndFindTrustPoint(
         request = docRequest.toMdocRequest(
             documentTypeRepository = documentTypeRepository,
             mdocCredential = null,
@@ -710,7 +722,6 @@ private suspend fun digitalCredentialsArfProtocol(
         requesterAppId = presentationMechanism.appId,
         requesterWebsiteOrigin = presentationMechanism.webOrigin,
     )
-    val trustPoint = source.findTrustPoint(request)
     val shouldShowConsentPrompt = source.shouldShowConsentPrompt(
         credential = mdocCredential,
         request = request,
@@ -804,7 +815,7 @@ private suspend fun digitalCredentialsMdocApiProtocol(
         encodedSessionTranscript,
     ).parse().docRequests.first()
 
-    val mdocCredentials = source.selectCredentialForPresentment(
+    val (mdocCredentials, trustPoint) = source.selectCredentialsAndFindTrustPoint(
         request = docRequest.toMdocRequest(
             documentTypeRepository = documentTypeRepository,
             mdocCredential = null,
@@ -828,7 +839,6 @@ private suspend fun digitalCredentialsMdocApiProtocol(
         requesterAppId = presentationMechanism.appId,
         requesterWebsiteOrigin = presentationMechanism.webOrigin,
     )
-    val trustPoint = source.findTrustPoint(request)
     val shouldShowConsentPrompt = source.shouldShowConsentPrompt(
         credential = mdocCredential,
         request = request,
@@ -104,7 +104,7 @@ internal suspend fun mdocPresentment(
                 encodedSessionTranscript!!,
             ).parse()
             for (docRequest in deviceRequest.docRequests) {
-                val mdocCredentials = source.selectCredentialForPresentment(
+                val (mdocCredentials, trustPoint) = source.selectCredentialsAndFindTrustPoint(
                     request = docRequest.toMdocRequest(
                         documentTypeRepository = documentTypeRepository,
                         mdocCredential = null
@@ -131,7 +131,6 @@ internal suspend fun mdocPresentment(
                 // TODO: deal with request.requestedClaims.size == 0, probably tell the user there is no
                 // credential that can satisfy the request...
                 //
-                val trustPoint = source.findTrustPoint(request)
                 val shouldShowConsentPrompt = source.shouldShowConsentPrompt(
                     credential = mdocCredential,
                     request = request,
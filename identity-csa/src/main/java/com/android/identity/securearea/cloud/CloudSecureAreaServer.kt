@@ -32,7 +32,7 @@ import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.RegisterRes
 import com.android.identity.securearea.software.SoftwareCreateKeySettings
 import com.android.identity.securearea.software.SoftwareSecureArea
 import com.android.identity.storage.ephemeral.EphemeralStorage
-import com.android.identity.util.AndroidAttestationExtensionParser
+import com.android.identity.metrics.Metrics
 import com.android.identity.util.Logger
 import com.android.identity.util.toHex
 import com.android.identity.util.validateAndroidKeyAttestation
@@ -139,7 +139,7 @@ class CloudSecureAreaServer(
             cloudChallenge = state.cloudChallenge!!,
             serverState = state.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: RegisterRequest0: Sending challenge to client")
+        Logger.d(TAG) { "$remoteHost: RegisterRequest0: Sending challenge to client" }
         return Pair(200, response0.toCbor())
     }
 
@@ -160,7 +160,7 @@ class CloudSecureAreaServer(
                 )
             )
         } catch (e: Throwable) {
-            Logger.w(TAG, "$remoteHost: RegisterRequest1: Device Attestation did not validate", e)
+            Logger.w(TAG, e) { "$remoteHost: RegisterRequest1: Device Attestation did not validate" }
             e.printStackTrace()
             return Pair(403, e.message!!.toByteArray())
         }
@@ -170,7 +170,7 @@ class CloudSecureAreaServer(
         // Android. So we check that the attestation is valid and matches what we requested.
         if (state.deviceAttestation !is DeviceAttestationIos) {
             try {
-                validateAndroidKeyAttestation(
+                val attestation = validateAndroidKeyAttestation(
                     chain = request1.deviceBindingKeyAttestation!!,
                     challenge = ByteString(state.cloudChallenge!!),
                     requireGmsAttestation = androidGmsAttestation,
@@ -178,10 +178,9 @@ class CloudSecureAreaServer(
                     requireAppSignatureCertificateDigests = androidAppSignatureCertificateDigests
                 )
                 // Check that device created the key without user authentication.
-                val attestation = AndroidAttestationExtensionParser(request1.deviceBindingKeyAttestation!!.certificates[0])
                 check(attestation.getUserAuthenticationType() == 0L)
             } catch (e: Throwable) {
-                Logger.w(TAG, "$remoteHost: RegisterRequest1: Android Keystore attestation did not validate", e)
+                Logger.w(TAG, e) { "$remoteHost: RegisterRequest1: Android Keystore attestation did not validate" }
                 return Pair(403, e.message!!.toByteArray())
             }
         }
@@ -226,7 +225,7 @@ class CloudSecureAreaServer(
             cloudBindingKeyAttestation,
             state.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: RegisterRequest1: Client successfully registered")
+        Logger.d(TAG) { "$remoteHost: RegisterRequest1: Client successfully registered" }
         return Pair(200, response1.toCbor())
     }
 
@@ -257,7 +256,7 @@ class CloudSecureAreaServer(
             state.cloudNonce!!,
             state.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: E2EESetupRequest0: Sending nonce to client")
+        Logger.d(TAG) { "$remoteHost: E2EESetupRequest0: Sending nonce to client" }
         return Pair(200, response0.toCbor())
     }
 
@@ -331,7 +330,7 @@ class CloudSecureAreaServer(
             signature,
             state.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: E2EESetupRequest1: Encrypted tunnel has been set up")
+        Logger.d(TAG) { "$remoteHost: E2EESetupRequest1: Encrypted tunnel has been set up" }
         return Pair<Int, ByteArray>(200, response1.toCbor())
     }
 
@@ -342,7 +341,7 @@ class CloudSecureAreaServer(
     ): Pair<Int, ByteArray> {
         // Protect against an attacker trying to change the passphrase
         if (e2eeState.context!!.registrationComplete) {
-            Logger.w(TAG, "$remoteHost: Registration stage 2 already completed")
+            Logger.w(TAG) { "$remoteHost: Registration stage 2 already completed" }
             return Pair(403, "Registration stage 2 already completed".toByteArray())
         }
         e2eeState.context!!.registrationComplete = true
@@ -363,7 +362,7 @@ class CloudSecureAreaServer(
             encryptToDevice(e2eeState, response0.toCbor()),
             e2eeState.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: doRegisterStage2Request0: Completed")
+        Logger.d(TAG) { "$remoteHost: doRegisterStage2Request0: Completed" }
         return Pair(200, encryptedResponse0.toCbor())
     }
 
@@ -417,7 +416,7 @@ class CloudSecureAreaServer(
             encryptToDevice(e2eeState, response0.toCbor()),
             e2eeState.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: CreateKeyRequest0: Sending challenge to client")
+        Logger.d(TAG) { "$remoteHost: CreateKeyRequest0: Sending challenge to client" }
         return Pair(200, encryptedResponse0.toCbor())
     }
 
@@ -427,20 +426,39 @@ class CloudSecureAreaServer(
         e2eeState: E2EEState
     ): Pair<Int, ByteArray> {
         val state = decryptCreateKeyState(request1.serverState)
+        checkLocalKeyAttestation(state, request1.localKeyAttestation, e2eeState)
+        state.localKey = request1.localKey
+        val attestation = createCloudKey(state)
+        val response1 = CreateKeyResponse1(
+            attestation,
+            encryptCreateKeyState(state)
+        )
+        val encryptedResponse1 = E2EEResponse(
+            encryptToDevice(e2eeState, response1.toCbor()),
+            e2eeState.encrypt()
+        )
+        Logger.d(TAG) { "$remoteHost: CreateKeyRequest1: Created key for client" }
+        return Pair(200, encryptedResponse1.toCbor())
+    }
 
+    // Checks the attestation for the local key against the parameters in [state].
+    private fun checkLocalKeyAttestation(
+        state: CreateKeyState,
+        localKeyAttestation: X509CertChain?,
+        e2eeState: E2EEState
+    ) {
         // iOS devices don't have key attestation for the locally created key but other platforms do, including
         // Android. So we check that the attestation is valid and matches what we requested.
         if (e2eeState.context!!.deviceAttestation !is DeviceAttestationIos) {
             try {
-                validateAndroidKeyAttestation(
-                    chain = request1.localKeyAttestation!!,
+                val attestation = validateAndroidKeyAttestation(
+                    chain = localKeyAttestation!!,
                     challenge = ByteString(state.cloudChallenge!!),
                     requireGmsAttestation = androidGmsAttestation,
                     requireVerifiedBootGreen = androidVerifiedBootGreen,
                     requireAppSignatureCertificateDigests = androidAppSignatureCertificateDigests
                 )
                 // Check that device created the key with the requested user authentication.
-                val attestation = AndroidAttestationExtensionParser(request1.localKeyAttestation!!.certificates[0])
                 if (state.userAuthenticationRequired) {
                     val attestationExtensionUserAuthType = attestation.getUserAuthenticationType()
                     check(attestationExtensionUserAuthType == state.userAuthenticationTypes) {
@@ -454,8 +472,11 @@ class CloudSecureAreaServer(
                 throw IllegalStateException("doCreateKeyRequest1: Android Keystore attestation did not validate", e)
             }
         }
+    }
 
-        state.localKey = request1.localKey
+    // Creates the key on the server according to [state], stores it in [CreateKeyState.cloudKeyStorage]
+    // and returns the attestation for it.
+    private suspend fun createCloudKey(state: CreateKeyState): X509CertChain {
         val storage = EphemeralStorage()
         val secureArea = SoftwareSecureArea.create(storage)
         val builder = SoftwareCreateKeySettings.Builder()
@@ -499,15 +520,86 @@ class CloudSecureAreaServer(
             .build()
 
         state.cloudKeyStorage = storage.serialize().toByteArray()
-        val response1 = CreateKeyResponse1(
-            X509CertChain(listOf(attestationCert) + attestationKeyCertification.certificates),
-            encryptCreateKeyState(state)
+        return X509CertChain(listOf(attestationCert) + attestationKeyCertification.certificates)
+    }
+
+    @CborSerializable
+    data class BatchCreateKeyState(
+        var numKeys: Int = 0,
+        var template: CreateKeyState? = null,
+    ) {
+        companion object
+    }
+
+    private fun BatchCreateKeyState.encrypt(): ByteArray = encryptState(toCbor())
+
+    private fun BatchCreateKeyState.Companion.decrypt(encryptedState: ByteArray) =
+        fromCbor(decryptState(encryptedState))
+
+    private fun doBatchCreateKeyRequest0(
+        request0: CloudSecureAreaProtocol.BatchCreateKeyRequest0,
+        remoteHost: String,
+        e2eeState: E2EEState
+    ): Pair<Int, ByteArray> {
+        require(request0.numKeys in 1..MAX_BATCH_SIZE) { "Invalid number of keys ${request0.numKeys}" }
+        val template = CreateKeyState()
+        template.challenge = request0.challenge
+        template.cloudChallenge = Random.Default.nextBytes(32)
+        template.purposes = request0.purposes
+        template.curve = request0.curve
+        template.signingAlgorithm = request0.signingAlgorithm
+        template.validFromMillis = request0.validFromMillis
+        template.validUntilMillis = request0.validUntilMillis
+        template.passphraseRequired = request0.passphraseRequired
+        template.userAuthenticationRequired = request0.userAuthenticationRequired
+        template.userAuthenticationTypes = request0.userAuthenticationTypes
+        val state = BatchCreateKeyState(request0.numKeys, template)
+        val response0 = CloudSecureAreaProtocol.BatchCreateKeyResponse0(
+            template.cloudChallenge!!,
+            state.encrypt()
+        )
+        val encryptedResponse0 = E2EEResponse(
+            encryptToDevice(e2eeState, response0.toCbor()),
+            e2eeState.encrypt()
+        )
+        Logger.d(TAG) { "$remoteHost: BatchCreateKeyRequest0: Sending challenge to client for ${request0.numKeys} keys" }
+        return Pair(200, encryptedResponse0.toCbor())
+    }
+
+    private suspend fun doBatchCreateKeyRequest1(
+        request1: CloudSecureAreaProtocol.BatchCreateKeyRequest1,
+        remoteHost: String,
+        e2eeState: E2EEState
+    ): Pair<Int, ByteArray> {
+        val batchState = BatchCreateKeyState.decrypt(request1.serverState)
+        val template = batchState.template!!
+        require(request1.localKeys.size == batchState.numKeys) {
+            "Expected ${batchState.numKeys} local keys, got ${request1.localKeys.size}"
+        }
+        // Attestations are matched to keys by position, a partial list can't be matched up.
+        require(request1.localKeyAttestations.isEmpty() ||
+                request1.localKeyAttestations.size == batchState.numKeys) {
+            "Expected ${batchState.numKeys} local key attestations, " +
+                    "got ${request1.localKeyAttestations.size}"
+        }
+        val attestations = mutableListOf<X509CertChain>()
+        val serverStates = mutableListOf<ByteArray>()
+        for (n in 0 until batchState.numKeys) {
+            val state = template.copy()
+            checkLocalKeyAttestation(state, request1.localKeyAttestations.getOrNull(n), e2eeState)
+            state.localKey = request1.localKeys[n]
+            attestations.add(createCloudKey(state))
+            serverStates.add(encryptCreateKeyState(state))
+        }
+        val response1 = CloudSecureAreaProtocol.BatchCreateKeyResponse1(
+            attestations,
+            serverStates
         )
         val encryptedResponse1 = E2EEResponse(
             encryptToDevice(e2eeState, response1.toCbor()),
             e2eeState.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: CreateKeyRequest1: Created key for client")
+        Logger.d(TAG) { "$remoteHost: BatchCreateKeyRequest1: Created ${batchState.numKeys} keys for client" }
         return Pair(200, encryptedResponse1.toCbor())
     }
 
@@ -545,7 +637,7 @@ class CloudSecureAreaServer(
             encryptToDevice(e2eeState, response0.toCbor()),
             e2eeState.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: SignRequest0: Sending nonce to client")
+        Logger.d(TAG) { "$remoteHost: SignRequest0: Sending nonce to client" }
         return Pair(200, encryptedResponse0.toCbor())
     }
 
@@ -594,7 +686,7 @@ class CloudSecureAreaServer(
                         e2eeState.context!!,
                     )
                 ) {
-                    Logger.d(TAG, "$remoteHost: SignRequest1: Error checking passphrase")
+                    Logger.d(TAG) { "$remoteHost: SignRequest1: Error checking passphrase" }
                     val response1 = CloudSecureAreaProtocol.SignResponse1(
                         CloudSecureAreaProtocol.RESULT_WRONG_PASSPHRASE,
                         null,
@@ -615,7 +707,7 @@ class CloudSecureAreaServer(
                 state.dataToSign!!,
                 null
             )
-            Logger.d(TAG, "$remoteHost: SignRequest1: Signed data for client")
+            Logger.d(TAG) { "$remoteHost: SignRequest1: Signed data for client" }
             val response1 = CloudSecureAreaProtocol.SignResponse1(
                 CloudSecureAreaProtocol.RESULT_OK,
                 signature,
@@ -630,18 +722,142 @@ class CloudSecureAreaServer(
         }
     }
 
+    @CborSerializable
+    data class BatchSignState(
+        var keyContexts: List<CreateKeyState> = emptyList(),
+        var dataToSign: List<ByteArray> = emptyList(),
+        var cloudNonce: ByteArray? = null,
+    ) {
+        companion object
+    }
+
+    private fun BatchSignState.encrypt(): ByteArray = encryptState(toCbor())
+
+    private fun BatchSignState.Companion.decrypt(encryptedState: ByteArray) =
+        fromCbor(decryptState(encryptedState))
+
+    private fun doBatchSignRequest0(
+        request0: CloudSecureAreaProtocol.BatchSignRequest0,
+        remoteHost: String,
+        e2eeState: E2EEState
+    ): Pair<Int, ByteArray> {
+        val numItems = request0.dataToSign.size
+        require(numItems in 1..MAX_BATCH_SIZE) { "Invalid number of items $numItems" }
+        require(numItems == request0.keyContexts.size) { "Mismatched number of key contexts" }
+        val state = BatchSignState()
+        state.keyContexts = request0.keyContexts.map { decryptCreateKeyState(it) }
+        state.dataToSign = request0.dataToSign
+        state.cloudNonce = Random.Default.nextBytes(32)
+        val response0 = CloudSecureAreaProtocol.BatchSignResponse0(
+            state.cloudNonce!!,
+            state.encrypt()
+        )
+        val encryptedResponse0 = E2EEResponse(
+            encryptToDevice(e2eeState, response0.toCbor()),
+            e2eeState.encrypt()
+        )
+        Logger.d(TAG) { "$remoteHost: BatchSignRequest0: Sending nonce to client for $numItems items" }
+        return Pair(200, encryptedResponse0.toCbor())
+    }
+
+    private suspend fun doBatchSignRequest1(
+        request1: CloudSecureAreaProtocol.BatchSignRequest1,
+        remoteHost: String,
+        e2eeState: E2EEState
+    ): Pair<Int, ByteArray> {
+        try {
+            val state = BatchSignState.decrypt(request1.serverState)
+            check(request1.signatures.size == state.keyContexts.size) {
+                "Expected ${state.keyContexts.size} signatures, got ${request1.signatures.size}"
+            }
+            // All local keys sign the same nonce so this only needs to be encoded once.
+            val dataThatWasSignedLocally = Cbor.encode(
+                CborArray.builder()
+                    .add(state.cloudNonce!!)
+                    .end()
+                    .build()
+            )
+            for (n in state.keyContexts.indices) {
+                check(Crypto.checkSignature(
+                    state.keyContexts[n].localKey!!.ecPublicKey,
+                    dataThatWasSignedLocally,
+                    Algorithm.ES256,
+                    request1.signatures[n])) { "Error verifying signature for item $n" }
+            }
+
+            // The passphrase is per-client so it's checked at most once for the whole batch.
+            if (state.keyContexts.any { it.passphraseRequired }) {
+                val lockedOutDuration =
+                    passphraseFailureEnforcer.isLockedOut(e2eeState.context!!.clientId!!)
+                if (lockedOutDuration != null) {
+                    Logger.i(
+                        TAG, "$remoteHost: BatchSignRequest1: Too many wrong passphrase attempts, " +
+                                "locked out for $lockedOutDuration"
+                    )
+                    val response1 = CloudSecureAreaProtocol.BatchSignResponse1(
+                        CloudSecureAreaProtocol.RESULT_TOO_MANY_PASSPHRASE_ATTEMPTS,
+                        emptyList(),
+                        lockedOutDuration.inWholeMilliseconds
+                    )
+                    val encryptedResponse1 = E2EEResponse(
+                        encryptToDevice(e2eeState, response1.toCbor()),
+                        e2eeState.encrypt()
+                    )
+                    return Pair(200, encryptedResponse1.toCbor())
+                }
+
+                if (!checkPassphrase(
+                        remoteHost,
+                        request1.passphrase,
+                        e2eeState.context!!,
+                    )
+                ) {
+                    Logger.d(TAG) { "$remoteHost: BatchSignRequest1: Error checking passphrase" }
+                    val response1 = CloudSecureAreaProtocol.BatchSignResponse1(
+                        CloudSecureAreaProtocol.RESULT_WRONG_PASSPHRASE,
+                        emptyList(),
+                        0L
+                    )
+                    val encryptedResponse1 = E2EEResponse(
+                        encryptToDevice(e2eeState, response1.toCbor()),
+                        e2eeState.encrypt()
+                    )
+                    return Pair(200, encryptedResponse1.toCbor())
+                }
+            }
+
+            val signatures = state.keyContexts.zip(state.dataToSign).map { (keyContext, dataToSign) ->
+                val storage = EphemeralStorage.deserialize(ByteString(keyContext.cloudKeyStorage!!))
+                val secureArea = SoftwareSecureArea.create(storage)
+                secureArea.sign("CloudKey", dataToSign, null)
+            }
+            Logger.d(TAG) { "$remoteHost: BatchSignRequest1: Signed ${signatures.size} items for client" }
+            val response1 = CloudSecureAreaProtocol.BatchSignResponse1(
+                CloudSecureAreaProtocol.RESULT_OK,
+                signatures,
+                0L)
+            val encryptedResponse1 = E2EEResponse(
+                encryptToDevice(e2eeState, response1.toCbor()),
+                e2eeState.encrypt()
+            )
+            return Pair(200, encryptedResponse1.toCbor())
+        } catch (e: Throwable) {
+            throw IllegalStateException(e)
+        }
+    }
+
     private fun checkPassphrase(
         remoteHost: String,
         givenPassphrase: String?,
         context: RegisterState,
     ): Boolean {
         if (!context.registrationComplete) {
-            Logger.d(TAG, "$remoteHost: checkPassphrase: Stage 2 registration not complete")
+            Logger.d(TAG) { "$remoteHost: checkPassphrase: Stage 2 registration not complete" }
             return false
         }
         if (givenPassphrase == null) {
             passphraseFailureEnforcer.recordFailedPassphraseAttempt(context.clientId!!)
-            Logger.d(TAG, "$remoteHost: checkPassphrase: Passphrase required but none was supplied")
+            Logger.d(TAG) { "$remoteHost: checkPassphrase: Passphrase required but none was supplied" }
             return false
         }
         val saltedPassphrase = Crypto.digest(
@@ -650,7 +866,7 @@ class CloudSecureAreaServer(
         )
         if (!saltedPassphrase.contentEquals(context.clientSaltedPassphrase)) {
             passphraseFailureEnforcer.recordFailedPassphraseAttempt(context.clientId!!)
-            Logger.d(TAG, "$remoteHost: checkPassphrase: Wrong passphrase supplied")
+            Logger.d(TAG) { "$remoteHost: checkPassphrase: Wrong passphrase supplied" }
             return false
         }
         return true
@@ -687,7 +903,7 @@ class CloudSecureAreaServer(
             encryptToDevice(e2eeState, response0.toCbor()),
             e2eeState.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: KeyAgreementRequest0: Sending nonce to client")
+        Logger.d(TAG) { "$remoteHost: KeyAgreementRequest0: Sending nonce to client" }
         return Pair(200, encryptedResponse0.toCbor())
     }
 
@@ -737,7 +953,7 @@ class CloudSecureAreaServer(
                         e2eeState.context!!,
                     )
                 ) {
-                    Logger.d(TAG, "$remoteHost: KeyAgreementRequest1: Error checking passphrase")
+                    Logger.d(TAG) { "$remoteHost: KeyAgreementRequest1: Error checking passphrase" }
                     val response1 = CloudSecureAreaProtocol.KeyAgreementResponse1(
                         CloudSecureAreaProtocol.RESULT_WRONG_PASSPHRASE,
                         null,
@@ -760,7 +976,7 @@ class CloudSecureAreaServer(
                     state.otherPublicKey!!.ecPublicKey,
                     null
                 )
-            Logger.d(TAG, "$remoteHost: KeyAgreementRequest1: Calculated Zab")
+            Logger.d(TAG) { "$remoteHost: KeyAgreementRequest1: Calculated Zab" }
             val response1 = CloudSecureAreaProtocol.KeyAgreementResponse1(
                 CloudSecureAreaProtocol.RESULT_OK,
                 Zab,
@@ -789,7 +1005,7 @@ class CloudSecureAreaServer(
             return CloudSecureAreaProtocol.RESULT_TOO_MANY_PASSPHRASE_ATTEMPTS
         }
         if (!checkPassphrase(remoteHost, passphrase, e2eeState.context!!)) {
-            Logger.i(TAG, "$remoteHost: CheckPassphraseRequest: Error checking passphrase")
+            Logger.i(TAG) { "$remoteHost: CheckPassphraseRequest: Error checking passphrase" }
             return CloudSecureAreaProtocol.RESULT_WRONG_PASSPHRASE
         }
         return CloudSecureAreaProtocol.RESULT_OK
@@ -808,7 +1024,7 @@ class CloudSecureAreaServer(
             encryptToDevice(e2eeState, response.toCbor()),
             e2eeState.encrypt()
         )
-        Logger.d(TAG, "$remoteHost: CheckPassphraseRequest: Sending result $result to client")
+        Logger.d(TAG) { "$remoteHost: CheckPassphraseRequest: Sending result $result to client" }
         return Pair(200, encryptedResponse.toCbor())
     }
 
@@ -864,30 +1080,37 @@ class CloudSecureAreaServer(
         e2eeState: E2EEState?
     ): Pair<Int, ByteArray> {
         val command = CloudSecureAreaProtocol.Command.fromCbor(requestData)
-        // Fail early if stage 2 registration isn't complete.
-        if (e2eeState != null && command !is CloudSecureAreaProtocol.RegisterStage2Request0) {
-            if (!e2eeState.context!!.registrationComplete) {
-                Logger.w(TAG, "$remoteHost: Stage 2 registration not complete")
-                return Pair(400, "Stage 2 registration not complete".encodeToByteArray())
+        val commandName = command::class.simpleName ?: "Unknown"
+        return Metrics.span("csa.command", "command" to commandName) {
+            // Fail early if stage 2 registration isn't complete.
+            if (e2eeState != null && command !is CloudSecureAreaProtocol.RegisterStage2Request0) {
+                if (!e2eeState.context!!.registrationComplete) {
+                    Logger.w(TAG) { "$remoteHost: Stage 2 registration not complete" }
+                    return Pair(400, "Stage 2 registration not complete".encodeToByteArray())
+                }
             }
-        }
-        return when (command) {
-            is RegisterRequest0 -> doRegisterRequest0(command, remoteHost)
-            is RegisterRequest1 -> doRegisterRequest1(command, remoteHost)
-            is E2EESetupRequest0 -> doE2EESetupRequest0(command, remoteHost)
-            is E2EESetupRequest1 -> doE2EESetupRequest1(command, remoteHost)
-            is CloudSecureAreaProtocol.E2EERequest -> doE2EERequest(command, remoteHost)
-            is CloudSecureAreaProtocol.RegisterStage2Request0 -> doRegisterStage2Request0(command, remoteHost, e2eeState!!)
-            is CreateKeyRequest0 -> doCreateKeyRequest0(command, remoteHost, e2eeState!!)
-            is CloudSecureAreaProtocol.CreateKeyRequest1 -> doCreateKeyRequest1(command, remoteHost, e2eeState!!)
-            is CloudSecureAreaProtocol.SignRequest0 -> doSignRequest0(command, remoteHost, e2eeState!!)
-            is CloudSecureAreaProtocol.SignRequest1 -> doSignRequest1(command, remoteHost, e2eeState!!)
-            is CloudSecureAreaProtocol.KeyAgreementRequest0 -> doKeyAgreementRequest0(command, remoteHost, e2eeState!!)
-            is CloudSecureAreaProtocol.KeyAgreementRequest1 -> doKeyAgreementRequest1(command, remoteHost, e2eeState!!)
-            is CloudSecureAreaProtocol.CheckPassphraseRequest -> doCheckPassphraseRequest(command, remoteHost, e2eeState!!)
-            else -> {
-                Logger.w(TAG, "$remoteHost: Unknown command ${command}, returning 404")
-                Pair(404, "Unknown command".toByteArray())
+            when (command) {
+                is RegisterRequest0 -> doRegisterRequest0(command, remoteHost)
+                is RegisterRequest1 -> doRegisterRequest1(command, remoteHost)
+                is E2EESetupRequest0 -> doE2EESetupRequest0(command, remoteHost)
+                is E2EESetupRequest1 -> doE2EESetupRequest1(command, remoteHost)
+                is CloudSecureAreaProtocol.E2EERequest -> doE2EERequest(command, remoteHost)
+                is CloudSecureAreaProtocol.RegisterStage2Request0 -> doRegisterStage2Request0(command, remoteHost, e2eeState!!)
+                is CreateKeyRequest0 -> doCreateKeyRequest0(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.CreateKeyRequest1 -> doCreateKeyRequest1(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.SignRequest0 -> doSignRequest0(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.SignRequest1 -> doSignRequest1(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.KeyAgreementRequest0 -> doKeyAgreementRequest0(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.KeyAgreementRequest1 -> doKeyAgreementRequest1(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.CheckPassphraseRequest -> doCheckPassphraseRequest(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.BatchCreateKeyRequest0 -> doBatchCreateKeyRequest0(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.BatchCreateKeyRequest1 -> doBatchCreateKeyRequest1(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.BatchSignRequest0 -> doBatchSignRequest0(command, remoteHost, e2eeState!!)
+                is CloudSecureAreaProtocol.BatchSignRequest1 -> doBatchSignRequest1(command, remoteHost, e2eeState!!)
+                else -> {
+                    Logger.w(TAG) { "$remoteHost: Unknown command ${command}, returning 404" }
+                    Pair(404, "Unknown command".toByteArray())
+                }
             }
         }
     }
@@ -899,6 +1122,10 @@ class CloudSecureAreaServer(
     companion object {
         const val TAG = "CloudSecureAreaServer"
 
+        // Upper bound on the number of items in a batched request, to bound the work done
+        // and the size of the state shipped back to the client.
+        const val MAX_BATCH_SIZE = 100
+
         // Really important these counters are never reused. We rely on the system
         // clock always going forward to achieve this.
         @get:Synchronized
@@ -40,10 +40,12 @@ object DrivingLicense {
     const val AAMVA_NAMESPACE = "org.iso.18013.5.1.aamva"
 
     /**
-     * Build the Driving License Document Type. This is ISO mdoc only.
+     * Get the Driving License Document Type. This is ISO mdoc only.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("Driving License")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("Driving License")
             .addMdocDocumentType(MDL_DOCTYPE)
             /*
              * First the attributes that the mDL and VC Credential Type have in common
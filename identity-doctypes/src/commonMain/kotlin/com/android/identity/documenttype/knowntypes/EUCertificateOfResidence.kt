@@ -19,10 +19,12 @@ object EUCertificateOfResidence {
     const val VCT = "https://example.eudi.ec.europa.eu/cor/1"
 
     /**
-     * Build the EU Certificate of Residency Document Type.
+     * Get the EU Certificate of Residency Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("EU Certificate of Residency")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("EU Certificate of Residency")
             .addMdocDocumentType(DOCTYPE)
             .addVcDocumentType(VCT)
             .addAttribute(
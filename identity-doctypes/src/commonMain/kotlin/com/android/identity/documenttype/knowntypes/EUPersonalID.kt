@@ -38,10 +38,12 @@ object EUPersonalID {
     const val EUPID_VCT = "urn:eu.europa.ec.eudi:pid:1"
 
     /**
-     * Build the EU Personal ID Document Type.
+     * Get the EU Personal ID Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("EU Personal ID")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("EU Personal ID")
             .addMdocDocumentType(EUPID_DOCTYPE)
             .addVcDocumentType(EUPID_VCT)
             .addAttribute(
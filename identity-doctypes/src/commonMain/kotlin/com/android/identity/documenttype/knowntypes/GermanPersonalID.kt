@@ -22,10 +22,12 @@ object GermanPersonalID {
     const val EUPID_VCT = "https://example.bmi.bund.de/credential/pid/1.0"
 
     /**
-     * Build the EU Personal ID Document Type.
+     * Get the EU Personal ID Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("German Personal ID")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("German Personal ID")
             .addVcDocumentType(EUPID_VCT)
             .addVcAttribute(
                 DocumentAttributeType.String,
@@ -21,10 +21,12 @@ object PhotoID {
     const val DTC_NAMESPACE = "org.iso.23220.dtc.1"
 
     /**
-     * Build the Driving License Document Type.
+     * Get the Driving License Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("Photo ID")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("Photo ID")
             .addMdocDocumentType(PHOTO_ID_DOCTYPE)
             // First the data elements from ISO/IEC 23220-2.
             //
@@ -15,10 +15,12 @@ object UtopiaMovieTicket {
     const val VCTYPE = "http://utopia.example.com/vct/movieticket"
 
     /**
-     * Build the Movie Ticket Document Type.
+     * Get the Movie Ticket Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("Movie Ticket")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("Movie Ticket")
             .addVcDocumentType(VCTYPE)
             .addVcAttribute(
                 DocumentAttributeType.Number,
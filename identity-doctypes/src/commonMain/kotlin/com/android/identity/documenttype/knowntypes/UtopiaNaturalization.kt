@@ -15,10 +15,12 @@ object UtopiaNaturalization {
     const val VCT = "http://utopia.example.com/vct/naturalization"
 
     /**
-     * Build the Utopia Naturalization Certificate Document Type.
+     * Get the Utopia Naturalization Certificate Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("Utopia Naturalization Certificate")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("Utopia Naturalization Certificate")
             .addVcDocumentType(VCT)
             .addVcAttribute(
                 DocumentAttributeType.String,
@@ -28,10 +28,12 @@ object VaccinationDocument {
     const val MICOV_VTR_NAMESPACE = "org.micov.vtr.1"
 
     /**
-     * Build the Vaccination Document Type.
+     * Get the Vaccination Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("Vaccination Document")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("Vaccination Document")
             .addMdocDocumentType("org.micov.1")
             .addMdocAttribute(
                 DocumentAttributeType.Boolean,
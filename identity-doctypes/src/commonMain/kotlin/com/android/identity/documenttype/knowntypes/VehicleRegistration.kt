@@ -28,10 +28,12 @@ object VehicleRegistration {
     const val MVR_NAMESPACE = "nl.rdw.mekb.1"
 
     /**
-     * Build the Vehicle Registration Document Type.
+     * Get the Vehicle Registration Document Type.
      */
-    fun getDocumentType(): DocumentType {
-        return DocumentType.Builder("Vehicle Registration")
+    fun getDocumentType(): DocumentType = documentType
+
+    private val documentType: DocumentType by lazy {
+        DocumentType.Builder("Vehicle Registration")
             .addMdocDocumentType("nl.rdw.mekb.1")
             .addMdocAttribute(
                 DocumentAttributeType.ComplexType,
@@ -10,11 +10,18 @@ import com.android.identity.cbor.Uint
 import com.android.identity.cbor.toDataItemDateTimeString
 import com.android.identity.cbor.toDataItemFullDate
 import com.android.identity.documenttype.knowntypes.DrivingLicense
+import com.android.identity.documenttype.knowntypes.EUPersonalID
+import com.android.identity.documenttype.knowntypes.PhotoID
 import kotlinx.datetime.Instant
 import kotlinx.datetime.LocalDate
 import kotlinx.datetime.TimeZone
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
 
 class TestDocumentTypeRepository {
 
@@ -48,6 +55,86 @@ class TestDocumentTypeRepository {
         )
     }
 
+    @Test
+    fun testDocumentTypeRepositoryLookups() {
+        val documentTypeRepository = DocumentTypeRepository()
+        documentTypeRepository.addDocumentType(DrivingLicense.getDocumentType())
+        documentTypeRepository.addDocumentType(EUPersonalID.getDocumentType())
+        documentTypeRepository.addDocumentType(PhotoID.getDocumentType())
+
+        assertSame(
+            DrivingLicense.getDocumentType(),
+            documentTypeRepository.getDocumentTypeForMdoc(DrivingLicense.MDL_DOCTYPE)
+        )
+        assertSame(
+            EUPersonalID.getDocumentType(),
+            documentTypeRepository.getDocumentTypeForVc(EUPersonalID.EUPID_VCT)
+        )
+        assertSame(
+            DrivingLicense.getDocumentType(),
+            documentTypeRepository.getDocumentTypeForMdocNamespace(DrivingLicense.AAMVA_NAMESPACE)
+        )
+        assertNull(documentTypeRepository.getDocumentTypeForMdoc("org.example.unknown"))
+        assertNull(documentTypeRepository.getDocumentTypeForVc("https://example.com/unknown"))
+        assertNull(documentTypeRepository.getDocumentTypeForMdocNamespace("org.example.unknown"))
+
+        assertEquals(
+            DocumentAttributeType.ComplexType,
+            documentTypeRepository.getMdocDataElement(
+                DrivingLicense.AAMVA_NAMESPACE,
+                "domestic_driving_privileges"
+            )?.attribute?.type
+        )
+        assertNull(
+            documentTypeRepository.getMdocDataElement(DrivingLicense.MDL_NAMESPACE, "unknown")
+        )
+    }
+
+    @Test
+    fun testDocumentTypeRepositoryFirstAddedWins() {
+        val first = DocumentType.Builder("First")
+            .addMdocDocumentType("org.example.doctype")
+            .addMdocAttribute(
+                DocumentAttributeType.String, "name", "Name", "", true, "org.example.ns"
+            )
+            .build()
+        val second = DocumentType.Builder("Second")
+            .addMdocDocumentType("org.example.doctype")
+            .addMdocAttribute(
+                DocumentAttributeType.Number, "name", "Name", "", true, "org.example.ns"
+            )
+            .build()
+        val documentTypeRepository = DocumentTypeRepository()
+        documentTypeRepository.addDocumentType(first)
+        documentTypeRepository.addDocumentType(second)
+        assertEquals(listOf(first, second), documentTypeRepository.documentTypes)
+        assertSame(first, documentTypeRepository.getDocumentTypeForMdoc("org.example.doctype"))
+        assertSame(first, documentTypeRepository.getDocumentTypeForMdocNamespace("org.example.ns"))
+        assertEquals(
+            DocumentAttributeType.String,
+            documentTypeRepository.getMdocDataElement("org.example.ns", "name")?.attribute?.type
+        )
+    }
+
+    @Test
+    fun testDocumentTypeRepositoryFreeze() {
+        val documentTypeRepository = DocumentTypeRepository()
+        documentTypeRepository.addDocumentType(DrivingLicense.getDocumentType())
+        assertFalse(documentTypeRepository.isFrozen)
+        assertSame(documentTypeRepository, documentTypeRepository.freeze())
+        assertTrue(documentTypeRepository.isFrozen)
+        assertFailsWith<IllegalStateException> {
+            documentTypeRepository.addDocumentType(PhotoID.getDocumentType())
+        }
+        assertEquals(1, documentTypeRepository.documentTypes.size)
+    }
+
+    @Test
+    fun testKnownDocumentTypesAreShared() {
+        assertSame(DrivingLicense.getDocumentType(), DrivingLicense.getDocumentType())
+        assertSame(EUPersonalID.getDocumentType(), EUPersonalID.getDocumentType())
+    }
+
     @Test
     fun testRenderValueAsString() {
         val ct = DrivingLicense.getDocumentType()
@@ -7,6 +7,7 @@ import com.android.identity.cbor.DataItem
 import com.android.identity.cbor.Tstr
 import com.android.identity.cbor.toDataItem
 import com.android.identity.flow.server.FlowEnvironment
+import com.android.identity.metrics.Metrics
 import kotlin.reflect.KClass
 import kotlin.reflect.cast
 
@@ -75,7 +76,11 @@ class FlowDispatcherLocal private constructor(
     override suspend fun dispatch(flow: String, method: String, args: List<DataItem>): List<DataItem> {
         val flowItem = flowMap[flow] ?:
             throw UnsupportedOperationException("flow $flow not found")
-        return flowItem.dispatch(this, method, args)
+        // Only use known method names as tags, the method comes from the client.
+        val methodTag = if (flowItem.hasMethod(method)) method else "unknown"
+        return Metrics.span("flow.dispatch", "flow" to flow, "method" to methodTag) {
+            flowItem.dispatch(this, method, args)
+        }
     }
 
     fun decodeStateParameter(stateParameter: DataItem): Any {
@@ -101,6 +106,8 @@ class FlowDispatcherLocal private constructor(
         internal val stateSerializer: (StateT) -> DataItem,
         internal val stateDeserializer: (DataItem) -> StateT
     ) {
+        fun hasMethod(method: String): Boolean = handlerMap.containsKey(method)
+
         suspend fun dispatch(
             owner: FlowDispatcherLocal,
             method: String,
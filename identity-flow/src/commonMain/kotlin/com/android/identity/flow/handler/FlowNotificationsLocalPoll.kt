@@ -51,7 +51,7 @@ class FlowNotificationsLocalPoll(private val cipher: SimpleCipher): FlowNotifica
     override suspend fun poll(consumeToken: String, flows: List<FlowPoll.PollKey>): FlowPoll.PollResult {
         val dropped = mutableSetOf<String>()
         val start = Clock.System.now()
-        Logger.i(TAG, "polling flows: ${flows.map { flowRef -> flowRef.flowName }.joinToString(",")}")
+        Logger.i(TAG) { "polling flows: ${flows.map { flowRef -> flowRef.flowName }.joinToString(",")}" }
         do {
             var result: FlowPoll.PollResult? = null
             var notificationKey: FlowNotificationKey? = null
@@ -76,7 +76,7 @@ class FlowNotificationsLocalPoll(private val cipher: SimpleCipher): FlowNotifica
                     } else {
                         continue
                     }
-                    Logger.i(TAG, "pushing notification for flow ${flowRef.flowName}")
+                    Logger.i(TAG) { "pushing notification for flow ${flowRef.flowName}" }
                     result = FlowPoll.PollResult(
                         consumeToken = Base64.encode(Random.Default.nextBytes(15)),
                         index = index,
@@ -125,7 +125,7 @@ class FlowNotificationsLocalPoll(private val cipher: SimpleCipher): FlowNotifica
 
     private fun logDropped(dropped: Set<String>) {
         for (flowName in dropped) {
-            Logger.w(TAG, "dropped notification for $flowName")
+            Logger.w(TAG) { "dropped notification for $flowName" }
         }
     }
 
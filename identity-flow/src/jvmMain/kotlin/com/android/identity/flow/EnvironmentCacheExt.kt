@@ -3,9 +3,25 @@ package com.android.identity.flow
 import com.android.identity.flow.server.Configuration
 import com.android.identity.flow.server.FlowEnvironment
 import com.android.identity.flow.server.Resources
+import com.android.identity.util.Logger
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
 import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.reflect.KClass
 import kotlin.reflect.cast
+import kotlin.time.ComparableTimeMark
+import kotlin.time.Duration
+import kotlin.time.TimeSource
+
+private const val TAG = "EnvironmentCache"
 
 /**
  * Lazily create and memoize an object that is defined by the given class and a key.
@@ -13,50 +29,153 @@ import kotlin.reflect.cast
  * If/when configuration or resource objects change in the environment, object is created
  * anew. Stale copies are (eventually) deallocated.
  *
- * This method is thread-safe. The same object is returned for all threads, however, when the
- * object is being created, multiple copies might be created if there is a race condition.
+ * This method is thread-safe and the object is only created once. Callers which ask for
+ * the object while it is being created wait for it and get the same object. If [factory]
+ * throws, all waiting callers get the exception and the next call tries again.
+ *
+ * The object can be given a limited lifetime using [expiration], after which it is created
+ * anew, e.g. so that a resource fetched from another server is picked up when it changes.
+ * If [refreshAhead] is positive, the first call less than [refreshAhead] before the object
+ * expires starts creating a new object in the background and the current object is returned
+ * until the new one is ready, so that callers don't have to wait for it.
+ *
+ * @param clazz the class of the object.
+ * @param key the key of the object, to cache several objects of the same class.
+ * @param expiration how long the object may be used, forever by default.
+ * @param refreshAhead how long before expiration to start creating a new object, must be
+ *   shorter than [expiration].
+ * @param factory creates the object.
  */
 suspend fun<ResourceT : Any> FlowEnvironment.cache(
     clazz: KClass<ResourceT>,
     key: Any = "",
+    expiration: Duration = Duration.INFINITE,
+    refreshAhead: Duration = Duration.ZERO,
     factory: suspend (Configuration, Resources) -> ResourceT): ResourceT {
+    require(expiration.isPositive()) { "expiration must be positive" }
+    require(!refreshAhead.isNegative() && refreshAhead < expiration) {
+        "refreshAhead must not be negative and must be shorter than expiration"
+    }
     val configuration = getInterface(Configuration::class)!!
     val resources = getInterface(Resources::class)!!
-    return cache
-        .computeIfAbsent(configuration) {
-            WeakHashMap<Resources, EnvironmentCache>()
-        }
-        .computeIfAbsent(resources) {
-            EnvironmentCache()
-        }
-        .obtain(configuration, resources, clazz, key, factory)
+    // The lock is only held to find the cache for this environment, so there's little
+    // contention even when many objects are being created.
+    val environmentCache = synchronized(cache) {
+        cache
+            .getOrPut(configuration) { WeakHashMap<Resources, EnvironmentCache>() }
+            .getOrPut(resources) { EnvironmentCache() }
+    }
+    return clazz.cast(
+        environmentCache.obtain(
+            configuration, resources, CacheKey(clazz, key), expiration, refreshAhead, factory
+        )
+    )
 }
 
 private val cache = WeakHashMap<Configuration, WeakHashMap<Resources, EnvironmentCache>>()
 
+// Runs background refreshes, which aren't tied to any caller.
+private val refreshScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+// The time source for expiration, replaced in tests.
+internal var environmentCacheTimeSource: TimeSource.WithComparableMarks = TimeSource.Monotonic
+
+private data class CacheKey(val clazz: KClass<*>, val key: Any)
+
+private class Entry {
+    val value = CompletableDeferred<Any>()
+
+    // Both are set before value is completed and are null if the entry never expires.
+    @Volatile
+    var refreshAt: ComparableTimeMark? = null
+    @Volatile
+    var expiresAt: ComparableTimeMark? = null
+
+    val refreshStarted = AtomicBoolean(false)
+}
+
 private class EnvironmentCache {
-    val map = mutableMapOf<KClass<out Any>, MutableMap<Any, Any>>()
+    val entries = ConcurrentHashMap<CacheKey, Entry>()
 
-    suspend fun<ResourceT : Any> obtain(
+    suspend fun obtain(
         configuration: Configuration,
         resources: Resources,
-        clazz: KClass<ResourceT>,
-        key: Any,
-        factory: suspend (Configuration, Resources) -> ResourceT
-    ): ResourceT {
-        synchronized(map) {
-            val submap = map[clazz]
-            if (submap != null) {
-                val cached = submap[key]
-                if (cached != null) {
-                    return clazz.cast(cached)
+        key: CacheKey,
+        expiration: Duration,
+        refreshAhead: Duration,
+        factory: suspend (Configuration, Resources) -> Any
+    ): Any {
+        while (true) {
+            val entry = entries[key]
+            if (entry == null) {
+                val newEntry = Entry()
+                if (entries.putIfAbsent(key, newEntry) != null) {
+                    continue
+                }
+                return create(newEntry, key, expiration, refreshAhead) {
+                    factory(configuration, resources)
+                }
+            }
+            if (!entry.value.isCompleted) {
+                try {
+                    return entry.value.await()
+                } catch (e: CancellationException) {
+                    // Either this caller or the one creating the object was cancelled, in
+                    // the latter case try again.
+                    currentCoroutineContext().ensureActive()
+                    continue
+                }
+            }
+            val now = environmentCacheTimeSource.markNow()
+            val expiresAt = entry.expiresAt
+            if (expiresAt != null && expiresAt <= now) {
+                entries.remove(key, entry)
+                continue
+            }
+            val refreshAt = entry.refreshAt
+            if (refreshAt != null && refreshAt <= now &&
+                entry.refreshStarted.compareAndSet(false, true)) {
+                refreshScope.launch {
+                    val newEntry = Entry()
+                    try {
+                        create(newEntry, key, expiration, refreshAhead) {
+                            factory(configuration, resources)
+                        }
+                        entries.replace(key, entry, newEntry)
+                    } catch (e: Throwable) {
+                        // Keep using the current object, the next call tries again.
+                        Logger.w(TAG, e) { "Error refreshing ${key.clazz.simpleName} ${key.key}" }
+                        entry.refreshStarted.set(false)
+                    }
                 }
             }
+            return entry.value.await()
+        }
+    }
+
+    private suspend fun create(
+        entry: Entry,
+        key: CacheKey,
+        expiration: Duration,
+        refreshAhead: Duration,
+        block: suspend () -> Any
+    ): Any {
+        val resource = try {
+            block()
+        } catch (e: Throwable) {
+            // Remove the entry first so that the next caller tries again.
+            entries.remove(key, entry)
+            entry.value.completeExceptionally(e)
+            throw e
         }
-        val resource = factory(configuration, resources)
-        synchronized(map) {
-            (map.computeIfAbsent(clazz) { mutableMapOf() })[key] = resource
+        if (expiration.isFinite()) {
+            val now = environmentCacheTimeSource.markNow()
+            entry.expiresAt = now + expiration
+            if (refreshAhead.isPositive()) {
+                entry.refreshAt = now + (expiration - refreshAhead)
+            }
         }
+        entry.value.complete(resource)
         return resource
     }
-}
\ No newline at end of file
+}
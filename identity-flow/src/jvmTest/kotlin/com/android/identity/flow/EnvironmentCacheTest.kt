@@ -0,0 +1,133 @@
+package com.android.identity.flow
+
+import com.android.identity.flow.server.Configuration
+import com.android.identity.flow.server.FlowEnvironment
+import com.android.identity.flow.server.Resources
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlinx.io.bytestring.ByteString
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.reflect.KClass
+import kotlin.reflect.cast
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.TestTimeSource
+import kotlin.time.TimeSource
+
+class EnvironmentCacheTest {
+    private data class Resource(val generation: Int)
+
+    private val timeSource = TestTimeSource()
+
+    private val environment = object : FlowEnvironment {
+        val configuration = object : Configuration {
+            override fun getValue(key: String): String? = null
+        }
+        val resources = object : Resources {
+            override fun getRawResource(name: String): ByteString? = null
+            override fun getStringResource(name: String): String? = null
+        }
+
+        override fun <T : Any> getInterface(clazz: KClass<T>): T? = when (clazz) {
+            Configuration::class -> clazz.cast(configuration)
+            Resources::class -> clazz.cast(resources)
+            else -> null
+        }
+    }
+
+    @BeforeTest
+    fun setUp() {
+        environmentCacheTimeSource = timeSource
+    }
+
+    @AfterTest
+    fun tearDown() {
+        environmentCacheTimeSource = TimeSource.Monotonic
+    }
+
+    @Test
+    fun createdOnceUnderConcurrency() = runBlocking {
+        val created = AtomicInteger()
+        val results = (1..20).map {
+            async(Dispatchers.Default) {
+                environment.cache(Resource::class) { _, _ ->
+                    delay(100)
+                    Resource(created.incrementAndGet())
+                }
+            }
+        }.awaitAll()
+        assertEquals(1, created.get())
+        assertEquals(setOf(Resource(1)), results.toSet())
+    }
+
+    @Test
+    fun failureIsRetried() = runBlocking {
+        assertFailsWith<IllegalStateException> {
+            environment.cache(Resource::class, "failure") { _, _ ->
+                throw IllegalStateException()
+            }
+        }
+        assertEquals(
+            Resource(1),
+            environment.cache(Resource::class, "failure") { _, _ -> Resource(1) }
+        )
+    }
+
+    @Test
+    fun expiration() = runBlocking {
+        var generation = 0
+        val factory: suspend (Configuration, Resources) -> Resource = { _, _ ->
+            Resource(++generation)
+        }
+        suspend fun get() = environment.cache(
+            Resource::class,
+            "expiration",
+            expiration = 10.minutes,
+            factory = factory
+        )
+        assertEquals(Resource(1), get())
+        timeSource += 9.minutes
+        assertEquals(Resource(1), get())
+        timeSource += 1.minutes
+        assertEquals(Resource(2), get())
+    }
+
+    @Test
+    fun refreshAhead() = runBlocking {
+        var generation = 0
+        val refreshed = CompletableDeferred<Unit>()
+        val factory: suspend (Configuration, Resources) -> Resource = { _, _ ->
+            if (generation == 1) {
+                refreshed.complete(Unit)
+            }
+            Resource(++generation)
+        }
+        suspend fun get() = environment.cache(
+            Resource::class,
+            "refreshAhead",
+            expiration = 10.minutes,
+            refreshAhead = 2.minutes,
+            factory = factory
+        )
+        assertEquals(Resource(1), get())
+        timeSource += 8.minutes
+        // Starts a refresh in the background and returns the current object.
+        assertEquals(Resource(1), get())
+        refreshed.await()
+        withTimeout(5000) {
+            while (get() != Resource(2)) {
+                delay(10)
+            }
+        }
+        assertEquals(2, generation)
+    }
+}
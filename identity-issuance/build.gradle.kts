@@ -35,4 +35,5 @@ dependencies {
     implementation(libs.ktor.client.core)
 
     testImplementation(libs.junit)
+    testImplementation(libs.ktor.client.mock)
 }
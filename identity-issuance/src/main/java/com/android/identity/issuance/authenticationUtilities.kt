@@ -13,6 +13,10 @@ import com.android.identity.securearea.KeyAttestation
 import com.android.identity.util.isCloudKeyAttestation
 import com.android.identity.util.validateAndroidKeyAttestation
 import com.android.identity.util.validateCloudKeyAttestation
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.io.bytestring.ByteString
 
 suspend fun validateDeviceAssertionBindingKeys(
@@ -32,34 +36,40 @@ suspend fun validateDeviceAssertionBindingKeys(
     val assertion = deviceAssertion.assertion as AssertionBindingKeys
     check(nonce == null || nonce == assertion.nonce)
 
-    val keyList = keyAttestations.map { attestation ->
-        val certChain = attestation.certChain
-        if (certChain == null) {
-            if (deviceAttestation !is DeviceAttestationIos) {
-                throw IllegalArgumentException("key attestations are only optional for iOS")
+    // Attestations are independent of each other so validate them in parallel, this matters
+    // when many credentials are requested at once.
+    val keyList = coroutineScope {
+        keyAttestations.map { attestation ->
+            async(Dispatchers.Default) {
+                val certChain = attestation.certChain
+                if (certChain == null) {
+                    if (deviceAttestation !is DeviceAttestationIos) {
+                        throw IllegalArgumentException("key attestations are only optional for iOS")
+                    }
+                } else {
+                    // TODO: check that what is claimed in the assertion matches what we see in key
+                    // attestations
+                    check(attestation.publicKey == certChain.certificates.first().ecPublicKey)
+                    if (isCloudKeyAttestation(certChain)) {
+                        val trustedRootKeys = getCloudSecureAreaTrustedRootKeys(env)
+                        validateCloudKeyAttestation(
+                            attestation.certChain!!,
+                            assertion.nonce,
+                            trustedRootKeys.trustedKeys
+                        )
+                    } else {
+                        validateAndroidKeyAttestation(
+                            certChain,
+                            assertion.nonce,
+                            settings.androidRequireGmsAttestation,
+                            settings.androidRequireVerifiedBootGreen,
+                            settings.androidRequireAppSignatureCertificateDigests
+                        )
+                    }
+                }
+                attestation.publicKey
             }
-        } else {
-            // TODO: check that what is claimed in the assertion matches what we see in key
-            // attestations
-            check(attestation.publicKey == certChain.certificates.first().ecPublicKey)
-            if (isCloudKeyAttestation(certChain)) {
-                val trustedRootKeys = getCloudSecureAreaTrustedRootKeys(env)
-                validateCloudKeyAttestation(
-                    attestation.certChain!!,
-                    assertion.nonce,
-                    trustedRootKeys.trustedKeys
-                )
-            } else {
-                validateAndroidKeyAttestation(
-                    certChain,
-                    assertion.nonce,
-                    settings.androidRequireGmsAttestation,
-                    settings.androidRequireVerifiedBootGreen,
-                    settings.androidRequireAppSignatureCertificateDigests
-                )
-            }
-        }
-        attestation.publicKey
+        }.awaitAll()
     }
 
     if (keyList != assertion.publicKeys) {
@@ -0,0 +1,129 @@
+package com.android.identity.issuance.common
+
+import com.android.identity.storage.KeyExistsStorageException
+import com.android.identity.storage.StorageTable
+import com.android.identity.util.toBase64Url
+import kotlinx.datetime.Clock
+import kotlinx.io.bytestring.ByteString
+import kotlin.random.Random
+
+/**
+ * Credentials issued for a document which the wallet hasn't picked up yet.
+ *
+ * Each credential is stored as a separate row in [table], in a partition for the document, so
+ * that the document record stays small and doesn't have to be rewritten when credentials are
+ * added or picked up. Rows are read in pages of [PAGE_SIZE] so a large batch of credentials
+ * isn't loaded with a single storage call.
+ *
+ * Storage enumerates keys in lexicographic order, so keys generated by [add] start with a
+ * fixed-width, increasing timestamp to keep credentials in the order they were added.
+ *
+ * @param table the table for credentials, must support partitions.
+ * @param clientId the id of the client the document belongs to.
+ * @param documentId the id of the document.
+ */
+internal class PendingCredentials(
+    private val table: StorageTable,
+    clientId: String,
+    documentId: String
+) {
+    // Document ids are only unique per client.
+    private val partitionId = "$clientId#$documentId"
+
+    /**
+     * Adds a credential.
+     *
+     * @param data the encoded credential.
+     * @param key the key for the credential or `null` to generate one which sorts after the keys
+     *   generated before it.
+     * @return `false` if there already is a credential with [key], `true` otherwise.
+     */
+    suspend fun add(data: ByteString, key: String? = null): Boolean {
+        try {
+            table.insert(key = key ?: generateKey(), data = data, partitionId = partitionId)
+        } catch (e: KeyExistsStorageException) {
+            return false
+        }
+        return true
+    }
+
+    /** Checks whether there is a credential with the given key. */
+    suspend fun contains(key: String): Boolean =
+        table.get(key = key, partitionId = partitionId) != null
+
+    /** Checks whether there are no credentials. */
+    suspend fun isEmpty(): Boolean = table.enumerate(partitionId = partitionId, limit = 1).isEmpty()
+
+    /** Counts the credentials, only keys are read for this. */
+    suspend fun count(): Int {
+        var count = 0
+        forEachPage { keys -> count += keys.size }
+        return count
+    }
+
+    /**
+     * Removes all credentials and returns them.
+     *
+     * @param decode decodes a credential.
+     * @return the decoded credentials, ordered by key, which for generated keys is the order in
+     *   which they were added.
+     */
+    suspend fun <T> takeAll(decode: (ByteString) -> T): List<T> {
+        val credentials = mutableListOf<T>()
+        forEachPage { keys ->
+            for (key in keys) {
+                val data = table.get(key = key, partitionId = partitionId) ?: continue
+                credentials.add(decode(data))
+                table.delete(key = key, partitionId = partitionId)
+            }
+        }
+        return credentials
+    }
+
+    /** Removes all credentials. */
+    suspend fun deleteAll() {
+        forEachPage { keys ->
+            for (key in keys) {
+                table.delete(key = key, partitionId = partitionId)
+            }
+        }
+    }
+
+    private suspend fun forEachPage(block: suspend (List<String>) -> Unit) {
+        var afterKey: String? = null
+        while (true) {
+            val keys = table.enumerate(
+                partitionId = partitionId,
+                afterKey = afterKey,
+                limit = PAGE_SIZE
+            )
+            if (keys.isEmpty()) {
+                return
+            }
+            block(keys)
+            if (keys.size < PAGE_SIZE) {
+                return
+            }
+            afterKey = keys.last()
+        }
+    }
+
+    companion object {
+        /** The number of rows read from storage at a time. */
+        const val PAGE_SIZE = 20
+
+        private var lastTimestamp = 0L
+
+        // A timestamp in microseconds, which never goes backwards in this process, followed by a
+        // random suffix so keys generated by different servers at the same time don't collide.
+        private fun generateKey(): String {
+            val now = Clock.System.now()
+            val micros = now.epochSeconds * 1_000_000 + now.nanosecondsOfSecond / 1_000
+            val timestamp = synchronized(this) {
+                lastTimestamp = maxOf(micros, lastTimestamp + 1)
+                lastTimestamp
+            }
+            return timestamp.toString(16).padStart(16, '0') + Random.nextBytes(6).toBase64Url()
+        }
+    }
+}
@@ -13,7 +13,10 @@ data class FunkeIssuerDocument(
     var access: FunkeAccess? = null,
     var documentConfiguration: DocumentConfiguration? = null,
     var secureAreaIdentifier: String? = null,
-    val credentials: MutableList<CredentialData> = mutableListOf()
+    // Issued credentials are stored separately, see FunkeIssuingAuthorityState.credentialTableSpec.
+    // This is only set in records written before that and is moved out when such a record is
+    // loaded.
+    var credentials: MutableList<CredentialData>? = null
 ) {
     companion object
 }
@@ -34,13 +34,14 @@ import com.android.identity.issuance.RegistrationResponse
 import com.android.identity.issuance.SdJwtVcDocumentConfiguration
 import com.android.identity.securearea.config.SecureAreaConfigurationAndroidKeystore
 import com.android.identity.securearea.config.SecureAreaConfigurationCloud
-import com.android.identity.issuance.WalletApplicationCapabilities
 import com.android.identity.issuance.common.AbstractIssuingAuthorityState
+import com.android.identity.issuance.common.PendingCredentials
 import com.android.identity.flow.cache
 import com.android.identity.flow.server.getTable
 import com.android.identity.issuance.fromCbor
+import com.android.identity.issuance.toCbor
 import com.android.identity.issuance.wallet.ApplicationSupportState
-import com.android.identity.issuance.wallet.AuthenticationState
+import com.android.identity.issuance.wallet.loadWalletApplicationCapabilities
 import com.android.identity.mdoc.mso.MobileSecurityObjectParser
 import com.android.identity.mdoc.mso.StaticAuthDataParser
 import com.android.identity.sdjwt.SdJwtVerifiableCredential
@@ -51,20 +52,29 @@ import com.android.identity.util.Logger
 import com.android.identity.util.fromBase64Url
 import io.ktor.client.HttpClient
 import io.ktor.client.request.get
-import io.ktor.client.request.headers
-import io.ktor.client.request.post
-import io.ktor.client.request.setBody
+import io.ktor.client.statement.HttpResponse
+import io.ktor.client.statement.bodyAsChannel
 import io.ktor.client.statement.readBytes
 import io.ktor.http.HttpStatusCode
 import io.ktor.http.contentType
+import io.ktor.utils.io.jvm.javaio.toInputStream
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import kotlinx.datetime.Clock
 import kotlinx.datetime.Instant
 import kotlinx.io.bytestring.ByteString
+import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.JsonArray
 import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.decodeFromStream
 import kotlinx.serialization.json.jsonPrimitive
 import kotlin.time.Duration.Companion.seconds
 
@@ -90,12 +100,21 @@ class FunkeIssuingAuthorityState(
     companion object {
         private const val TAG = "FunkeIssuingAuthorityState"
 
+        // The maximum number of credential requests sent to the issuer at the same time.
+        internal const val MAX_CONCURRENT_CREDENTIAL_REQUESTS = 4
+
         val documentTableSpec = StorageTableSpec(
             name = "Openid4VciIssuerDocument",
             supportExpiration = false,
             supportPartitions = true
         )
 
+        val credentialTableSpec = StorageTableSpec(
+            name = "Openid4VciIssuerCredential",
+            supportExpiration = false,
+            supportPartitions = true
+        )
+
         suspend fun getConfiguration(
             env: FlowEnvironment,
             issuerUrl: String,
@@ -127,14 +146,12 @@ class FunkeIssuingAuthorityState(
                     logo = resources.getRawResource(logoPath)!!.toByteArray()
                 }
 
-                val docType = documentTypeRepository.documentTypes.firstOrNull { documentType ->
-                    return@firstOrNull when (config.format) {
-                        is Openid4VciFormatMdoc ->
-                            documentType.mdocDocumentType?.docType == config.format.docType
-                        is Openid4VciFormatSdJwt ->
-                            documentType.vcDocumentType?.type == config.format.vct
-                        null -> false
-                    }
+                val docType = when (config.format) {
+                    is Openid4VciFormatMdoc ->
+                        documentTypeRepository.getDocumentTypeForMdoc(config.format.docType)
+                    is Openid4VciFormatSdJwt ->
+                        documentTypeRepository.getDocumentTypeForVc(config.format.vct)
+                    null -> null
                 }
 
                 val documentType = docType?.displayName ?: "Generic EAA"
@@ -193,7 +210,7 @@ class FunkeIssuingAuthorityState(
             addDocumentType(EUCertificateOfResidence.getDocumentType())
             addDocumentType(UtopiaNaturalization.getDocumentType())
             addDocumentType(UtopiaMovieTicket.getDocumentType())
-        }
+        }.freeze()
     }
 
     @FlowMethod
@@ -251,16 +268,13 @@ class FunkeIssuingAuthorityState(
             now,
             issuerDocument.state,
             0,
-            issuerDocument.credentials.size
+            pendingCredentials(env, documentId).count()
         )
     }
 
     @FlowMethod
     suspend fun proof(env: FlowEnvironment, documentId: String): FunkeProofingState {
-        val storage = env.getTable(AuthenticationState.walletAppCapabilitiesTableSpec)
-        val applicationCapabilities = storage.get(clientId)?.let {
-            WalletApplicationCapabilities.fromCbor(it.toByteArray())
-        } ?: throw IllegalStateException("WalletApplicationCapabilities not found")
+        val applicationCapabilities = loadWalletApplicationCapabilities(env, clientId)
         return FunkeProofingState(
             clientId = clientId,
             credentialConfigurationId = credentialConfigurationId,
@@ -304,7 +318,7 @@ class FunkeIssuingAuthorityState(
                 metadata.credentialConfigurations[credentialConfigurationId]!!
             // For keyless credentials, just obtain them right away
             if (credentialConfiguration.proofType == Openid4VciNoProof &&
-                issuerDocument.credentials.isEmpty()) {
+                pendingCredentials(env, documentId).isEmpty()) {
                 obtainCredentialsKeyless(env, documentId, issuerDocument)
             }
         }
@@ -386,52 +400,82 @@ class FunkeIssuingAuthorityState(
         }
 
         val document = loadIssuerDocument(env, state.documentId)
+        val pendingCredentials = pendingCredentials(env, state.documentId)
+        val accessLock = Mutex()
 
-        for ((request, publicKeys) in credentialTasks) {
-            // Send the request
-            val credentials = obtainCredentials(env, metadata, request, state.documentId, document)
-
+        suspend fun obtainAndStoreCredentials(task: Pair<JsonObject, List<EcPublicKey>>) {
+            val (request, publicKeys) = task
+            val credentials = obtainCredentials(
+                env, metadata, request, state.documentId, document, accessLock)
             check(credentials.size == publicKeys.size)
-            document.credentials.addAll(credentials.zip(publicKeys).map {
-                val credential = it.first.jsonPrimitive.content
-                val publicKey = it.second
-                when (credentialConfiguration.format) {
-                    is Openid4VciFormatSdJwt -> {
-                        val sdJwt = SdJwtVerifiableCredential.fromString(credential)
-                        val jwtBody = JwtBody.fromString(sdJwt.body)
-                        CredentialData(
+            // Parsing mdoc credentials is CPU-bound, so do it in parallel.
+            val credentialDataList = coroutineScope {
+                credentials.zip(publicKeys).map { (credential, publicKey) ->
+                    async(Dispatchers.Default) {
+                        parseCredential(
+                            credential.jsonPrimitive.content,
                             publicKey,
-                            jwtBody.timeValidityBegin ?: jwtBody.timeSigned ?: Clock.System.now(),
-                            jwtBody.timeValidityEnd ?: Instant.DISTANT_FUTURE,
-                            CredentialFormat.SD_JWT_VC,
-                            credential.toByteArray()
-                        )
-                    }
-
-                    is Openid4VciFormatMdoc -> {
-                        val credentialBytes = credential.fromBase64Url()
-                        val credentialData = StaticAuthDataParser(credentialBytes).parse()
-                        val issuerAuthCoseSign1 = Cbor.decode(credentialData.issuerAuth).asCoseSign1
-                        val encodedMsoBytes = Cbor.decode(issuerAuthCoseSign1.payload!!)
-                        val encodedMso = Cbor.encode(encodedMsoBytes.asTaggedEncodedCbor)
-                        val mso = MobileSecurityObjectParser(encodedMso).parse()
-                        CredentialData(
-                            publicKey,
-                            mso.validFrom,
-                            mso.validUntil,
-                            CredentialFormat.MDOC_MSO,
-                            credentialBytes
+                            credentialConfiguration.format
                         )
                     }
+                }.awaitAll()
+            }
+            for (credentialData in credentialDataList) {
+                pendingCredentials.add(ByteString(credentialData.toCbor()))
+            }
+        }
 
-                    null -> throw IllegalStateException("Unexpected credential format")
-                }
-            })
+        // Without a DPoP nonce, send the first request on its own to get one which the other
+        // requests can then use.
+        FunkeUtil.forEachConcurrently(
+            tasks = credentialTasks,
+            maxConcurrent = MAX_CONCURRENT_CREDENTIAL_REQUESTS,
+            firstAlone = document.access!!.dpopNonce == null
+        ) { task ->
+            obtainAndStoreCredentials(task)
         }
 
         updateIssuerDocument(env, state.documentId, document, true)
     }
 
+    private fun parseCredential(
+        credential: String,
+        publicKey: EcPublicKey,
+        format: Openid4VciFormat?
+    ): CredentialData {
+        return when (format) {
+            is Openid4VciFormatSdJwt -> {
+                val sdJwt = SdJwtVerifiableCredential.fromString(credential)
+                val jwtBody = JwtBody.fromString(sdJwt.body)
+                CredentialData(
+                    publicKey,
+                    jwtBody.timeValidityBegin ?: jwtBody.timeSigned ?: Clock.System.now(),
+                    jwtBody.timeValidityEnd ?: Instant.DISTANT_FUTURE,
+                    CredentialFormat.SD_JWT_VC,
+                    credential.toByteArray()
+                )
+            }
+
+            is Openid4VciFormatMdoc -> {
+                val credentialBytes = credential.fromBase64Url()
+                val credentialData = StaticAuthDataParser(credentialBytes).parse()
+                val issuerAuthCoseSign1 = Cbor.decode(credentialData.issuerAuth).asCoseSign1
+                val encodedMsoBytes = Cbor.decode(issuerAuthCoseSign1.payload!!)
+                val encodedMso = Cbor.encode(encodedMsoBytes.asTaggedEncodedCbor)
+                val mso = MobileSecurityObjectParser(encodedMso).parse()
+                CredentialData(
+                    publicKey,
+                    mso.validFrom,
+                    mso.validUntil,
+                    CredentialFormat.MDOC_MSO,
+                    credentialBytes
+                )
+            }
+
+            null -> throw IllegalStateException("Unexpected credential format")
+        }
+    }
+
     private suspend fun obtainCredentialsKeyless(
         env: FlowEnvironment,
         documentId: String,
@@ -453,68 +497,70 @@ class FunkeIssuingAuthorityState(
         val credential = credentials[0].jsonPrimitive.content
         val sdJwt = SdJwtVerifiableCredential.fromString(credential)
         val jwtBody = JwtBody.fromString(sdJwt.body)
-        issuerDocument.credentials.add(
-            CredentialData(
-                null,
-                jwtBody.timeValidityBegin ?: jwtBody.timeSigned ?: Clock.System.now(),
-                jwtBody.timeValidityEnd ?: Instant.DISTANT_FUTURE,
-                CredentialFormat.SD_JWT_VC,
-                credential.toByteArray()
-            )
+        val credentialData = CredentialData(
+            null,
+            jwtBody.timeValidityBegin ?: jwtBody.timeSigned ?: Clock.System.now(),
+            jwtBody.timeValidityEnd ?: Instant.DISTANT_FUTURE,
+            CredentialFormat.SD_JWT_VC,
+            credential.toByteArray()
         )
+        pendingCredentials(env, documentId).add(ByteString(credentialData.toCbor()))
     }
 
+    /**
+     * Sends a credential request to the issuer.
+     *
+     * This may be called concurrently for the same document, [accessLock] must then be shared
+     * between the calls to guard the DPoP nonce in [document] and updates to [document].
+     */
     private suspend fun obtainCredentials(
         env: FlowEnvironment,
         metadata: Openid4VciIssuerMetadata,
         request: JsonObject,
         documentId: String,
-        document: FunkeIssuerDocument
+        document: FunkeIssuerDocument,
+        accessLock: Mutex = Mutex()
     ): JsonArray {
-        val access = document.access!!
-        val dpop = FunkeUtil.generateDPoP(
+        Logger.e(TAG,"Credential request: $request")
+
+        val credentialResponse = FunkeUtil.postCredentialRequest(
             env,
             clientId,
             metadata.credentialEndpoint,
-            access.dpopNonce,
-            access.accessToken
+            document.access!!,
+            accessLock,
+            request.toString()
         )
-        Logger.e(TAG,"Credential request: $request")
 
-        val httpClient = env.getInterface(HttpClient::class)!!
-        val credentialResponse = httpClient.post(metadata.credentialEndpoint) {
-            headers {
-                append("Authorization", "DPoP ${access.accessToken}")
-                append("DPoP", dpop)
-                append("Content-Type", "application/json")
+        if (credentialResponse.status == HttpStatusCode.OK) {
+            Logger.i(TAG, "Got successful response for credential request")
+            val response = parseResponse(credentialResponse)
+            return if (response.contains("credential")) {
+                JsonArray(listOf(response["credential"]!!))
+            } else {
+                response["credentials"] as JsonArray
             }
-            setBody(request.toString())
-        }
-        access.cNonce = null  // used up
-
-        if (credentialResponse.headers.contains("DPoP-Nonce")) {
-            access.dpopNonce = credentialResponse.headers["DPoP-Nonce"]!!
         }
 
-        if (credentialResponse.status != HttpStatusCode.OK) {
-            val errResponseText = String(credentialResponse.readBytes())
-            Logger.e(TAG,"Credential request error: ${credentialResponse.status} $errResponseText")
+        val errResponseText = String(credentialResponse.readBytes())
+        Logger.e(TAG,"Credential request error: ${credentialResponse.status} $errResponseText")
 
-            // Currently in Funke case this gets document in permanent bad state, notification
-            // is not needed as an exception will generate notification on the client side.
+        // Currently in Funke case this gets document in permanent bad state, notification
+        // is not needed as an exception will generate notification on the client side.
+        accessLock.withLock {
             document.state = DocumentCondition.DELETION_REQUESTED
             updateIssuerDocument(env, documentId, document, false)
-
-            throw IssuingAuthorityException("Error getting a credential issued")
         }
-        Logger.i(TAG, "Got successful response for credential request")
-        val responseText = String(credentialResponse.readBytes())
 
-        val response = Json.parseToJsonElement(responseText) as JsonObject
-        return if (response.contains("credential")) {
-            JsonArray(listOf(response["credential"]!!))
-        } else {
-            response["credentials"] as JsonArray
+        throw IssuingAuthorityException("Error getting a credential issued")
+    }
+
+    // Batch responses can be large, so parse them straight from the response body.
+    @OptIn(ExperimentalSerializationApi::class)
+    private suspend fun parseResponse(response: HttpResponse): JsonObject {
+        val body = response.bodyAsChannel()
+        return withContext(Dispatchers.IO) {
+            Json.decodeFromStream(JsonObject.serializer(), body.toInputStream())
         }
     }
 
@@ -554,38 +600,51 @@ class FunkeIssuingAuthorityState(
         // NB: applicationSupport will only be non-null in the environment when running this code
         // locally in the Android Wallet app.
         val applicationSupport = env.getInterface(ApplicationSupport::class)
-        return state.credentialRequestSets.map { credentialRequestSet ->
-            val jwtKeyAttestation = if (applicationSupport != null) {
-                applicationSupport.createJwtKeyAttestation(
-                    keyAttestations = credentialRequestSet.keyAttestations,
-                    keysAssertion = credentialRequestSet.keysAssertion
-                )
-            } else {
-                ApplicationSupportState(clientId).createJwtKeyAttestation(
-                    env = env,
-                    keyAttestations = credentialRequestSet.keyAttestations,
-                    keysAssertion = credentialRequestSet.keysAssertion
-                )
-            }
-            val request = buildJsonObject {
-                put("proof", buildJsonObject {
-                    put("attestation", JsonPrimitive(jwtKeyAttestation))
-                    put("proof_type", JsonPrimitive("attestation"))
-                })
-                putFormat(configuration.format!!)
-            }
-            Pair(request, credentialRequestSet.keyAttestations.map { it.publicKey })
+        return coroutineScope {
+            state.credentialRequestSets.map { credentialRequestSet ->
+                async {
+                    createRequestUsingKeyAttestation(
+                        env, applicationSupport, credentialRequestSet, configuration)
+                }
+            }.awaitAll()
+        }
+    }
+
+    private suspend fun createRequestUsingKeyAttestation(
+        env: FlowEnvironment,
+        applicationSupport: ApplicationSupport?,
+        credentialRequestSet: CredentialRequestSet,
+        configuration: Openid4VciCredentialConfiguration
+    ): Pair<JsonObject, List<EcPublicKey>> {
+        val jwtKeyAttestation = if (applicationSupport != null) {
+            applicationSupport.createJwtKeyAttestation(
+                keyAttestations = credentialRequestSet.keyAttestations,
+                keysAssertion = credentialRequestSet.keysAssertion
+            )
+        } else {
+            ApplicationSupportState(clientId).createJwtKeyAttestation(
+                env = env,
+                keyAttestations = credentialRequestSet.keyAttestations,
+                keysAssertion = credentialRequestSet.keysAssertion
+            )
+        }
+        val request = buildJsonObject {
+            put("proof", buildJsonObject {
+                put("attestation", JsonPrimitive(jwtKeyAttestation))
+                put("proof_type", JsonPrimitive("attestation"))
+            })
+            putFormat(configuration.format!!)
         }
+        return Pair(request, credentialRequestSet.keyAttestations.map { it.publicKey })
     }
 
     @FlowMethod
     suspend fun getCredentials(env: FlowEnvironment, documentId: String): List<CredentialData> {
-        val document = loadIssuerDocument(env, documentId)
-        val credentials = mutableListOf<CredentialData>()
-        credentials.addAll(document.credentials)
-        document.credentials.clear()
-        updateIssuerDocument(env, documentId, document, false)
-        return credentials
+        // Loading the document moves credentials out of records written by older versions.
+        loadIssuerDocument(env, documentId)
+        return pendingCredentials(env, documentId).takeAll { data ->
+            CredentialData.fromCbor(data.toByteArray())
+        }
     }
 
     @FlowMethod
@@ -613,7 +672,27 @@ class FunkeIssuingAuthorityState(
         val storage = env.getTable(documentTableSpec)
         val encodedCbor = storage.get(partitionId = clientId, key = documentId)
             ?: throw Error("No such document")
-        return FunkeIssuerDocument.fromCbor(encodedCbor.toByteArray())
+        val document = FunkeIssuerDocument.fromCbor(encodedCbor.toByteArray())
+        val legacyCredentials = document.credentials
+        if (legacyCredentials != null) {
+            val pendingCredentials = pendingCredentials(env, documentId)
+            for (credentialData in legacyCredentials) {
+                pendingCredentials.add(ByteString(credentialData.toCbor()))
+            }
+            document.credentials = null
+            updateIssuerDocument(env, documentId, document, false)
+        }
+        return document
+    }
+
+    private suspend fun pendingCredentials(
+        env: FlowEnvironment,
+        documentId: String
+    ): PendingCredentials {
+        if (clientId.isEmpty()) {
+            throw IllegalStateException("Client not authenticated")
+        }
+        return PendingCredentials(env.getTable(credentialTableSpec), clientId, documentId)
     }
 
     private suspend fun createIssuerDocument(env: FlowEnvironment, document: FunkeIssuerDocument): String {
@@ -633,6 +712,7 @@ class FunkeIssuingAuthorityState(
         }
         val storage = env.getTable(documentTableSpec)
         storage.delete(partitionId = clientId, key = documentId)
+        pendingCredentials(env, documentId).deleteAll()
         if (emitNotification) {
             emit(env, IssuingAuthorityNotification(documentId))
         }
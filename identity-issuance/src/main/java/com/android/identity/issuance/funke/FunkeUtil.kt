@@ -14,10 +14,16 @@ import io.ktor.client.HttpClient
 import io.ktor.client.request.headers
 import io.ktor.client.request.post
 import io.ktor.client.request.setBody
+import io.ktor.client.statement.HttpResponse
 import io.ktor.client.statement.readBytes
 import io.ktor.http.HttpStatusCode
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.datetime.Clock
 import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.buildJsonObject
@@ -83,6 +89,84 @@ internal object FunkeUtil {
         return "$message.$signature"
     }
 
+    /**
+     * Sends a credential request to [credentialEndpoint] using the access token in [access].
+     *
+     * This may be called concurrently with the same [access], [accessLock] must then be shared
+     * between the calls as it guards the DPoP nonce in [access]. If the issuer rotated the nonce
+     * while other requests were in flight, the request is sent once more with the new nonce
+     * (RFC 9449 Section 9).
+     *
+     * @return the response from the issuer, which may be an error response.
+     */
+    suspend fun postCredentialRequest(
+        env: FlowEnvironment,
+        clientId: String,
+        credentialEndpoint: String,
+        access: FunkeAccess,
+        accessLock: Mutex,
+        request: String
+    ): HttpResponse {
+        val httpClient = env.getInterface(HttpClient::class)!!
+        var retriedWithNewNonce = false
+        while (true) {
+            val dpopNonce = accessLock.withLock { access.dpopNonce }
+            val dpop = generateDPoP(env, clientId, credentialEndpoint, dpopNonce, access.accessToken)
+            val response = httpClient.post(credentialEndpoint) {
+                headers {
+                    append("Authorization", "DPoP ${access.accessToken}")
+                    append("DPoP", dpop)
+                    append("Content-Type", "application/json")
+                }
+                setBody(request)
+            }
+            val newDpopNonce = response.headers["DPoP-Nonce"]
+            accessLock.withLock {
+                access.cNonce = null  // used up
+                if (newDpopNonce != null) {
+                    access.dpopNonce = newDpopNonce
+                }
+            }
+            if (response.status == HttpStatusCode.OK || retriedWithNewNonce ||
+                newDpopNonce == null || newDpopNonce == dpopNonce) {
+                return response
+            }
+            val authenticateHeader = response.headers["WWW-Authenticate"] ?: ""
+            if (!authenticateHeader.contains("use_dpop_nonce") &&
+                !String(response.readBytes()).contains("use_dpop_nonce")) {
+                return response
+            }
+            Logger.i(TAG, "DPoP nonce was rotated, sending credential request again")
+            retriedWithNewNonce = true
+        }
+    }
+
+    /**
+     * Runs [block] for each of [tasks], at most [maxConcurrent] at a time.
+     *
+     * If [firstAlone] is set, [block] completes for the first task before it is started for the
+     * others, so that they can use the DPoP nonce which the issuer returned for the first one.
+     */
+    suspend fun <T> forEachConcurrently(
+        tasks: List<T>,
+        maxConcurrent: Int,
+        firstAlone: Boolean,
+        block: suspend (T) -> Unit
+    ) {
+        val sequentialCount = if (firstAlone) 1 else 0
+        for (task in tasks.take(sequentialCount)) {
+            block(task)
+        }
+        val semaphore = Semaphore(maxConcurrent)
+        coroutineScope {
+            tasks.drop(sequentialCount).map { task ->
+                async {
+                    semaphore.withPermit { block(task) }
+                }
+            }.awaitAll()
+        }
+    }
+
     suspend fun obtainToken(
         env: FlowEnvironment,
         tokenUrl: String,
@@ -16,6 +16,8 @@ import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.jsonArray
 import kotlinx.serialization.json.jsonObject
 import kotlinx.serialization.json.jsonPrimitive
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.minutes
 
 // from .well-known/openid-credential-issuer
 internal data class Openid4VciIssuerMetadata(
@@ -28,8 +30,17 @@ internal data class Openid4VciIssuerMetadata(
     companion object {
         const val TAG = "Openid4VciIssuerMetadata"
 
+        private val METADATA_EXPIRATION = 1.hours
+        private val METADATA_REFRESH_AHEAD = 5.minutes
+
         suspend fun get(env: FlowEnvironment, issuerUrl: String): Openid4VciIssuerMetadata {
-            return env.cache(Openid4VciIssuerMetadata::class, issuerUrl) { _, _ ->
+            // Issuers may change their metadata, e.g. to rotate keys, so refresh it periodically.
+            return env.cache(
+                Openid4VciIssuerMetadata::class,
+                issuerUrl,
+                expiration = METADATA_EXPIRATION,
+                refreshAhead = METADATA_REFRESH_AHEAD
+            ) { _, _ ->
                 val httpClient = env.getInterface(HttpClient::class)!!
 
                 // Fetch issuer metadata
@@ -1,7 +1,6 @@
 package com.android.identity.issuance.hardcoded
 
 import com.android.identity.cbor.Cbor
-import com.android.identity.cbor.CborArray
 import com.android.identity.cbor.CborMap
 import com.android.identity.cbor.DataItem
 import com.android.identity.cbor.RawCbor
@@ -14,13 +13,13 @@ import com.android.identity.issuance.fromDataItem
 import com.android.identity.issuance.toDataItem
 import com.android.identity.issuance.evidence.fromCbor
 
-// The document as seen from the issuer's perspective
+// The document as seen from the issuer's perspective. Credentials issued for the document are
+// stored separately, see IssuingAuthorityState.credentialTableSpec.
 data class IssuerDocument(
     val registrationResponse: RegistrationResponse,
     var state: DocumentCondition,
     var collectedEvidence: MutableMap<String, EvidenceResponse>,
     var documentConfiguration: DocumentConfiguration?,
-    var simpleCredentialRequests: MutableList<SimpleCredentialRequest>
 ) {
     companion object {
         fun fromDataItem(map: DataItem): IssuerDocument {
@@ -37,13 +36,6 @@ data class IssuerDocument(
                     EvidenceResponse.fromCbor(Cbor.encode(evidenceMap[evidenceId]!!))
             }
 
-            val credentialRequests = mutableListOf<SimpleCredentialRequest>()
-            for (credentialRequestDataItem in map["credentialRequests"].asArray) {
-                credentialRequests.add(
-                    SimpleCredentialRequest.fromCbor(Cbor.encode(credentialRequestDataItem))
-                )
-            }
-
             val documentConfiguration: DocumentConfiguration? =
                 map.getOrNull("documentConfiguration")?.let {
                     DocumentConfiguration.fromDataItem(it)
@@ -54,16 +46,11 @@ data class IssuerDocument(
                 state,
                 collectedEvidence,
                 documentConfiguration,
-                credentialRequests,
             )
         }
     }
 
     fun toDataItem(): DataItem {
-        val credentialRequestsBuilder = CborArray.builder()
-        simpleCredentialRequests.forEach() { cpoRequest ->
-            credentialRequestsBuilder.add(RawCbor(cpoRequest.toCbor()))
-        }
         val ceMapBuilder = CborMap.builder()
         collectedEvidence.forEach() { evidence ->
             ceMapBuilder.put(evidence.key, RawCbor(evidence.value.toCbor()))
@@ -72,7 +59,6 @@ data class IssuerDocument(
             .put("registrationResponse", registrationResponse.toDataItem())
             .put("state", state.ordinal.toLong())
             .put("collectedEvidence", ceMapBuilder.end().build())
-            .put("credentialRequests", credentialRequestsBuilder.end().build())
         if (documentConfiguration != null) {
             mapBuilder.put("documentConfiguration", documentConfiguration!!.toDataItem())
         }
@@ -19,6 +19,7 @@ import com.android.identity.cose.Cose
 import com.android.identity.cose.CoseLabel
 import com.android.identity.cose.CoseNumberLabel
 import com.android.identity.crypto.Algorithm
+import com.android.identity.crypto.Crypto
 import com.android.identity.crypto.X509Cert
 import com.android.identity.crypto.X509CertChain
 import com.android.identity.crypto.EcPrivateKey
@@ -48,9 +49,9 @@ import com.android.identity.issuance.MdocDocumentConfiguration
 import com.android.identity.issuance.RegistrationResponse
 import com.android.identity.issuance.IssuingAuthorityNotification
 import com.android.identity.issuance.SdJwtVcDocumentConfiguration
-import com.android.identity.issuance.WalletApplicationCapabilities
 import com.android.identity.issuance.WalletServerSettings
 import com.android.identity.issuance.common.AbstractIssuingAuthorityState
+import com.android.identity.issuance.common.PendingCredentials
 import com.android.identity.flow.cache
 import com.android.identity.flow.server.getTable
 import com.android.identity.issuance.evidence.DirectAccessDocumentConfiguration
@@ -59,9 +60,8 @@ import com.android.identity.issuance.evidence.EvidenceResponseGermanEidResolved
 import com.android.identity.issuance.evidence.EvidenceResponseIcaoNfcTunnelResult
 import com.android.identity.issuance.evidence.EvidenceResponseIcaoPassiveAuthentication
 import com.android.identity.issuance.evidence.EvidenceResponseQuestionMultipleChoice
-import com.android.identity.issuance.fromCbor
 import com.android.identity.issuance.proofing.defaultCredentialConfiguration
-import com.android.identity.issuance.wallet.AuthenticationState
+import com.android.identity.issuance.wallet.loadWalletApplicationCapabilities
 import com.android.identity.mdoc.mso.MobileSecurityObjectGenerator
 import com.android.identity.mdoc.mso.StaticAuthDataGenerator
 import com.android.identity.mdoc.util.MdocUtil
@@ -72,6 +72,7 @@ import com.android.identity.sdjwt.SdJwtVcGenerator
 import com.android.identity.sdjwt.util.JsonWebKey
 import com.android.identity.storage.StorageTableSpec
 import com.android.identity.util.Logger
+import com.android.identity.util.toBase64Url
 import kotlinx.datetime.Clock
 import kotlinx.datetime.DateTimeUnit
 import kotlinx.datetime.Instant
@@ -168,13 +169,19 @@ class IssuingAuthorityState(
             addDocumentType(GermanPersonalID.getDocumentType())
             addDocumentType(EUPersonalID.getDocumentType())
             addDocumentType(PhotoID.getDocumentType())
-        }
+        }.freeze()
 
         val documentTableSpec = StorageTableSpec(
             name = "HardcodedIssuerDocument",
             supportPartitions = true,
             supportExpiration = false
         )
+
+        val credentialTableSpec = StorageTableSpec(
+            name = "HardcodedIssuerCredential",
+            supportPartitions = true,
+            supportExpiration = false
+        )
     }
 
     @FlowMethod
@@ -184,8 +191,7 @@ class IssuingAuthorityState(
                 RegistrationResponse(false),
                 DocumentCondition.PROOFING_REQUIRED,
                 mutableMapOf(),
-                null,
-                mutableListOf()
+                null
             )
         )
         return RegistrationState(documentId)
@@ -205,8 +211,7 @@ class IssuingAuthorityState(
                 registrationState.response!!,
                 DocumentCondition.PROOFING_REQUIRED,
                 mutableMapOf(),           // collectedEvidence - initially empty
-                null,  // no initial document configuration
-                mutableListOf()           // cpoRequests - initially empty
+                null  // no initial document configuration
             ))
     }
 
@@ -245,7 +250,7 @@ class IssuingAuthorityState(
             now,
             issuerDocument.state,
             0,
-            issuerDocument.simpleCredentialRequests.count()
+            pendingCredentials(env, documentId).count()
         )
     }
 
@@ -285,10 +290,7 @@ class IssuingAuthorityState(
         val issuerDocument = loadIssuerDocument(env, documentId)
         check(issuerDocument.state == DocumentCondition.READY)
 
-        val storage = env.getTable(AuthenticationState.walletAppCapabilitiesTableSpec)
-        val walletApplicationCapabilities = storage.get(clientId)?.let {
-                WalletApplicationCapabilities.fromCbor(it.toByteArray())
-            } ?: throw IllegalStateException("WalletApplicationCapabilities not found")
+        val walletApplicationCapabilities = loadWalletApplicationCapabilities(env, clientId)
 
         val credentialConfiguration = defaultCredentialConfiguration(
             documentId,
@@ -301,10 +303,11 @@ class IssuingAuthorityState(
     @FlowJoin
     suspend fun completeRequestCredentials(env: FlowEnvironment, state: RequestCredentialsState) {
         val issuerDocument = loadIssuerDocument(env, state.documentId)
+        val pendingCredentials = pendingCredentials(env, state.documentId)
         for (request in state.credentialRequests) {
             // Skip if we already have a request for the authentication key
-            if (hasCpoRequestForAuthenticationKey(issuerDocument,
-                    request.secureAreaBoundKeyAttestation.publicKey)) {
+            val key = credentialKey(request.secureAreaBoundKeyAttestation.publicKey)
+            if (pendingCredentials.contains(key)) {
                 continue
             }
             val authenticationKey = request.secureAreaBoundKeyAttestation.publicKey
@@ -319,7 +322,7 @@ class IssuingAuthorityState(
                 CredentialFormat.MDOC_MSO,
                 presentationData,
             )
-            issuerDocument.simpleCredentialRequests.add(simpleCredentialRequest)
+            pendingCredentials.add(ByteString(simpleCredentialRequest.toCbor()), key)
         }
         updateIssuerDocument(env, state.documentId, issuerDocument)
     }
@@ -329,21 +332,19 @@ class IssuingAuthorityState(
         val now = Clock.System.now()
         val validFrom = now
         val validUntil = now + 30.days
-        val issuerDocument = loadIssuerDocument(env, documentId)
-        val availableCPOs = mutableListOf<CredentialData>()
-        for (cpoRequest in issuerDocument.simpleCredentialRequests) {
-            availableCPOs.add(
-                CredentialData(
-                    cpoRequest.authenticationKey,
-                    validFrom,
-                    validUntil,
-                    cpoRequest.format,
-                    cpoRequest.data,
-                )
+        // Loading the document moves credentials out of records written by older versions.
+        loadIssuerDocument(env, documentId)
+        val availableCPOs = pendingCredentials(env, documentId).takeAll { data ->
+            val cpoRequest = SimpleCredentialRequest.fromCbor(data.toByteArray())
+            CredentialData(
+                cpoRequest.authenticationKey,
+                validFrom,
+                validUntil,
+                cpoRequest.format,
+                cpoRequest.data,
             )
         }
-        issuerDocument.simpleCredentialRequests.clear()
-        updateIssuerDocument(env, documentId, issuerDocument)
+        emit(env, IssuingAuthorityNotification(documentId))
         return availableCPOs
     }
 
@@ -743,7 +744,8 @@ class IssuingAuthorityState(
                 MrtdNfcData(icaoPassiveData.dataGroups, icaoPassiveData.securityObject)
             else
                 throw IllegalStateException("Should not happen")
-            val decoded = MrtdNfcDataDecoder().decode(mrtdData)
+            // The PID has no portrait or signature, so only DG1 needs to be decoded.
+            val decoded = MrtdNfcDataDecoder().decodeLazily(mrtdData).mrzData
             val firstName = decoded.firstName
             val lastName = decoded.lastName
             val sex = when (decoded.gender) {
@@ -1209,16 +1211,20 @@ class IssuingAuthorityState(
         return true
     }
 
-    private fun hasCpoRequestForAuthenticationKey(
-        issuerDocument: IssuerDocument,
-        authenticationKey: EcPublicKey
-    ) : Boolean {
-        for (cpoRequest in issuerDocument.simpleCredentialRequests) {
-            if (cpoRequest.authenticationKey.equals(authenticationKey)) {
-                return true
-            }
+    // Credentials are keyed by their authentication key, so there's at most one per key.
+    private fun credentialKey(authenticationKey: EcPublicKey): String {
+        val encodedKey = Cbor.encode(authenticationKey.toCoseKey().toDataItem())
+        return Crypto.digest(Algorithm.SHA256, encodedKey).toBase64Url()
+    }
+
+    private suspend fun pendingCredentials(
+        env: FlowEnvironment,
+        documentId: String
+    ): PendingCredentials {
+        if (clientId.isEmpty()) {
+            throw IllegalStateException("Client not authenticated")
         }
-        return false
+        return PendingCredentials(env.getTable(credentialTableSpec), clientId, documentId)
     }
 
     private suspend fun issuerDocumentExists(env: FlowEnvironment, documentId: String): Boolean {
@@ -1240,7 +1246,23 @@ class IssuingAuthorityState(
             // TODO: replace with (new) UnknownDocumentException
             throw Error("No such document")
         }
-        return IssuerDocument.fromDataItem(Cbor.decode(encodedCbor.toByteArray()))
+        val dataItem = Cbor.decode(encodedCbor.toByteArray())
+        val document = IssuerDocument.fromDataItem(dataItem)
+        // Records written by older versions have credentials inline, move them out.
+        val legacyCredentialRequests = dataItem.getOrNull("credentialRequests")
+        if (legacyCredentialRequests != null) {
+            val pendingCredentials = pendingCredentials(env, documentId)
+            for (credentialRequestDataItem in legacyCredentialRequests.asArray) {
+                val cpoRequest =
+                    SimpleCredentialRequest.fromCbor(Cbor.encode(credentialRequestDataItem))
+                pendingCredentials.add(
+                    ByteString(cpoRequest.toCbor()),
+                    credentialKey(cpoRequest.authenticationKey)
+                )
+            }
+            updateIssuerDocument(env, documentId, document, false)
+        }
+        return document
     }
 
     private suspend fun createIssuerDocument(env: FlowEnvironment, document: IssuerDocument): String {
@@ -1260,6 +1282,7 @@ class IssuingAuthorityState(
         }
         val storage = env.getTable(documentTableSpec)
         storage.delete(partitionId = clientId, key = documentId)
+        pendingCredentials(env, documentId).deleteAll()
         if (emitNotification) {
             emit(env, IssuingAuthorityNotification(documentId))
         }
@@ -5,10 +5,8 @@ import com.android.identity.flow.annotation.FlowMethod
 import com.android.identity.flow.annotation.FlowState
 import com.android.identity.flow.server.FlowEnvironment
 import com.android.identity.issuance.ProofingFlow
-import com.android.identity.issuance.WalletApplicationCapabilities
 import com.android.identity.issuance.WalletServerSettings
 import com.android.identity.flow.cache
-import com.android.identity.flow.server.getTable
 import com.android.identity.issuance.evidence.EvidenceRequest
 import com.android.identity.issuance.evidence.EvidenceResponse
 import com.android.identity.issuance.evidence.EvidenceResponseGermanEid
@@ -16,11 +14,10 @@ import com.android.identity.issuance.evidence.EvidenceResponseGermanEidResolved
 import com.android.identity.issuance.evidence.EvidenceResponseIcaoNfcTunnel
 import com.android.identity.issuance.evidence.EvidenceResponseIcaoNfcTunnelResult
 import com.android.identity.issuance.evidence.EvidenceResponseQuestionString
-import com.android.identity.issuance.fromCbor
 import com.android.identity.issuance.proofing.ProofingGraph
 import com.android.identity.issuance.proofing.defaultGraph
 import com.android.identity.issuance.tunnel.inProcessMrtdNfcTunnelFactory
-import com.android.identity.issuance.wallet.AuthenticationState
+import com.android.identity.issuance.wallet.loadWalletApplicationCapabilities
 import com.android.identity.mrtd.MrtdAccessDataCan
 import io.ktor.client.HttpClient
 import io.ktor.client.request.get
@@ -127,10 +124,7 @@ class ProofingState(
     }
 
     private suspend fun getGraph(env: FlowEnvironment): ProofingGraph {
-        val storage = env.getTable(AuthenticationState.walletAppCapabilitiesTableSpec)
-        val walletApplicationCapabilities = storage.get(clientId)?.let {
-            WalletApplicationCapabilities.fromCbor(it.toByteArray())
-        } ?: throw IllegalStateException("WalletApplicationCapabilities not found")
+        val walletApplicationCapabilities = loadWalletApplicationCapabilities(env, clientId)
 
         val key = GraphKey(issuingAuthorityId, documentId, developerModeEnabled)
         return env.cache(ProofingGraph::class, key) { configuration, resources ->
@@ -9,6 +9,7 @@ import com.android.identity.mrtd.MrtdAccessData
 import com.android.identity.mrtd.MrtdNfc
 import com.android.identity.mrtd.MrtdNfcChipAccess
 import com.android.identity.mrtd.MrtdNfcData
+import com.android.identity.mrtd.MrtdNfcDataDecoder
 import com.android.identity.mrtd.MrtdNfcDataReader
 import kotlinx.datetime.Clock
 import kotlinx.io.bytestring.ByteString
@@ -262,22 +263,44 @@ internal class InProcessMrtdNfcTunnel(
         progressPercent = 0
         authenticating = false
 
-        val data = MrtdNfcDataReader(dataGroups).read(rawService, service) { status ->
-            progressPercent = (status as MrtdNfc.ReadingData).progressPercent
+        // The reader parses the SOD and hashes each data group against it while reading, so
+        // only the SOD signature is left to check. Data that can't be validated then fails as
+        // soon as DG1 is in, before the much larger DG2 is read through the tunnel.
+        var sod: SODFile? = null
+        var verifiedDataGroups = emptySet<Int>()
+        var dg1Checked = false
+        val reader = MrtdNfcDataReader(
+            dataGroups,
+            onSodRead = { sodFile ->
+                MrtdNfcDataDecoder().verifySodSignature(sodFile)
+                sod = sodFile
+            }
+        ) { partialData ->
+            if (!dg1Checked && partialData.dataGroups.containsKey(1)) {
+                dg1Checked = true
+                if (sod == null || 1 !in verifiedDataGroups) {
+                    throw IllegalStateException("DG1 stream did not pass validation")
+                }
+            }
+        }
+        val data = reader.read(rawService, service) { status ->
+            status as MrtdNfc.ReadingData
+            progressPercent = status.progressPercent
+            verifiedDataGroups = status.verifiedDataGroups
         }
 
         if (chipAuthenticationDone || activeAuthenticationDone) {
-            val sod = SODFile(ByteArrayInputStream(data.sod.toByteArray()))
-            val messageDigest = MessageDigest.getInstance(sod.digestAlgorithm)
+            val sodFile = sod ?: throw IllegalStateException("SOD cannot be parsed")
+            val messageDigest = MessageDigest.getInstance(sodFile.digestAlgorithm)
             if (dg14bytes != null) {
                 val digest = messageDigest.digest(dg14bytes.toByteArray())
-                if (!digest.contentEquals(sod.dataGroupHashes[14])) {
+                if (!digest.contentEquals(sodFile.dataGroupHashes[14])) {
                     chipAuthenticationDone = false
                     throw IllegalStateException("DG14 (Chip Authentication) stream cannot be validated")
                 }
             } else if (dg15bytes != null) {
                 val digest = messageDigest.digest(dg15bytes.toByteArray())
-                if (!digest.contentEquals(sod.dataGroupHashes[15])) {
+                if (!digest.contentEquals(sodFile.dataGroupHashes[15])) {
                     activeAuthenticationDone = false
                     throw IllegalStateException("DG15 (Active Authentication) stream cannot be validated")
                 }
@@ -1,9 +1,9 @@
 package com.android.identity.issuance.wallet
 
 import com.android.identity.cbor.annotation.CborSerializable
-import com.android.identity.crypto.Crypto
 import com.android.identity.crypto.EcPrivateKey
 import com.android.identity.crypto.EcPublicKey
+import com.android.identity.crypto.JsonWebSignature
 import com.android.identity.crypto.X509Cert
 import com.android.identity.device.AssertionDPoPKey
 import com.android.identity.device.DeviceAssertion
@@ -22,7 +22,6 @@ import com.android.identity.issuance.validateDeviceAssertionBindingKeys
 import com.android.identity.securearea.KeyAttestation
 import com.android.identity.storage.StorageTableSpec
 import com.android.identity.util.Logger
-import com.android.identity.util.toBase64Url
 import com.android.identity.util.validateAndroidKeyAttestation
 import kotlinx.datetime.Clock
 import kotlinx.io.bytestring.ByteString
@@ -101,8 +100,7 @@ class ApplicationSupportState(
         keyAttestation: KeyAttestation,
         keyAssertion: DeviceAssertion
     ): String {
-        val storage = env.getTable(AuthenticationState.clientTableSpec)
-        val clientRecord = ClientRecord.fromCbor(storage.get(clientId)!!.toByteArray())
+        val clientRecord = loadClientRecord(env, clientId)
 
         clientRecord.deviceAttestation.validateAssertion(keyAssertion)
 
@@ -136,8 +134,7 @@ class ApplicationSupportState(
         keyAttestations: List<KeyAttestation>,
         keysAssertion: DeviceAssertion // holds AssertionBindingKeys
     ): String {
-        val storage = env.getTable(AuthenticationState.clientTableSpec)
-        val clientRecord = ClientRecord.fromCbor(storage.get(clientId)!!.toByteArray())
+        val clientRecord = loadClientRecord(env, clientId)
         val assertion = validateDeviceAssertionBindingKeys(
             env = env,
             deviceAttestation = clientRecord.deviceAttestation,
@@ -169,12 +166,10 @@ class ApplicationSupportState(
         }
         val publicKey = attestationData.certificate.ecPublicKey
         val privateKey = attestationData.privateKey
-        val alg = publicKey.curve.defaultSigningAlgorithm.jwseAlgorithmIdentifier
         val head = buildJsonObject {
             put("typ", JsonPrimitive("keyattestation+jwt"))
-            put("alg", JsonPrimitive(alg))
             put("jwk", publicKey.toJson(null))  // TODO: use x5c instead here?
-        }.toString().toByteArray().toBase64Url()
+        }
 
         val now = Clock.System.now()
         val notBefore = now - 1.seconds
@@ -196,15 +191,11 @@ class ApplicationSupportState(
                     JsonArray(assertion.keyStorage.map { JsonPrimitive(it) })
                 )
             }
-        }.toString().toByteArray().toBase64Url()
+        }
 
-        val message = "$head.$payload"
-        val sig = Crypto.sign(
-            privateKey, privateKey.curve.defaultSigningAlgorithm, message.toByteArray()
+        return JsonWebSignature.signCompact(
+            privateKey, privateKey.curve.defaultSigningAlgorithm, head, payload
         )
-        val signature = sig.toCoseEncoded().toBase64Url()
-
-        return "$message.$signature"
     }
 
     // Not exposed as RPC!
@@ -243,12 +234,10 @@ class ApplicationSupportState(
         }
         val publicKey = attestationData.certificate.ecPublicKey
         val privateKey = attestationData.privateKey
-        val alg = publicKey.curve.defaultSigningAlgorithm.jwseAlgorithmIdentifier
         val head = buildJsonObject {
             put("typ", JsonPrimitive("JWT"))
-            put("alg", JsonPrimitive(alg))
             put("jwk", publicKey.toJson(null))
-        }.toString().toByteArray().toBase64Url()
+        }
 
         val now = Clock.System.now()
         val notBefore = now - 1.seconds
@@ -269,15 +258,11 @@ class ApplicationSupportState(
                 "exp" to JsonPrimitive(expiration.epochSeconds),
                 "iat" to JsonPrimitive(now.epochSeconds)
             )
-        ).toString().toByteArray().toBase64Url()
-
-        val message = "$head.$payload"
-        val sig = Crypto.sign(
-            privateKey, privateKey.curve.defaultSigningAlgorithm, message.toByteArray()
         )
-        val signature = sig.toCoseEncoded().toBase64Url()
 
-        return "$message.$signature"
+        return JsonWebSignature.signCompact(
+            privateKey, privateKey.curve.defaultSigningAlgorithm, head, payload
+        )
     }
 
     internal data class AttestationData(
@@ -8,13 +8,11 @@ import com.android.identity.flow.annotation.FlowMethod
 import com.android.identity.flow.annotation.FlowState
 import com.android.identity.flow.server.Configuration
 import com.android.identity.flow.server.FlowEnvironment
-import com.android.identity.flow.server.getTable
 import com.android.identity.issuance.AuthenticationFlow
 import com.android.identity.issuance.ClientAuthentication
 import com.android.identity.issuance.ClientChallenge
 import com.android.identity.issuance.WalletServerCapabilities
 import com.android.identity.issuance.WalletServerSettings
-import com.android.identity.issuance.toCbor
 import com.android.identity.storage.StorageTableSpec
 import com.android.identity.util.toBase64Url
 import kotlinx.datetime.Clock
@@ -48,11 +46,9 @@ class AuthenticationState(
     suspend fun requestChallenge(env: FlowEnvironment, clientId: String): ClientChallenge {
         check(this.clientId.isEmpty())
         check(nonce != null)
-        val clientTable = env.getTable(clientTableSpec)
-        val clientData = clientTable.get(clientId)
-        if (clientData != null) {
-            this.deviceAttestation =
-                ClientRecord.fromCbor(clientData.toByteArray()).deviceAttestation
+        val clientRecord = loadClientRecordOrNull(env, clientId)
+        if (clientRecord != null) {
+            this.deviceAttestation = clientRecord.deviceAttestation
             this.clientId = clientId
             println("Existing client id: ${this.clientId}")
         }
@@ -68,7 +64,6 @@ class AuthenticationState(
     @FlowMethod
     suspend fun authenticate(env: FlowEnvironment, auth: ClientAuthentication): WalletServerCapabilities {
         val settings = WalletServerSettings(env.getInterface(Configuration::class)!!)
-        val clientTable = env.getTable(clientTableSpec)
 
         val attestation = auth.attestation
         if (attestation != null) {
@@ -83,9 +78,8 @@ class AuthenticationState(
                 androidVerifiedBootGreen = settings.androidRequireVerifiedBootGreen,
                 androidAppSignatureCertificateDigests = listOf()
             ))
-            val clientData = ByteString(ClientRecord(attestation).toCbor())
             this.deviceAttestation = attestation
-            clientTable.insert(data = clientData, key = clientId)
+            storeClientRecord(env, clientId, ClientRecord(attestation))
         }
 
         this.deviceAttestation!!.validateAssertion(auth.assertion)
@@ -94,18 +88,7 @@ class AuthenticationState(
             throw IllegalArgumentException("nonce mismatch")
         }
         authenticated = true
-        val walletAppCapabilitiesTable = env.getTable(walletAppCapabilitiesTableSpec)
-        if (walletAppCapabilitiesTable.get(clientId) == null) {
-            walletAppCapabilitiesTable.insert(
-                key = clientId,
-                data = ByteString(auth.walletApplicationCapabilities.toCbor()),
-            )
-        } else {
-            walletAppCapabilitiesTable.update(
-                key = clientId,
-                data = ByteString(auth.walletApplicationCapabilities.toCbor())
-            )
-        }
+        storeWalletApplicationCapabilities(env, clientId, auth.walletApplicationCapabilities)
         return WalletServerCapabilities(
             Clock.System.now()
         )
@@ -0,0 +1,205 @@
+package com.android.identity.issuance.wallet
+
+import com.android.identity.flow.cache
+import com.android.identity.flow.server.FlowEnvironment
+import com.android.identity.flow.server.getTable
+import com.android.identity.issuance.WalletApplicationCapabilities
+import com.android.identity.issuance.fromCbor
+import com.android.identity.issuance.toCbor
+import kotlinx.io.bytestring.ByteString
+import kotlin.time.ComparableTimeMark
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.TimeSource
+
+/**
+ * A cache of decoded per-client data that is needed for almost every wallet server call.
+ *
+ * [ClientRecord]s are written once when a client registers, and their device attestation is
+ * validated at that time, so a cached record can be used without going back to storage.
+ * [WalletApplicationCapabilities] are rewritten every time a client authenticates. Writes go
+ * to storage first, then the new value is written through to the cache, replacing only the
+ * field that changed.
+ *
+ * A server with several nodes can make the cache shared by registering an implementation with
+ * its [FlowEnvironment]. Otherwise each node uses its own in-memory cache, with a limited size
+ * and lifetime so that updates from other nodes are eventually picked up.
+ */
+interface ClientCache {
+    /** Gets the [ClientRecord] for [clientId], or `null` if it's not cached. */
+    suspend fun getClientRecord(clientId: String): ClientRecord?
+
+    /**
+     * Caches the [ClientRecord] for [clientId].
+     *
+     * Other data cached for the client is not affected.
+     *
+     * @param replace if `false`, an entry which is already cached is kept. This is used when
+     *   filling the cache from storage, so that it doesn't overwrite a concurrent update. If
+     *   `true`, the value was just written to storage and a shared cache must also replace
+     *   any copies held elsewhere.
+     */
+    suspend fun putClientRecord(clientId: String, clientRecord: ClientRecord, replace: Boolean)
+
+    /** Gets the [WalletApplicationCapabilities] for [clientId], or `null` if not cached. */
+    suspend fun getWalletApplicationCapabilities(clientId: String): WalletApplicationCapabilities?
+
+    /**
+     * Caches the [WalletApplicationCapabilities] for [clientId].
+     *
+     * Other data cached for the client is not affected.
+     *
+     * @param replace same as for [putClientRecord].
+     */
+    suspend fun putWalletApplicationCapabilities(
+        clientId: String,
+        capabilities: WalletApplicationCapabilities,
+        replace: Boolean
+    )
+
+    companion object {
+        /**
+         * Gets the cache for an environment.
+         *
+         * This is the [ClientCache] registered with [env] or, if there is none, an in-memory
+         * cache for the environment.
+         */
+        suspend fun get(env: FlowEnvironment): ClientCache =
+            env.getInterface(ClientCache::class)
+                ?: env.cache(InMemoryClientCache::class) { _, _ -> InMemoryClientCache() }
+    }
+}
+
+/**
+ * Loads the [ClientRecord] for [clientId], from the cache if possible.
+ *
+ * @return the record or `null` if there is no client with this id.
+ */
+internal suspend fun loadClientRecordOrNull(
+    env: FlowEnvironment,
+    clientId: String
+): ClientRecord? {
+    val cache = ClientCache.get(env)
+    cache.getClientRecord(clientId)?.let { return it }
+    val data = env.getTable(AuthenticationState.clientTableSpec).get(clientId) ?: return null
+    val clientRecord = ClientRecord.fromCbor(data.toByteArray())
+    cache.putClientRecord(clientId, clientRecord, replace = false)
+    return clientRecord
+}
+
+/**
+ * Loads the [ClientRecord] for [clientId], from the cache if possible.
+ *
+ * @throws IllegalStateException if there is no client with this id.
+ */
+internal suspend fun loadClientRecord(env: FlowEnvironment, clientId: String): ClientRecord =
+    loadClientRecordOrNull(env, clientId)
+        ?: throw IllegalStateException("Client '$clientId' not found")
+
+/** Stores the [ClientRecord] for a newly registered client. */
+internal suspend fun storeClientRecord(
+    env: FlowEnvironment,
+    clientId: String,
+    clientRecord: ClientRecord
+) {
+    env.getTable(AuthenticationState.clientTableSpec).insert(
+        key = clientId,
+        data = ByteString(clientRecord.toCbor())
+    )
+    ClientCache.get(env).putClientRecord(clientId, clientRecord, replace = true)
+}
+
+/**
+ * Loads the [WalletApplicationCapabilities] for [clientId], from the cache if possible.
+ *
+ * @throws IllegalStateException if there are no capabilities for the client.
+ */
+internal suspend fun loadWalletApplicationCapabilities(
+    env: FlowEnvironment,
+    clientId: String
+): WalletApplicationCapabilities {
+    val cache = ClientCache.get(env)
+    cache.getWalletApplicationCapabilities(clientId)?.let { return it }
+    val data = env.getTable(AuthenticationState.walletAppCapabilitiesTableSpec).get(clientId)
+        ?: throw IllegalStateException("WalletApplicationCapabilities not found")
+    val capabilities = WalletApplicationCapabilities.fromCbor(data.toByteArray())
+    cache.putWalletApplicationCapabilities(clientId, capabilities, replace = false)
+    return capabilities
+}
+
+/** Stores the [WalletApplicationCapabilities] for [clientId], replacing earlier ones. */
+internal suspend fun storeWalletApplicationCapabilities(
+    env: FlowEnvironment,
+    clientId: String,
+    capabilities: WalletApplicationCapabilities
+) {
+    val table = env.getTable(AuthenticationState.walletAppCapabilitiesTableSpec)
+    val data = ByteString(capabilities.toCbor())
+    if (table.get(clientId) == null) {
+        table.insert(key = clientId, data = data)
+    } else {
+        table.update(key = clientId, data = data)
+    }
+    ClientCache.get(env).putWalletApplicationCapabilities(clientId, capabilities, replace = true)
+}
+
+/**
+ * The [ClientCache] used when none is registered with the environment.
+ *
+ * Holds up to [maxClients] clients, evicting the least recently used one, and drops entries
+ * after [expiration].
+ */
+internal class InMemoryClientCache(
+    private val maxClients: Int = 1000,
+    private val expiration: Duration = 10.minutes,
+    private val timeSource: TimeSource.WithComparableMarks = TimeSource.Monotonic
+) : ClientCache {
+    private class Entry<T>(val value: T, val expiresAt: ComparableTimeMark)
+
+    private class ClientEntry {
+        var clientRecord: Entry<ClientRecord>? = null
+        var capabilities: Entry<WalletApplicationCapabilities>? = null
+    }
+
+    private val clients = object : LinkedHashMap<String, ClientEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ClientEntry>) =
+            size > maxClients
+    }
+
+    override suspend fun getClientRecord(clientId: String): ClientRecord? =
+        synchronized(clients) { clients[clientId]?.clientRecord?.valueIfNotExpired() }
+
+    override suspend fun putClientRecord(
+        clientId: String,
+        clientRecord: ClientRecord,
+        replace: Boolean
+    ) {
+        synchronized(clients) {
+            val entry = clients.getOrPut(clientId) { ClientEntry() }
+            if (replace || entry.clientRecord?.valueIfNotExpired() == null) {
+                entry.clientRecord = Entry(clientRecord, timeSource.markNow() + expiration)
+            }
+        }
+    }
+
+    override suspend fun getWalletApplicationCapabilities(
+        clientId: String
+    ): WalletApplicationCapabilities? =
+        synchronized(clients) { clients[clientId]?.capabilities?.valueIfNotExpired() }
+
+    override suspend fun putWalletApplicationCapabilities(
+        clientId: String,
+        capabilities: WalletApplicationCapabilities,
+        replace: Boolean
+    ) {
+        synchronized(clients) {
+            val entry = clients.getOrPut(clientId) { ClientEntry() }
+            if (replace || entry.capabilities?.valueIfNotExpired() == null) {
+                entry.capabilities = Entry(capabilities, timeSource.markNow() + expiration)
+            }
+        }
+    }
+
+    private fun <T> Entry<T>.valueIfNotExpired(): T? =
+        if (expiresAt > timeSource.markNow()) value else null
+}
@@ -0,0 +1,74 @@
+package com.android.identity.issuance.common
+
+import com.android.identity.storage.StorageTableSpec
+import com.android.identity.storage.ephemeral.EphemeralStorage
+import kotlinx.coroutines.runBlocking
+import kotlinx.io.bytestring.ByteString
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PendingCredentialsTest {
+    private val tableSpec = StorageTableSpec(
+        name = "TestCredential",
+        supportPartitions = true,
+        supportExpiration = false
+    )
+
+    private fun credential(n: Int) = ByteString(byteArrayOf(n.toByte(), (n shr 8).toByte()))
+
+    @Test
+    fun takeAllKeepsInsertionOrder() = runBlocking {
+        val table = EphemeralStorage().getTable(tableSpec)
+        val pendingCredentials = PendingCredentials(table, "client", "document")
+        assertTrue(pendingCredentials.isEmpty())
+
+        // More than a page, so that reading continues after the last key of a page.
+        val count = 3 * PendingCredentials.PAGE_SIZE + 1
+        for (n in 0 until count) {
+            assertTrue(pendingCredentials.add(credential(n)))
+        }
+        assertFalse(pendingCredentials.isEmpty())
+        assertEquals(count, pendingCredentials.count())
+
+        val credentials = pendingCredentials.takeAll { it }
+        assertEquals((0 until count).map { credential(it) }, credentials)
+        assertTrue(pendingCredentials.isEmpty())
+        assertEquals(0, pendingCredentials.count())
+        assertEquals(listOf<ByteString>(), pendingCredentials.takeAll { it })
+    }
+
+    @Test
+    fun explicitKeys() = runBlocking {
+        val table = EphemeralStorage().getTable(tableSpec)
+        val pendingCredentials = PendingCredentials(table, "client", "document")
+        assertTrue(pendingCredentials.add(credential(1), "b"))
+        assertTrue(pendingCredentials.add(credential(2), "a"))
+        assertFalse(pendingCredentials.add(credential(3), "a"))
+        assertTrue(pendingCredentials.contains("a"))
+        assertFalse(pendingCredentials.contains("c"))
+
+        // Explicit keys are read in key order.
+        assertEquals(listOf(credential(2), credential(1)), pendingCredentials.takeAll { it })
+        assertFalse(pendingCredentials.contains("a"))
+    }
+
+    @Test
+    fun documentsAreSeparate() = runBlocking {
+        val table = EphemeralStorage().getTable(tableSpec)
+        val first = PendingCredentials(table, "client", "document")
+        val sameDocumentId = PendingCredentials(table, "otherClient", "document")
+        val otherDocument = PendingCredentials(table, "client", "otherDocument")
+        for (n in 0 until 2 * PendingCredentials.PAGE_SIZE) {
+            first.add(credential(n))
+        }
+        sameDocumentId.add(credential(100))
+        otherDocument.add(credential(200))
+
+        first.deleteAll()
+        assertTrue(first.isEmpty())
+        assertEquals(listOf(credential(100)), sameDocumentId.takeAll { it })
+        assertEquals(listOf(credential(200)), otherDocument.takeAll { it })
+    }
+}
@@ -0,0 +1,41 @@
+package com.android.identity.issuance.common
+
+import com.android.identity.cbor.DataItem
+import com.android.identity.flow.handler.FlowNotifications
+import com.android.identity.flow.server.FlowEnvironment
+import com.android.identity.securearea.SecureAreaProvider
+import com.android.identity.securearea.software.SoftwareSecureArea
+import com.android.identity.storage.Storage
+import com.android.identity.storage.ephemeral.EphemeralStorage
+import io.ktor.client.HttpClient
+import kotlinx.coroutines.Dispatchers
+import kotlin.reflect.KClass
+import kotlin.reflect.cast
+
+/**
+ * A [FlowEnvironment] with in-memory storage and a software secure area which drops
+ * notifications.
+ *
+ * @param httpClient the client for requests to other servers, if any.
+ */
+class TestFlowEnvironment(private val httpClient: HttpClient? = null) : FlowEnvironment {
+    val storage = EphemeralStorage()
+
+    private val secureAreaProvider = SecureAreaProvider(Dispatchers.Default) {
+        SoftwareSecureArea.create(storage)
+    }
+
+    private val notifications = object : FlowNotifications {
+        override suspend fun emit(flowName: String, state: DataItem, notification: DataItem) {}
+    }
+
+    override fun <T : Any> getInterface(clazz: KClass<T>): T? {
+        return clazz.cast(when (clazz) {
+            Storage::class -> storage
+            SecureAreaProvider::class -> secureAreaProvider
+            HttpClient::class -> httpClient ?: return null
+            FlowNotifications::class -> notifications
+            else -> return null
+        })
+    }
+}
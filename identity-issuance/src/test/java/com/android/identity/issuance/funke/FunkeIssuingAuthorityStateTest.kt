@@ -0,0 +1,60 @@
+package com.android.identity.issuance.funke
+
+import com.android.identity.crypto.Crypto
+import com.android.identity.crypto.EcCurve
+import com.android.identity.flow.server.getTable
+import com.android.identity.issuance.CredentialData
+import com.android.identity.issuance.CredentialFormat
+import com.android.identity.issuance.RegistrationResponse
+import com.android.identity.issuance.common.TestFlowEnvironment
+import kotlinx.coroutines.runBlocking
+import kotlinx.datetime.Instant
+import kotlinx.io.bytestring.ByteString
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class FunkeIssuingAuthorityStateTest {
+    @Test
+    fun legacyCredentialsAreMoved() = runBlocking {
+        val env = TestFlowEnvironment()
+        val credentials = (0 until 25).map { n ->
+            CredentialData(
+                Crypto.createEcPrivateKey(EcCurve.P256).publicKey,
+                Instant.fromEpochSeconds(0),
+                Instant.fromEpochSeconds(1000),
+                CredentialFormat.MDOC_MSO,
+                byteArrayOf(n.toByte())
+            )
+        }
+        // A record written before credentials were stored separately.
+        val documentTable = env.getTable(FunkeIssuingAuthorityState.documentTableSpec)
+        val documentId = documentTable.insert(
+            key = null,
+            partitionId = "client",
+            data = ByteString(
+                FunkeIssuerDocument(
+                    RegistrationResponse(false),
+                    credentials = credentials.toMutableList()
+                ).toCbor()
+            )
+        )
+
+        val state = FunkeIssuingAuthorityState("client", "https://issuer", "pid", "wallet")
+        assertEquals(credentials.size, state.getState(env, documentId).numAvailableCredentials)
+        val document = FunkeIssuerDocument.fromCbor(
+            documentTable.get(partitionId = "client", key = documentId)!!.toByteArray()
+        )
+        assertNull(document.credentials)
+
+        val pickedUp = state.getCredentials(env, documentId)
+        assertEquals(credentials.size, pickedUp.size)
+        for ((expected, actual) in credentials.zip(pickedUp)) {
+            assertEquals(expected.secureAreaBoundKey, actual.secureAreaBoundKey)
+            assertArrayEquals(expected.data, actual.data)
+        }
+        assertEquals(0, state.getState(env, documentId).numAvailableCredentials)
+        assertEquals(listOf<CredentialData>(), state.getCredentials(env, documentId))
+    }
+}
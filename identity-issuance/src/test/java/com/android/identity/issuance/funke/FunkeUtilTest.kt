@@ -0,0 +1,153 @@
+package com.android.identity.issuance.funke
+
+import com.android.identity.issuance.common.TestFlowEnvironment
+import com.android.identity.util.fromBase64Url
+import io.ktor.client.HttpClient
+import io.ktor.client.engine.mock.MockEngine
+import io.ktor.client.engine.mock.MockRequestHandleScope
+import io.ktor.client.engine.mock.respond
+import io.ktor.client.request.HttpRequestData
+import io.ktor.client.request.HttpResponseData
+import io.ktor.http.HttpStatusCode
+import io.ktor.http.headersOf
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.datetime.Instant
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+class FunkeUtilTest {
+    companion object {
+        private const val CREDENTIAL_ENDPOINT = "https://issuer.example.com/credential"
+    }
+
+    /**
+     * A fake issuer which only accepts DPoP proofs with [acceptedNonce] and rejects others with
+     * `use_dpop_nonce`, returning [acceptedNonce] as the nonce to use.
+     */
+    private class FakeIssuer(private val acceptedNonce: () -> String) {
+        val inFlight = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+        val requestNonces: MutableList<String?> = Collections.synchronizedList(mutableListOf())
+        val rejectedCount = AtomicInteger()
+
+        val httpClient = HttpClient(MockEngine { request -> handle(request) })
+
+        private suspend fun MockRequestHandleScope.handle(
+            request: HttpRequestData
+        ): HttpResponseData {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+            try {
+                // Keep the request in flight long enough for others to be sent meanwhile.
+                delay(50)
+                val dpopBody = request.headers["DPoP"]!!.split(".")[1].fromBase64Url()
+                val nonce = Json.parseToJsonElement(String(dpopBody))
+                    .jsonObject["nonce"]?.jsonPrimitive?.content
+                requestNonces.add(nonce)
+                val expectedNonce = acceptedNonce()
+                return if (nonce == expectedNonce) {
+                    respond(
+                        content = """{"credential": "credential"}""",
+                        headers = headersOf("Content-Type", "application/json")
+                    )
+                } else {
+                    rejectedCount.incrementAndGet()
+                    respond(
+                        content = """{"error": "use_dpop_nonce"}""",
+                        status = HttpStatusCode.Unauthorized,
+                        headers = headersOf(
+                            "DPoP-Nonce" to listOf(expectedNonce),
+                            "WWW-Authenticate" to listOf("DPoP error=\"use_dpop_nonce\"")
+                        )
+                    )
+                }
+            } finally {
+                inFlight.decrementAndGet()
+            }
+        }
+    }
+
+    private fun access(dpopNonce: String?) = FunkeAccess(
+        accessToken = "accessToken",
+        accessTokenExpiration = Instant.DISTANT_FUTURE,
+        dpopNonce = dpopNonce,
+        cNonce = "cNonce",
+        tokenEndpoint = "https://issuer.example.com/token",
+        refreshToken = null
+    )
+
+    private suspend fun sendRequests(
+        issuer: FakeIssuer,
+        access: FunkeAccess,
+        count: Int
+    ): List<HttpStatusCode> {
+        val env = TestFlowEnvironment(issuer.httpClient)
+        val accessLock = Mutex()
+        val statuses = Collections.synchronizedList(mutableListOf<HttpStatusCode>())
+        FunkeUtil.forEachConcurrently(
+            tasks = (0 until count).toList(),
+            maxConcurrent = FunkeIssuingAuthorityState.MAX_CONCURRENT_CREDENTIAL_REQUESTS,
+            firstAlone = access.dpopNonce == null
+        ) { n ->
+            val response = FunkeUtil.postCredentialRequest(
+                env, "client", CREDENTIAL_ENDPOINT, access, accessLock, """{"n": $n}""")
+            statuses.add(response.status)
+        }
+        return statuses
+    }
+
+    @Test
+    fun nonceRotatedWhileRequestsInFlight() = runBlocking {
+        // The issuer no longer accepts the nonce the wallet has.
+        val issuer = FakeIssuer { "new" }
+        val access = access(dpopNonce = "old")
+        val statuses = sendRequests(issuer, access, 10)
+
+        assertEquals(List(10) { HttpStatusCode.OK }, statuses)
+        assertTrue(issuer.rejectedCount.get() > 0)
+        // Each request is sent once with the new nonce, and at most once before that.
+        assertEquals(10, issuer.requestNonces.count { it == "new" })
+        assertEquals(10 + issuer.rejectedCount.get(), issuer.requestNonces.size)
+        assertTrue(
+            issuer.maxInFlight.get() <= FunkeIssuingAuthorityState.MAX_CONCURRENT_CREDENTIAL_REQUESTS
+        )
+        assertEquals("new", access.dpopNonce)
+        assertNull(access.cNonce)
+    }
+
+    @Test
+    fun firstRequestAloneWithoutNonce() = runBlocking {
+        val issuer = FakeIssuer { "nonce" }
+        val access = access(dpopNonce = null)
+        val statuses = sendRequests(issuer, access, 10)
+
+        assertEquals(List(10) { HttpStatusCode.OK }, statuses)
+        // Only the first request is sent without a nonce, the others wait for its response.
+        assertEquals(1, issuer.rejectedCount.get())
+        assertNull(issuer.requestNonces[0])
+        assertEquals(10, issuer.requestNonces.count { it == "nonce" })
+        assertTrue(
+            issuer.maxInFlight.get() <= FunkeIssuingAuthorityState.MAX_CONCURRENT_CREDENTIAL_REQUESTS
+        )
+    }
+
+    @Test
+    fun retriedOnlyOnce() = runBlocking {
+        // An issuer which rotates the nonce on every request.
+        val nonceCounter = AtomicInteger()
+        val issuer = FakeIssuer { "nonce${nonceCounter.incrementAndGet()}" }
+        val access = access(dpopNonce = "nonce0")
+        val statuses = sendRequests(issuer, access, 1)
+
+        assertEquals(listOf(HttpStatusCode.Unauthorized), statuses)
+        assertEquals(listOf<String?>("nonce0", "nonce1"), issuer.requestNonces.toList())
+    }
+}
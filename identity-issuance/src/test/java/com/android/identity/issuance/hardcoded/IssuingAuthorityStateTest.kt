@@ -0,0 +1,70 @@
+package com.android.identity.issuance.hardcoded
+
+import com.android.identity.cbor.Cbor
+import com.android.identity.cbor.CborMap
+import com.android.identity.cbor.RawCbor
+import com.android.identity.crypto.Crypto
+import com.android.identity.crypto.EcCurve
+import com.android.identity.flow.server.getTable
+import com.android.identity.issuance.CredentialFormat
+import com.android.identity.issuance.DocumentCondition
+import com.android.identity.issuance.RegistrationResponse
+import com.android.identity.issuance.common.TestFlowEnvironment
+import kotlinx.coroutines.runBlocking
+import kotlinx.io.bytestring.ByteString
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class IssuingAuthorityStateTest {
+    @Test
+    fun legacyCredentialRequestsAreMoved() = runBlocking {
+        val env = TestFlowEnvironment()
+        val requests = (0 until 25).map { n ->
+            SimpleCredentialRequest(
+                Crypto.createEcPrivateKey(EcCurve.P256).publicKey,
+                CredentialFormat.MDOC_MSO,
+                byteArrayOf(n.toByte())
+            )
+        }
+        // A record written before credentials were stored separately.
+        val document = IssuerDocument(
+            RegistrationResponse(false),
+            DocumentCondition.PROOFING_REQUIRED,
+            mutableMapOf(),
+            null
+        )
+        val builder = CborMap.builder()
+        for ((key, value) in document.toDataItem().asMap) {
+            builder.put(key, value)
+        }
+        val requestsBuilder = builder.putArray("credentialRequests")
+        for (request in requests) {
+            requestsBuilder.add(RawCbor(request.toCbor()))
+        }
+        requestsBuilder.end()
+        val documentTable = env.getTable(IssuingAuthorityState.documentTableSpec)
+        val documentId = documentTable.insert(
+            key = null,
+            partitionId = "client",
+            data = ByteString(Cbor.encode(builder.end().build()))
+        )
+
+        val state = IssuingAuthorityState("client", "utopia_pid")
+        assertEquals(requests.size, state.getState(env, documentId).numAvailableCredentials)
+        val record = Cbor.decode(
+            documentTable.get(partitionId = "client", key = documentId)!!.toByteArray()
+        )
+        assertNull(record.getOrNull("credentialRequests"))
+
+        // Credentials are keyed by their authentication key, so they come back in any order.
+        val pickedUp = state.getCredentials(env, documentId)
+        assertEquals(
+            requests.associate { it.authenticationKey to it.data.toList() },
+            pickedUp.associate { it.secureAreaBoundKey to it.data.toList() }
+        )
+        assertEquals(0, state.getState(env, documentId).numAvailableCredentials)
+        assertTrue(state.getCredentials(env, documentId).isEmpty())
+    }
+}
@@ -0,0 +1,58 @@
+package com.android.identity.issuance.wallet
+
+import com.android.identity.device.DeviceAttestationJvm
+import com.android.identity.issuance.WalletApplicationCapabilities
+import kotlinx.coroutines.runBlocking
+import kotlinx.datetime.Instant
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.TestTimeSource
+
+class InMemoryClientCacheTest {
+    private fun capabilities(generatedAt: Long) = WalletApplicationCapabilities(
+        generatedAt = Instant.fromEpochSeconds(generatedAt),
+        androidKeystoreAttestKeyAvailable = true,
+        androidKeystoreStrongBoxAvailable = false,
+        androidIsEmulator = false,
+        directAccessSupported = false
+    )
+
+    @Test
+    fun replaceOverwritesCachedValue() = runBlocking {
+        val cache = InMemoryClientCache()
+        val old = capabilities(1)
+        val new = capabilities(2)
+        cache.putWalletApplicationCapabilities("client", old, replace = false)
+        assertEquals(old, cache.getWalletApplicationCapabilities("client"))
+
+        // Filling the cache from storage doesn't overwrite what's cached...
+        cache.putWalletApplicationCapabilities("client", new, replace = false)
+        assertEquals(old, cache.getWalletApplicationCapabilities("client"))
+
+        // ... but a write through does.
+        cache.putWalletApplicationCapabilities("client", new, replace = true)
+        assertEquals(new, cache.getWalletApplicationCapabilities("client"))
+    }
+
+    @Test
+    fun replacingCapabilitiesKeepsClientRecord() = runBlocking {
+        val cache = InMemoryClientCache()
+        val clientRecord = ClientRecord(DeviceAttestationJvm())
+        cache.putClientRecord("client", clientRecord, replace = true)
+        cache.putWalletApplicationCapabilities("client", capabilities(1), replace = true)
+        cache.putWalletApplicationCapabilities("client", capabilities(2), replace = true)
+        assertSame(clientRecord, cache.getClientRecord("client"))
+    }
+
+    @Test
+    fun entriesExpire() = runBlocking {
+        val timeSource = TestTimeSource()
+        val cache = InMemoryClientCache(expiration = 10.minutes, timeSource = timeSource)
+        cache.putWalletApplicationCapabilities("client", capabilities(1), replace = true)
+        timeSource += 11.minutes
+        assertNull(cache.getWalletApplicationCapabilities("client"))
+    }
+}
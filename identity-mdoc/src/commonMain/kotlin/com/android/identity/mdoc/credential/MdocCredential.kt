@@ -144,14 +144,13 @@ class MdocCredential : SecureAreaBoundCredential {
     override fun getClaims(
         documentTypeRepository: DocumentTypeRepository?
     ): List<MdocClaim> {
-        val dt = documentTypeRepository?.getDocumentTypeForMdoc(docType)
         val issuerSigned = Cbor.decode(issuerProvidedData)
         val namespaces = issuerSigned.getOrNull("nameSpaces")
             ?: return emptyList()
         val ret = mutableListOf<MdocClaim>()
         for ((namespaceName, innerMap) in IssuerNamespaces.fromDataItem(namespaces).data) {
             for ((dataElementName, issuerSignedItem) in innerMap) {
-                val mdocAttr = dt?.mdocDocumentType?.namespaces?.get(namespaceName)?.dataElements?.get(dataElementName)
+                val mdocAttr = documentTypeRepository?.getMdocDataElement(namespaceName, dataElementName)
                 val claim = MdocClaim(
                     displayName = mdocAttr?.attribute?.displayName ?: dataElementName,
                     attribute = mdocAttr?.attribute,
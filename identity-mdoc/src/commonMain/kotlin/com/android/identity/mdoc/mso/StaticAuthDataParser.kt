@@ -71,7 +71,7 @@ class StaticAuthDataParser(private val encodedStaticAuthData: ByteArray) {
         }
 
         internal fun parse(encodedStaticAuthData: ByteArray) =
-            Cbor.decode(encodedStaticAuthData).run {
+            Cbor.decode(encodedStaticAuthData, retainEncoding = true).run {
                 issuerAuth = Cbor.encode(this["issuerAuth"])
                 if (this.hasKey("digestIdMapping")) {
                     parseDigestIdMapping(this["digestIdMapping"])
@@ -19,6 +19,7 @@ import com.android.identity.cbor.Bstr
 import com.android.identity.cbor.Cbor
 import com.android.identity.cbor.CborArray
 import com.android.identity.cbor.DataItem
+import com.android.identity.cbor.RawCbor
 import com.android.identity.cbor.Tagged
 import com.android.identity.cose.Cose
 import com.android.identity.cose.CoseNumberLabel
@@ -77,12 +78,17 @@ class DeviceRequestParser(
      * @throws IllegalStateException    if required data hasn't been set using the setter
      * methods on this class.
      */
-    fun parse(): DeviceRequest = DeviceRequest().apply {
-        parse(
-            encodedDeviceRequest,
-            Cbor.decode(encodedSessionTranscript),
-            skipReaderAuthParseAndCheck
-        )
+    fun parse(): DeviceRequest {
+        // Only decoded to check that it's well-formed, the received bytes are what goes into
+        // ReaderAuthentication.
+        Cbor.decode(encodedSessionTranscript)
+        return DeviceRequest().apply {
+            parse(
+                encodedDeviceRequest,
+                RawCbor(encodedSessionTranscript),
+                skipReaderAuthParseAndCheck
+            )
+        }
     }
 
     /**
@@ -109,7 +115,8 @@ class DeviceRequestParser(
             sessionTranscript: DataItem,
             skipReaderAuthParseAndCheck: Boolean
         ) {
-            val request = Cbor.decode(encodedDeviceRequest)
+            // Retain the encoding since readerAuth is checked over the received bytes.
+            val request = Cbor.decode(encodedDeviceRequest, retainEncoding = true)
             version = request["version"].asTstr
             require(version.compareTo("1.0") >= 0) { "Given version '$version' not >= '1.0'" }
             var readerCertChain: X509CertChain? = null
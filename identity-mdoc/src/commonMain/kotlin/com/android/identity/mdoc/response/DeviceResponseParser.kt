@@ -193,7 +193,8 @@ class DeviceResponseParser(
                         val encodedIssuerSignedItemBytes = Cbor.encode(elem)
                         val expectedDigest =
                             Crypto.digest(digestAlgorithm, encodedIssuerSignedItemBytes)
-                        val issuerSignedItem = Cbor.decode(elem.asTagged.asBstr)
+                        val issuerSignedItem =
+                            Cbor.decode(elem.asTagged.asBstr, retainEncoding = true)
                         val elementName = issuerSignedItem["elementIdentifier"].asTstr
                         val elementValue = issuerSignedItem["elementValue"]
                         val digestId = issuerSignedItem["digestID"].asNumber
@@ -308,7 +309,8 @@ class DeviceResponseParser(
             encodedSessionTranscript: ByteArray,
             eReaderKey: EcPrivateKey?
         ) {
-            val deviceResponse = Cbor.decode(encodedDeviceResponse!!)
+            // Retain the encoding since digests and signatures are checked over received bytes.
+            val deviceResponse = Cbor.decode(encodedDeviceResponse!!, retainEncoding = true)
             version = deviceResponse["version"].asTstr
             require(version.compareTo("1.0") >= 0) { "Given version '$version' not >= '1.0'" }
             val documentsDataItem = deviceResponse.getOrNull("documents")
@@ -154,14 +154,16 @@ class DocumentGenerator
                 ).toDataItem()
             )
         }
+        // The COSE structure was just encoded, embed those bytes rather than decoding and
+        // encoding it again.
         val deviceAuthType: String
         val deviceAuthDataItem: DataItem
         if (encodedDeviceSignature != null) {
             deviceAuthType = "deviceSignature"
-            deviceAuthDataItem = Cbor.decode(encodedDeviceSignature)
+            deviceAuthDataItem = RawCbor(encodedDeviceSignature)
         } else {
             deviceAuthType = "deviceMac"
-            deviceAuthDataItem = Cbor.decode(encodedDeviceMac!!)
+            deviceAuthDataItem = RawCbor(encodedDeviceMac!!)
         }
         deviceSigned = CborMap.builder()
             .putTaggedEncodedCbor("nameSpaces", encodedDeviceNameSpaces)
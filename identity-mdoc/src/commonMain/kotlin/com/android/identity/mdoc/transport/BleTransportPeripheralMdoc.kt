@@ -133,7 +133,11 @@ internal class BleTransportPeripheralMdoc(
         }
     }
 
-    override suspend fun waitForMessage(): ByteArray {
+    override suspend fun waitForMessage(): ByteArray = meteredReceive {
+        waitForMessageUnmetered()
+    }
+
+    private suspend fun waitForMessageUnmetered(): ByteArray {
         mutex.withLock {
             check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
         }
@@ -151,8 +155,12 @@ internal class BleTransportPeripheralMdoc(
         }
     }
 
+    override suspend fun sendMessage(message: ByteArray) = meteredSend(message) {
+        sendMessageUnmetered(message)
+    }
+
     @OptIn(InternalCoroutinesApi::class)
-    override suspend fun sendMessage(message: ByteArray) {
+    private suspend fun sendMessageUnmetered(message: ByteArray) {
         mutex.withLock {
             check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
             if (message.isEmpty() && peripheralManager.usingL2cap) {
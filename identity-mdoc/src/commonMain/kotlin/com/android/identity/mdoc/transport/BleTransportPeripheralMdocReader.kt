@@ -128,7 +128,11 @@ internal class BleTransportPeripheralMdocReader(
         }
     }
 
-    override suspend fun waitForMessage(): ByteArray {
+    override suspend fun waitForMessage(): ByteArray = meteredReceive {
+        waitForMessageUnmetered()
+    }
+
+    private suspend fun waitForMessageUnmetered(): ByteArray {
         mutex.withLock {
             check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
         }
@@ -146,8 +150,12 @@ internal class BleTransportPeripheralMdocReader(
         }
     }
 
+    override suspend fun sendMessage(message: ByteArray) = meteredSend(message) {
+        sendMessageUnmetered(message)
+    }
+
     @OptIn(InternalCoroutinesApi::class)
-    override suspend fun sendMessage(message: ByteArray) {
+    private suspend fun sendMessageUnmetered(message: ByteArray) {
         mutex.withLock {
             check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
             if (message.isEmpty() && centralManager.usingL2cap) {
@@ -0,0 +1,224 @@
+package com.android.identity.mdoc.transport
+
+import com.android.identity.crypto.EcPublicKey
+import com.android.identity.mdoc.connectionmethod.ConnectionMethod
+import com.android.identity.mdoc.connectionmethod.ConnectionMethodHttp
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedReceiveChannelException
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.seconds
+import kotlin.time.TimeMark
+import kotlin.time.TimeSource
+
+/**
+ * A [MdocTransport] connected to another [LoopbackTransport] in the same process.
+ *
+ * This is intended for tests and benchmarks which need to run complete sessions between an
+ * _mdoc_ and an _mdoc reader_ without any radio hardware. Use [createPair] to get two
+ * connected transports, one for each role.
+ *
+ * The link between the two transports can emulate the latency, bandwidth and packet size of
+ * a real transport, see [Options]. Messages sent in one direction are serialized on the link,
+ * that is, a message is only put on the link once the previous one has been transmitted and
+ * the sender is suspended while its message is being transmitted. The receiver is suspended
+ * until the message has reached the other end of the link.
+ *
+ * Transport-specific session termination is supported.
+ */
+class LoopbackTransport private constructor(
+    override val role: Role,
+    override val connectionMethod: ConnectionMethod,
+    private val options: Options,
+    private val incoming: Channel<Packet>,
+    private val outgoing: Channel<Packet>
+) : MdocTransport() {
+
+    /**
+     * Characteristics of the emulated link, the same for both directions.
+     *
+     * @property latency the time it takes for a transmitted message to reach the peer.
+     * @property bandwidth the number of bytes per second which can be transmitted or `null`
+     *   to transmit messages instantly.
+     * @property mtu the maximum number of message bytes in a single packet or `null` to send
+     *   each message as a single packet.
+     * @property packetOverhead the number of bytes added to each packet, for example for
+     *   protocol headers, which count against [bandwidth].
+     * @property timeSource the time source for computing when messages arrive.
+     */
+    data class Options(
+        val latency: Duration = Duration.ZERO,
+        val bandwidth: Long? = null,
+        val mtu: Int? = null,
+        val packetOverhead: Int = 0,
+        val timeSource: TimeSource = TimeSource.Monotonic
+    ) {
+        init {
+            require(!latency.isNegative()) { "Latency cannot be negative" }
+            require(bandwidth == null || bandwidth > 0) { "Bandwidth must be positive" }
+            require(mtu == null || mtu > 0) { "MTU must be positive" }
+            require(packetOverhead >= 0) { "Packet overhead cannot be negative" }
+        }
+
+        /**
+         * Calculates the time it takes to transmit a message.
+         *
+         * @param messageSize the size of the message.
+         * @return the time between the first and the last byte of the message being sent.
+         */
+        fun transmissionTime(messageSize: Int): Duration {
+            if (bandwidth == null) {
+                return Duration.ZERO
+            }
+            val numPackets = if (mtu == null) 1 else maxOf(1, (messageSize + mtu - 1) / mtu)
+            val numBytes = messageSize.toLong() + numPackets.toLong() * packetOverhead
+            return (numBytes.toDouble() / bandwidth).seconds
+        }
+    }
+
+    private class Packet(
+        val message: ByteArray,
+        val deliverAt: TimeMark
+    )
+
+    companion object {
+        /**
+         * Creates two transports connected to each other.
+         *
+         * @param options the characteristics of the link between the transports.
+         * @param connectionMethod the connection method returned by both transports.
+         * @return a pair of transports, the first with role [Role.MDOC] and the second with
+         *   role [Role.MDOC_READER].
+         */
+        fun createPair(
+            options: Options = Options(),
+            connectionMethod: ConnectionMethod = ConnectionMethodHttp("loopback://localhost/")
+        ): Pair<LoopbackTransport, LoopbackTransport> {
+            val toMdoc = Channel<Packet>(Channel.UNLIMITED)
+            val toMdocReader = Channel<Packet>(Channel.UNLIMITED)
+            val mdoc = LoopbackTransport(Role.MDOC, connectionMethod, options, toMdoc, toMdocReader)
+            val mdocReader =
+                LoopbackTransport(Role.MDOC_READER, connectionMethod, options, toMdocReader, toMdoc)
+            mdoc.peer = mdocReader
+            mdocReader.peer = mdoc
+            return Pair(mdoc, mdocReader)
+        }
+    }
+
+    private lateinit var peer: LoopbackTransport
+
+    private val mutex = Mutex()
+    private val writeMutex = Mutex()
+
+    private val _state = MutableStateFlow<State>(State.IDLE)
+    override val state: StateFlow<State> = _state.asStateFlow()
+
+    // Set once open() has been called, the peer waits for this before it's connected.
+    private val openCalled = MutableStateFlow(false)
+
+    override val scanningTime: Duration?
+        get() = null
+
+    override suspend fun advertise() {
+        mutex.withLock {
+            check(_state.value == State.IDLE) { "Expected state IDLE, got ${_state.value}" }
+            _state.value = State.ADVERTISING
+        }
+    }
+
+    override suspend fun open(eSenderKey: EcPublicKey) {
+        mutex.withLock {
+            check(_state.value == State.IDLE || _state.value == State.ADVERTISING) {
+                "Expected state IDLE or ADVERTISING, got ${_state.value}"
+            }
+            _state.value = State.CONNECTING
+            openCalled.value = true
+        }
+
+        // The lock isn't held while waiting for the peer so the transport can be closed.
+        combine(_state, peer.openCalled) { state, peerOpenCalled ->
+            state != State.CONNECTING || peerOpenCalled
+        }.first { it }
+
+        mutex.withLock {
+            if (_state.value != State.CONNECTING) {
+                throw MdocTransportClosedException("Transport was closed while opening")
+            }
+            _state.value = State.CONNECTED
+        }
+    }
+
+    override suspend fun sendMessage(message: ByteArray) = meteredSend(message) {
+        sendMessageUnmetered(message)
+    }
+
+    private suspend fun sendMessageUnmetered(message: ByteArray) {
+        mutex.withLock {
+            check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
+        }
+        writeMutex.withLock {
+            val transmissionTime = options.transmissionTime(message.size)
+            if (transmissionTime.isPositive()) {
+                delay(transmissionTime)
+            }
+            val packet = Packet(message, options.timeSource.markNow() + options.latency)
+            if (outgoing.trySend(packet).isFailure) {
+                throw MdocTransportClosedException("Transport was closed while sending message")
+            }
+        }
+    }
+
+    override suspend fun waitForMessage(): ByteArray = meteredReceive {
+        waitForMessageUnmetered()
+    }
+
+    private suspend fun waitForMessageUnmetered(): ByteArray {
+        mutex.withLock {
+            check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
+        }
+        val packet = try {
+            incoming.receive()
+        } catch (error: ClosedReceiveChannelException) {
+            throw MdocTransportClosedException("Transport was closed while waiting for message")
+        } catch (error: CancellationException) {
+            // close() cancels the channel, which looks the same as the caller being cancelled.
+            currentCoroutineContext().ensureActive()
+            throw MdocTransportClosedException("Transport was closed while waiting for message")
+        }
+        val remaining = -packet.deliverAt.elapsedNow()
+        if (remaining.isPositive()) {
+            delay(remaining)
+        }
+        return packet.message
+    }
+
+    override suspend fun close() {
+        mutex.withLock {
+            if (_state.value == State.FAILED || _state.value == State.CLOSED) {
+                return
+            }
+            _state.value = State.CLOSED
+            incoming.cancel()
+            outgoing.close()
+        }
+        peer.onPeerClosed()
+    }
+
+    private suspend fun onPeerClosed() {
+        mutex.withLock {
+            if (_state.value == State.CONNECTED) {
+                _state.value = State.CLOSED
+            }
+        }
+    }
+}
@@ -148,7 +148,11 @@ class NfcTransportMdoc(
         }
     }
 
-    override suspend fun sendMessage(message: ByteArray) {
+    override suspend fun sendMessage(message: ByteArray) = meteredSend(message) {
+        sendMessageUnmetered(message)
+    }
+
+    private suspend fun sendMessageUnmetered(message: ByteArray) {
         mutex.withLock {
             check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
             Logger.i(TAG, "sendMessage")
@@ -177,7 +181,11 @@ class NfcTransportMdoc(
         }
     }
 
-    override suspend fun waitForMessage(): ByteArray {
+    override suspend fun waitForMessage(): ByteArray = meteredReceive {
+        waitForMessageUnmetered()
+    }
+
+    private suspend fun waitForMessageUnmetered(): ByteArray {
         mutex.withLock {
             check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
             Logger.i(TAG, "waitForMessage")
@@ -0,0 +1,30 @@
+package com.android.identity.mdoc.transport
+
+import com.android.identity.metrics.Metrics
+
+// Helpers for reporting MdocTransport operations to Metrics, tagged with the kind of
+// connection method and the role.
+
+internal fun MdocTransport.metricsTags(): Array<Pair<String, String>> = arrayOf(
+    "connectionMethod" to (connectionMethod::class.simpleName ?: "Unknown"),
+    "role" to role.name
+)
+
+internal inline fun MdocTransport.meteredSend(message: ByteArray, block: () -> Unit) {
+    if (!Metrics.isEnabled) {
+        return block()
+    }
+    val tags = metricsTags()
+    Metrics.count("mdoc.transport.bytesSent", *tags, amount = message.size.toLong())
+    Metrics.span("mdoc.transport.send", *tags, block = block)
+}
+
+internal inline fun MdocTransport.meteredReceive(block: () -> ByteArray): ByteArray {
+    if (!Metrics.isEnabled) {
+        return block()
+    }
+    val tags = metricsTags()
+    val message = Metrics.span("mdoc.transport.receive", *tags, block = block)
+    Metrics.count("mdoc.transport.bytesReceived", *tags, amount = message.size.toLong())
+    return message
+}
@@ -29,6 +29,8 @@ import com.android.identity.cbor.CborMap
 import com.android.identity.cbor.RawCbor
 import com.android.identity.cbor.Simple
 import com.android.identity.cbor.Tagged
+import com.android.identity.cbor.Tstr
+import com.android.identity.cbor.Uint
 import com.android.identity.document.DocumentRequest
 import com.android.identity.document.DocumentRequest.DataElement
 import com.android.identity.document.NameSpacedData
@@ -48,6 +50,10 @@ import com.android.identity.request.MdocRequest
 import com.android.identity.request.MdocRequestedClaim
 import com.android.identity.request.Requester
 import com.android.identity.util.Logger
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.datetime.Instant
 import kotlin.random.Random
 
@@ -65,6 +71,12 @@ import kotlin.random.Random
 object MdocUtil {
     private const val TAG = "MdocUtil"
 
+    // The start of every IssuerSignedItem: a map with four entries and the "digestID" key.
+    private val ISSUER_SIGNED_ITEM_HEADER =
+        byteArrayOf(0xa4.toByte()) + Cbor.encode(Tstr("digestID"))
+
+    private val ENCODED_RANDOM_KEY = Cbor.encode(Tstr("random"))
+
     /**
      * Generates randoms and digest identifiers for data.
      *
@@ -155,6 +167,114 @@ object MdocUtil {
         return ret
     }
 
+    /**
+     * The issuer-signed data for one credential, as generated by
+     * [generateIssuerNameSpacesBatch].
+     *
+     * @property issuerNameSpaces a map from name spaces into a list of the bytes of the
+     *   `IssuerSignedItemBytes` CBOR, in the same format as returned by
+     *   [generateIssuerNameSpaces].
+     * @property digests a map from name spaces into a map from digest identifiers to digests,
+     *   in the same format as returned by [calculateDigestsForNameSpace].
+     */
+    data class IssuerNameSpacesAndDigests(
+        val issuerNameSpaces: Map<String, List<ByteArray>>,
+        val digests: Map<String, Map<Long, ByteArray>>
+    )
+
+    /**
+     * Generates `IssuerNameSpaces` and digests for several credentials with the same data.
+     *
+     * This is equivalent to calling [generateIssuerNameSpaces] and then
+     * [calculateDigestsForNameSpace] for every name space, [count] times, but each data
+     * element is only encoded once and the resulting `IssuerSignedItemBytes` don't have to
+     * be decoded again to compute digests. Each credential gets its own shuffled digest
+     * identifiers and randoms, drawn from [randomProvider] in the calling coroutine, and the
+     * encoding and hashing for the credentials is then done in parallel on
+     * [Dispatchers.Default].
+     *
+     * @param data The name spaced data.
+     * @param count The number of credentials to generate data for.
+     * @param randomProvider A random provider used for generating digest identifiers and salts.
+     * @param dataElementRandomSize The number of bytes to use for the salt for each data elements,
+     * must be at least 16.
+     * @param digestAlgorithm the digest algorithm to use, for example [Algorithm.SHA256].
+     * @param overrides Optionally, a map of namespaces into data element names into values for
+     * overriding data in the provided [NameSpacedData] parameter.
+     * @return a list of [count] [IssuerNameSpacesAndDigests], one for each credential.
+     * @throws IllegalArgumentException if `dataElementRandomSize` is less than 16 or `count`
+     * is negative.
+     */
+    suspend fun generateIssuerNameSpacesBatch(
+        data: NameSpacedData,
+        count: Int,
+        randomProvider: Random,
+        dataElementRandomSize: Int,
+        digestAlgorithm: Algorithm,
+        overrides: Map<String, Map<String, ByteArray>>? = null
+    ): List<IssuerNameSpacesAndDigests> {
+        require(dataElementRandomSize >= 16) {
+            "Random size must be at least 16 bytes"
+        }
+        require(count >= 0) { "Count must not be negative" }
+
+        // Everything in an IssuerSignedItem except digestID and random is the same for all
+        // credentials, so encode that once. Keys are in the same order as in
+        // generateIssuerNameSpaces() so the encoding is identical.
+        val encodedElementTails = data.nameSpaceNames.associateWith { nsName ->
+            val overridesByNameSpace = overrides?.get(nsName)
+            data.getDataElementNames(nsName).map { elemName ->
+                val encodedValue = overridesByNameSpace?.get(elemName)
+                    ?: data.getDataElement(nsName, elemName)
+                Cbor.encode(Tstr("elementIdentifier")) +
+                        Cbor.encode(Tstr(elemName)) +
+                        Cbor.encode(Tstr("elementValue")) +
+                        encodedValue
+            }
+        }
+        val numDataElements = encodedElementTails.values.sumOf { it.size }
+
+        // Random isn't thread-safe, so draw everything from it before going parallel.
+        val saltsAndDigestIds = List(count) {
+            val digestIds = (0L until numDataElements).toMutableList()
+            digestIds.shuffle(randomProvider)
+            val randoms = List(numDataElements) { randomProvider.nextBytes(dataElementRandomSize) }
+            Pair(digestIds, randoms)
+        }
+
+        return coroutineScope {
+            saltsAndDigestIds.map { (digestIds, randoms) ->
+                async(Dispatchers.Default) {
+                    var n = 0
+                    val issuerNameSpaces = mutableMapOf<String, List<ByteArray>>()
+                    val digests = mutableMapOf<String, Map<Long, ByteArray>>()
+                    for ((nsName, tails) in encodedElementTails) {
+                        val list = ArrayList<ByteArray>(tails.size)
+                        val digestsForNameSpace = LinkedHashMap<Long, ByteArray>()
+                        for (tail in tails) {
+                            val digestId = digestIds[n]
+                            val encodedIssuerSignedItem = ISSUER_SIGNED_ITEM_HEADER +
+                                    Cbor.encode(Uint(digestId.toULong())) +
+                                    ENCODED_RANDOM_KEY +
+                                    Cbor.encode(Bstr(randoms[n])) +
+                                    tail
+                            val encodedIssuerSignedItemBytes = Cbor.encode(
+                                Tagged(Tagged.ENCODED_CBOR, Bstr(encodedIssuerSignedItem))
+                            )
+                            list.add(encodedIssuerSignedItemBytes)
+                            digestsForNameSpace[digestId] =
+                                Crypto.digest(digestAlgorithm, encodedIssuerSignedItemBytes)
+                            n++
+                        }
+                        issuerNameSpaces[nsName] = list
+                        digests[nsName] = digestsForNameSpace
+                    }
+                    IssuerNameSpacesAndDigests(issuerNameSpaces, digests)
+                }
+            }.awaitAll()
+        }
+    }
+
     /**
      * Strips issuer name spaces.
      *
@@ -625,6 +745,10 @@ object MdocUtil {
     /**
      * Helper function to generate a list of claims for an mdoc.
      *
+     * Data elements are looked up with [DocumentTypeRepository.getMdocDataElement], so display
+     * names are also found for data elements in known namespaces requested for an unknown
+     * [docType].
+     *
      * @param docType the mdoc document type.
      * @param requestedData a map from namespace into a list of data elements where each
      *     pair is the data element name and whether the data element will be retained.
@@ -638,15 +762,11 @@ object MdocUtil {
         documentTypeRepository: DocumentTypeRepository,
         mdocCredential: MdocCredential?,
     ): List<MdocRequestedClaim> {
-        val mdocDocumentType = documentTypeRepository.getDocumentTypeForMdoc(docType)?.mdocDocumentType
         val ret = mutableListOf<MdocRequestedClaim>()
         for ((namespaceName, listOfDe) in requestedData) {
             for ((dataElementName, intentToRetain) in listOfDe) {
                 val attribute =
-                    mdocDocumentType?.namespaces
-                        ?.get(namespaceName)
-                        ?.dataElements
-                        ?.get(dataElementName)
+                    documentTypeRepository.getMdocDataElement(namespaceName, dataElementName)
                         ?.attribute
                 ret.add(
                     MdocRequestedClaim(
@@ -34,6 +34,7 @@ import kotlin.test.BeforeTest
 import kotlin.test.Test
 import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
 import kotlin.test.assertFalse
 import kotlin.test.assertTrue
 
@@ -129,6 +130,26 @@ class DeviceRequestParserTest {
         assertFalse(dr.readerAuthenticated)
     }
 
+    @Test
+    fun testDeviceRequestParserMalformedSessionTranscript() {
+        val encodedSessionTranscriptBytes =
+            TestVectors.ISO_18013_5_ANNEX_D_SESSION_TRANSCRIPT_BYTES.fromHex()
+        val encodedSessionTranscript =
+            Cbor.encode(Cbor.decode(encodedSessionTranscriptBytes).asTaggedEncodedCbor)
+
+        // Truncated, and with trailing data.
+        for (malformed in listOf(
+            encodedSessionTranscript.copyOf(encodedSessionTranscript.size - 1),
+            encodedSessionTranscript + byteArrayOf(0)
+        )) {
+            val parser = DeviceRequestParser(
+                TestVectors.ISO_18013_5_ANNEX_D_DEVICE_REQUEST.fromHex(),
+                malformed
+            )
+            assertFailsWith<IllegalArgumentException> { parser.parse() }
+        }
+    }
+
     fun testDeviceRequestParserReaderAuthHelper(curve: EcCurve) {
         // TODO: use assumeTrue() when available in kotlin-test
         if (!Crypto.supportedCurves.contains(curve)) {
@@ -0,0 +1,126 @@
+package com.android.identity.mdoc.transport
+
+import com.android.identity.crypto.Crypto
+import com.android.identity.crypto.EcCurve
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.runTest
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+class LoopbackTransportTests {
+
+    @Test
+    fun testHappyPath() = runTest {
+        val (mdoc, mdocReader) = LoopbackTransport.createPair()
+        val eDeviceKey = Crypto.createEcPrivateKey(EcCurve.P256)
+        val eReaderKey = Crypto.createEcPrivateKey(EcCurve.P256)
+
+        mdoc.advertise()
+        assertEquals(MdocTransport.State.ADVERTISING, mdoc.state.value)
+        val mdocOpened = launch { mdoc.open(eReaderKey.publicKey) }
+        mdocReader.open(eDeviceKey.publicKey)
+        mdocOpened.join()
+        assertEquals(MdocTransport.State.CONNECTED, mdoc.state.value)
+        assertEquals(MdocTransport.State.CONNECTED, mdocReader.state.value)
+
+        val request = ByteArray(1024) { it.toByte() }
+        mdocReader.sendMessage(request)
+        assertContentEquals(request, mdoc.waitForMessage())
+        val response = ByteArray(64 * 1024) { (it / 3).toByte() }
+        mdoc.sendMessage(response)
+        assertContentEquals(response, mdocReader.waitForMessage())
+
+        // Transport-specific session termination.
+        mdoc.sendMessage(byteArrayOf())
+        assertContentEquals(byteArrayOf(), mdocReader.waitForMessage())
+
+        mdocReader.close()
+        assertEquals(MdocTransport.State.CLOSED, mdocReader.state.value)
+        assertEquals(MdocTransport.State.CLOSED, mdoc.state.value)
+    }
+
+    @Test
+    fun testLinkEmulation() = runTest {
+        val options = LoopbackTransport.Options(
+            latency = 50.milliseconds,
+            bandwidth = 10_000,
+            mtu = 100,
+            packetOverhead = 25,
+            timeSource = testScheduler.timeSource
+        )
+        // 1000 bytes in 10 packets of 100 bytes, each with 25 bytes of overhead.
+        assertEquals(125.milliseconds, options.transmissionTime(1000))
+        assertEquals(0.0025.seconds, options.transmissionTime(0))
+
+        val (mdoc, mdocReader) = LoopbackTransport.createPair(options)
+        val eKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        launch { mdoc.open(eKey) }
+        mdocReader.open(eKey)
+
+        val start = testScheduler.timeSource.markNow()
+        mdocReader.sendMessage(ByteArray(1000))
+        assertEquals(125.milliseconds, start.elapsedNow())
+        mdoc.waitForMessage()
+        assertEquals(175.milliseconds, start.elapsedNow())
+    }
+
+    @Test
+    fun testCloseWhileOpening() = runTest {
+        val (mdoc, _) = LoopbackTransport.createPair()
+        val eKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        val opening = launch {
+            assertFailsWith<MdocTransportClosedException> { mdoc.open(eKey) }
+        }
+        testScheduler.runCurrent()
+        assertEquals(MdocTransport.State.CONNECTING, mdoc.state.value)
+        mdoc.close()
+        opening.join()
+        assertEquals(MdocTransport.State.CLOSED, mdoc.state.value)
+    }
+
+    @Test
+    fun testPeerClosedWhileWaiting() = runTest {
+        val (mdoc, mdocReader) = LoopbackTransport.createPair()
+        val eKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        launch { mdoc.open(eKey) }
+        mdocReader.open(eKey)
+        val waiting = launch {
+            assertFailsWith<MdocTransportClosedException> { mdoc.waitForMessage() }
+        }
+        testScheduler.runCurrent()
+        mdocReader.close()
+        waiting.join()
+        assertEquals(MdocTransport.State.CLOSED, mdoc.state.value)
+    }
+
+    @Test
+    fun testCancelWhileWaiting() = runTest {
+        val (mdoc, mdocReader) = LoopbackTransport.createPair()
+        val eKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        launch { mdoc.open(eKey) }
+        mdocReader.open(eKey)
+        var error: Throwable? = null
+        val waiting = launch {
+            try {
+                mdoc.waitForMessage()
+            } catch (e: Throwable) {
+                error = e
+                throw e
+            }
+        }
+        testScheduler.runCurrent()
+        waiting.cancel()
+        waiting.join()
+        // Cancellation is passed on as is and the transport stays usable.
+        assertTrue(error is CancellationException)
+        assertEquals(MdocTransport.State.CONNECTED, mdoc.state.value)
+        mdocReader.sendMessage(byteArrayOf(1))
+        assertContentEquals(byteArrayOf(1), mdoc.waitForMessage())
+    }
+}
@@ -33,9 +33,11 @@ import com.android.identity.mdoc.request.DeviceRequestParser
 import com.android.identity.mdoc.util.MdocUtil.calculateDigestsForNameSpace
 import com.android.identity.mdoc.util.MdocUtil.generateDocumentRequest
 import com.android.identity.mdoc.util.MdocUtil.generateIssuerNameSpaces
+import com.android.identity.mdoc.util.MdocUtil.generateIssuerNameSpacesBatch
 import com.android.identity.mdoc.util.MdocUtil.stripIssuerNameSpaces
 import com.android.identity.util.fromHex
 import com.android.identity.util.toHex
+import kotlinx.coroutines.test.runTest
 import kotlinx.datetime.LocalDateTime
 import kotlinx.datetime.TimeZone
 import kotlinx.datetime.toInstant
@@ -228,6 +230,62 @@ class MdocUtilTest {
         )
     }
 
+    @Test
+    fun testGenerateIssuerNameSpacesBatch() = runTest {
+        val nameSpacedData = NameSpacedData.Builder()
+            .putEntryString("ns1", "foo1", "bar1")
+            .putEntryString("ns1", "foo2", "bar2")
+            .putEntryString("ns1", "foo3", "bar3")
+            .putEntryString("ns2", "bar1", "foo1")
+            .putEntryString("ns2", "bar2", "foo2")
+            .build()
+        val overrides = mapOf("ns1" to mapOf("foo3" to Cbor.encode(Tstr("bar3_override"))))
+
+        // With the same seed, a batch of one is identical to generateIssuerNameSpaces().
+        val expected = generateIssuerNameSpaces(nameSpacedData, Random(42), 16, overrides)
+        val single = generateIssuerNameSpacesBatch(
+            nameSpacedData, 1, Random(42), 16, Algorithm.SHA256, overrides
+        ).single()
+        assertEquals(expected.keys, single.issuerNameSpaces.keys)
+        for ((nsName, items) in expected) {
+            val batchItems = single.issuerNameSpaces[nsName]!!
+            assertEquals(items.size, batchItems.size)
+            items.zip(batchItems).forEach { (item, batchItem) ->
+                assertContentEquals(item, batchItem)
+            }
+        }
+
+        val batch = generateIssuerNameSpacesBatch(
+            nameSpacedData, 3, Random(42), 16, Algorithm.SHA256, overrides
+        )
+        assertEquals(3, batch.size)
+        for (credential in batch) {
+            for (nsName in listOf("ns1", "ns2")) {
+                val digests = calculateDigestsForNameSpace(
+                    nsName,
+                    credential.issuerNameSpaces,
+                    Algorithm.SHA256
+                )
+                val batchDigests = credential.digests[nsName]!!
+                assertEquals(digests.keys, batchDigests.keys)
+                for ((digestId, digest) in digests) {
+                    assertContentEquals(digest, batchDigests[digestId])
+                }
+            }
+            assertEquals(
+                (0L until 5L).toSet(),
+                credential.digests.values.flatMap { it.keys }.toSet()
+            )
+        }
+        // Each credential has its own salts.
+        val randoms = batch.flatMap { credential ->
+            credential.issuerNameSpaces.values.flatten().map {
+                Cbor.decode(it).asTaggedEncodedCbor["random"].asBstr.toHex()
+            }
+        }
+        assertEquals(15, randoms.toSet().size)
+    }
+
     @Test
     fun testGetDigestsForNameSpaceInTestVectors() {
         val deviceResponse = Cbor.decode(
@@ -0,0 +1,75 @@
+package com.android.identity.mdoc.transport
+
+import java.net.URI
+
+/**
+ * A [MdocTransport] exchanging messages as HTTP/1.1 requests and responses over a single
+ * persistent connection, same as `DataTransportHttp` on Android.
+ *
+ * The _mdoc reader_ acts as the HTTP server and sends its messages as `200 OK` responses,
+ * the _mdoc_ connects and sends its messages as `POST` requests to the path of the URI.
+ * Message bodies use the `application/cbor` content type and must have a `Content-Length`.
+ */
+internal class HttpTransport(
+    role: Role,
+    options: MdocTransportOptions,
+    private val uri: URI
+) : SocketTransport(role, options, uri, isListener = role == Role.MDOC_READER) {
+    companion object {
+        private const val CONTENT_LENGTH = "content-length:"
+    }
+
+    private val isServer = role == Role.MDOC_READER
+
+    override suspend fun readMessage(connection: NioConnection): ByteArray? {
+        if (!connection.awaitData()) {
+            return null
+        }
+        val startLine = connection.readLine()
+        if (isServer) {
+            if (!startLine.startsWith("POST ")) {
+                throw MdocTransportException("Unexpected request '$startLine'")
+            }
+        } else {
+            val parts = startLine.split(' ', limit = 3)
+            if (parts.size < 2 || !parts[0].startsWith("HTTP/") || parts[1] != "200") {
+                throw MdocTransportException("Unexpected response '$startLine'")
+            }
+        }
+        var contentLength = -1
+        while (true) {
+            val line = connection.readLine()
+            if (line.isEmpty()) {
+                break
+            }
+            if (line.lowercase().startsWith(CONTENT_LENGTH)) {
+                contentLength = line.substring(CONTENT_LENGTH.length).trim().toIntOrNull()
+                    ?: throw MdocTransportException("Malformed header '$line'")
+            }
+        }
+        if (contentLength < 0) {
+            throw MdocTransportException("Content-Length missing")
+        }
+        if (contentLength > MAX_MESSAGE_SIZE) {
+            throw MdocTransportException("Maximum message size exceeded: $contentLength")
+        }
+        return connection.readBytes(contentLength)
+    }
+
+    override suspend fun writeMessage(connection: NioConnection, message: ByteArray) {
+        val startLine = if (isServer) {
+            "HTTP/1.1 200 OK\r\n"
+        } else {
+            val path = uri.rawPath.ifEmpty { "/" }
+            val port = if (uri.port < 0) "" else ":${uri.port}"
+            "POST $path HTTP/1.1\r\nHost: ${uri.host}$port\r\n"
+        }
+        val header = startLine +
+                "Content-Length: ${message.size}\r\n" +
+                "Content-Type: application/cbor\r\n" +
+                "\r\n"
+        connection.write(message) { buffer ->
+            buffer.put(header.encodeToByteArray())
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.android.identity.mdoc.transport
+
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.EOFException
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousServerSocketChannel
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.CompletionHandler
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * A connected socket with suspending, buffered reads and writes.
+ *
+ * This uses [AsynchronousSocketChannel] so no thread is blocked while waiting for the peer,
+ * all connections in a process share the default channel group's thread pool. Each connection
+ * has one direct buffer for reading and one for writing message headers, both are reused
+ * for every message. Message bodies are read straight into an array of the final size and
+ * written together with the header using a gathering write.
+ */
+internal class NioConnection(private val channel: AsynchronousSocketChannel) {
+    // Always in "read mode", i.e. the bytes between position and limit haven't been consumed.
+    private val readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip()
+    private val headerBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+
+    init {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true)
+    }
+
+    /**
+     * Waits until data is available.
+     *
+     * @return `false` if the peer closed the connection, `true` otherwise.
+     */
+    suspend fun awaitData(): Boolean = readBuffer.hasRemaining() || fill()
+
+    suspend fun readInt(): Int {
+        while (readBuffer.remaining() < 4) {
+            if (!fill()) {
+                throw EOFException("Unexpected end of stream")
+            }
+        }
+        return readBuffer.getInt()
+    }
+
+    /**
+     * Reads a line terminated by LF or CRLF, without the terminator.
+     */
+    suspend fun readLine(): String {
+        val line = StringBuilder()
+        while (true) {
+            while (readBuffer.hasRemaining()) {
+                val c = readBuffer.get().toInt().and(0xff).toChar()
+                if (c == '\n') {
+                    return line.removeSuffix("\r").toString()
+                }
+                if (line.length >= BUFFER_SIZE) {
+                    throw IOException("Line too long")
+                }
+                line.append(c)
+            }
+            if (!fill()) {
+                throw EOFException("Unexpected end of stream")
+            }
+        }
+    }
+
+    suspend fun readBytes(count: Int): ByteArray {
+        val result = ByteArray(count)
+        val buffered = minOf(count, readBuffer.remaining())
+        readBuffer.get(result, 0, buffered)
+        val rest = ByteBuffer.wrap(result, buffered, count - buffered)
+        while (rest.hasRemaining()) {
+            if (channel.readSuspending(rest) < 0) {
+                throw EOFException("Unexpected end of stream, expected $count bytes")
+            }
+        }
+        return result
+    }
+
+    /**
+     * Writes a message.
+     *
+     * @param body the message body.
+     * @param putHeader a function to put the header for the message into the given buffer.
+     */
+    suspend fun write(body: ByteArray, putHeader: (ByteBuffer) -> Unit) {
+        headerBuffer.clear()
+        putHeader(headerBuffer)
+        headerBuffer.flip()
+        val buffers = arrayOf(headerBuffer, ByteBuffer.wrap(body))
+        while (buffers[1].hasRemaining()) {
+            channel.writeSuspending(buffers)
+        }
+    }
+
+    fun close() {
+        try {
+            channel.close()
+        } catch (e: IOException) {
+            // Ignore, nothing we can do about it.
+        }
+    }
+
+    private suspend fun fill(): Boolean {
+        readBuffer.compact()
+        val count = try {
+            channel.readSuspending(readBuffer)
+        } finally {
+            readBuffer.flip()
+        }
+        return count >= 0
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 8 * 1024
+
+        suspend fun connect(address: InetSocketAddress): NioConnection {
+            val channel = AsynchronousSocketChannel.open()
+            try {
+                suspendCancellableCoroutine<Void?> { continuation ->
+                    continuation.invokeOnCancellation { channel.close() }
+                    channel.connect(address, null, continuation.completionHandler())
+                }
+            } catch (error: Throwable) {
+                channel.close()
+                throw error
+            }
+            return NioConnection(channel)
+        }
+
+        suspend fun accept(serverChannel: AsynchronousServerSocketChannel): NioConnection {
+            val channel = suspendCancellableCoroutine<AsynchronousSocketChannel> { continuation ->
+                continuation.invokeOnCancellation { serverChannel.close() }
+                serverChannel.accept(null, continuation.completionHandler())
+            }
+            return NioConnection(channel)
+        }
+    }
+}
+
+private fun <T> CancellableContinuation<T>.completionHandler() =
+    object : CompletionHandler<T, Any?> {
+        override fun completed(result: T, attachment: Any?) = resume(result)
+        override fun failed(exc: Throwable, attachment: Any?) = resumeWithException(exc)
+    }
+
+private suspend fun AsynchronousSocketChannel.readSuspending(buffer: ByteBuffer): Int =
+    suspendCancellableCoroutine { continuation ->
+        continuation.invokeOnCancellation { close() }
+        read(buffer, null, continuation.completionHandler())
+    }
+
+private suspend fun AsynchronousSocketChannel.writeSuspending(buffers: Array<ByteBuffer>): Long =
+    suspendCancellableCoroutine { continuation ->
+        continuation.invokeOnCancellation { close() }
+        write(
+            buffers,
+            0,
+            buffers.size,
+            0L,  // no timeout
+            TimeUnit.MILLISECONDS,
+            null,
+            continuation.completionHandler()
+        )
+    }
@@ -0,0 +1,247 @@
+package com.android.identity.mdoc.transport
+
+import com.android.identity.crypto.EcPublicKey
+import com.android.identity.mdoc.connectionmethod.ConnectionMethod
+import com.android.identity.mdoc.connectionmethod.ConnectionMethodHttp
+import com.android.identity.util.Logger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.net.InetSocketAddress
+import java.net.URI
+import java.nio.channels.AsynchronousServerSocketChannel
+import kotlin.time.Duration
+
+/**
+ * Base class for [MdocTransport] implementations over a TCP socket.
+ *
+ * The peer which listens binds to the host and port in [uri] (port 0 picks a free port) and
+ * accepts a single connection, the other peer connects to it. Subclasses only implement the
+ * message framing. No threads are dedicated to a transport, see [NioConnection].
+ *
+ * @param uri the URI to listen on or connect to.
+ * @param isListener whether this side listens for the connection.
+ */
+internal abstract class SocketTransport(
+    override val role: Role,
+    protected val options: MdocTransportOptions,
+    private val uri: URI,
+    private val isListener: Boolean
+) : MdocTransport() {
+    companion object {
+        private const val TAG = "SocketTransport"
+
+        internal const val MAX_MESSAGE_SIZE = 16 * 1024 * 1024
+    }
+
+    private val mutex = Mutex()
+    private val writeMutex = Mutex()
+
+    private val _state = MutableStateFlow<State>(State.IDLE)
+    override val state: StateFlow<State> = _state.asStateFlow()
+
+    override val scanningTime: Duration?
+        get() = null
+
+    private var _connectionMethod = ConnectionMethodHttp(uri.toString())
+    override val connectionMethod: ConnectionMethod
+        get() = _connectionMethod
+
+    private var serverChannel: AsynchronousServerSocketChannel? = null
+    private var connection: NioConnection? = null
+    private var ioJob: Job? = null
+    private val incomingMessages = Channel<ByteArray>(Channel.UNLIMITED)
+
+    /**
+     * Reads the next message.
+     *
+     * @return the message or `null` if the peer closed the connection between messages.
+     */
+    protected abstract suspend fun readMessage(connection: NioConnection): ByteArray?
+
+    protected abstract suspend fun writeMessage(connection: NioConnection, message: ByteArray)
+
+    override suspend fun advertise() {
+        mutex.withLock {
+            check(_state.value == State.IDLE) { "Expected state IDLE, got ${_state.value}" }
+            if (isListener) {
+                listen()
+                _state.value = State.ADVERTISING
+            }
+        }
+    }
+
+    private fun listen() {
+        val channel = AsynchronousServerSocketChannel.open()
+        try {
+            channel.bind(InetSocketAddress(uri.host, maxOf(uri.port, 0)))
+        } catch (error: Throwable) {
+            channel.close()
+            throw error
+        }
+        val port = (channel.localAddress as InetSocketAddress).port
+        _connectionMethod = ConnectionMethodHttp(
+            URI(uri.scheme, null, uri.host, port, uri.path, null, null).toString()
+        )
+        serverChannel = channel
+    }
+
+    override suspend fun open(eSenderKey: EcPublicKey) {
+        val server = mutex.withLock {
+            check(_state.value == State.IDLE || _state.value == State.ADVERTISING) {
+                "Expected state IDLE or ADVERTISING, got ${_state.value}"
+            }
+            try {
+                if (isListener && serverChannel == null) {
+                    listen()
+                }
+            } catch (error: Throwable) {
+                failTransport(error)
+                throw MdocTransportException("Failed while opening transport", error)
+            }
+            _state.value = State.CONNECTING
+            serverChannel
+        }
+
+        // The lock isn't held while waiting for the peer so the transport can be closed.
+        val newConnection = try {
+            if (server != null) {
+                NioConnection.accept(server).also { server.close() }
+            } else {
+                NioConnection.connect(InetSocketAddress(uri.host, uri.port))
+            }
+        } catch (error: Throwable) {
+            mutex.withLock {
+                if (_state.value == State.CLOSED) {
+                    throw MdocTransportClosedException("Transport was closed while opening")
+                }
+                failTransport(error)
+            }
+            throw MdocTransportException("Failed while opening transport", error)
+        }
+
+        mutex.withLock {
+            if (_state.value != State.CONNECTING) {
+                newConnection.close()
+                throw MdocTransportClosedException("Transport was closed while opening")
+            }
+            serverChannel = null
+            connection = newConnection
+            _state.value = State.CONNECTED
+            ioJob = CoroutineScope(currentCoroutineContext()).launch {
+                readMessages(newConnection)
+            }
+        }
+    }
+
+    private suspend fun readMessages(connection: NioConnection) {
+        try {
+            while (true) {
+                val message = readMessage(connection) ?: break
+                incomingMessages.send(message)
+            }
+            Logger.i(TAG, "Peer closed the connection")
+            mutex.withLock {
+                if (_state.value == State.CONNECTED) {
+                    _state.value = State.CLOSED
+                    shutdown()
+                }
+            }
+        } catch (error: Throwable) {
+            mutex.withLock {
+                failTransport(error)
+            }
+        }
+    }
+
+    override suspend fun sendMessage(message: ByteArray) = meteredSend(message) {
+        sendMessageUnmetered(message)
+    }
+
+    private suspend fun sendMessageUnmetered(message: ByteArray) {
+        if (message.isEmpty()) {
+            throw MdocTransportTerminationException(
+                "Transport-specific session termination is not supported"
+            )
+        }
+        val connection = mutex.withLock {
+            check(_state.value == State.CONNECTED) { "Expected state CONNECTED, got ${_state.value}" }
+            connection!!
+        }
+        try {
+            writeMutex.withLock {
+                writeMessage(connection, message)
+            }
+        } catch (error: Throwable) {
+            mutex.withLock {
+                failTransport(error)
+            }
+            throw MdocTransportException("Failed while sending message", error)
+        }
+    }
+
+    override suspend fun waitForMessage(): ByteArray = meteredReceive {
+        waitForMessageUnmetered()
+    }
+
+    private suspend fun waitForMessageUnmetered(): ByteArray {
+        val state = mutex.withLock { _state.value }
+        if (state == State.CLOSED) {
+            // The peer may have sent messages right before closing the connection, those are
+            // still delivered.
+            incomingMessages.tryReceive().getOrNull()?.let { return it }
+            throw MdocTransportClosedException("Transport was closed")
+        }
+        check(state == State.CONNECTED) { "Expected state CONNECTED, got $state" }
+        try {
+            return incomingMessages.receive()
+        } catch (error: Throwable) {
+            if (_state.value == State.CLOSED) {
+                throw MdocTransportClosedException("Transport was closed while waiting for message")
+            } else {
+                mutex.withLock {
+                    failTransport(error)
+                }
+                throw MdocTransportException("Failed while waiting for message", error)
+            }
+        }
+    }
+
+    override suspend fun close() {
+        mutex.withLock {
+            if (_state.value == State.FAILED || _state.value == State.CLOSED) {
+                return
+            }
+            _state.value = State.CLOSED
+            shutdown()
+        }
+    }
+
+    private fun failTransport(error: Throwable) {
+        check(mutex.isLocked) { "failTransport called without holding lock" }
+        if (_state.value == State.FAILED || _state.value == State.CLOSED) {
+            return
+        }
+        Logger.w(TAG, "Failing transport with error", error)
+        incomingMessages.close(error)
+        _state.value = State.FAILED
+        shutdown()
+    }
+
+    private fun shutdown() {
+        incomingMessages.close()
+        ioJob?.cancel()
+        ioJob = null
+        serverChannel?.close()
+        serverChannel = null
+        connection?.close()
+        connection = null
+    }
+}
@@ -0,0 +1,48 @@
+package com.android.identity.mdoc.transport
+
+import com.android.identity.mdoc.connectionmethod.ConnectionMethodHttp
+import java.net.URI
+
+/**
+ * A [MdocTransport] sending length-prefixed messages over a TCP connection.
+ *
+ * Each message is prefixed by the four bytes `GmDL` and the length of the message as a
+ * big-endian 32-bit integer, same as `DataTransportTcp` on Android. The _mdoc_ listens
+ * and the _mdoc reader_ connects.
+ *
+ * This isn't defined by ISO/IEC 18013-5:2021, it's selected by a [ConnectionMethodHttp]
+ * with an URI of the form `tcp://<host>:<port>`.
+ */
+internal class TcpTransport(
+    role: Role,
+    options: MdocTransportOptions,
+    uri: URI
+) : SocketTransport(role, options, uri, isListener = role == Role.MDOC) {
+    companion object {
+        // "GmDL" in ASCII
+        private const val MAGIC = 0x476d444c
+    }
+
+    override suspend fun readMessage(connection: NioConnection): ByteArray? {
+        if (!connection.awaitData()) {
+            return null
+        }
+        val magic = connection.readInt()
+        if (magic != MAGIC) {
+            throw MdocTransportException("Unexpected header ${magic.toString(16)}")
+        }
+        val length = connection.readInt()
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            // This is mostly to avoid peers trying to fool us into allocating e.g. 2 GiB
+            throw MdocTransportException("Maximum message size exceeded: $length")
+        }
+        return connection.readBytes(length)
+    }
+
+    override suspend fun writeMessage(connection: NioConnection, message: ByteArray) {
+        connection.write(message) { header ->
+            header.putInt(MAGIC)
+            header.putInt(message.size)
+        }
+    }
+}
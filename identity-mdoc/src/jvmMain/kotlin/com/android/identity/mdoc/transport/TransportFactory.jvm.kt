@@ -1,11 +1,34 @@
 package com.android.identity.mdoc.transport
 
 import com.android.identity.mdoc.connectionmethod.ConnectionMethod
+import com.android.identity.mdoc.connectionmethod.ConnectionMethodHttp
+import java.net.URI
 
 actual fun defaultMdocTransportFactoryCreateTransport(
     connectionMethod: ConnectionMethod,
     role: MdocTransport.Role,
     options: MdocTransportOptions
 ): MdocTransport {
-    throw NotImplementedError("MdocTransportFactory is not available for JVM")
+    when (connectionMethod) {
+        is ConnectionMethodHttp -> {
+            val uri = URI(connectionMethod.uri)
+            requireNotNull(uri.host) { "No host in ${connectionMethod.uri}" }
+            return when (uri.scheme) {
+                "http" -> HttpTransport(role, options, uri.withDefaultPort(80))
+                "tcp" -> {
+                    require(uri.port >= 0) { "No port in ${connectionMethod.uri}" }
+                    TcpTransport(role, options, uri)
+                }
+                else -> throw IllegalArgumentException(
+                    "Unsupported URI scheme in ${connectionMethod.uri}"
+                )
+            }
+        }
+        else -> {
+            throw IllegalArgumentException("$connectionMethod is not supported")
+        }
+    }
 }
+
+private fun URI.withDefaultPort(defaultPort: Int): URI =
+    if (port >= 0) this else URI(scheme, userInfo, host, defaultPort, path, query, fragment)
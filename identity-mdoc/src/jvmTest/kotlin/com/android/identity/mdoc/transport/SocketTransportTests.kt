@@ -0,0 +1,115 @@
+package com.android.identity.mdoc.transport
+
+import com.android.identity.crypto.Crypto
+import com.android.identity.crypto.EcCurve
+import com.android.identity.mdoc.connectionmethod.ConnectionMethodHttp
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.time.Duration.Companion.seconds
+
+class SocketTransportTests {
+
+    private fun testRoundTrip(scheme: String, listenerRole: MdocTransport.Role) = runBlocking<Unit> {
+        val eSenderKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        val connectorRole = if (listenerRole == MdocTransport.Role.MDOC) {
+            MdocTransport.Role.MDOC_READER
+        } else {
+            MdocTransport.Role.MDOC
+        }
+        val listener = MdocTransportFactory.Default.createTransport(
+            ConnectionMethodHttp("$scheme://127.0.0.1:0/mdocreader"),
+            listenerRole
+        )
+        listener.advertise()
+        assertEquals(MdocTransport.State.ADVERTISING, listener.state.value)
+        val connector = MdocTransportFactory.Default.createTransport(
+            listener.connectionMethod,
+            connectorRole
+        )
+
+        val listenerOpened = launch { listener.open(eSenderKey) }
+        connector.open(eSenderKey)
+        listenerOpened.join()
+        assertEquals(MdocTransport.State.CONNECTED, listener.state.value)
+        assertEquals(MdocTransport.State.CONNECTED, connector.state.value)
+
+        // For HTTP the mdoc (client) always has to speak first.
+        val (first, second) = if (connectorRole == MdocTransport.Role.MDOC) {
+            Pair(connector, listener)
+        } else {
+            Pair(listener, connector)
+        }
+        for (size in listOf(1, 100, 100_000, 1_000_000)) {
+            val request = Random.nextBytes(size)
+            first.sendMessage(request)
+            assertContentEquals(request, second.waitForMessage())
+            val response = Random.nextBytes(size + 1)
+            second.sendMessage(response)
+            assertContentEquals(response, first.waitForMessage())
+        }
+        assertFailsWith<MdocTransportTerminationException> { first.sendMessage(byteArrayOf()) }
+
+        connector.close()
+        assertEquals(MdocTransport.State.CLOSED, connector.state.value)
+        // The other side sees the connection being closed by the peer.
+        withTimeout(5.seconds) {
+            listener.state.first { it == MdocTransport.State.CLOSED }
+        }
+    }
+
+    @Test
+    fun testTcp() = testRoundTrip("tcp", MdocTransport.Role.MDOC)
+
+    @Test
+    fun testHttp() = testRoundTrip("http", MdocTransport.Role.MDOC_READER)
+
+    @Test
+    fun testMessageSentBeforeClose() = runBlocking<Unit> {
+        val eSenderKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        val listener = MdocTransportFactory.Default.createTransport(
+            ConnectionMethodHttp("tcp://127.0.0.1:0/mdocreader"),
+            MdocTransport.Role.MDOC_READER
+        )
+        listener.advertise()
+        val connector = MdocTransportFactory.Default.createTransport(
+            listener.connectionMethod,
+            MdocTransport.Role.MDOC
+        )
+        val listenerOpened = launch { listener.open(eSenderKey) }
+        connector.open(eSenderKey)
+        listenerOpened.join()
+
+        val message = Random.nextBytes(1000)
+        connector.sendMessage(message)
+        connector.close()
+        // Only start waiting once the listener has seen the connection being closed.
+        withTimeout(5.seconds) {
+            listener.state.first { it == MdocTransport.State.CLOSED }
+        }
+        assertContentEquals(message, listener.waitForMessage())
+        assertFailsWith<MdocTransportClosedException> { listener.waitForMessage() }
+    }
+
+    @Test
+    fun testCloseWhileListening() = runBlocking {
+        val listener = MdocTransportFactory.Default.createTransport(
+            ConnectionMethodHttp("http://127.0.0.1:0/mdocreader"),
+            MdocTransport.Role.MDOC_READER
+        )
+        val eSenderKey = Crypto.createEcPrivateKey(EcCurve.P256).publicKey
+        val opening = launch {
+            assertFailsWith<MdocTransportClosedException> { listener.open(eSenderKey) }
+        }
+        listener.state.first { it == MdocTransport.State.CONNECTING }
+        listener.close()
+        opening.join()
+        assertEquals(MdocTransport.State.CLOSED, listener.state.value)
+    }
+}
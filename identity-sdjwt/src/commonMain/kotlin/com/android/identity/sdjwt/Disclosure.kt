@@ -30,14 +30,34 @@ class Disclosure(
     private val digestAlg: Algorithm = Algorithm.SHA256
 ) {
 
+    /**
+     * The name of the disclosed claim, or the empty string if [isArrayElement] is `true`.
+     */
     val key: String
     val value: JsonElement
 
+    /**
+     * Whether this is a disclosure of an array element, i.e. a two-element JSON array
+     * with just the salt and the value.
+     */
+    val isArrayElement: Boolean
+
     init {
         val contentsString = disclosure.fromBase64Url().decodeToString()
         val contents = Json.decodeFromString(JsonArray.serializer(), contentsString).jsonArray
-        key = contents[1].jsonPrimitive.content
-        value = contents[2]
+        when (contents.size) {
+            3 -> {
+                key = contents[1].jsonPrimitive.content
+                value = contents[2]
+                isArrayElement = false
+            }
+            2 -> {
+                key = ""
+                value = contents[1]
+                isArrayElement = true
+            }
+            else -> throw IllegalArgumentException("Disclosure must have 2 or 3 elements, got ${contents.size}")
+        }
     }
 
     /**
@@ -61,8 +81,14 @@ class Disclosure(
     }
     override fun toString(): String = disclosure
 
-    val hash
-        get() = Crypto.digest(digestAlg, toString().encodeToByteArray()).toBase64Url()
+    /**
+     * The base64url-encoded digest of this disclosure, as referenced from the SD-JWT.
+     *
+     * This is computed on first access and then cached.
+     */
+    val hash: String by lazy {
+        Crypto.digest(digestAlg, disclosure.encodeToByteArray()).toBase64Url()
+    }
 
     companion object {
         private fun calculateDisclosure(key: String, value: JsonElement, random: Random): String {
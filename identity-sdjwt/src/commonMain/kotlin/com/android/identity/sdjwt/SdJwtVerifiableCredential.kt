@@ -51,7 +51,9 @@ class SdJwtVerifiableCredential(
     val signature: String,
     val disclosures: List<Disclosure>
 ) {
-    override fun toString() = "$header.$body.$signature~${disclosures.joinToString("~", postfix = "~")}"
+    // Every disclosure is followed by a tilde, so without disclosures this is `<JWT>~`. The
+    // same string is hashed for `sd_hash` by SdJwtPresentationBuilder.
+    override fun toString() = "$header.$body.$signature~${disclosures.joinToString("") { "$it~" }}"
 
     /**
      * Create a copy of this SD-JWT that discloses only certain attributes.
@@ -62,30 +64,56 @@ class SdJwtVerifiableCredential(
         return SdJwtVerifiableCredential(header, body, signature, newDisclosures)
     }
 
+    private val view: SdJwtVerifiedView by lazy { SdJwtVerifiedView.create(this) }
+
+    /**
+     * Gets an indexed view of this SD-JWT where all disclosures have been checked against
+     * the digests in the body.
+     *
+     * The view is created on first call and then reused.
+     *
+     * @throws DisclosureError if a disclosure doesn't map to a digest in the SD-JWT.
+     */
+    fun verifiedView(): SdJwtVerifiedView = view
+
+    // The first disclosure for each claim name, and the digests in the top-level `_sd` array,
+    // used by [getAttributeValue]. Unlike [verifiedView] this doesn't check other disclosures.
+    private val disclosuresByKey: Map<String, Disclosure> by lazy {
+        val result = mutableMapOf<String, Disclosure>()
+        for (disclosure in disclosures) {
+            if (!result.containsKey(disclosure.key)) {
+                result[disclosure.key] = disclosure
+            }
+        }
+        result
+    }
+
+    private val topLevelDisclosureHashes: Set<String> by lazy {
+        JwtBody.fromString(body).disclosureHashes.toSet()
+    }
+
     /**
      * Find out the value of an attribute, if it is contained in this SD-JWT
      *
+     * Only the disclosure for [attribute] is checked, other disclosures which are invalid don't
+     * cause this to fail. Use [verifiedView] to check all disclosures.
+     *
      * @param attribute the attribute whose value should be obtained
+     * @throws AttributeNotDisclosedException if there's no disclosure for the attribute.
+     * @throws DisclosureError if the disclosure for the attribute doesn't map to a digest in
+     *   the top-level `_sd` array of the SD-JWT.
      */
     fun getAttributeValue(attribute: String): JsonElement {
-        val matchingDisclosures = disclosures.filter { it.key == attribute }
-        if (matchingDisclosures.isEmpty()) {
-            throw AttributeNotDisclosedException("attribute $attribute not included in disclosures")
-        }
-
-        val disclosure = matchingDisclosures[0]
+        val disclosure = disclosuresByKey[attribute]
+            ?: throw AttributeNotDisclosedException("attribute $attribute not included in disclosures")
         val disclosureHash = disclosure.hash
-
-        val disclosureHashes = JwtBody.fromString(body).disclosureHashes
-
-        if (!disclosureHashes.contains(disclosureHash)) {
+        if (disclosureHash !in topLevelDisclosureHashes) {
             throw DisclosureError("attribute $attribute not included in disclosures. Looking for hash $disclosureHash, but couldn't find it")
         }
-
         return disclosure.value
     }
 
-    val sdHashAlg get() = JwtBody.fromString(body).sdHashAlg
+    val sdHashAlg: Algorithm by lazy { JwtBody.fromString(body).sdHashAlg }
 
     /**
      * Verify the issuer signature on this SD-JWT. This method constructs the right
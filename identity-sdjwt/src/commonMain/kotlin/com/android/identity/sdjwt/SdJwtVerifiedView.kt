@@ -0,0 +1,180 @@
+package com.android.identity.sdjwt
+
+import com.android.identity.sdjwt.SdJwtVerifiableCredential.AttributeNotDisclosedException
+import com.android.identity.sdjwt.SdJwtVerifiableCredential.DisclosureError
+import com.android.identity.sdjwt.vc.JwtBody
+import com.android.identity.sdjwt.vc.JwtHeader
+import com.android.identity.util.fromBase64Url
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+
+/**
+ * An indexed view of a [SdJwtVerifiableCredential] where all disclosures have been checked.
+ *
+ * The header and body of the SD-JWT are parsed exactly once and each disclosure is hashed
+ * exactly once. In a single pass over the body, every digest in an `_sd` array (at any level
+ * of nesting) and every `{"...": <digest>}` array element is resolved against the disclosures,
+ * recursively for disclosures which themselves contain digests. Construction fails with
+ * [DisclosureError] if a disclosure isn't referenced from the SD-JWT, if a digest is referenced
+ * more than once, or if the kind of a disclosure doesn't match where it's referenced.
+ *
+ * Use [SdJwtVerifiableCredential.verifiedView] to obtain an instance. Note that this doesn't
+ * check the issuer signature, use [SdJwtVerifiableCredential.verifyIssuerSignature] for that.
+ *
+ * @property sdJwtVc the SD-JWT this is a view of.
+ * @property header the parsed header of the SD-JWT.
+ * @property body the parsed body of the SD-JWT.
+ * @property claims the claims of the SD-JWT with all disclosed values substituted in and all
+ *   `_sd`, `_sd_alg`, and `...` entries removed.
+ * @property disclosedAttributes the values of all top-level selectively disclosed claims,
+ *   keyed by claim name.
+ */
+class SdJwtVerifiedView private constructor(
+    val sdJwtVc: SdJwtVerifiableCredential,
+    val header: JwtHeader,
+    val body: JwtBody,
+    val claims: JsonObject,
+    val disclosedAttributes: Map<String, JsonElement>,
+    private val disclosuresByHash: Map<String, Disclosure>
+) {
+    /**
+     * Gets the value of a top-level selectively disclosed attribute.
+     *
+     * @param attribute the name of the attribute.
+     * @return the value of the attribute.
+     * @throws AttributeNotDisclosedException if the attribute wasn't disclosed.
+     */
+    fun getAttributeValue(attribute: String): JsonElement {
+        return disclosedAttributes[attribute]
+            ?: throw AttributeNotDisclosedException("attribute $attribute not included in disclosures")
+    }
+
+    /**
+     * Gets the disclosure with the given digest.
+     *
+     * @param hash the base64url-encoded digest of the disclosure.
+     * @return the [Disclosure] or `null` if no disclosure with the given digest is included.
+     */
+    fun getDisclosure(hash: String): Disclosure? = disclosuresByHash[hash]
+
+    companion object {
+        private const val SD = "_sd"
+        private const val SD_ALG = "_sd_alg"
+        private const val ARRAY_ELEMENT_DIGEST = "..."
+
+        internal fun create(sdJwtVc: SdJwtVerifiableCredential): SdJwtVerifiedView {
+            val headerObj = decodeJsonObject(sdJwtVc.header)
+            val bodyObj = decodeJsonObject(sdJwtVc.body)
+            val header = JwtHeader.fromJsonObject(headerObj)
+            val body = JwtBody.fromJsonObject(bodyObj)
+
+            val disclosuresByHash = mutableMapOf<String, Disclosure>()
+            for (disclosure in sdJwtVc.disclosures) {
+                if (disclosuresByHash.put(disclosure.hash, disclosure) != null) {
+                    throw DisclosureError("Disclosure with hash ${disclosure.hash} included more than once")
+                }
+            }
+
+            val resolver = Resolver(disclosuresByHash)
+            val claims = resolver.resolveObject(bodyObj, resolver.topLevelDisclosed)
+            if (resolver.used.size != disclosuresByHash.size) {
+                val unused = disclosuresByHash.keys - resolver.used
+                throw DisclosureError("Disclosures not referenced from the SD-JWT: $unused")
+            }
+            return SdJwtVerifiedView(
+                sdJwtVc,
+                header,
+                body,
+                claims,
+                resolver.topLevelDisclosed,
+                disclosuresByHash
+            )
+        }
+
+        private fun decodeJsonObject(input: String): JsonObject =
+            Json.decodeFromString(JsonObject.serializer(), input.fromBase64Url().decodeToString())
+    }
+
+    private class Resolver(val disclosuresByHash: Map<String, Disclosure>) {
+        val used = mutableSetOf<String>()
+        val topLevelDisclosed = mutableMapOf<String, JsonElement>()
+
+        private fun markUsed(hash: String) {
+            if (!used.add(hash)) {
+                throw DisclosureError("Digest $hash is referenced more than once")
+            }
+        }
+
+        // Resolves all digests in [obj]. Disclosed claims found directly in [obj] are also
+        // added to [disclosedOut] if it's not null.
+        fun resolveObject(
+            obj: JsonObject,
+            disclosedOut: MutableMap<String, JsonElement>?
+        ): JsonObject {
+            val result = mutableMapOf<String, JsonElement>()
+            for ((key, value) in obj) {
+                if (key == SD || key == SD_ALG) {
+                    continue
+                }
+                result[key] = resolveElement(value)
+            }
+            val digests = obj[SD] ?: return JsonObject(result)
+            if (digests !is JsonArray) {
+                throw DisclosureError("$SD is not an array")
+            }
+            for (digest in digests) {
+                val hash = (digest as? JsonPrimitive)?.takeIf { it.isString }?.content
+                    ?: throw DisclosureError("Digest in $SD is not a string")
+                // Digests without a matching disclosure are either decoys or undisclosed claims.
+                val disclosure = disclosuresByHash[hash] ?: continue
+                if (disclosure.isArrayElement) {
+                    throw DisclosureError("Array element disclosure $hash referenced from $SD")
+                }
+                markUsed(hash)
+                if (result.containsKey(disclosure.key)) {
+                    throw DisclosureError("Claim ${disclosure.key} is disclosed but also present in the clear")
+                }
+                val value = resolveElement(disclosure.value)
+                result[disclosure.key] = value
+                disclosedOut?.put(disclosure.key, value)
+            }
+            return JsonObject(result)
+        }
+
+        fun resolveArray(array: JsonArray): JsonArray {
+            val result = mutableListOf<JsonElement>()
+            for (element in array) {
+                val hash = arrayElementDigest(element)
+                if (hash == null) {
+                    result.add(resolveElement(element))
+                    continue
+                }
+                val disclosure = disclosuresByHash[hash] ?: continue
+                if (!disclosure.isArrayElement) {
+                    throw DisclosureError("Object property disclosure $hash referenced from an array")
+                }
+                markUsed(hash)
+                result.add(resolveElement(disclosure.value))
+            }
+            return JsonArray(result)
+        }
+
+        fun resolveElement(element: JsonElement): JsonElement = when (element) {
+            is JsonObject -> resolveObject(element, null)
+            is JsonArray -> resolveArray(element)
+            else -> element
+        }
+
+        private fun arrayElementDigest(element: JsonElement): String? {
+            if (element !is JsonObject || element.size != 1) {
+                return null
+            }
+            val digest = element[ARRAY_ELEMENT_DIGEST] ?: return null
+            return (digest as? JsonPrimitive)?.takeIf { it.isString }?.content
+                ?: throw DisclosureError("Array element digest is not a string")
+        }
+    }
+}
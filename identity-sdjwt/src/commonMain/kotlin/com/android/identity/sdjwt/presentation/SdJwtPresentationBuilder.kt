@@ -0,0 +1,204 @@
+package com.android.identity.sdjwt.presentation
+
+import com.android.identity.crypto.Algorithm
+import com.android.identity.crypto.Crypto
+import com.android.identity.crypto.EcSignature
+import com.android.identity.sdjwt.Disclosure
+import com.android.identity.sdjwt.SdJwtVerifiableCredential
+import com.android.identity.sdjwt.vc.JwtBody
+import com.android.identity.securearea.KeyUnlockData
+import com.android.identity.securearea.SecureArea
+import com.android.identity.util.toBase64Url
+import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
+
+/**
+ * A builder for SD-JWT presentations which works on pre-encoded byte segments.
+ *
+ * The issuer-signed JWT and each disclosure of [sdJwtVc] are encoded to bytes exactly once,
+ * when the builder is created. For each presentation only the selected segments are fed to
+ * the digest used for `sd_hash` and the compact serialization is written straight into a
+ * byte array of the exact final size. This avoids the intermediate [String] copies made by
+ * [SdJwtVerifiableCredential.discloseOnly] and [SdJwtVerifiableCredential.createPresentation]
+ * which matter for large credentials, e.g. ones with embedded images.
+ *
+ * The same builder can be used to create any number of presentations. Only key-bound
+ * presentations are supported, use [SdJwtVerifiableCredential.createPresentation] for
+ * credentials which are not bound to a key.
+ *
+ * Use [fromBytes] to create a builder directly from the UTF-8 encoded SD-JWT, e.g. as stored
+ * by the issuer, without decoding it to a [String] first.
+ */
+class SdJwtPresentationBuilder private constructor(
+    private val sdHashAlg: Algorithm,
+    private val issuerSignedJwt: ByteArray,
+    private val disclosureKeys: List<String>,
+    private val disclosureSegments: List<ByteArray>
+) {
+    /**
+     * Creates a builder for an already parsed SD-JWT.
+     *
+     * @param sdJwtVc the SD-JWT to create presentations for.
+     */
+    constructor(sdJwtVc: SdJwtVerifiableCredential) : this(
+        sdHashAlg = sdJwtVc.sdHashAlg,
+        issuerSignedJwt =
+            "${sdJwtVc.header}.${sdJwtVc.body}.${sdJwtVc.signature}".encodeToByteArray(),
+        disclosureKeys = sdJwtVc.disclosures.map { it.key },
+        disclosureSegments = sdJwtVc.disclosures.map { it.toString().encodeToByteArray() }
+    )
+
+    // Uses the same selection rules as [SdJwtVerifiableCredential.discloseOnly].
+    private fun selectDisclosures(attributes: Set<String>): List<ByteArray> =
+        disclosureSegments.filterIndexed { n, _ -> disclosureKeys[n] in attributes }
+
+    // Returns the segments making up `<Issuer-signed JWT>~<Disclosure 1>~...~<Disclosure N>~`,
+    // i.e. [SdJwtVerifiableCredential.toString] of the filtered SD-JWT, which is what
+    // [SdJwtVerifiablePresentation] hashes when checking `sd_hash`.
+    private fun sdJwtSegments(disclosures: List<ByteArray>): List<ByteArray> {
+        val segments = ArrayList<ByteArray>(2 + 2 * disclosures.size)
+        segments.add(issuerSignedJwt)
+        segments.add(TILDE)
+        for (disclosure in disclosures) {
+            segments.add(disclosure)
+            segments.add(TILDE)
+        }
+        return segments
+    }
+
+    /**
+     * Calculates the `sd_hash` value for a presentation disclosing the given attributes.
+     *
+     * @param attributes the names of the attributes to disclose.
+     * @return the base64url-encoded digest of the SD-JWT with only the selected disclosures.
+     */
+    fun calculateSdHash(attributes: Set<String>): String =
+        Crypto.digest(sdHashAlg, sdJwtSegments(selectDisclosures(attributes))).toBase64Url()
+
+    /**
+     * Builds the compact serialization of a presentation with a Key Binding JWT signed
+     * using a key in a [SecureArea].
+     *
+     * @param attributes the names of the attributes to disclose.
+     * @param secureArea the [SecureArea] holding the key the credential is bound to.
+     * @param alias the alias of the key in [secureArea].
+     * @param keyUnlockData a [KeyUnlockData] for unlocking the key, or `null`.
+     * @param nonce the nonce to include in the Key Binding JWT.
+     * @param audience the audience to include in the Key Binding JWT.
+     * @param creationTime the creation time to include in the Key Binding JWT.
+     * @return the UTF-8 encoded presentation.
+     */
+    suspend fun build(
+        attributes: Set<String>,
+        secureArea: SecureArea,
+        alias: String,
+        keyUnlockData: KeyUnlockData?,
+        nonce: String,
+        audience: String,
+        creationTime: Instant = Clock.System.now()
+    ): ByteArray {
+        val keyInfo = secureArea.getKeyInfo(alias)
+        return build(attributes, keyInfo.signingAlgorithm, nonce, audience, creationTime) { toBeSigned ->
+            secureArea.sign(alias, toBeSigned, keyUnlockData)
+        }
+    }
+
+    /**
+     * Builds the compact serialization of a presentation with a Key Binding JWT signed by
+     * the given function.
+     *
+     * This can be used by callers which already know the signing algorithm and have a
+     * faster way of signing than going through [SecureArea.getKeyInfo] and [SecureArea.sign].
+     *
+     * @param attributes the names of the attributes to disclose.
+     * @param signingAlgorithm the algorithm used for signing the Key Binding JWT.
+     * @param nonce the nonce to include in the Key Binding JWT.
+     * @param audience the audience to include in the Key Binding JWT.
+     * @param creationTime the creation time to include in the Key Binding JWT.
+     * @param sign a function to sign the Key Binding JWT, using [signingAlgorithm].
+     * @return the UTF-8 encoded presentation.
+     */
+    suspend fun build(
+        attributes: Set<String>,
+        signingAlgorithm: Algorithm,
+        nonce: String,
+        audience: String,
+        creationTime: Instant = Clock.System.now(),
+        sign: suspend (toBeSigned: ByteArray) -> EcSignature
+    ): ByteArray {
+        val segments = sdJwtSegments(selectDisclosures(attributes))
+        val sdHash = Crypto.digest(sdHashAlg, segments).toBase64Url()
+
+        val toBeSigned = concatenate(listOf(
+            KeyBindingHeader(signingAlgorithm).toString().encodeToByteArray(),
+            DOT,
+            KeyBindingBody(nonce, audience, creationTime, sdHash).toString().encodeToByteArray()
+        ))
+        val signature = sign(toBeSigned)
+        val signatureSegment = signature.toCoseEncoded().toBase64Url().encodeToByteArray()
+
+        return concatenate(segments + listOf(toBeSigned, DOT, signatureSegment))
+    }
+
+    companion object {
+        private val TILDE = "~".encodeToByteArray()
+        private val DOT = ".".encodeToByteArray()
+
+        /**
+         * Creates a builder from the compact serialization of an SD-JWT.
+         *
+         * The input is split into segments without decoding it to a [String]. Only the JWT
+         * body and the disclosures are decoded, to find the `sd_hash` algorithm and the
+         * names of the disclosed claims.
+         *
+         * @param sdJwt the UTF-8 encoded `<Issuer-signed JWT>~<Disclosure 1>~...~` string.
+         * @return a builder for presentations of [sdJwt].
+         * @throws SdJwtVerifiableCredential.MalformedJwtError if the JWT isn't well-formed.
+         */
+        fun fromBytes(sdJwt: ByteArray): SdJwtPresentationBuilder {
+            val segments = split(sdJwt, '~'.code.toByte())
+            val issuerSignedJwt = segments[0]
+            val jwtParts = split(issuerSignedJwt, '.'.code.toByte())
+            if (jwtParts.size != 3) {
+                throw SdJwtVerifiableCredential.MalformedJwtError(
+                    "JWT in SD-JWT didn't consist of three parts"
+                )
+            }
+            val sdHashAlg = JwtBody.fromString(jwtParts[1].decodeToString()).sdHashAlg
+            // Same as SdJwtVerifiableCredential.fromString(), the last segment is the empty
+            // one created by the trailing tilde.
+            val disclosureSegments = segments.drop(1).dropLast(1)
+            return SdJwtPresentationBuilder(
+                sdHashAlg = sdHashAlg,
+                issuerSignedJwt = issuerSignedJwt,
+                disclosureKeys = disclosureSegments.map {
+                    Disclosure(it.decodeToString(), sdHashAlg).key
+                },
+                disclosureSegments = disclosureSegments
+            )
+        }
+
+        private fun split(data: ByteArray, separator: Byte): List<ByteArray> {
+            val result = mutableListOf<ByteArray>()
+            var start = 0
+            for (n in data.indices) {
+                if (data[n] == separator) {
+                    result.add(data.copyOfRange(start, n))
+                    start = n + 1
+                }
+            }
+            result.add(data.copyOfRange(start, data.size))
+            return result
+        }
+
+        private fun concatenate(segments: List<ByteArray>): ByteArray {
+            val result = ByteArray(segments.sumOf { it.size })
+            var offset = 0
+            for (segment in segments) {
+                segment.copyInto(result, offset)
+                offset += segment.size
+            }
+            return result
+        }
+    }
+}
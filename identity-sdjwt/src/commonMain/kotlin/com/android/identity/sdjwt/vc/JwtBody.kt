@@ -9,6 +9,7 @@ import com.android.identity.sdjwt.util.getLongOrNull
 import com.android.identity.sdjwt.util.getString
 import kotlinx.datetime.Instant
 import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonObjectBuilder
 import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.jsonPrimitive
@@ -34,8 +35,14 @@ class JwtBody(
     }
 
     companion object {
-        fun fromString(input: String): JwtBody {
-            val jsonObj = parse(input)
+        fun fromString(input: String): JwtBody = fromJsonObject(parse(input))
+
+        /**
+         * Creates a [JwtBody] from an already parsed JSON object.
+         *
+         * @param jsonObj the decoded body of the JWT.
+         */
+        fun fromJsonObject(jsonObj: JsonObject): JwtBody {
             val disclosureHashes = jsonObj.getJsonArray("_sd")
                 .map { it.jsonPrimitive.content }
             val sdHashAlg = jsonObj.getString("_sd_alg")
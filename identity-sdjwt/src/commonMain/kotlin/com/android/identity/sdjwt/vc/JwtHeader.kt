@@ -4,6 +4,7 @@ import com.android.identity.crypto.Algorithm
 import com.android.identity.sdjwt.util.JwtJsonObject
 import com.android.identity.sdjwt.util.getString
 import com.android.identity.sdjwt.util.getStringOrNull
+import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonObjectBuilder
 import kotlinx.serialization.json.JsonPrimitive
 
@@ -27,8 +28,14 @@ class JwtHeader(val algorithm: Algorithm, val kid: String?): JwtJsonObject() {
 
         const val SD_JWT_VC_TYPE = "vc+sd-jwt"
 
-        fun fromString(input: String): JwtHeader {
-            val jsonObj = parse(input)
+        fun fromString(input: String): JwtHeader = fromJsonObject(parse(input))
+
+        /**
+         * Creates a [JwtHeader] from an already parsed JSON object.
+         *
+         * @param jsonObj the decoded header of the JWT.
+         */
+        fun fromJsonObject(jsonObj: JsonObject): JwtHeader {
             val typ = jsonObj.getString("typ")
             if (typ != SD_JWT_VC_TYPE) {
                 throw IllegalStateException("typ field had illegal value $typ")
@@ -13,6 +13,7 @@ import com.android.identity.document.DocumentStore
 import com.android.identity.document.SimpleDocumentMetadata
 import com.android.identity.sdjwt.SdJwtVerifiableCredential.AttributeNotDisclosedException
 import com.android.identity.sdjwt.credential.KeyBoundSdJwtVcCredential
+import com.android.identity.sdjwt.presentation.SdJwtPresentationBuilder
 import com.android.identity.sdjwt.presentation.SdJwtVerifiablePresentation
 import com.android.identity.sdjwt.util.JsonWebKey
 import com.android.identity.securearea.KeyPurpose
@@ -21,6 +22,7 @@ import com.android.identity.securearea.software.SoftwareCreateKeySettings
 import com.android.identity.securearea.software.SoftwareSecureArea
 import com.android.identity.storage.EphemeralStorageEngine
 import com.android.identity.storage.ephemeral.EphemeralStorage
+import com.android.identity.util.toBase64Url
 import kotlinx.coroutines.test.runTest
 import kotlinx.datetime.Clock
 import kotlinx.datetime.Instant
@@ -218,6 +220,112 @@ class SdJwtVcTest {
         assertEquals(true, presentation.sdJwtVc.getAttributeValue("over_18").jsonPrimitive.boolean)
     }
 
+    @Test
+    fun testPresentationBuilder() = runTest {
+        provisionCredential()
+
+        val sdJwt = SdJwtVerifiableCredential.fromString(credential.issuerProvidedData.decodeToString())
+        val requestedAttributes = setOf("over_18", "name", "not-even-in-the-vc")
+        val builder = SdJwtPresentationBuilder(sdJwt)
+
+        // The sd_hash must match what's computed over the string form of the filtered SD-JWT.
+        val filteredSdJwt = sdJwt.discloseOnly(requestedAttributes)
+        assertEquals(
+            Crypto.digest(sdJwt.sdHashAlg, filteredSdJwt.toString().encodeToByteArray()).toBase64Url(),
+            builder.calculateSdHash(requestedAttributes)
+        )
+
+        val nonceStr = "some-example-nonce"
+        val presentationBytes = builder.build(
+            requestedAttributes,
+            credential.secureArea,
+            credential.alias,
+            null,
+            nonceStr,
+            "https://example-verifier.com"
+        )
+        val presentation = SdJwtVerifiablePresentation.fromString(presentationBytes.decodeToString())
+        assertEquals(filteredSdJwt.toString(), presentation.sdJwtVc.toString())
+        assertTrue(
+            presentation.verifyKeyBinding(
+                checkAudience = { "https://example-verifier.com" == it },
+                checkNonce = { nonceStr == it },
+                checkCreationTime = { it <= Clock.System.now() }
+            )
+        )
+        presentation.sdJwtVc.verifyIssuerSignature(issuerCert.ecPublicKey)
+        assertEquals("Elisa Beckett", presentation.getAttributeValue("name").jsonPrimitive.content)
+        assertFailsWith<AttributeNotDisclosedException> { presentation.getAttributeValue("given_name") }
+    }
+
+    @Test
+    fun testPresentationBuilderFromBytes() = runTest {
+        provisionCredential()
+
+        val sdJwt = SdJwtVerifiableCredential.fromString(credential.issuerProvidedData.decodeToString())
+        val builder = SdJwtPresentationBuilder(sdJwt)
+        val builderFromBytes = SdJwtPresentationBuilder.fromBytes(credential.issuerProvidedData)
+        for (attributes in listOf(emptySet(), setOf("name"), setOf("over_18", "name"))) {
+            assertEquals(builder.calculateSdHash(attributes), builderFromBytes.calculateSdHash(attributes))
+        }
+
+        val nonceStr = "some-example-nonce"
+        val presentationBytes = builderFromBytes.build(
+            setOf("name"),
+            credential.secureArea,
+            credential.alias,
+            null,
+            nonceStr,
+            "https://example-verifier.com"
+        )
+        val presentation = SdJwtVerifiablePresentation.fromString(presentationBytes.decodeToString())
+        assertTrue(
+            presentation.verifyKeyBinding(
+                checkAudience = { "https://example-verifier.com" == it },
+                checkNonce = { nonceStr == it },
+                checkCreationTime = { it <= Clock.System.now() }
+            )
+        )
+        assertEquals("Elisa Beckett", presentation.getAttributeValue("name").jsonPrimitive.content)
+        assertFailsWith<AttributeNotDisclosedException> { presentation.getAttributeValue("over_18") }
+    }
+
+    @Test
+    fun testPresentationBuilderNoDisclosures() = runTest {
+        provisionCredential()
+
+        val sdJwt = SdJwtVerifiableCredential.fromString(credential.issuerProvidedData.decodeToString())
+        val builder = SdJwtPresentationBuilder(sdJwt)
+
+        val filteredSdJwt = sdJwt.discloseOnly(emptySet())
+        assertEquals("${sdJwt.header}.${sdJwt.body}.${sdJwt.signature}~", filteredSdJwt.toString())
+        assertEquals(
+            Crypto.digest(sdJwt.sdHashAlg, filteredSdJwt.toString().encodeToByteArray()).toBase64Url(),
+            builder.calculateSdHash(emptySet())
+        )
+
+        val nonceStr = "some-example-nonce"
+        val presentationBytes = builder.build(
+            emptySet(),
+            credential.secureArea,
+            credential.alias,
+            null,
+            nonceStr,
+            "https://example-verifier.com"
+        )
+        val presentation = SdJwtVerifiablePresentation.fromString(presentationBytes.decodeToString())
+        assertEquals(0, presentation.sdJwtVc.disclosures.size)
+        assertEquals(presentationBytes.decodeToString(), presentation.toString())
+        assertTrue(
+            presentation.verifyKeyBinding(
+                checkAudience = { "https://example-verifier.com" == it },
+                checkNonce = { nonceStr == it },
+                checkCreationTime = { it <= Clock.System.now() }
+            )
+        )
+        assertFailsWith<AttributeNotDisclosedException> { presentation.getAttributeValue("name") }
+    }
+
     @Test
     @Ignore
     fun testParseSection6Example1() {
@@ -0,0 +1,128 @@
+package com.android.identity.sdjwt
+
+import com.android.identity.crypto.Algorithm
+import com.android.identity.sdjwt.SdJwtVerifiableCredential.AttributeNotDisclosedException
+import com.android.identity.sdjwt.SdJwtVerifiableCredential.DisclosureError
+import com.android.identity.sdjwt.vc.JwtHeader
+import com.android.identity.util.toBase64Url
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonArray
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.put
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+
+class SdJwtVerifiedViewTest {
+
+    private val random = Random(42)
+
+    private fun arrayElementDisclosure(value: String): Disclosure {
+        val salt = random.nextBytes(16).toBase64Url()
+        val encoded = buildJsonArray {
+            add(JsonPrimitive(salt))
+            add(JsonPrimitive(value))
+        }.toString().encodeToByteArray().toBase64Url()
+        return Disclosure(encoded, Algorithm.SHA256)
+    }
+
+    private fun makeSdJwt(body: JsonObject, disclosures: List<Disclosure>): SdJwtVerifiableCredential {
+        return SdJwtVerifiableCredential(
+            JwtHeader(Algorithm.ES256, null).toString(),
+            body.toString().encodeToByteArray().toBase64Url(),
+            "",
+            disclosures
+        )
+    }
+
+    private fun baseBody(sd: List<String>, extra: Map<String, JsonElement> = emptyMap()) =
+        JsonObject(
+            mapOf(
+                "_sd" to JsonArray(sd.map { JsonPrimitive(it) }),
+                "_sd_alg" to JsonPrimitive("sha-256"),
+                "iss" to JsonPrimitive("https://example-issuer.com"),
+                "vct" to JsonPrimitive("IdentityCredential"),
+            ) + extra
+        )
+
+    @Test
+    fun testNestedAndArrayDisclosures() {
+        val street = Disclosure("street_address", JsonPrimitive("123 Main St"), Algorithm.SHA256, random)
+        val address = Disclosure(
+            "address",
+            buildJsonObject {
+                put("_sd", buildJsonArray { add(JsonPrimitive(street.hash)) })
+                put("country", "US")
+            },
+            Algorithm.SHA256,
+            random
+        )
+        val nationalityDe = arrayElementDisclosure("DE")
+        val name = Disclosure("name", JsonPrimitive("Erika"), Algorithm.SHA256, random)
+        val body = baseBody(
+            listOf(address.hash, name.hash, "decoy-digest"),
+            mapOf(
+                "nationalities" to buildJsonArray {
+                    add(buildJsonObject { put("...", nationalityDe.hash) })
+                    add(buildJsonObject { put("...", "undisclosed-digest") })
+                    add(JsonPrimitive("FR"))
+                }
+            )
+        )
+        val sdJwt = makeSdJwt(body, listOf(street, address, nationalityDe, name))
+
+        val view = sdJwt.verifiedView()
+        assertSame(view, sdJwt.verifiedView())
+        assertEquals("Erika", view.getAttributeValue("name").jsonPrimitive.content)
+        assertEquals("Erika", sdJwt.getAttributeValue("name").jsonPrimitive.content)
+        val resolvedAddress = view.getAttributeValue("address").jsonObject
+        assertEquals("123 Main St", resolvedAddress["street_address"]!!.jsonPrimitive.content)
+        assertEquals("US", resolvedAddress["country"]!!.jsonPrimitive.content)
+        assertFalse(resolvedAddress.containsKey("_sd"))
+        assertEquals(
+            listOf("DE", "FR"),
+            view.claims["nationalities"]!!.jsonArray.map { it.jsonPrimitive.content }
+        )
+        assertFalse(view.claims.containsKey("_sd"))
+        assertFalse(view.claims.containsKey("_sd_alg"))
+        assertEquals(setOf("address", "name"), view.disclosedAttributes.keys)
+        assertSame(street, view.getDisclosure(street.hash))
+        assertFailsWith<AttributeNotDisclosedException> { view.getAttributeValue("street_address") }
+    }
+
+    @Test
+    fun testUnreferencedDisclosure() {
+        val name = Disclosure("name", JsonPrimitive("Erika"), Algorithm.SHA256, random)
+        val other = Disclosure("other", JsonPrimitive("value"), Algorithm.SHA256, random)
+        val sdJwt = makeSdJwt(baseBody(listOf(name.hash)), listOf(name, other))
+        assertFailsWith<DisclosureError> { sdJwt.verifiedView() }
+        // Looking up a single attribute only checks the disclosure for that attribute.
+        assertEquals("Erika", sdJwt.getAttributeValue("name").jsonPrimitive.content)
+        assertFailsWith<DisclosureError> { sdJwt.getAttributeValue("other") }
+        assertFailsWith<AttributeNotDisclosedException> { sdJwt.getAttributeValue("missing") }
+    }
+
+    @Test
+    fun testDuplicateDigest() {
+        val name = Disclosure("name", JsonPrimitive("Erika"), Algorithm.SHA256, random)
+        val sdJwt = makeSdJwt(baseBody(listOf(name.hash, name.hash)), listOf(name))
+        assertFailsWith<DisclosureError> { sdJwt.verifiedView() }
+        assertEquals("Erika", sdJwt.getAttributeValue("name").jsonPrimitive.content)
+    }
+
+    @Test
+    fun testArrayElementDisclosureInObject() {
+        val element = arrayElementDisclosure("DE")
+        val sdJwt = makeSdJwt(baseBody(listOf(element.hash)), listOf(element))
+        assertFailsWith<DisclosureError> { sdJwt.verifiedView() }
+    }
+}
@@ -339,6 +339,77 @@ class CloudSecureAreaTest {
         )
     }
 
+    @Test
+    fun testBatchKeyCreationAndSigning() = runTest {
+        val csa = LoopbackCloudSecureArea(
+            EphemeralStorage().getTable(tableSpec),
+            null
+        )
+        csa.initialize()
+        csa.register(
+            "",
+            PassphraseConstraints.NONE) { true }
+        val challenge = byteArrayOf(1, 2, 3)
+        val settings = CloudCreateKeySettings.Builder(challenge).build()
+        val keyInfos = csa.batchCreateKey(3, settings)
+        Assert.assertEquals(3, keyInfos.size)
+        Assert.assertEquals(3, keyInfos.map { it.alias }.toSet().size)
+        for (keyInfo in keyInfos) {
+            val attestation = CloudAttestationExtension.decode(ByteString(
+                keyInfo.attestation.certChain!!.certificates[0]
+                    .getExtensionValue(OID.X509_EXTENSION_MULTIPAZ_KEY_ATTESTATION.oid)!!
+            ))
+            Assert.assertEquals(ByteString(challenge), attestation.challenge)
+        }
+
+        val items = listOf(
+            Pair(keyInfos[0].alias, byteArrayOf(4, 5, 6)),
+            Pair(keyInfos[1].alias, byteArrayOf(7, 8, 9)),
+            Pair(keyInfos[0].alias, byteArrayOf(10, 11, 12)),
+        )
+        val signatures = csa.batchSign(items, null)
+        Assert.assertEquals(items.size, signatures.size)
+        for (n in items.indices) {
+            Assert.assertTrue(
+                Crypto.checkSignature(
+                    csa.getKeyInfo(items[n].first).publicKey,
+                    items[n].second,
+                    Algorithm.ES256,
+                    signatures[n]
+                )
+            )
+        }
+    }
+
+    @Test
+    fun testBatchSigningRejectsMixedPolicies() = runTest {
+        val csa = LoopbackCloudSecureArea(
+            EphemeralStorage().getTable(tableSpec),
+            null
+        )
+        csa.initialize()
+        csa.register(
+            "1111",
+            PassphraseConstraints.PIN_FOUR_DIGITS) { true }
+        val plainKey = csa.createKey(null, CloudCreateKeySettings.Builder(byteArrayOf(1)).build())
+        val passphraseKey = csa.createKey(
+            null,
+            CloudCreateKeySettings.Builder(byteArrayOf(1)).setPassphraseRequired(true).build()
+        )
+        try {
+            csa.batchSign(
+                listOf(
+                    Pair(plainKey.alias, byteArrayOf(1)),
+                    Pair(passphraseKey.alias, byteArrayOf(2))
+                ),
+                null
+            )
+            Assert.fail("Expected IllegalArgumentException")
+        } catch (e: IllegalArgumentException) {
+            // Expected.
+        }
+    }
+
     @Test
     fun testKeyAgreement() = runTest {
         val csa = LoopbackCloudSecureArea(
@@ -0,0 +1,111 @@
+package com.android.identity.asn1
+
+/**
+ * A DER encoded value inside a larger byte array.
+ *
+ * Unlike [ASN1.decode] this doesn't decode or copy the content of the value, it only records
+ * the identifier octets and where the content is located. This is useful for navigating large
+ * structures, for example X.509 certificates, where only a few values are ever looked at.
+ * Use [children] to get the values inside a constructed value and [decode] to decode a value
+ * into an [ASN1Object].
+ *
+ * The underlying array is shared, not copied, so it must not be modified.
+ *
+ * @property bytes the array containing the value.
+ * @property offset the offset of the first identifier octet in [bytes].
+ * @property cls the tag class.
+ * @property enc the encoding.
+ * @property tag the tag number.
+ * @property contentOffset the offset of the content in [bytes].
+ * @property contentLength the length of the content.
+ */
+internal class ASN1Slice private constructor(
+    val bytes: ByteArray,
+    val offset: Int,
+    val cls: ASN1TagClass,
+    val enc: ASN1Encoding,
+    val tag: Int,
+    val contentOffset: Int,
+    val contentLength: Int
+) {
+    /** The offset right after the end of the value. */
+    val end: Int
+        get() = contentOffset + contentLength
+
+    /**
+     * Checks whether this value has the given identifier.
+     */
+    fun isA(cls: ASN1TagClass, enc: ASN1Encoding, tag: Int): Boolean =
+        this.cls == cls && this.enc == enc && this.tag == tag
+
+    /**
+     * Gets a copy of the entire encoded value, including identifier and length octets.
+     */
+    fun encoded(): ByteArray = bytes.copyOfRange(offset, end)
+
+    /**
+     * Gets a copy of the content octets.
+     */
+    fun content(): ByteArray = bytes.copyOfRange(contentOffset, end)
+
+    /**
+     * Gets the values contained in the content of this value.
+     *
+     * @return the values, in order.
+     * @throws IllegalArgumentException if the content isn't a sequence of valid DER values.
+     */
+    fun children(): List<ASN1Slice> {
+        val result = mutableListOf<ASN1Slice>()
+        var childOffset = contentOffset
+        while (childOffset < end) {
+            val child = parse(bytes, childOffset, end)
+            result.add(child)
+            childOffset = child.end
+        }
+        return result
+    }
+
+    /**
+     * Decodes this value.
+     *
+     * @return a [ASN1Object]-derived instance.
+     */
+    fun decode(): ASN1Object = ASN1.decode(bytes, offset).second!!
+
+    companion object {
+        /**
+         * Locates a value without decoding it.
+         *
+         * @param bytes the array containing the value.
+         * @param offset the offset of the value.
+         * @param limit the value must end at or before this offset.
+         * @return a [ASN1Slice] for the value.
+         * @throws IllegalArgumentException if the identifier or length octets aren't valid
+         *   or the value extends beyond [limit].
+         */
+        fun parse(bytes: ByteArray, offset: Int = 0, limit: Int = bytes.size): ASN1Slice {
+            require(offset in 0 until limit && limit <= bytes.size) {
+                "Offset $offset out of range"
+            }
+            val (idOctets, contentOffset, length) = try {
+                val (lengthOffset, idOctets) = ASN1.decodeIdentifierOctets(bytes, offset)
+                val (contentOffset, length) = ASN1.decodeLength(bytes, lengthOffset)
+                Triple(idOctets, contentOffset, length)
+            } catch (e: IndexOutOfBoundsException) {
+                throw IllegalArgumentException("Truncated value at offset $offset", e)
+            }
+            require(length >= 0 && contentOffset <= limit && length <= limit - contentOffset) {
+                "Value of length $length at offset $offset extends beyond $limit"
+            }
+            return ASN1Slice(
+                bytes,
+                offset,
+                idOctets.cls,
+                idOctets.enc,
+                idOctets.tag,
+                contentOffset,
+                length
+            )
+        }
+    }
+}
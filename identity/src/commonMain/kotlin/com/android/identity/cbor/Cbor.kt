@@ -58,10 +58,17 @@ object Cbor {
     /**
      * Encodes a data item to CBOR.
      *
+     * If the item was decoded with `retainEncoding` set to `true` the bytes it was decoded
+     * from are returned, see [decode].
+     *
      * @param item the [DataItem] to encode.
      * @returns the bytes of the item.
      */
     fun encode(item: DataItem): ByteArray {
+        val retained = item.retainedEncoding
+        if (retained != null) {
+            return retained.bytes.copyOfRange(retained.offset, retained.end)
+        }
         val builder = ByteStringBuilder()
         item.encode(builder)
         return builder.toByteString().toByteArray()
@@ -139,11 +146,17 @@ object Cbor {
      *
      * @param encodedCbor the bytes of the CBOR to decode.
      * @param offset the offset into the byte array to start decoding.
+     * @param retainEncoding whether decoded arrays, maps, and tags should keep a reference to
+     * the bytes they were decoded from, see [decode].
      * @return a pair where the first value is the ending offset and the second value is the
      * decoded data item.
      * @throws IllegalArgumentException if the data isn't valid CBOR.
      */
-    fun decode(encodedCbor: ByteArray, offset: Int): Pair<Int, DataItem> {
+    fun decode(
+        encodedCbor: ByteArray,
+        offset: Int,
+        retainEncoding: Boolean = false
+    ): Pair<Int, DataItem> {
         try {
             val first = encodedCbor[offset]
             val majorType = MajorType.fromInt(first.toInt().and(0xff) ushr 5)
@@ -183,15 +196,15 @@ object Cbor {
                     }
                 }
 
-                MajorType.ARRAY -> CborArray.decode(encodedCbor, offset)
-                MajorType.MAP -> CborMap.decode(encodedCbor, offset)
+                MajorType.ARRAY -> CborArray.decode(encodedCbor, offset, retainEncoding)
+                MajorType.MAP -> CborMap.decode(encodedCbor, offset, retainEncoding)
                 MajorType.TAG -> {
                     if (additionalInformation == 31) {
                         throw IllegalArgumentException(
                             "Additional information 31 not allowed for majorType 6"
                         )
                     }
-                    Tagged.decode(encodedCbor, offset)
+                    Tagged.decode(encodedCbor, offset, retainEncoding)
                 }
 
                 MajorType.SPECIAL -> {
@@ -213,6 +226,9 @@ object Cbor {
                 }
             }
             check(newOffset > offset)
+            if (retainEncoding && (item is CborArray || item is CborMap || item is Tagged)) {
+                item.retainedEncoding = RetainedEncoding(encodedCbor, offset, newOffset)
+            }
             return Pair(newOffset, item)
         } catch (e: IndexOutOfBoundsException) {
             throw IllegalArgumentException("Out of bounds decoding data", e)
@@ -226,12 +242,24 @@ object Cbor {
      *
      * The given [ByteArray] should contain the bytes of a single CBOR data item.
      *
+     * If [retainEncoding] is `true`, every array, map, and tag in the result keeps a reference
+     * to the bytes it was decoded from. Encoding such an item, either directly using [encode]
+     * or as part of a larger item, reuses those bytes instead of serializing it again. This is
+     * useful when parsing messages where parts need to be hashed or signature-checked exactly
+     * as received, for example `IssuerSignedItemBytes` or `COSE_Sign1` structures. The same
+     * applies to CBOR embedded in the result and extracted using [DataItem.asTaggedEncodedCbor].
+     *
+     * The arrays and maps in such a result are read-only, trying to modify their items throws
+     * [UnsupportedOperationException] since the change would not be reflected in the retained
+     * bytes. Since [encodedCbor] is referenced and not copied, it must not be modified either.
+     *
      * @param encodedCbor the bytes of the CBOR to decode.
+     * @param retainEncoding whether to keep references to the encoded bytes, see above.
      * @return a [DataItem] with the decoded data.
      * @throws IllegalArgumentException if bytes are left over or the data isn't valid CBOR.
      */
-    fun decode(encodedCbor: ByteArray): DataItem {
-        val (newOffset, item) = decode(encodedCbor, 0)
+    fun decode(encodedCbor: ByteArray, retainEncoding: Boolean = false): DataItem {
+        val (newOffset, item) = decode(encodedCbor, 0, retainEncoding)
         if (newOffset != encodedCbor.size) {
             throw IllegalArgumentException(
                 "${newOffset - encodedCbor.size} bytes leftover after decoding"
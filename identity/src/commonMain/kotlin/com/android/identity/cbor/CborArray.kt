@@ -16,11 +16,11 @@ class CborArray(
         if (indefiniteLength) {
             val majorTypeShifted = (majorType.type shl 5)
             builder.append((majorTypeShifted + 31).toByte())
-            items.forEach { it.encode(builder) }
+            items.forEach { it.encodeTo(builder) }
             builder.append(0xff.toByte())
         } else {
             Cbor.encodeLength(builder, majorType, items.size)
-            items.forEach { it.encode(builder) }
+            items.forEach { it.encodeTo(builder) }
         }
     }
 
@@ -36,7 +36,16 @@ class CborArray(
             return ArrayBuilder(CborBuilder(dataItem), dataItem)
         }
 
-        internal fun decode(encodedCbor: ByteArray, offset: Int): Pair<Int, CborArray> {
+        private fun readOnlyIfRetained(
+            items: MutableList<DataItem>,
+            retainEncoding: Boolean
+        ): MutableList<DataItem> = if (retainEncoding) ReadOnlyMutableList(items) else items
+
+        internal fun decode(
+            encodedCbor: ByteArray,
+            offset: Int,
+            retainEncoding: Boolean
+        ): Pair<Int, CborArray> {
             val lowBits = encodedCbor[offset].toInt().and(0x1f)
             if (lowBits == 31) {
                 // indefinite length
@@ -48,25 +57,25 @@ class CborArray(
                         cursor += 1
                         break
                     }
-                    val (nextItemOffset, item) = Cbor.decode(encodedCbor, cursor)
+                    val (nextItemOffset, item) = Cbor.decode(encodedCbor, cursor, retainEncoding)
                     items.add(item)
                     check(nextItemOffset > cursor)
                     cursor = nextItemOffset
                 }
-                return Pair(cursor, CborArray(items, true))
+                return Pair(cursor, CborArray(readOnlyIfRetained(items, retainEncoding), true))
             } else {
                 var (cursor, numItems) = Cbor.decodeLength(encodedCbor, offset)
                 val items = mutableListOf<DataItem>()
                 if (numItems == 0UL) {
-                    return Pair(cursor, CborArray(mutableListOf()))
+                    return Pair(cursor, CborArray(readOnlyIfRetained(items, retainEncoding)))
                 }
                 for (n in IntRange(0, numItems.toInt() - 1)) {
-                    val (nextItemOffset, item) = Cbor.decode(encodedCbor, cursor)
+                    val (nextItemOffset, item) = Cbor.decode(encodedCbor, cursor, retainEncoding)
                     items.add(item)
                     check(nextItemOffset > cursor)
                     cursor = nextItemOffset
                 }
-                return Pair(cursor, CborArray(items))
+                return Pair(cursor, CborArray(readOnlyIfRetained(items, retainEncoding)))
             }
         }
     }
@@ -17,15 +17,15 @@ class CborMap(
             val majorTypeShifted = (majorType.type shl 5)
             builder.append((majorTypeShifted + 31).toByte())
             for ((keyItem, valueItem) in items) {
-                keyItem.encode(builder)
-                valueItem.encode(builder)
+                keyItem.encodeTo(builder)
+                valueItem.encodeTo(builder)
             }
             builder.append(0xff.toByte())
         } else {
             Cbor.encodeLength(builder, majorType, items.size)
             for ((keyItem, valueItem) in items) {
-                keyItem.encode(builder)
-                valueItem.encode(builder)
+                keyItem.encodeTo(builder)
+                valueItem.encodeTo(builder)
             }
         }
     }
@@ -42,7 +42,17 @@ class CborMap(
             return MapBuilder(CborBuilder(dataItem), dataItem)
         }
 
-        internal fun decode(encodedCbor: ByteArray, offset: Int): Pair<Int, CborMap> {
+        private fun readOnlyIfRetained(
+            items: MutableMap<DataItem, DataItem>,
+            retainEncoding: Boolean
+        ): MutableMap<DataItem, DataItem> =
+            if (retainEncoding) ReadOnlyMutableMap(items) else items
+
+        internal fun decode(
+            encodedCbor: ByteArray,
+            offset: Int,
+            retainEncoding: Boolean
+        ): Pair<Int, CborMap> {
             val lowBits = encodedCbor[offset].toInt().and(0x1f)
             if (lowBits == 31) {
                 // indefinite length
@@ -54,27 +64,27 @@ class CborMap(
                         cursor += 1
                         break
                     }
-                    val (nextItemOffset, keyItem) = Cbor.decode(encodedCbor, cursor)
-                    val (nextItemOffset2, valueItem) = Cbor.decode(encodedCbor, nextItemOffset)
+                    val (nextItemOffset, keyItem) = Cbor.decode(encodedCbor, cursor, retainEncoding)
+                    val (nextItemOffset2, valueItem) = Cbor.decode(encodedCbor, nextItemOffset, retainEncoding)
                     items.put(keyItem, valueItem)
                     check(nextItemOffset2 > cursor)
                     cursor = nextItemOffset2
                 }
-                return Pair(cursor, CborMap(items, true))
+                return Pair(cursor, CborMap(readOnlyIfRetained(items, retainEncoding), true))
             } else {
                 var (cursor, numItems) = Cbor.decodeLength(encodedCbor, offset)
                 val items = mutableMapOf<DataItem, DataItem>()
                 if (numItems == 0UL) {
-                    return Pair(cursor, CborMap(mutableMapOf()))
+                    return Pair(cursor, CborMap(readOnlyIfRetained(items, retainEncoding)))
                 }
                 for (n in IntRange(0, numItems.toInt() - 1)) {
-                    val (nextItemOffset, keyItem) = Cbor.decode(encodedCbor, cursor)
-                    val (nextItemOffset2, valueItem) = Cbor.decode(encodedCbor, nextItemOffset)
+                    val (nextItemOffset, keyItem) = Cbor.decode(encodedCbor, cursor, retainEncoding)
+                    val (nextItemOffset2, valueItem) = Cbor.decode(encodedCbor, nextItemOffset, retainEncoding)
                     items.put(keyItem, valueItem)
                     check(nextItemOffset2 > cursor)
                     cursor = nextItemOffset2
                 }
-                return Pair(cursor, CborMap(items))
+                return Pair(cursor, CborMap(readOnlyIfRetained(items, retainEncoding)))
             }
         }
     }
@@ -35,6 +35,20 @@ sealed class DataItem(
 ) {
     internal abstract fun encode(builder: ByteStringBuilder)
 
+    // The bytes this item was decoded from, only set for arrays, maps, and tags decoded
+    // with `retainEncoding` set to `true`, see [Cbor.decode].
+    internal var retainedEncoding: RetainedEncoding? = null
+
+    // Encodes the item, reusing the bytes it was decoded from if they were retained.
+    internal fun encodeTo(builder: ByteStringBuilder) {
+        val retained = retainedEncoding
+        if (retained != null) {
+            builder.append(retained.bytes, retained.offset, retained.end)
+        } else {
+            encode(builder)
+        }
+    }
+
     /**
      * The value of a [Bstr] data item.
      *
@@ -164,7 +178,7 @@ sealed class DataItem(
             require(this.tagNumber == Tagged.ENCODED_CBOR)
             val child = this.taggedItem
             require(child is Bstr)
-            return Cbor.decode(child.value)
+            return Cbor.decode(child.value, retainEncoding = retainedEncoding != null)
         }
 
     /**
@@ -427,3 +441,9 @@ sealed class DataItem(
     val asX509CertChain: X509CertChain
         get() = X509CertChain.fromDataItem(this)
 }
+
+internal class RetainedEncoding(
+    val bytes: ByteArray,
+    val offset: Int,
+    val end: Int
+)
@@ -6,8 +6,10 @@ import kotlinx.datetime.toInstant
 
 /**
  * Extension to get a [Tstr] data item for the value.
+ *
+ * This is equivalent to calling [Tstr.intern].
  */
-fun String.toDataItem(): Tstr = Tstr(this)
+fun String.toDataItem(): Tstr = Tstr.intern(this)
 
 /**
  * Extension to get a [Bstr] data item for the value.
@@ -0,0 +1,73 @@
+package com.android.identity.cbor
+
+// Read-only views used for the items of arrays and maps decoded with `retainEncoding` set to
+// `true`. Those items are encoded from the retained bytes, so modifying them would silently
+// be ignored when encoding. The views throw instead.
+
+private fun readOnly(): Nothing =
+    throw UnsupportedOperationException("CBOR decoded with retainEncoding can't be modified")
+
+internal class ReadOnlyMutableList<E>(
+    private val list: List<E>
+) : AbstractMutableList<E>() {
+    override val size: Int
+        get() = list.size
+
+    override fun get(index: Int): E = list[index]
+
+    override fun add(index: Int, element: E): Unit = readOnly()
+
+    override fun removeAt(index: Int): E = readOnly()
+
+    override fun set(index: Int, element: E): E = readOnly()
+}
+
+internal class ReadOnlyMutableMap<K, V>(
+    private val map: Map<K, V>
+) : AbstractMutableMap<K, V>() {
+    override val size: Int
+        get() = map.size
+
+    override fun get(key: K): V? = map[key]
+
+    override fun containsKey(key: K): Boolean = map.containsKey(key)
+
+    override fun put(key: K, value: V): V? = readOnly()
+
+    override val entries: MutableSet<MutableMap.MutableEntry<K, V>> =
+        object : AbstractMutableSet<MutableMap.MutableEntry<K, V>>() {
+            override val size: Int
+                get() = map.size
+
+            override fun add(element: MutableMap.MutableEntry<K, V>): Boolean = readOnly()
+
+            override fun iterator(): MutableIterator<MutableMap.MutableEntry<K, V>> =
+                object : MutableIterator<MutableMap.MutableEntry<K, V>> {
+                    private val iterator = map.entries.iterator()
+
+                    override fun hasNext(): Boolean = iterator.hasNext()
+
+                    override fun next(): MutableMap.MutableEntry<K, V> = Entry(iterator.next())
+
+                    override fun remove(): Unit = readOnly()
+                }
+        }
+
+    private class Entry<K, V>(
+        private val entry: Map.Entry<K, V>
+    ) : MutableMap.MutableEntry<K, V> {
+        override val key: K
+            get() = entry.key
+
+        override val value: V
+            get() = entry.value
+
+        override fun setValue(newValue: V): V = readOnly()
+
+        override fun equals(other: Any?): Boolean = entry == other
+
+        override fun hashCode(): Int = entry.hashCode()
+
+        override fun toString(): String = entry.toString()
+    }
+}
@@ -11,7 +11,7 @@ import kotlinx.io.bytestring.ByteStringBuilder
 class Tagged(val tagNumber: Long, val taggedItem: DataItem) : DataItem(MajorType.TAG) {
     override fun encode(builder: ByteStringBuilder) {
         Cbor.encodeLength(builder, majorType, tagNumber.toInt())
-        taggedItem.encode(builder)
+        taggedItem.encodeTo(builder)
     }
 
     companion object {
@@ -101,9 +101,13 @@ class Tagged(val tagNumber: Long, val taggedItem: DataItem) : DataItem(MajorType
          */
         const val FULL_DATE_STRING = 1004L
 
-        internal fun decode(encodedCbor: ByteArray, offset: Int): Pair<Int, Tagged> {
+        internal fun decode(
+            encodedCbor: ByteArray,
+            offset: Int,
+            retainEncoding: Boolean
+        ): Pair<Int, Tagged> {
             val (itemOffset, tagNumber) = Cbor.decodeLength(encodedCbor, offset)
-            val (newItemOffset, taggedItem) = Cbor.decode(encodedCbor, itemOffset)
+            val (newItemOffset, taggedItem) = Cbor.decode(encodedCbor, itemOffset, retainEncoding)
             return Pair(newItemOffset, Tagged(tagNumber.toLong(), taggedItem))
         }
     }
@@ -5,27 +5,76 @@ import kotlinx.io.bytestring.ByteStringBuilder
 /**
  * Unicode String (major type 3).
  *
+ * Use [intern] to get a [Tstr] for a map key, for well-known keys this returns a shared
+ * instance instead of allocating a new one.
+ *
  * @param value the [String] for the value of the byte string.
  */
-class Tstr(val value: String) : DataItem(MajorType.UNICODE_STRING) {
+class Tstr private constructor(
+    val value: String,
+    private val encodedValue: ByteArray?,
+    private val hash: Int
+) : DataItem(MajorType.UNICODE_STRING) {
+
+    constructor(value: String) : this(value, null, value.hashCode())
+
     override fun encode(builder: ByteStringBuilder) {
-        val encodedValue = value.encodeToByteArray()
+        val encodedValue = encodedValue ?: value.encodeToByteArray()
         Cbor.encodeLength(builder, majorType, encodedValue.size)
-        builder.append(value.encodeToByteArray())
+        builder.append(encodedValue)
     }
 
     companion object {
+        // Map keys used by ISO/IEC 18013-5, ISO/IEC TS 18013-7, ISO/IEC 23220-4, VICAL and
+        // the CBOR structures in this library. These are pre-encoded and shared so looking
+        // them up and encoding them doesn't allocate.
+        private val internedKeys: Map<String, Tstr> = listOf(
+            // DeviceResponse, IssuerSigned, DeviceSigned
+            "version", "documents", "documentErrors", "status", "docType", "issuerSigned",
+            "deviceSigned", "errors", "nameSpaces", "issuerAuth", "deviceAuth",
+            "deviceSignature", "deviceMac",
+            // IssuerSignedItem
+            "digestID", "random", "elementIdentifier", "elementValue",
+            // DeviceRequest
+            "docRequests", "itemsRequest", "readerAuth", "requestInfo",
+            // MobileSecurityObject
+            "digestAlgorithm", "valueDigests", "deviceKeyInfo", "deviceKey",
+            "keyAuthorizations", "dataElements", "keyInfo", "validityInfo", "signed",
+            "validFrom", "validUntil", "expectedUpdate",
+            // SessionEstablishment and SessionData
+            "eReaderKey", "data",
+            // VICAL
+            "vicalProvider", "date", "vicalIssueID", "nextUpdate", "certificateInfos",
+            "certificate", "serialNumber", "ski", "certificateProfile",
+            "issuingAuthority", "issuingCountry", "stateOrProvinceName", "extensions",
+            // COSE
+            "alg", "kid", "x5chain",
+        ).associateWith { Tstr(it, it.encodeToByteArray(), it.hashCode()) }
+
+        /**
+         * Gets a [Tstr] for a value.
+         *
+         * For well-known map keys, for example the ones defined in ISO/IEC 18013-5, this
+         * returns a shared instance with a pre-computed encoding. For all other values this
+         * returns a new instance.
+         *
+         * @param value the value.
+         * @return a [Tstr] for the value.
+         */
+        fun intern(value: String): Tstr = internedKeys[value] ?: Tstr(value)
+
         internal fun decode(encodedCbor: ByteArray, offset: Int): Pair<Int, Tstr> {
             val (payloadBegin, length) = Cbor.decodeLength(encodedCbor, offset)
             val payloadEnd = payloadBegin + length.toInt()
-            val slice = encodedCbor.sliceArray(IntRange(payloadBegin, payloadEnd - 1))
-            return Pair(payloadEnd, Tstr(slice.decodeToString()))
+            val value = encodedCbor.decodeToString(payloadBegin, payloadEnd)
+            return Pair(payloadEnd, intern(value))
         }
     }
 
-    override fun equals(other: Any?): Boolean = other is Tstr && value == other.value
+    override fun equals(other: Any?): Boolean =
+        this === other || (other is Tstr && hash == other.hash && value == other.value)
 
-    override fun hashCode(): Int = value.hashCode()
+    override fun hashCode(): Int = hash
 
     override fun toString(): String = "Tstr(\"$value\")"
-}
\ No newline at end of file
+}
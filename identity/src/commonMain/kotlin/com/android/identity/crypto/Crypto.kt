@@ -33,6 +33,22 @@ expect object Crypto {
         message: ByteArray
     ): ByteArray
 
+    /**
+     * Message digest function for a message made up of several parts.
+     *
+     * This is equivalent to calling [digest] on the concatenation of [messageParts] but
+     * avoids building the concatenated message on platforms supporting incremental hashing.
+     *
+     * @param algorithm must one of [Algorithm.SHA256], [Algorithm.SHA384], [Algorithm.SHA512].
+     * @param messageParts the parts of the message to get a digest of, in order.
+     * @return the digest.
+     * @throws IllegalArgumentException if the given algorithm is not supported.
+     */
+    fun digest(
+        algorithm: Algorithm,
+        messageParts: List<ByteArray>
+    ): ByteArray
+
     /**
      * Message authentication code function.
      *
@@ -225,30 +241,4 @@ expect object Crypto {
         encryptedJwt: JsonElement,
         recipientKey: EcPrivateKey
     ): JsonObject
-
-    // TODO: replace with non-platform specific code
-    internal fun jwsSign(
-        key: EcPrivateKey,
-        signatureAlgorithm: Algorithm,
-        claimsSet: JsonObject,
-        type: String?,
-        x5c: X509CertChain?
-    ): JsonElement
-
-    // TODO: replace with non-platform specific code
-    internal fun jwsVerify(
-        signedJwt: JsonElement,
-        publicKey: EcPublicKey
-    )
-
-    // TODO: replace with non-platform specific code
-    internal fun jwsGetInfo(
-        signedJwt: JsonElement,
-    ): JwsInfo
 }
-
-internal data class JwsInfo(
-    val claimsSet: JsonObject,
-    val type: String?,
-    val x5c: X509CertChain?
-)
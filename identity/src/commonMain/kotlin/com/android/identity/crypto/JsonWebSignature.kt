@@ -1,13 +1,33 @@
 package com.android.identity.crypto
 
+import com.android.identity.util.fromBase64Url
+import com.android.identity.util.toBase64Url
+import kotlinx.datetime.Clock
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonArray
 import kotlinx.serialization.json.JsonElement
 import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.longOrNull
+import kotlin.io.encoding.Base64
+import kotlin.io.encoding.ExperimentalEncodingApi
+import kotlin.time.Duration.Companion.seconds
 
 /**
  * JSON Web Signature support
+ *
+ * Only the compact serialization defined in
+ * [RFC 7515 Section 7.1](https://www.rfc-editor.org/rfc/rfc7515#section-7.1) is supported.
  */
 object JsonWebSignature {
 
+    // The allowed clock skew when checking the "exp" and "nbf" claims in [verify].
+    private val MAX_CLOCK_SKEW = 60.seconds
+
     /**
      * Sign a claims set.
      *
@@ -18,6 +38,7 @@ object JsonWebSignature {
      * @param x5c: the certificate chain to put in the "x5c" header parameter or `null`.
      * @return a [JsonElement] with the JWS.
      */
+    @OptIn(ExperimentalEncodingApi::class)
     fun sign(
         key: EcPrivateKey,
         signatureAlgorithm: Algorithm,
@@ -25,27 +46,78 @@ object JsonWebSignature {
         type: String?,
         x5c: X509CertChain?
     ): JsonElement {
-        return Crypto.jwsSign(
-            key = key,
-            signatureAlgorithm = signatureAlgorithm,
-            claimsSet = claimsSet,
-            type = type,
-            x5c = x5c
+        val header = buildJsonObject {
+            if (type != null) {
+                put("typ", JsonPrimitive(type))
+            }
+            if (x5c != null) {
+                // Note that unlike the other parts of a JWS, certificates are encoded using
+                // base64 and not base64url, see RFC 7515 Section 4.1.6.
+                put("x5c", JsonArray(x5c.certificates.map {
+                    JsonPrimitive(Base64.Default.encode(it.encodedCertificate))
+                }))
+            }
+        }
+        return JsonPrimitive(signCompact(key, signatureAlgorithm, header, claimsSet))
+    }
+
+    /**
+     * Sign a claims set, using the compact serialization.
+     *
+     * @param key the key to sign with.
+     * @param signatureAlgorithm the signature algorithm to use, must match the curve of [key].
+     * @param header the header parameters, the "alg" parameter is set from [signatureAlgorithm].
+     * @param claimsSet the claims set.
+     * @return the JWS in compact serialization.
+     */
+    fun signCompact(
+        key: EcPrivateKey,
+        signatureAlgorithm: Algorithm,
+        header: JsonObject,
+        claimsSet: JsonObject
+    ): String {
+        require(signatureAlgorithm == key.curve.jwsAlgorithm) {
+            "Algorithm $signatureAlgorithm can't be used with a ${key.curve} key"
+        }
+        val fullHeader = JsonObject(
+            header + ("alg" to JsonPrimitive(signatureAlgorithm.jwseAlgorithmIdentifier))
         )
+        val sb = StringBuilder()
+        sb.append(fullHeader.toString().encodeToByteArray().toBase64Url())
+        sb.append('.')
+        sb.append(claimsSet.toString().encodeToByteArray().toBase64Url())
+        val signature = Crypto.sign(key, signatureAlgorithm, sb.toString().encodeToByteArray())
+        sb.append('.')
+        sb.append(signature.toCoseEncoded().toBase64Url())
+        return sb.toString()
     }
 
     /**
      * Verify the signature of a JWS.
      *
+     * This also checks the "exp" and "nbf" claims, if present, allowing for 60 seconds of
+     * clock skew.
+     *
      * @param jws the JWS.
      * @param publicKey the key to use for verification
+     * @return a [JwsInfo] with information about the JWS.
      * @throws Throwable if verification fails.
      */
     fun verify(
         jws: JsonElement,
         publicKey: EcPublicKey
-    ) {
-        Crypto.jwsVerify(jws, publicKey)
+    ): JwsInfo {
+        val compactJws = parseCompact(jws.jsonPrimitive.content)
+        compactJws.verifySignature(publicKey)
+        val now = Clock.System.now().epochSeconds
+        val skew = MAX_CLOCK_SKEW.inWholeSeconds
+        compactJws.claimsSet["exp"]?.jsonPrimitive?.longOrNull?.let { exp ->
+            check(now <= exp + skew) { "JWT expired" }
+        }
+        compactJws.claimsSet["nbf"]?.jsonPrimitive?.longOrNull?.let { nbf ->
+            check(now + skew >= nbf) { "JWT not yet valid" }
+        }
+        return compactJws.info
     }
 
     /**
@@ -54,25 +126,121 @@ object JsonWebSignature {
      * @property claimsSet the claims set being signed.
      * @property type the value of the `typ` header element of `null.
      * @property x5c the certificate chain in the `x5c` header element or `null`.
+     * @property header all header parameters.
      */
     data class JwsInfo(
         val claimsSet: JsonObject,
         val type: String?,
-        val x5c: X509CertChain?
+        val x5c: X509CertChain?,
+        val header: JsonObject = JsonObject(emptyMap())
     )
 
     /**
      * Get information about a JWS.
      *
+     * The signature is not checked, use [verify] for that.
+     *
      * @param jws the JWS.
      * @return a [JwsInfo] with information about the JWS.
      */
-    fun getInfo(jws: JsonElement): JwsInfo {
-        val res = Crypto.jwsGetInfo(jws)
-        return JwsInfo(
-            claimsSet = res.claimsSet,
-            type = res.type,
-            x5c = res.x5c
-        )
+    fun getInfo(jws: JsonElement): JwsInfo = parseCompact(jws.jsonPrimitive.content).info
+
+    /**
+     * A JWS in compact serialization, with its header and claims set parsed.
+     *
+     * Use [parseCompact] to create an instance and [verifySignature] to check the signature.
+     *
+     * @property header the header parameters.
+     * @property claimsSet the claims set.
+     */
+    class CompactJws internal constructor(
+        val header: JsonObject,
+        val claimsSet: JsonObject,
+        private val signingInput: ByteArray,
+        private val signature: ByteArray
+    ) {
+        /** The header and claims set as a [JwsInfo]. */
+        val info: JwsInfo
+            get() = JwsInfo(
+                claimsSet = claimsSet,
+                type = header["typ"]?.jsonPrimitive?.content,
+                x5c = header["x5c"]?.jsonArray?.let { x5c ->
+                    X509CertChain(x5c.map {
+                        X509Cert(decodeCertificate(it.jsonPrimitive.content))
+                    })
+                },
+                header = header
+            )
+
+        /**
+         * Checks the signature.
+         *
+         * The "alg" header parameter must match the curve of [publicKey].
+         *
+         * @param publicKey the key to use for verification.
+         * @throws IllegalArgumentException if the signature doesn't verify.
+         */
+        fun verifySignature(publicKey: EcPublicKey) {
+            val algorithm = publicKey.curve.jwsAlgorithm
+            require(header["alg"]?.jsonPrimitive?.content == algorithm.jwseAlgorithmIdentifier) {
+                "Unexpected JWS algorithm ${header["alg"]}"
+            }
+            require(header["crit"] == null) { "Critical JWS header parameters aren't supported" }
+            require(
+                Crypto.checkSignature(
+                    publicKey,
+                    signingInput,
+                    algorithm,
+                    EcSignature.fromCoseEncoded(signature)
+                )
+            ) { "Invalid JWS signature" }
+        }
+    }
+
+    /**
+     * Parses a JWS in compact serialization, without checking the signature.
+     *
+     * @param jws the JWS.
+     * @return the parsed JWS.
+     * @throws IllegalArgumentException if [jws] isn't a well-formed JWS.
+     */
+    fun parseCompact(jws: String): CompactJws {
+        val firstDot = jws.indexOf('.')
+        val secondDot = jws.indexOf('.', firstDot + 1)
+        require(firstDot > 0 && secondDot > firstDot && jws.indexOf('.', secondDot + 1) < 0) {
+            "Malformed JWS"
+        }
+        try {
+            return CompactJws(
+                header = parseSegment(jws, 0, firstDot),
+                claimsSet = parseSegment(jws, firstDot + 1, secondDot),
+                signingInput = jws.substring(0, secondDot).encodeToByteArray(),
+                signature = jws.substring(secondDot + 1).fromBase64Url()
+            )
+        } catch (e: IllegalArgumentException) {
+            throw IllegalArgumentException("Malformed JWS", e)
+        }
     }
-}
\ No newline at end of file
+
+    private fun parseSegment(jws: String, start: Int, end: Int): JsonObject =
+        Json.parseToJsonElement(jws.substring(start, end).fromBase64Url().decodeToString())
+            .jsonObject
+
+    // Some implementations incorrectly use base64url for certificates, accept both.
+    @OptIn(ExperimentalEncodingApi::class)
+    private fun decodeCertificate(encoded: String): ByteArray =
+        if (encoded.contains('-') || encoded.contains('_')) {
+            encoded.fromBase64Url()
+        } else {
+            Base64.Default.withPadding(Base64.PaddingOption.PRESENT_OPTIONAL).decode(encoded)
+        }
+
+    private val EcCurve.jwsAlgorithm: Algorithm
+        get() = when (this) {
+            EcCurve.P256 -> Algorithm.ES256
+            EcCurve.P384 -> Algorithm.ES384
+            EcCurve.P521 -> Algorithm.ES512
+            EcCurve.ED25519, EcCurve.ED448 -> Algorithm.EDDSA
+            else -> throw IllegalArgumentException("Curve $this is not supported for JWS")
+        }
+}
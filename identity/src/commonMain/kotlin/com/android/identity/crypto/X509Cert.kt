@@ -10,6 +10,7 @@ import com.android.identity.asn1.ASN1ObjectIdentifier
 import com.android.identity.asn1.ASN1OctetString
 import com.android.identity.asn1.ASN1Sequence
 import com.android.identity.asn1.ASN1Set
+import com.android.identity.asn1.ASN1Slice
 import com.android.identity.asn1.ASN1String
 import com.android.identity.asn1.ASN1TagClass
 import com.android.identity.asn1.ASN1TaggedObject
@@ -18,6 +19,7 @@ import com.android.identity.asn1.OID
 import com.android.identity.cbor.Bstr
 import com.android.identity.cbor.DataItem
 import com.android.identity.util.Logger
+import com.android.identity.util.toHex
 import kotlinx.datetime.Instant
 import kotlinx.io.bytestring.ByteString
 import kotlin.io.encoding.Base64
@@ -78,7 +80,7 @@ class X509Cert(
         }
         return Crypto.checkSignature(
             publicKey,
-            tbsCertificate,
+            tbsCertificateBytes,
             signatureAlgorithm,
             ecSignature
         )
@@ -92,6 +94,12 @@ class X509Cert(
         parsedCert.elements[0] as ASN1Sequence
     }
 
+    // TBSCertificate located in encodedCertificate, for fields which are better read without
+    // decoding and copying the whole certificate.
+    private val tbsCertSlice: ASN1Slice by lazy {
+        ASN1Slice.parse(encodedCertificate).children()[0]
+    }
+
     /**
      * The certificate version.
      *
@@ -113,14 +121,16 @@ class X509Cert(
     /**
      * The subject of the certificate.
      */
-    val subject: X500Name
-        get() = parseName(tbsCert.elements[5] as ASN1Sequence)
+    val subject: X500Name by lazy {
+        parseName(tbsCert.elements[5] as ASN1Sequence)
+    }
 
     /**
      * The issuer of the certificate.
      */
-    val issuer: X500Name
-        get() = parseName(tbsCert.elements[3] as ASN1Sequence)
+    val issuer: X500Name by lazy {
+        parseName(tbsCert.elements[3] as ASN1Sequence)
+    }
 
     /**
      * The point in time where the certificate is valid from.
@@ -136,9 +146,18 @@ class X509Cert(
 
     /**
      * The bytes of TBSCertificate.
+     *
+     * These are the bytes exactly as they appear in [encodedCertificate]. A new array is
+     * returned on each call.
      */
     val tbsCertificate: ByteArray
-        get() = ASN1.encode(tbsCert)
+        get() = tbsCertificateBytes.copyOf()
+
+    // Cached values are never handed out, the public getters return copies so callers can't
+    // change what's used e.g. for signature checks and chain lookups.
+    private val tbsCertificateBytes: ByteArray by lazy {
+        tbsCertSlice.encoded()
+    }
 
     /**
      * The certificate signature.
@@ -185,91 +204,93 @@ class X509Cert(
      * @throws IllegalStateException if the public key for the certificate isn't an EC key or
      * its EC curve isn't supported by the platform.
      */
-    val ecPublicKey: EcPublicKey
-        get() {
-            val subjectPublicKeyInfo = tbsCert.elements[6] as ASN1Sequence
-            val algorithmIdentifier = subjectPublicKeyInfo.elements[0] as ASN1Sequence
-            val algorithmOid = (algorithmIdentifier.elements[0] as ASN1ObjectIdentifier).oid
-            val curve = when (algorithmOid) {
-                // https://datatracker.ietf.org/doc/html/rfc5480#section-2.1.1
-                OID.EC_PUBLIC_KEY.oid -> {
-                    val ecCurveString = (algorithmIdentifier.elements[1] as ASN1ObjectIdentifier).oid
-                    when (ecCurveString) {
-                        "1.2.840.10045.3.1.7" -> EcCurve.P256
-                        "1.3.132.0.34" -> EcCurve.P384
-                        "1.3.132.0.35" -> EcCurve.P521
-                        "1.3.36.3.3.2.8.1.1.7" -> EcCurve.BRAINPOOLP256R1
-                        "1.3.36.3.3.2.8.1.1.9" -> EcCurve.BRAINPOOLP320R1
-                        "1.3.36.3.3.2.8.1.1.11" -> EcCurve.BRAINPOOLP384R1
-                        "1.3.36.3.3.2.8.1.1.13" -> EcCurve.BRAINPOOLP512R1
-                        else -> throw IllegalStateException("Unexpected curve OID $ecCurveString")
-                    }
+    val ecPublicKey: EcPublicKey by lazy {
+        val subjectPublicKeyInfo = tbsCert.elements[6] as ASN1Sequence
+        val algorithmIdentifier = subjectPublicKeyInfo.elements[0] as ASN1Sequence
+        val algorithmOid = (algorithmIdentifier.elements[0] as ASN1ObjectIdentifier).oid
+        val curve = when (algorithmOid) {
+            // https://datatracker.ietf.org/doc/html/rfc5480#section-2.1.1
+            OID.EC_PUBLIC_KEY.oid -> {
+                val ecCurveString = (algorithmIdentifier.elements[1] as ASN1ObjectIdentifier).oid
+                when (ecCurveString) {
+                    "1.2.840.10045.3.1.7" -> EcCurve.P256
+                    "1.3.132.0.34" -> EcCurve.P384
+                    "1.3.132.0.35" -> EcCurve.P521
+                    "1.3.36.3.3.2.8.1.1.7" -> EcCurve.BRAINPOOLP256R1
+                    "1.3.36.3.3.2.8.1.1.9" -> EcCurve.BRAINPOOLP320R1
+                    "1.3.36.3.3.2.8.1.1.11" -> EcCurve.BRAINPOOLP384R1
+                    "1.3.36.3.3.2.8.1.1.13" -> EcCurve.BRAINPOOLP512R1
+                    else -> throw IllegalStateException("Unexpected curve OID $ecCurveString")
                 }
-                "1.3.101.110" -> EcCurve.X25519
-                "1.3.101.111" -> EcCurve.X448
-                "1.3.101.112" -> EcCurve.ED25519
-                "1.3.101.113" -> EcCurve.ED448
-                else -> throw IllegalStateException("Unexpected OID $algorithmOid")
             }
-            val keyMaterial = (subjectPublicKeyInfo.elements[1] as ASN1BitString).value
-            return when (curve) {
-                EcCurve.P256,
-                EcCurve.P384,
-                EcCurve.P521,
-                EcCurve.BRAINPOOLP256R1,
-                EcCurve.BRAINPOOLP320R1,
-                EcCurve.BRAINPOOLP384R1,
-                EcCurve.BRAINPOOLP512R1 -> {
-                    EcPublicKeyDoubleCoordinate.fromUncompressedPointEncoding(curve, keyMaterial)
-                }
-                EcCurve.ED25519,
-                EcCurve.X25519,
-                EcCurve.ED448,
-                EcCurve.X448 -> {
-                    EcPublicKeyOkp(curve, keyMaterial)
+            "1.3.101.110" -> EcCurve.X25519
+            "1.3.101.111" -> EcCurve.X448
+            "1.3.101.112" -> EcCurve.ED25519
+            "1.3.101.113" -> EcCurve.ED448
+            else -> throw IllegalStateException("Unexpected OID $algorithmOid")
+        }
+        val keyMaterial = (subjectPublicKeyInfo.elements[1] as ASN1BitString).value
+        when (curve) {
+            EcCurve.P256,
+            EcCurve.P384,
+            EcCurve.P521,
+            EcCurve.BRAINPOOLP256R1,
+            EcCurve.BRAINPOOLP320R1,
+            EcCurve.BRAINPOOLP384R1,
+            EcCurve.BRAINPOOLP512R1 -> {
+                EcPublicKeyDoubleCoordinate.fromUncompressedPointEncoding(curve, keyMaterial)
+            }
+            EcCurve.ED25519,
+            EcCurve.X25519,
+            EcCurve.ED448,
+            EcCurve.X448 -> {
+                EcPublicKeyOkp(curve, keyMaterial)
+            }
+        }
+    }
+
+    /** The list of decoded extensions information. */
+    val extensions: List<X509Extension> by lazy {
+        val extensionsField = tbsCertSlice.children().find {
+            it.isA(ASN1TagClass.CONTEXT_SPECIFIC, ASN1Encoding.CONSTRUCTED, 0x03)
+        } ?: return@lazy emptyList()
+        val result = mutableListOf<X509Extension>()
+        for (ext in extensionsField.children()[0].children()) {
+            val fields = ext.children()
+            val oid = ASN1ObjectIdentifier.parse(fields[0].content()).oid
+            val isCritical = fields.size == 3 && (fields[1].decode() as ASN1Boolean).value
+            val value = fields[fields.size - 1]
+            check(value.isA(ASN1TagClass.UNIVERSAL, ASN1Encoding.PRIMITIVE, ASN1OctetString.TAG_NUMBER)) {
+                "Expected OCTET STRING for extension $oid"
+            }
+            result.add(X509Extension(oid, isCritical, ByteString(value.content())))
+        }
+        result
+    }
+
+    // The first extension for each OID, extensions are parsed only once for all lookups.
+    private val extensionsByOid: Map<String, X509Extension> by lazy {
+        buildMap {
+            for (extension in extensions) {
+                if (!containsKey(extension.oid)) {
+                    put(extension.oid, extension)
                 }
             }
         }
+    }
 
     /**
      * The OIDs for X.509 extensions which are marked as critical.
      */
-    val criticalExtensionOIDs: Set<String>
-        get() = getExtensionOIDs(true)
+    val criticalExtensionOIDs: Set<String> by lazy {
+        extensions.filter { it.isCritical }.map { it.oid }.toSet()
+    }
 
     /**
      * The OIDs for X.509 extensions which are not marked as critical.
      */
-    val nonCriticalExtensionOIDs: Set<String>
-        get() = getExtensionOIDs(false)
-
-    private fun getExtensionsSeq(): ASN1Sequence? {
-        for (elem in tbsCert.elements) {
-            if (elem is ASN1TaggedObject &&
-                elem.cls == ASN1TagClass.CONTEXT_SPECIFIC &&
-                elem.enc == ASN1Encoding.CONSTRUCTED &&
-                elem.tag == 0x03) {
-                return ASN1.decode(elem.content) as ASN1Sequence
-            }
-        }
-        return null
-    }
-
-    private fun getExtensionOIDs(getCritical: Boolean): Set<String> {
-        val extSeq = getExtensionsSeq() ?: return emptySet()
-        val ret = mutableSetOf<String>()
-        for (ext in extSeq.elements) {
-            ext as ASN1Sequence
-            val isCritical = if (ext.elements.size == 3) {
-                (ext.elements[1] as ASN1Boolean).value
-            } else {
-                false
-            }
-            if ((isCritical && getCritical) || (!isCritical && !getCritical)) {
-                ret.add((ext.elements[0] as ASN1ObjectIdentifier).oid)
-            }
-        }
-        return ret
+    val nonCriticalExtensionOIDs: Set<String> by lazy {
+        extensions.filter { !it.isCritical }.map { it.oid }.toSet()
     }
 
     /**
@@ -278,77 +299,62 @@ class X509Cert(
      * @param oid the OID to get the extension from
      * @return the bytes of the extension or `null` if no such extension exist.
      */
-    fun getExtensionValue(oid: String): ByteArray? {
-        val extSeq = getExtensionsSeq() ?: return null
-        for (ext in extSeq.elements) {
-            ext as ASN1Sequence
-            if ((ext.elements[0] as ASN1ObjectIdentifier).oid == oid) {
-                if (ext.elements.size == 3) {
-                    return (ext.elements[2] as ASN1OctetString).value
-                } else {
-                    return (ext.elements[1] as ASN1OctetString).value
-                }
-            }
-        }
-        return null
-    }
+    fun getExtensionValue(oid: String): ByteArray? = extensionsByOid[oid]?.data?.toByteArray()
 
     /**
      * The subject key identifier (OID 2.5.29.14), or `null` if not present in the certificate.
      */
     val subjectKeyIdentifier: ByteArray?
-        get() {
-            val extVal = getExtensionValue(OID.X509_EXTENSION_SUBJECT_KEY_IDENTIFIER.oid) ?: return null
-            return (ASN1.decode(extVal) as ASN1OctetString).value
-        }
+        get() = subjectKeyIdentifierBytes?.copyOf()
+
+    private val subjectKeyIdentifierBytes: ByteArray? by lazy {
+        val extVal = extensionsByOid[OID.X509_EXTENSION_SUBJECT_KEY_IDENTIFIER.oid]?.data
+            ?: return@lazy null
+        (ASN1.decode(extVal.toByteArray()) as ASN1OctetString).value
+    }
+
+    /**
+     * The hex encoding of [subjectKeyIdentifier], or `null` if not present in the certificate.
+     */
+    val subjectKeyIdentifierHex: String? by lazy {
+        subjectKeyIdentifierBytes?.toHex()
+    }
 
     /**
      * The authority key identifier (OID 2.5.29.35), or `null` if not present in the certificate.
      */
     val authorityKeyIdentifier: ByteArray?
-        get() {
-            val extVal = getExtensionValue(OID.X509_EXTENSION_AUTHORITY_KEY_IDENTIFIER.oid) ?: return null
-            val seq = ASN1.decode(extVal) as ASN1Sequence
-            val taggedObject = seq.elements[0] as ASN1TaggedObject
-            check(taggedObject.cls == ASN1TagClass.CONTEXT_SPECIFIC) { "Expected context-specific tag" }
-            check(taggedObject.enc == ASN1Encoding.PRIMITIVE)
-            check(taggedObject.tag == 0) { "Expected tag 0" }
-            // Note: tags in AuthorityKeyIdentifier are IMPLICIT b/c its definition appear in
-            // the implicitly tagged ASN.1 module, see RFC 5280 Appendix A.2.
-            //
-            return taggedObject.content
-        }
+        get() = authorityKeyIdentifierBytes?.copyOf()
+
+    private val authorityKeyIdentifierBytes: ByteArray? by lazy {
+        val extVal = extensionsByOid[OID.X509_EXTENSION_AUTHORITY_KEY_IDENTIFIER.oid]?.data
+            ?: return@lazy null
+        val seq = ASN1.decode(extVal.toByteArray()) as ASN1Sequence
+        val taggedObject = seq.elements[0] as ASN1TaggedObject
+        check(taggedObject.cls == ASN1TagClass.CONTEXT_SPECIFIC) { "Expected context-specific tag" }
+        check(taggedObject.enc == ASN1Encoding.PRIMITIVE)
+        check(taggedObject.tag == 0) { "Expected tag 0" }
+        // Note: tags in AuthorityKeyIdentifier are IMPLICIT b/c its definition appear in
+        // the implicitly tagged ASN.1 module, see RFC 5280 Appendix A.2.
+        //
+        taggedObject.content
+    }
 
     /**
-     * The key usage (OID 2.5.29.15) or the empty set if not present.
+     * The hex encoding of [authorityKeyIdentifier], or `null` if not present in the certificate.
      */
-    val keyUsage: Set<X509KeyUsage>
-        get() {
-            val extVal = getExtensionValue(OID.X509_EXTENSION_KEY_USAGE.oid) ?: return emptySet()
-            return X509KeyUsage.decodeSet(ASN1.decode(extVal) as ASN1BitString)
-        }
+    val authorityKeyIdentifierHex: String? by lazy {
+        authorityKeyIdentifierBytes?.toHex()
+    }
 
-    /** The list of decoded extensions information. */
-    val extensions: List<X509Extension>
-        get() {
-            val extSeq = getExtensionsSeq() ?: return emptyList()
-            return buildList {
-                for (ext in extSeq.elements) {
-                    ext as ASN1Sequence
-                    val dataField =
-                        (ext.elements[(if (ext.elements.size == 3) 2 else 1)] as ASN1OctetString)
-                            .value
-                    add(
-                        X509Extension(
-                            oid = (ext.elements[0] as ASN1ObjectIdentifier).oid,
-                            isCritical = (ext.elements.size == 3)
-                                    && (ext.elements[1] as ASN1Boolean).value,
-                            data = ByteString(dataField)
-                        )
-                    )
-                }
-            }
-        }
+    /**
+     * The key usage (OID 2.5.29.15) or the empty set if not present.
+     */
+    val keyUsage: Set<X509KeyUsage> by lazy {
+        val extVal = extensionsByOid[OID.X509_EXTENSION_KEY_USAGE.oid]?.data
+            ?: return@lazy emptySet()
+        X509KeyUsage.decodeSet(ASN1.decode(extVal.toByteArray()) as ASN1BitString)
+    }
 
     companion object {
         private const val TAG = "X509Cert"
@@ -19,6 +19,7 @@ import com.android.identity.credential.Credential
 import com.android.identity.credential.SecureAreaBoundCredential
 import com.android.identity.storage.StorageTableSpec
 import com.android.identity.util.Logger
+import com.android.identity.util.LruCache
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.datetime.Clock
@@ -87,7 +88,12 @@ class Document internal constructor(
     // DocumentStore.lock, as it will cause a deadlock, as there are code paths that
     // obtain this lock when DocumentStore.lock is already held.
     private val lock = Mutex()
-    private val credentialCache = mutableMapOf<String, Credential>()
+    private val credentialCache = LruCache<String, Credential>(
+        maxWeight = store.cacheOptions.maxCredentialWeightPerDocument,
+        weigher = { _, credential -> store.cacheOptions.credentialWeigher(credential) },
+        onEvicted = { _, _ -> allCredentialsLoaded = false }
+    )
+    // Whether credentialCache holds all credentials for this document.
     private var allCredentialsLoaded = false
     lateinit var metadata: DocumentMetadata
         internal set
@@ -109,12 +115,16 @@ class Document internal constructor(
     suspend fun getCredentials(): List<Credential> {
         return lock.withLock {
             if (!allCredentialsLoaded) {
-                for (credentialIdentifier in getCredentialIdentifiers()) {
+                allCredentialsLoaded = true
+                val credentials = getCredentialIdentifiers().mapNotNull { credentialIdentifier ->
                     lookupCredentialNoLock(credentialIdentifier)
                 }
-                allCredentialsLoaded = true
+                if (!allCredentialsLoaded) {
+                    // Credentials were evicted while loading, the cache can't hold all of them.
+                    return@withLock credentials
+                }
             }
-            credentialCache.values.toList()
+            credentialCache.values
         }
     }
 
@@ -129,17 +139,18 @@ class Document internal constructor(
 
     private suspend fun lookupCredentialNoLock(credentialIdentifier: String): Credential? {
         check(lock.isLocked)
-        return credentialCache.getOrPut(credentialIdentifier) {
-            store.credentialLoader.loadCredential(this, credentialIdentifier)
-                ?: return null
-        }
+        credentialCache[credentialIdentifier]?.let { return it }
+        val credential = store.credentialLoader.loadCredential(this, credentialIdentifier)
+            ?: return null
+        credentialCache.put(credentialIdentifier, credential)
+        return credential
     }
 
     // Called from Credential.addToDocument
     internal suspend fun addCredential(newCredential: Credential) {
         lock.withLock {
             check(!credentialCache.containsKey(newCredential.identifier))
-            credentialCache[newCredential.identifier] = newCredential
+            credentialCache.put(newCredential.identifier, newCredential)
         }
         store.emitOnDocumentChanged(identifier)
     }
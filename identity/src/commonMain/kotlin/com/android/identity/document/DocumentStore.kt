@@ -15,12 +15,18 @@
  */
 package com.android.identity.document
 
+import com.android.identity.credential.Credential
 import com.android.identity.credential.CredentialLoader
 import com.android.identity.securearea.SecureArea
 import com.android.identity.securearea.SecureAreaRepository
 import com.android.identity.storage.Storage
 import com.android.identity.storage.StorageTable
 import com.android.identity.storage.StorageTableSpec
+import com.android.identity.util.LruCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
@@ -41,9 +47,10 @@ import kotlinx.io.bytestring.ByteString
  * implementations for *Authentication Keys*) associated with documents stored
  * in the Document Store.
  *
- * It is guaranteed that once a document is created with [createDocument],
- * each subsequent call to [lookupDocument] will return the same
- * [Document] instance.
+ * Loaded documents are cached, see [CacheOptions]. It is guaranteed that once a document
+ * is created with [createDocument], each subsequent call to [lookupDocument] will return
+ * the same [Document] instance as long as the document isn't evicted from the cache. With
+ * the default [CacheOptions] documents are never evicted.
  *
  * For more details about documents stored in a [DocumentStore] see the
  * [Document] class.
@@ -57,18 +64,42 @@ import kotlinx.io.bytestring.ByteString
  * for documents in this [DocumentStore]
  * @property documentTableSpec [StorageTableSpec] that defines the table for [DocumentMetadata]
  * persistent storage, it must not have expiration or partitions enabled.
+ * @property cacheOptions limits for the in-memory caches of documents and credentials.
  */
 class DocumentStore(
     val storage: Storage,
     internal val secureAreaRepository: SecureAreaRepository,
     internal val credentialLoader: CredentialLoader,
     internal val documentMetadataFactory: DocumentMetadataFactory,
-    private val documentTableSpec: StorageTableSpec = Document.defaultTableSpec
+    private val documentTableSpec: StorageTableSpec = Document.defaultTableSpec,
+    val cacheOptions: CacheOptions = CacheOptions()
 ) {
+    /**
+     * Limits for the in-memory caches of a [DocumentStore].
+     *
+     * Entries evicted from a cache are loaded from storage again when needed. Once a
+     * [Document] is evicted, a subsequent [lookupDocument] returns a new instance so
+     * applications with bounded caches shouldn't hold on to [Document] instances.
+     *
+     * @property maxDocuments the maximum number of [Document] instances to keep.
+     * @property maxCredentialWeightPerDocument the maximum total weight of the [Credential]
+     *   instances to keep for each document.
+     * @property credentialWeigher the weight of a credential, by default 1 so that
+     *   [maxCredentialWeightPerDocument] is the maximum number of credentials. This can be
+     *   used to bound memory, for example by returning the size of issuer-provided data.
+     */
+    class CacheOptions(
+        val maxDocuments: Long = Long.MAX_VALUE,
+        val maxCredentialWeightPerDocument: Long = Long.MAX_VALUE,
+        val credentialWeigher: (Credential) -> Long = { 1 }
+    )
+
     // Use a cache so the same instance is returned by multiple lookupDocument() calls.
-    // Cache is protected by the lock. Once the document is loaded it is never evicted.
+    // Cache and pendingLoads are protected by the lock, documents are loaded without holding
+    // the lock and concurrent loads of the same document wait for the first one.
     private val lock = Mutex()
-    private val documentCache = mutableMapOf<String, Document>()
+    private val documentCache = LruCache<String, Document>(cacheOptions.maxDocuments)
+    private val pendingLoads = mutableMapOf<String, CompletableDeferred<Document?>>()
 
     init {
         check(!documentTableSpec.supportExpiration)
@@ -96,7 +127,7 @@ class DocumentStore(
         )
         metadataInitializer(document.metadata)
         lock.withLock {
-            documentCache[document.identifier] = document
+            documentCache.put(document.identifier, document)
         }
         emitOnDocumentAdded(document.identifier)
         return document
@@ -109,15 +140,49 @@ class DocumentStore(
      * @return the document or `null` if not found.
      */
     suspend fun lookupDocument(identifier: String): Document? {
-        return lock.withLock {
-            documentCache.getOrPut(identifier) {
-                val table = getDocumentTable()
-                val blob = table.get(identifier) ?: return@withLock null
-                val document = Document(this, identifier)
-                document.metadata = documentMetadataFactory(identifier, blob, document::saveMetadata)
-                document
+        val (pendingLoad, isLoader) = lock.withLock {
+            documentCache[identifier]?.let { return it }
+            pendingLoads[identifier]?.let { return@withLock Pair(it, false) }
+            val pendingLoad = CompletableDeferred<Document?>()
+            pendingLoads[identifier] = pendingLoad
+            Pair(pendingLoad, true)
+        }
+        if (!isLoader) {
+            return try {
+                pendingLoad.await()
+            } catch (e: CancellationException) {
+                // The coroutine loading the document was cancelled, unless this one was as
+                // well try again.
+                currentCoroutineContext().ensureActive()
+                lookupDocument(identifier)
             }
         }
+        try {
+            val document = loadDocument(identifier)
+            lock.withLock {
+                pendingLoads.remove(identifier)
+                document?.let { documentCache.put(identifier, it) }
+            }
+            pendingLoad.complete(document)
+            return document
+        } catch (e: Throwable) {
+            lock.withLock {
+                pendingLoads.remove(identifier)
+            }
+            if (e is CancellationException) {
+                pendingLoad.cancel(e)
+            } else {
+                pendingLoad.completeExceptionally(e)
+            }
+            throw e
+        }
+    }
+
+    private suspend fun loadDocument(identifier: String): Document? {
+        val blob = getDocumentTable().get(identifier) ?: return null
+        val document = Document(this, identifier)
+        document.metadata = documentMetadataFactory(identifier, blob, document::saveMetadata)
+        return document
     }
 
     /**
@@ -25,10 +25,27 @@ package com.android.identity.documenttype
  * using the [addDocumentType] method.
  *
  * Applications also may add their own Document Types.
+ *
+ * Document Types are indexed by mdoc doctype, mdoc namespace, VC type and mdoc data element
+ * as they are added, so all lookups take constant time. A repository which is shared, e.g.
+ * between all requests in a server, should be [freeze]-ed once all Document Types have been
+ * added. It can then safely be used from multiple threads.
  */
 class DocumentTypeRepository {
     private val _documentTypes: MutableList<DocumentType> = mutableListOf()
 
+    // For each key, the first Document Type added with that key.
+    private val mdocDocTypeIndex = mutableMapOf<String, DocumentType>()
+    private val vctIndex = mutableMapOf<String, DocumentType>()
+    private val mdocNamespaceIndex = mutableMapOf<String, DocumentType>()
+    private val mdocDataElementIndex = mutableMapOf<Pair<String, String>, MdocDataElement>()
+
+    /**
+     * Whether [freeze] has been called.
+     */
+    var isFrozen: Boolean = false
+        private set
+
     /**
      * Get all the Document Types that are in the repository.
      */
@@ -39,9 +56,31 @@ class DocumentTypeRepository {
      * Add a Document Type to the repository.
      *
      * @param documentType the Document Type to add
+     * @throws IllegalStateException if the repository is frozen.
+     */
+    fun addDocumentType(documentType: DocumentType): Boolean {
+        check(!isFrozen) { "Document Types can't be added to a frozen repository" }
+        documentType.vcDocumentType?.let { vctIndex.getOrPut(it.type) { documentType } }
+        documentType.mdocDocumentType?.let { mdocDocumentType ->
+            mdocDocTypeIndex.getOrPut(mdocDocumentType.docType) { documentType }
+            for ((namespaceName, namespace) in mdocDocumentType.namespaces) {
+                mdocNamespaceIndex.getOrPut(namespaceName) { documentType }
+                for ((dataElementName, dataElement) in namespace.dataElements) {
+                    mdocDataElementIndex.getOrPut(Pair(namespaceName, dataElementName)) {
+                        dataElement
+                    }
+                }
+            }
+        }
+        return _documentTypes.add(documentType)
+    }
+
+    /**
+     * Prevents further changes to the repository.
+     *
+     * @return the repository.
      */
-    fun addDocumentType(documentType: DocumentType) =
-        _documentTypes.add(documentType)
+    fun freeze(): DocumentTypeRepository = apply { isFrozen = true }
 
     /**
      * Gets the first [DocumentType] in [documentTypes] with a given mdoc doctype.
@@ -50,9 +89,7 @@ class DocumentTypeRepository {
      * @return the [DocumentType] or null if not found.
      */
     fun getDocumentTypeForMdoc(mdocDocType: String): DocumentType? =
-        _documentTypes.find {
-            it.mdocDocumentType?.docType?.equals(mdocDocType) ?: false
-        }
+        mdocDocTypeIndex[mdocDocType]
 
     /**
      * Gets the first [DocumentType] in [documentTypes] with a given VC vct.
@@ -61,9 +98,7 @@ class DocumentTypeRepository {
      * @return the [DocumentType] or null if not found.
      */
     fun getDocumentTypeForVc(vct: String): DocumentType? =
-        _documentTypes.find {
-            it.vcDocumentType?.type?.equals(vct) ?: false
-        }
+        vctIndex[vct]
 
     /**
      * Gets the first [DocumentType] in [documentTypes] with a given mdoc namespace.
@@ -71,17 +106,16 @@ class DocumentTypeRepository {
      * @param mdocNamespace the mdoc namespace name.
      * @return the [DocumentType] or null if not found.
      */
-    fun getDocumentTypeForMdocNamespace(mdocNamespace: String): DocumentType? {
-        for (documentType in _documentTypes) {
-            if (documentType.mdocDocumentType == null) {
-                continue
-            }
-            for ((nsName, _) in documentType.mdocDocumentType.namespaces) {
-                if (nsName == mdocNamespace) {
-                    return documentType
-                }
-            }
-        }
-        return null
-    }
-}
\ No newline at end of file
+    fun getDocumentTypeForMdocNamespace(mdocNamespace: String): DocumentType? =
+        mdocNamespaceIndex[mdocNamespace]
+
+    /**
+     * Gets a mdoc data element from the first [DocumentType] in [documentTypes] which has it.
+     *
+     * @param mdocNamespace the mdoc namespace name.
+     * @param dataElementName the data element name.
+     * @return the [MdocDataElement] or null if not found.
+     */
+    fun getMdocDataElement(mdocNamespace: String, dataElementName: String): MdocDataElement? =
+        mdocDataElementIndex[Pair(mdocNamespace, dataElementName)]
+}
@@ -0,0 +1,103 @@
+package com.android.identity.metrics
+
+import kotlin.concurrent.Volatile
+
+/**
+ * Metrics facility.
+ *
+ * The library reports counters, histograms and spans for flow dispatch, storage operations,
+ * cryptographic operations and transports through this object. Nothing is recorded by default,
+ * set [recorder] to send metrics to a metrics backend.
+ *
+ * When no recorder is installed all functions return immediately, in particular tags are
+ * never turned into maps.
+ */
+object Metrics {
+    @PublishedApi
+    internal object NoOpRecorder : MetricsRecorder {
+        override fun incrementCounter(name: String, tags: Map<String, String>, amount: Long) {}
+
+        override fun recordValue(name: String, tags: Map<String, String>, value: Double) {}
+
+        override fun startSpan(name: String, tags: Map<String, String>): MetricsRecorder.Span =
+            NoOpSpan
+
+        private object NoOpSpan : MetricsRecorder.Span {
+            override fun end(error: Throwable?) {}
+        }
+    }
+
+    /**
+     * The [MetricsRecorder] to send metrics to, or `null` to not record metrics.
+     */
+    var recorder: MetricsRecorder?
+        get() = currentRecorder.takeIf { it !== NoOpRecorder }
+        set(value) {
+            currentRecorder = value ?: NoOpRecorder
+        }
+
+    @PublishedApi
+    @Volatile
+    internal var currentRecorder: MetricsRecorder = NoOpRecorder
+
+    /**
+     * Whether metrics are being recorded.
+     */
+    val isEnabled: Boolean
+        get() = currentRecorder !== NoOpRecorder
+
+    /**
+     * Increments a counter.
+     *
+     * @param name the name of the counter.
+     * @param tags the tags for the counter.
+     * @param amount the amount to add to the counter.
+     */
+    fun count(name: String, vararg tags: Pair<String, String>, amount: Long = 1) {
+        val recorder = currentRecorder
+        if (recorder !== NoOpRecorder) {
+            recorder.incrementCounter(name, tags.toMap(), amount)
+        }
+    }
+
+    /**
+     * Records a value in a histogram.
+     *
+     * @param name the name of the histogram.
+     * @param value the value to record.
+     * @param tags the tags for the histogram.
+     */
+    fun record(name: String, value: Double, vararg tags: Pair<String, String>) {
+        val recorder = currentRecorder
+        if (recorder !== NoOpRecorder) {
+            recorder.recordValue(name, tags.toMap(), value)
+        }
+    }
+
+    /**
+     * Runs [block] in a span.
+     *
+     * The span is ended when [block] returns or throws.
+     *
+     * @param name the name of the span.
+     * @param tags the tags for the span.
+     * @param block the operation to run.
+     * @return the value returned by [block].
+     */
+    inline fun <T> span(name: String, vararg tags: Pair<String, String>, block: () -> T): T {
+        val recorder = currentRecorder
+        if (recorder === NoOpRecorder) {
+            return block()
+        }
+        val span = recorder.startSpan(name, tags.toMap())
+        var error: Throwable? = null
+        try {
+            return block()
+        } catch (e: Throwable) {
+            error = e
+            throw e
+        } finally {
+            span.end(error)
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.android.identity.metrics
+
+import kotlin.time.TimeSource
+
+/**
+ * An interface for sending metrics to a metrics backend.
+ *
+ * Applications install an implementation using [Metrics.recorder]. Implementations must be
+ * thread-safe and shouldn't block, they are called on the hot paths of the library.
+ *
+ * All metrics carry a set of tags. The library only uses tags with a small number of distinct
+ * values, for example a flow or table name, so implementations can use them as dimensions.
+ */
+interface MetricsRecorder {
+    /**
+     * Increments a counter.
+     *
+     * @param name the name of the counter.
+     * @param tags the tags for the counter.
+     * @param amount the amount to add to the counter.
+     */
+    fun incrementCounter(name: String, tags: Map<String, String>, amount: Long)
+
+    /**
+     * Records a value in a histogram.
+     *
+     * @param name the name of the histogram.
+     * @param tags the tags for the histogram.
+     * @param value the value to record.
+     */
+    fun recordValue(name: String, tags: Map<String, String>, value: Double)
+
+    /**
+     * Starts a span, that is, a timed operation.
+     *
+     * The default implementation records the duration of the span in milliseconds using
+     * [recordValue] with an additional `outcome` tag which is either `ok` or `error`.
+     * Implementations for tracing backends can override this.
+     *
+     * @param name the name of the span.
+     * @param tags the tags for the span.
+     * @return a [Span] which must be ended when the operation is done.
+     */
+    fun startSpan(name: String, tags: Map<String, String>): Span {
+        val start = TimeSource.Monotonic.markNow()
+        return object : Span {
+            override fun end(error: Throwable?) {
+                val outcome = if (error == null) "ok" else "error"
+                recordValue(
+                    name,
+                    tags + ("outcome" to outcome),
+                    start.elapsedNow().inWholeMicroseconds / 1000.0
+                )
+            }
+        }
+    }
+
+    /**
+     * An operation started with [startSpan].
+     */
+    interface Span {
+        /**
+         * Ends the span.
+         *
+         * @param error the error which ended the operation or `null` if it succeeded.
+         */
+        fun end(error: Throwable?)
+    }
+}
@@ -22,6 +22,14 @@ import com.android.identity.securearea.KeyUnlockData
 import com.android.identity.securearea.KeyUnlockInteractive
 import com.android.identity.securearea.PassphraseConstraints
 import com.android.identity.securearea.SecureArea
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchCreateKeyRequest0
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchCreateKeyRequest1
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchCreateKeyResponse0
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchCreateKeyResponse1
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchSignRequest0
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchSignRequest1
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchSignResponse0
+import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.BatchSignResponse1
 import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.CreateKeyRequest0
 import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.CreateKeyRequest1
 import com.android.identity.securearea.cloud.CloudSecureAreaProtocol.CreateKeyResponse0
@@ -550,6 +558,105 @@ open class CloudSecureArea protected constructor(
         }
     }
 
+    /**
+     * Creates several keys with the same settings.
+     *
+     * This is equivalent to calling [createKey] [numKeys] times with a `null` alias but
+     * uses a single challenge and a fixed number of round-trips to the server regardless
+     * of the number of keys created.
+     *
+     * @param numKeys the number of keys to create.
+     * @param createKeySettings the settings to use for all the keys.
+     * @return a list of [CloudKeyInfo], one for each created key.
+     * @throws CloudException if an error occurred.
+     */
+    suspend fun batchCreateKey(
+        numKeys: Int,
+        createKeySettings: CreateKeySettings
+    ): List<CloudKeyInfo> {
+        require(numKeys >= 1) { "numKeys must be at least 1" }
+        val cSettings = if (createKeySettings is CloudCreateKeySettings) {
+            createKeySettings
+        } else {
+            // Use default settings if user passed in a generic SecureArea.CreateKeySettings.
+            CloudCreateKeySettings.Builder(byteArrayOf()).build()
+        }
+        setupE2EE(false)
+        try {
+            // Default for validFrom and validUntil is Jan 1, 1970 to Feb 7, 2106
+            var validFrom: Long = 0
+            var validUntil = Int.MAX_VALUE * 1000L * 2
+            if (cSettings.validFrom != null) {
+                validFrom = cSettings.validFrom.toEpochMilliseconds()
+            }
+            if (cSettings.validUntil != null) {
+                validUntil = cSettings.validUntil.toEpochMilliseconds()
+            }
+            val signingAlgorithmCose = if (cSettings.signingAlgorithm == Algorithm.UNSET) {
+                null
+            } else {
+                cSettings.signingAlgorithm.coseAlgorithmIdentifier
+            }
+            val request0 = BatchCreateKeyRequest0(
+                numKeys,
+                cSettings.keyPurposes,
+                cSettings.ecCurve,
+                signingAlgorithmCose,
+                validFrom,
+                validUntil,
+                cSettings.passphraseRequired,
+                cSettings.userAuthenticationRequired,
+                CloudUserAuthType.encodeSet(cSettings.userAuthenticationTypes),
+                cSettings.attestationChallenge
+            )
+            val response0 = CloudSecureAreaProtocol.Command.fromCbor(communicateE2EE(request0.toCbor())) as BatchCreateKeyResponse0
+            val newKeyAliases = mutableListOf<String>()
+            val localKeyInfos = mutableListOf<KeyInfo>()
+            for (n in 0 until numKeys) {
+                val newKeyAlias = storageTable.insert(
+                    key = null,
+                    partitionId = identifier,
+                    data = ByteString()
+                )
+                newKeyAliases.add(newKeyAlias)
+                localKeyInfos.add(platformSecureArea.createKey(
+                    alias = getLocalKeyAlias(newKeyAlias),
+                    createKeySettings = cloudSecureAreaGetPlatformSecureAreaCreateKeySettings(
+                        challenge = ByteString(response0.cloudChallenge),
+                        keyPurposes = setOf(KeyPurpose.SIGN),
+                        userAuthenticationRequired = cSettings.userAuthenticationRequired,
+                        userAuthenticationTypes = cSettings.userAuthenticationTypes
+                    )
+                ))
+            }
+            // Attestations are matched to keys by position, so it's either all or none.
+            val localKeyAttestations = localKeyInfos.mapNotNull { it.attestation.certChain }
+            check(localKeyAttestations.isEmpty() || localKeyAttestations.size == numKeys) {
+                "Only ${localKeyAttestations.size} of $numKeys local keys are attested"
+            }
+            val request1 = BatchCreateKeyRequest1(
+                localKeyInfos.map { it.publicKey.toCoseKey() },
+                localKeyAttestations,
+                response0.serverState
+            )
+            val response1 = CloudSecureAreaProtocol.Command.fromCbor(communicateE2EE(request1.toCbor())) as BatchCreateKeyResponse1
+            check(response1.serverStates.size == numKeys && response1.remoteKeyAttestations.size == numKeys) {
+                "Unexpected number of keys in response"
+            }
+            return newKeyAliases.mapIndexed { n, newKeyAlias ->
+                storageTable.update(
+                    key = newKeyAlias,
+                    partitionId = identifier,
+                    data = ByteString(response1.serverStates[n])
+                )
+                saveKeyMetadata(newKeyAlias, cSettings, response1.remoteKeyAttestations[n])
+                getKeyInfo(newKeyAlias)
+            }
+        } catch (e: Exception) {
+            throw CloudException(e)
+        }
+    }
+
     override suspend fun deleteKey(alias: String) {
         platformSecureArea.deleteKey(getLocalKeyAlias(alias))
         storageTable.delete(
@@ -705,6 +812,122 @@ open class CloudSecureArea protected constructor(
         return resultingSignature!!
     }
 
+    /**
+     * Signs several payloads, possibly with different keys.
+     *
+     * This is equivalent to calling [sign] for each item but uses a single nonce challenge
+     * and a fixed number of round-trips to the server regardless of the number of items.
+     * If the keys require a passphrase, it is only requested and checked once for the whole
+     * batch. Since the keys are unlocked together, all keys must have the same passphrase and
+     * user authentication requirements.
+     *
+     * @param items a list of pairs of key alias and the data to sign with the key.
+     * @param keyUnlockData a [KeyUnlockData] for unlocking the keys, or `null`.
+     * @return a list of signatures, in the same order as [items].
+     * @throws KeyLockedException if one of the keys is locked.
+     * @throws IllegalArgumentException if the keys have different unlock requirements.
+     */
+    suspend fun batchSign(
+        items: List<Pair<String, ByteArray>>,
+        keyUnlockData: KeyUnlockData?
+    ): List<EcSignature> {
+        require(items.isNotEmpty()) { "items must not be empty" }
+        val policies = items.map { it.first }.distinct().map { alias ->
+            val keyInfo = getKeyInfo(alias)
+            Triple(
+                keyInfo.isPassphraseRequired,
+                keyInfo.isUserAuthenticationRequired,
+                keyInfo.userAuthenticationTypes
+            )
+        }.distinct()
+        require(policies.size == 1) {
+            "All keys in a batch must have the same passphrase and user authentication settings"
+        }
+        return interactionHelper(
+            items[0].first,
+            keyUnlockData,
+            op = { unlockData -> batchSignNonInteractive(items, unlockData) }
+        )
+    }
+
+    private suspend fun batchSignNonInteractive(
+        items: List<Pair<String, ByteArray>>,
+        keyUnlockData: KeyUnlockData?
+    ): List<EcSignature> {
+        var resultingSignatures: List<EcSignature>? = null
+        val keyContexts = items.map { (alias, _) ->
+            storageTable.get(key = alias, partitionId = identifier)
+                ?: throw IllegalArgumentException("No key with given alias")
+        }
+        setupE2EE(false)
+        var response: ByteArray
+
+        // Throw if passphrase is required by any key and not passed in.
+        val distinctAliases = items.map { it.first }.distinct()
+        if (distinctAliases.any { getKeyInfo(it).isPassphraseRequired }) {
+            if (keyUnlockData == null || (keyUnlockData as CloudKeyUnlockData).passphrase == null) {
+                throw CloudKeyLockedException(
+                    CloudKeyLockedException.Reason.WRONG_PASSPHRASE,
+                    "No passphrase supplied"
+                )
+            }
+        }
+
+        val request0 = BatchSignRequest0(
+            items.map { it.second },
+            keyContexts.map { it.toByteArray() }
+        )
+        response = communicateE2EE(request0.toCbor())
+        val response0 = CloudSecureAreaProtocol.Command.fromCbor(response) as BatchSignResponse0
+        val dataToSignLocally = Cbor.encode(
+            CborArray.builder()
+                .add(response0.cloudNonce)
+                .end()
+                .build()
+        )
+        // The nonce is shared by all items so each local key only needs to sign it once.
+        val localSignatures = distinctAliases.associateWith { alias ->
+            platformSecureArea.sign(
+                alias = getLocalKeyAlias(alias),
+                dataToSign = dataToSignLocally,
+            )
+        }
+        val request1 = BatchSignRequest1(
+            items.map { localSignatures[it.first]!! },
+            (keyUnlockData as? CloudKeyUnlockData)?.passphrase,
+            response0.serverState
+        )
+        do {
+            var tryAgain = false
+
+            response = communicateE2EE(request1.toCbor())
+            val response1 = CloudSecureAreaProtocol.Command.fromCbor(response) as BatchSignResponse1
+            when (response1.result) {
+                CloudSecureAreaProtocol.RESULT_OK -> {
+                    check(response1.signatures.size == items.size) {
+                        "Unexpected number of signatures in response"
+                    }
+                    resultingSignatures = response1.signatures
+                }
+
+                CloudSecureAreaProtocol.RESULT_WRONG_PASSPHRASE -> {
+                    throw CloudKeyLockedException(
+                        CloudKeyLockedException.Reason.WRONG_PASSPHRASE,
+                        "Wrong passphrase supplied"
+                    )
+                }
+
+                CloudSecureAreaProtocol.RESULT_TOO_MANY_PASSPHRASE_ATTEMPTS -> {
+                    delayForBruteforceMitigation(response1.waitDurationMillis.milliseconds)
+                    tryAgain = true
+                }
+
+                else -> throw CloudException("Unexpected result ${response1.result}")
+            }
+        } while (tryAgain)
+        return resultingSignatures!!
+    }
+
     override suspend fun keyAgreement(
         alias: String,
         otherKey: EcPublicKey,
@@ -79,6 +79,16 @@ import kotlinx.io.bytestring.ByteString
  * - Key Agreement with Key
  *   - See [KeyAgreementRequest0], [KeyAgreementResponse0], [KeyAgreementRequest1],
  *     [KeyAgreementResponse1] for a detailed description of this flow.
+ * - Batch Create Key
+ *   - Like Create Key but creates several keys with the same settings using a single
+ *     challenge and a single round trip for each step.
+ *   - See [BatchCreateKeyRequest0], [BatchCreateKeyResponse0], [BatchCreateKeyRequest1],
+ *     [BatchCreateKeyResponse1] for a detailed description of this flow.
+ * - Batch Sign with Key
+ *   - Like Sign with Key but signs several payloads, possibly with different keys, using
+ *     a single nonce challenge and a single round trip for each step.
+ *   - See [BatchSignRequest0], [BatchSignResponse0], [BatchSignRequest1],
+ *     [BatchSignResponse1] for a detailed description of this flow.
  * - Passphrase check
  *    - The purpose of this is for the device to check ahead of time if the passphrase
  *      the user entered will work. This is useful for UX/UI flows where the client
@@ -445,4 +455,111 @@ object CloudSecureAreaProtocol {
     data class CheckPassphraseResponse(
         val result: Int,
     ) : Command()
-}
\ No newline at end of file
+
+    /**
+     * Sent by the device to create [numKeys] keys with the same settings in one go.
+     *
+     * The fields have the same meaning as in [CreateKeyRequest0] and apply to all keys
+     * created. The server responds with a [BatchCreateKeyResponse0] message.
+     *
+     * @property numKeys the number of keys to create, must be at least 1.
+     */
+    data class BatchCreateKeyRequest0(
+        val numKeys: Int,
+        val purposes: Set<KeyPurpose>,
+        val curve: EcCurve,
+        val signingAlgorithm: Int?,
+        val validFromMillis: Long,
+        val validUntilMillis: Long,
+        val passphraseRequired: Boolean,
+        val userAuthenticationRequired: Boolean,
+        val userAuthenticationTypes: Long,
+        val challenge: ByteArray
+    ) : Command()
+
+    /**
+     * Response for [BatchCreateKeyRequest0].
+     *
+     * The device shall create one local key for each requested key, all using `cloudChallenge`
+     * as the attestation challenge, and send them in a [BatchCreateKeyRequest1] message.
+     */
+    data class BatchCreateKeyResponse0(
+        val cloudChallenge: ByteArray,
+        val serverState: ByteArray
+    ) : Command()
+
+    /**
+     * Sent by the device in response to [BatchCreateKeyResponse0].
+     *
+     * The lists [localKeys] and [localKeyAttestations] are indexed the same way and must
+     * contain exactly the number of keys requested. On platforms without local key
+     * attestation [localKeyAttestations] shall be empty. The server rejects any other size.
+     */
+    data class BatchCreateKeyRequest1(
+        val localKeys: List<CoseKey>,
+        val localKeyAttestations: List<X509CertChain>,
+        val serverState: ByteArray
+    ) : Command()
+
+    /**
+     * Response for [BatchCreateKeyRequest1].
+     *
+     * For each created key, [remoteKeyAttestations] contains the attestation for the key and
+     * [serverStates] contains the key context to use in [SignRequest0], [KeyAgreementRequest0],
+     * and [BatchSignRequest0]. Both lists are in the same order as in [BatchCreateKeyRequest1].
+     */
+    data class BatchCreateKeyResponse1(
+        val remoteKeyAttestations: List<X509CertChain>,
+        val serverStates: List<ByteArray>
+    ) : Command()
+
+    /**
+     * Sent by the device to sign several payloads in one go.
+     *
+     * The lists [dataToSign] and [keyContexts] are indexed the same way, the n'th payload
+     * is to be signed with the key identified by the n'th key context. The same key may
+     * appear multiple times. The server responds with a [BatchSignResponse0] message.
+     */
+    data class BatchSignRequest0(
+        val dataToSign: List<ByteArray>,
+        val keyContexts: List<ByteArray>
+    ) : Command()
+
+    /**
+     * Response for [BatchSignRequest0].
+     *
+     * For each item in the batch, the device shall use the local key corresponding to the
+     * item's key to sign the same `DataSignedLocally` as in the non-batched flow, using
+     * [cloudNonce], and send the signatures in a [BatchSignRequest1] message.
+     */
+    data class BatchSignResponse0(
+        val cloudNonce: ByteArray,
+        val serverState: ByteArray
+    ) : Command()
+
+    /**
+     * Sent by the device in response to [BatchSignResponse0].
+     *
+     * [signatures] contains one local signature for each item in the batch, in the same
+     * order as in [BatchSignRequest0]. If any of the keys require a passphrase, it shall
+     * be passed in [passphrase]. It is checked at most once for the whole batch.
+     */
+    data class BatchSignRequest1(
+        val signatures: List<EcSignature>,
+        val passphrase: String?,
+        val serverState: ByteArray
+    ) : Command()
+
+    /**
+     * Response for [BatchSignRequest1].
+     *
+     * If [result] is [RESULT_OK], [signatures] contains one signature for each item in the
+     * batch, in the same order as in [BatchSignRequest0]. Otherwise [signatures] is empty
+     * and [result] and [waitDurationMillis] have the same meaning as in [SignResponse1].
+     */
+    data class BatchSignResponse1(
+        val result: Int,
+        val signatures: List<EcSignature>,
+        val waitDurationMillis: Long
+    ) : Command()
+}
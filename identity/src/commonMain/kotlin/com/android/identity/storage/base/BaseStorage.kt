@@ -33,10 +33,10 @@ abstract class BaseStorage(val clock: Clock): Storage {
             val existing = tableMap[spec.name.lowercase()]
             if (existing == null) {
                 // Table never existed
-                val newTable = createTable(spec)
-                tableMap[spec.name.lowercase()] = TableEntry(newTable, spec)
+                val newEntry = TableEntry(createTable(spec), spec)
+                tableMap[spec.name.lowercase()] = newEntry
                 schemaTable!!.insert(key = spec.name, data = spec.encodeToByteString())
-                return@withLock newTable
+                return@withLock newEntry.meteredTable
             }
             if (existing.spec != null && existing.spec !== spec) {
                 throw IllegalArgumentException("Multiple table specs for table '${spec.name}'")
@@ -44,14 +44,14 @@ abstract class BaseStorage(val clock: Clock): Storage {
             if (existing.table.spec == spec) {
                 // Known table with up-to-date schema
                 existing.spec = spec
-                existing.table
+                existing.meteredTable
             } else {
                 // Known table that needs to be upgraded
                 spec.schemaUpgrade(existing.table)
-                val upgradedTable = createTable(spec)
-                tableMap[spec.name.lowercase()] = TableEntry(upgradedTable, spec)
+                val upgradedEntry = TableEntry(createTable(spec), spec)
+                tableMap[spec.name.lowercase()] = upgradedEntry
                 schemaTable!!.update(key = spec.name, data = spec.encodeToByteString())
-                upgradedTable
+                upgradedEntry.meteredTable
             }
         }
     }
@@ -132,7 +132,10 @@ abstract class BaseStorage(val clock: Clock): Storage {
         // Keep the reference to the spec which was used to instantiate the table to detect
         // duplicate specs for the same name.
         var spec: StorageTableSpec? = null
-    )
+    ) {
+        // Wrapper handed out by getTable, created once so that lookups don't allocate.
+        val meteredTable: StorageTable by lazy { MeteredStorageTable(table) }
+    }
 
     companion object {
         private val safeNameRegex = Regex("^[a-zA-Z][a-zA-Z0-9_]*\$")
@@ -0,0 +1,51 @@
+package com.android.identity.storage.base
+
+import com.android.identity.metrics.Metrics
+import com.android.identity.storage.Storage
+import com.android.identity.storage.StorageTable
+import kotlinx.datetime.Instant
+import kotlinx.io.bytestring.ByteString
+
+/**
+ * A [StorageTable] which reports a `storage.operation` span for each operation on [table]
+ * to [Metrics], tagged with the table name and the operation.
+ */
+internal class MeteredStorageTable(private val table: BaseStorageTable) : StorageTable {
+    private val tableName = table.spec.name
+
+    override val storage: Storage
+        get() = table.storage
+
+    private inline fun <T> span(operation: String, block: () -> T): T =
+        Metrics.span("storage.operation", "table" to tableName, "operation" to operation) {
+            block()
+        }
+
+    override suspend fun get(key: String, partitionId: String?): ByteString? =
+        span("get") { table.get(key, partitionId) }
+
+    override suspend fun insert(
+        key: String?,
+        data: ByteString,
+        partitionId: String?,
+        expiration: Instant
+    ): String = span("insert") { table.insert(key, data, partitionId, expiration) }
+
+    override suspend fun update(
+        key: String,
+        data: ByteString,
+        partitionId: String?,
+        expiration: Instant?
+    ) = span("update") { table.update(key, data, partitionId, expiration) }
+
+    override suspend fun delete(key: String, partitionId: String?): Boolean =
+        span("delete") { table.delete(key, partitionId) }
+
+    override suspend fun deleteAll() = span("deleteAll") { table.deleteAll() }
+
+    override suspend fun enumerate(
+        partitionId: String?,
+        afterKey: String?,
+        limit: Int
+    ): List<String> = span("enumerate") { table.enumerate(partitionId, afterKey, limit) }
+}
@@ -9,8 +9,8 @@ import kotlinx.io.bytestring.ByteString
 class EphemeralStorageItem(
     val partitionId: String?,
     val key: String,
-    var value: ByteString = EphemeralStorageTable.EMPTY,
-    var expiration: Instant = Instant.DISTANT_FUTURE
+    val value: ByteString = EphemeralStorageTable.EMPTY,
+    val expiration: Instant = Instant.DISTANT_FUTURE
 ): Comparable<EphemeralStorageItem> {
     override fun compareTo(other: EphemeralStorageItem): Int {
         val c = if (partitionId == null) {
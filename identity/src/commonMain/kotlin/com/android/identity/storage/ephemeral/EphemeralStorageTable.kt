@@ -2,7 +2,7 @@ package com.android.identity.storage.ephemeral
 
 import com.android.identity.cbor.Bstr
 import com.android.identity.cbor.Cbor
-import com.android.identity.cbor.CborArray
+import com.android.identity.cbor.MajorType
 import com.android.identity.storage.KeyExistsStorageException
 import com.android.identity.storage.NoRecordStorageException
 import com.android.identity.storage.Storage
@@ -15,7 +15,7 @@ import kotlinx.datetime.Clock
 import kotlinx.datetime.Instant
 import kotlinx.io.bytestring.ByteString
 import kotlinx.io.bytestring.ByteStringBuilder
-import kotlin.math.abs
+import kotlin.concurrent.Volatile
 import kotlin.random.Random
 
 internal class EphemeralStorageTable(
@@ -24,21 +24,20 @@ internal class EphemeralStorageTable(
     private val clock: Clock
 ): BaseStorageTable(spec) {
 
+    // Writers are serialized by this lock and publish a new version of the (immutable) tree
+    // in storedData, readers just pick up the current version and never block.
     private val lock = Mutex()
-    private var storedData = mutableListOf<EphemeralStorageItem>()
-    private var earliestExpiration: Instant = Instant.DISTANT_FUTURE
+    @Volatile
+    private var storedData = EphemeralStorageTree.EMPTY
+
+    // Min-heap of items with a finite expiration time, only accessed with lock held. Items
+    // which have since been replaced or deleted are left in place and skipped when purging.
+    private val expirationQueue = mutableListOf<EphemeralStorageItem>()
 
     override suspend fun get(key: String, partitionId: String?): ByteString? {
         checkPartition(partitionId)
-        return lock.withLock {
-            val index = storedData.binarySearch(EphemeralStorageItem(partitionId, key))
-            if (index < 0) {
-                null
-            } else {
-                val data = storedData[index]
-                if (data.expired(clock.now())) null else data.value
-            }
-        }
+        val data = storedData.get(partitionId, key)
+        return if (data == null || data.expired(clock.now())) null else data.value
     }
 
     override suspend fun insert(
@@ -53,32 +52,19 @@ internal class EphemeralStorageTable(
             checkKey(key)
         }
         return lock.withLock {
-            var index: Int
-            var keyToUse = key
-            if (keyToUse == null) {
-                do {
-                    keyToUse = Random.Default.nextBytes(9).toBase64Url()
-                    index = storedData.binarySearch(EphemeralStorageItem(partitionId, keyToUse))
-                } while (index >= 0)
+            val keyToUse = if (key == null) {
+                generateKey(partitionId)
             } else {
-                index = storedData.binarySearch(EphemeralStorageItem(partitionId, keyToUse))
-                if (index >= 0) {
-                    val item = storedData[index]
-                    if (item.expired(clock.now())) {
-                        // Stale entry, can be reused
-                        updateEarliestExpiration(expiration)
-                        item.expiration = expiration
-                        item.value = data
-                        return@withLock keyToUse
-                    }
+                val item = storedData.get(partitionId, key)
+                // Expired entries are stale and can be replaced
+                if (item != null && !item.expired(clock.now())) {
                     throw KeyExistsStorageException(
-                        "Record with ${recordDescription(key!!, partitionId)} already exists"
+                        "Record with ${recordDescription(key, partitionId)} already exists"
                     )
                 }
+                key
             }
-            check(index < 0)
-            updateEarliestExpiration(expiration)
-            storedData.add(-index - 1, EphemeralStorageItem(partitionId, keyToUse!!, data, expiration))
+            store(EphemeralStorageItem(partitionId, keyToUse, data, expiration))
             keyToUse
         }
     }
@@ -94,32 +80,25 @@ internal class EphemeralStorageTable(
             checkExpiration(expiration)
         }
         lock.withLock {
-            val index = storedData.binarySearch(EphemeralStorageItem(partitionId, key))
-            if (index < 0) {
-                throw NoRecordStorageException(
+            val item = storedData.get(partitionId, key)
+                ?: throw NoRecordStorageException(
                     "No record with ${recordDescription(key, partitionId)}")
-            }
-            val item = storedData[index]
             if (item.expired(clock.now())) {
                 throw NoRecordStorageException(
                     "No record with ${recordDescription(key, partitionId)} (expired)")
             }
-            item.value = data
-            if (expiration != null) {
-                updateEarliestExpiration(expiration)
-                item.expiration = expiration
-            }
+            store(EphemeralStorageItem(partitionId, key, data, expiration ?: item.expiration))
         }
     }
 
     override suspend fun delete(key: String, partitionId: String?): Boolean {
         checkPartition(partitionId)
         return lock.withLock {
-            val index = storedData.binarySearch(EphemeralStorageItem(partitionId, key))
-            if (index < 0 || storedData[index].expired(clock.now())) {
+            val item = storedData.get(partitionId, key)
+            if (item == null || item.expired(clock.now())) {
                 false
             } else {
-                storedData.removeAt(index)
+                storedData = storedData.remove(partitionId, key)
                 true
             }
         }
@@ -127,7 +106,8 @@ internal class EphemeralStorageTable(
 
     override suspend fun deleteAll() {
         lock.withLock {
-            storedData.clear()
+            storedData = EphemeralStorageTree.EMPTY
+            expirationQueue.clear()
         }
     }
 
@@ -141,33 +121,23 @@ internal class EphemeralStorageTable(
         if (limit == 0) {
             return listOf()
         }
-        return lock.withLock {
-            var index = if (afterKey == null) {
-                val spot = storedData.binarySearch(EphemeralStorageItem(partitionId, ""))
-                if (spot > 0) spot else -(spot + 1)
-            } else {
-                abs(storedData.binarySearch(EphemeralStorageItem(partitionId, afterKey)) + 1)
+        val iterator = if (afterKey == null) {
+            storedData.iterator(EphemeralStorageItem(partitionId, ""), true)
+        } else {
+            storedData.iterator(EphemeralStorageItem(partitionId, afterKey), false)
+        }
+        val now = clock.now()
+        val keyList = mutableListOf<String>()
+        while (keyList.size < limit && iterator.hasNext()) {
+            val data = iterator.next()
+            if (data.partitionId != partitionId) {
+                break
             }
-            val now = clock.now()
-            val keyList = mutableListOf<String>()
-            while (keyList.size < limit && index < storedData.size) {
-                val data = storedData[index]
-                if (data.partitionId != partitionId) {
-                    break
-                }
-                if (!data.expired(now)) {
-                    keyList.add(data.key)
-                }
-                index++
+            if (!data.expired(now)) {
+                keyList.add(data.key)
             }
-            keyList.toList()
-        }
-    }
-
-    private fun updateEarliestExpiration(expiration: Instant) {
-        if (earliestExpiration > expiration) {
-            earliestExpiration = expiration
         }
+        return keyList.toList()
     }
 
     override suspend fun purgeExpired() {
@@ -176,26 +146,91 @@ internal class EphemeralStorageTable(
         }
         lock.withLock {
             val now = clock.now()
-            if (earliestExpiration < now) {
-                earliestExpiration = Instant.DISTANT_FUTURE
-                val unexpired = mutableListOf<EphemeralStorageItem>()
-                for (item in storedData) {
-                    if (!item.expired(now)) {
-                        updateEarliestExpiration(item.expiration)
-                        unexpired.add(item)
-                    }
+            while (expirationQueue.isNotEmpty() && expirationQueue[0].expired(now)) {
+                val item = removeEarliestExpiration()
+                if (storedData.get(item.partitionId, item.key) === item) {
+                    storedData = storedData.remove(item.partitionId, item.key)
                 }
-                storedData = unexpired
             }
         }
     }
 
-    internal suspend fun serialize(out: ByteStringBuilder) {
+    private fun generateKey(partitionId: String?): String {
+        while (true) {
+            val key = Random.Default.nextBytes(9).toBase64Url()
+            if (storedData.get(partitionId, key) == null) {
+                return key
+            }
+        }
+    }
+
+    private fun store(item: EphemeralStorageItem) {
+        storedData = storedData.put(item)
+        if (item.expiration != Instant.DISTANT_FUTURE) {
+            addExpiration(item)
+            // Don't let entries for replaced or deleted items pile up
+            if (expirationQueue.size > 2 * storedData.size + 16) {
+                rebuildExpirationQueue()
+            }
+        }
+    }
+
+    private fun rebuildExpirationQueue() {
+        expirationQueue.clear()
+        for (item in storedData) {
+            if (item.expiration != Instant.DISTANT_FUTURE) {
+                addExpiration(item)
+            }
+        }
+    }
+
+    private fun addExpiration(item: EphemeralStorageItem) {
+        expirationQueue.add(item)
+        var index = expirationQueue.size - 1
+        while (index > 0) {
+            val parent = (index - 1) / 2
+            if (expirationQueue[parent].expiration <= item.expiration) {
+                break
+            }
+            expirationQueue[index] = expirationQueue[parent]
+            index = parent
+        }
+        expirationQueue[index] = item
+    }
+
+    private fun removeEarliestExpiration(): EphemeralStorageItem {
+        val earliest = expirationQueue[0]
+        val last = expirationQueue.removeAt(expirationQueue.lastIndex)
+        if (expirationQueue.isNotEmpty()) {
+            var index = 0
+            while (true) {
+                var child = 2 * index + 1
+                if (child >= expirationQueue.size) {
+                    break
+                }
+                if (child + 1 < expirationQueue.size &&
+                    expirationQueue[child + 1].expiration < expirationQueue[child].expiration) {
+                    child++
+                }
+                if (last.expiration <= expirationQueue[child].expiration) {
+                    break
+                }
+                expirationQueue[index] = expirationQueue[child]
+                index = child
+            }
+            expirationQueue[index] = last
+        }
+        return earliest
+    }
+
+    internal fun serialize(out: ByteStringBuilder) {
         Bstr(spec.encodeToByteString().toByteArray()).encode(out)
-        val tableData = lock.withLock {
-            storedData.map { item -> item.toDataItem() }
+        // Items are written one by one straight from a snapshot, in sorted order.
+        val snapshot = storedData
+        Cbor.encodeLength(out, MajorType.ARRAY, snapshot.size)
+        for (item in snapshot) {
+            item.toDataItem().encode(out)
         }
-        CborArray(tableData.toMutableList()).encode(out)
     }
 
     companion object {
@@ -209,16 +244,23 @@ internal class EphemeralStorageTable(
         ): Pair<Int, EphemeralStorageTable> {
             val (offset1, specData) = Cbor.decode(input, offset)
             val spec = StorageTableSpec.decodeByteString(ByteString(specData.asBstr))
-            val (offset2, tableData) = Cbor.decode(input, offset1)
-            val table = EphemeralStorageTable(storage, spec, clock)
-            for (itemData in tableData.asArray) {
-                val item = EphemeralStorageItem.fromDataItem(itemData)
-                if (table.earliestExpiration > item.expiration) {
-                    table.earliestExpiration = item.expiration
-                }
-                table.storedData.add(item)
+            val header = input[offset1].toInt().and(0xff)
+            require(MajorType.fromInt(header ushr 5) == MajorType.ARRAY && header.and(0x1f) != 31) {
+                "Expected a definite-length array at offset $offset1"
             }
-            return Pair(offset2, table)
+            var (itemOffset, count) = Cbor.decodeLength(input, offset1)
+            // Items are decoded one at a time, they were written in sorted order so the tree
+            // can be built in linear time.
+            val items = ArrayList<EphemeralStorageItem>(minOf(count, 1024UL).toInt())
+            for (n in 0UL until count) {
+                val (nextOffset, itemData) = Cbor.decode(input, itemOffset)
+                items.add(EphemeralStorageItem.fromDataItem(itemData))
+                itemOffset = nextOffset
+            }
+            val table = EphemeralStorageTable(storage, spec, clock)
+            table.storedData = EphemeralStorageTree.build(items)
+            table.rebuildExpirationQueue()
+            return Pair(itemOffset, table)
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,205 @@
+package com.android.identity.storage.ephemeral
+
+/**
+ * An immutable balanced (AVL) search tree of [EphemeralStorageItem] ordered by partition and key.
+ *
+ * Modifications return a new tree which shares all untouched nodes with the old one, so a
+ * reference to a tree is a consistent snapshot which can be read without locking while a
+ * writer builds the next version. Lookups, insertions, and removals are O(log n).
+ */
+internal class EphemeralStorageTree private constructor(
+    private val root: Node?
+): Iterable<EphemeralStorageItem> {
+
+    private class Node(
+        val item: EphemeralStorageItem,
+        val left: Node?,
+        val right: Node?
+    ) {
+        val height: Int = maxOf(heightOf(left), heightOf(right)) + 1
+        val size: Int = sizeOf(left) + sizeOf(right) + 1
+    }
+
+    val size: Int
+        get() = sizeOf(root)
+
+    /**
+     * Looks up the item for the given partition and key.
+     *
+     * @return the item or `null` if there is no item with the given partition and key.
+     */
+    fun get(partitionId: String?, key: String): EphemeralStorageItem? {
+        val probe = EphemeralStorageItem(partitionId, key)
+        var node = root
+        while (node != null) {
+            val c = probe.compareTo(node.item)
+            node = when {
+                c < 0 -> node.left
+                c > 0 -> node.right
+                else -> return node.item
+            }
+        }
+        return null
+    }
+
+    /**
+     * Returns a tree with [item] added, replacing an existing item with the same partition and key.
+     */
+    fun put(item: EphemeralStorageItem): EphemeralStorageTree =
+        EphemeralStorageTree(put(root, item))
+
+    /**
+     * Returns a tree without the item for the given partition and key.
+     */
+    fun remove(partitionId: String?, key: String): EphemeralStorageTree {
+        val newRoot = remove(root, EphemeralStorageItem(partitionId, key))
+        return if (newRoot === root) this else EphemeralStorageTree(newRoot)
+    }
+
+    override fun iterator(): Iterator<EphemeralStorageItem> = iterator(null, true)
+
+    /**
+     * Iterates over the items in order, starting at [start].
+     *
+     * @param start the item to start at or `null` to start at the first item.
+     * @param inclusive whether an item comparing equal to [start] should be included.
+     */
+    fun iterator(start: EphemeralStorageItem?, inclusive: Boolean): Iterator<EphemeralStorageItem> {
+        val stack = ArrayList<Node>()
+        var node = root
+        while (node != null) {
+            val c = if (start == null) 1 else node.item.compareTo(start)
+            if (c > 0 || (c == 0 && inclusive)) {
+                stack.add(node)
+                node = node.left
+            } else {
+                node = node.right
+            }
+        }
+        return object : Iterator<EphemeralStorageItem> {
+            override fun hasNext(): Boolean = stack.isNotEmpty()
+
+            override fun next(): EphemeralStorageItem {
+                if (stack.isEmpty()) {
+                    throw NoSuchElementException()
+                }
+                val next = stack.removeAt(stack.lastIndex)
+                var n = next.right
+                while (n != null) {
+                    stack.add(n)
+                    n = n.left
+                }
+                return next.item
+            }
+        }
+    }
+
+    companion object {
+        val EMPTY = EphemeralStorageTree(null)
+
+        /**
+         * Builds a tree from a list of items in O(n) if the list is already sorted.
+         *
+         * Unsorted lists are sorted first. If several items have the same partition and key,
+         * the last one wins.
+         */
+        fun build(items: List<EphemeralStorageItem>): EphemeralStorageTree {
+            var sorted = true
+            for (i in 1 until items.size) {
+                if (items[i - 1] >= items[i]) {
+                    sorted = false
+                    break
+                }
+            }
+            if (!sorted) {
+                return items.fold(EMPTY) { tree, item -> tree.put(item) }
+            }
+            return EphemeralStorageTree(build(items, 0, items.size))
+        }
+
+        private fun build(items: List<EphemeralStorageItem>, from: Int, to: Int): Node? {
+            if (from >= to) {
+                return null
+            }
+            val mid = (from + to) ushr 1
+            return Node(items[mid], build(items, from, mid), build(items, mid + 1, to))
+        }
+
+        private fun heightOf(node: Node?): Int = node?.height ?: 0
+
+        private fun sizeOf(node: Node?): Int = node?.size ?: 0
+
+        private fun put(node: Node?, item: EphemeralStorageItem): Node {
+            if (node == null) {
+                return Node(item, null, null)
+            }
+            val c = item.compareTo(node.item)
+            return when {
+                c < 0 -> balance(node.item, put(node.left, item), node.right)
+                c > 0 -> balance(node.item, node.left, put(node.right, item))
+                else -> Node(item, node.left, node.right)
+            }
+        }
+
+        private fun remove(node: Node?, probe: EphemeralStorageItem): Node? {
+            if (node == null) {
+                return null
+            }
+            val c = probe.compareTo(node.item)
+            return when {
+                c < 0 -> {
+                    val left = remove(node.left, probe)
+                    if (left === node.left) node else balance(node.item, left, node.right)
+                }
+                c > 0 -> {
+                    val right = remove(node.right, probe)
+                    if (right === node.right) node else balance(node.item, node.left, right)
+                }
+                node.left == null -> node.right
+                node.right == null -> node.left
+                else -> {
+                    var first: Node = node.right
+                    while (first.left != null) {
+                        first = first.left!!
+                    }
+                    balance(first.item, node.left, removeFirst(node.right))
+                }
+            }
+        }
+
+        private fun removeFirst(node: Node): Node? {
+            val left = node.left ?: return node.right
+            return balance(node.item, removeFirst(left), node.right)
+        }
+
+        private fun balance(item: EphemeralStorageItem, left: Node?, right: Node?): Node {
+            val leftHeight = heightOf(left)
+            val rightHeight = heightOf(right)
+            if (leftHeight > rightHeight + 1) {
+                left!!
+                if (heightOf(left.left) >= heightOf(left.right)) {
+                    return Node(left.item, left.left, Node(item, left.right, right))
+                }
+                val pivot = left.right!!
+                return Node(
+                    pivot.item,
+                    Node(left.item, left.left, pivot.left),
+                    Node(item, pivot.right, right)
+                )
+            }
+            if (rightHeight > leftHeight + 1) {
+                right!!
+                if (heightOf(right.right) >= heightOf(right.left)) {
+                    return Node(right.item, Node(item, left, right.left), right.right)
+                }
+                val pivot = right.left!!
+                return Node(
+                    pivot.item,
+                    Node(item, left, pivot.left),
+                    Node(right.item, pivot.right, right.right)
+                )
+            }
+            return Node(item, left, right)
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.android.identity.trustmanagement
 
+import com.android.identity.crypto.Algorithm
+import com.android.identity.crypto.Crypto
 import com.android.identity.crypto.X509Cert
 import com.android.identity.crypto.X509CertChain
 import com.android.identity.util.toHex
 import kotlinx.datetime.Clock
 import kotlinx.datetime.Instant
+import kotlin.concurrent.Volatile
+import kotlin.time.Duration.Companion.hours
 
 /**
  * This class is used for the verification of a certificate chain.
@@ -17,12 +21,23 @@ import kotlinx.datetime.Instant
  * In the verification of the chain this will be matched with the Authority
  * Key Identifier (extension 2.5.29.35) of the certificate issued by this
  * root CA.
+ *
+ * Results of [verify] are cached, so verifying the same chain again, for example a reader
+ * certificate chain presented in every session at a venue, doesn't redo the signature checks.
+ * The cache is cleared when trust points are added or removed.
  */
 class TrustManager {
 
     // Maps from the hex-encoding of SubjectKeyIdentifier
     private val certificates = mutableMapOf<String, TrustPoint>()
 
+    private data class VerifyCacheKey(val chainDigest: String, val timeBucket: Long)
+
+    // The map is replaced instead of modified so lookups don't need a lock. Racing inserts
+    // may lose an entry, which only means the chain is verified again.
+    @Volatile
+    private var verifyCache = mapOf<VerifyCacheKey, TrustResult>()
+
     /**
      * Nested class containing the result of the verification of a certificate
      * chain.
@@ -44,7 +59,8 @@ class TrustManager {
      */
     fun addTrustPoint(trustPoint: TrustPoint) {
         check(trustPoint.certificate.subjectKeyIdentifier != null)
-        certificates[trustPoint.certificate.subjectKeyIdentifier!!.toHex()] = trustPoint
+        certificates[trustPoint.certificate.subjectKeyIdentifierHex!!] = trustPoint
+        verifyCache = emptyMap()
     }
 
 
@@ -56,14 +72,19 @@ class TrustManager {
     /**
      * Remove a [TrustPoint] from the [TrustManager].
      */
-    fun removeTrustPoint(trustPoint: TrustPoint) = {
+    fun removeTrustPoint(trustPoint: TrustPoint) {
         check(trustPoint.certificate.subjectKeyIdentifier != null)
-        certificates.remove(trustPoint.certificate.subjectKeyIdentifier!!.toHex())
+        certificates.remove(trustPoint.certificate.subjectKeyIdentifierHex!!)
+        verifyCache = emptyMap()
     }
 
     /**
      * Verify a certificate chain (without the self-signed root certificate).
      *
+     * The result is cached by the chain and by the hour [atTime] falls in, if all
+     * certificates involved are valid for that whole hour, so the outcome can't depend on
+     * the exact time.
+     *
      * @param [chain] the certificate chain without the self-signed root
      * certificate
      * @param [atTime] the point in time to check validity for.
@@ -78,6 +99,38 @@ class TrustManager {
         chain: List<X509Cert>,
         atTime: Instant = Clock.System.now(),
     ): TrustResult {
+        val bucketSeconds = VERIFY_CACHE_TIME_BUCKET.inWholeSeconds
+        val timeBucket = atTime.epochSeconds.floorDiv(bucketSeconds)
+        val key = VerifyCacheKey(chainDigest(chain), timeBucket)
+        verifyCache[key]?.let { return it }
+
+        val result = verifyNoCache(chain, atTime)
+
+        val bucketStart = Instant.fromEpochSeconds(timeBucket * bucketSeconds)
+        val bucketEnd = bucketStart + VERIFY_CACHE_TIME_BUCKET
+        val involvedCertificates = chain + result.trustPoints.map { it.certificate }
+        if (involvedCertificates.all {
+                it.validityNotBefore <= bucketStart && it.validityNotAfter >= bucketEnd
+            }) {
+            val cache = verifyCache
+            verifyCache = if (cache.size >= VERIFY_CACHE_MAX_SIZE) {
+                mapOf(key to result)
+            } else {
+                cache + (key to result)
+            }
+        }
+        return result
+    }
+
+    private fun chainDigest(chain: List<X509Cert>): String {
+        var encodedChain = byteArrayOf()
+        for (certificate in chain) {
+            encodedChain += certificate.encodedCertificate
+        }
+        return Crypto.digest(Algorithm.SHA256, encodedChain).toHex()
+    }
+
+    private fun verifyNoCache(chain: List<X509Cert>, atTime: Instant): TrustResult {
         // TODO: add support for customValidators similar to PKIXCertPathChecker
         try {
             val trustPoints = getAllTrustPoints(chain)
@@ -107,7 +160,7 @@ class TrustManager {
             // just submits a certificate for the key that their reader will be using.
             //
             if (chain.size == 1) {
-                val trustPoint = certificates[chain[0].subjectKeyIdentifier!!.toHex()]
+                val trustPoint = certificates[chain[0].subjectKeyIdentifierHex!!]
                 if (trustPoint != null) {
                     return TrustResult(
                         isTrusted = true,
@@ -146,7 +199,7 @@ class TrustManager {
      */
     private fun findCaCertificate(chain: List<X509Cert>): TrustPoint? {
         chain.forEach { cert ->
-            cert.authorityKeyIdentifier?.toHex().let {
+            cert.authorityKeyIdentifierHex.let {
                 if (certificates.containsKey(it)) {
                     return certificates[it]
                 }
@@ -181,4 +234,9 @@ class TrustManager {
             TrustManagerUtil.verifySignature(caCertificate, caCertificate)
         }
     }
+
+    companion object {
+        private val VERIFY_CACHE_TIME_BUCKET = 1.hours
+        private const val VERIFY_CACHE_MAX_SIZE = 64
+    }
 }
@@ -17,7 +17,15 @@ package com.android.identity.util
 
 import com.android.identity.cbor.Cbor
 import com.android.identity.cbor.DiagnosticOption
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.IO
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
 import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
 import kotlinx.datetime.LocalDateTime
 import kotlinx.datetime.TimeZone
 import kotlinx.datetime.format
@@ -26,11 +34,16 @@ import kotlinx.io.Sink
 import kotlinx.io.buffered
 import kotlinx.io.files.Path
 import kotlinx.io.files.SystemFileSystem
+import kotlin.concurrent.Volatile
 
 /**
  * Logging facility.
  *
  * This prints out to system out by default and can be configured using [.setLogPrinter].
+ *
+ * Which messages are logged can be configured globally using [minLevel] and per tag using
+ * [setLevel]. Use the variants taking a lambda, for example `Logger.d(TAG) { "..." }`, for
+ * messages which are expensive to build, the lambda is only invoked if the message is logged.
  */
 object Logger {
     private const val TAG = "Logger"
@@ -40,33 +53,91 @@ object Logger {
     const val LEVEL_W = 2
     const val LEVEL_E = 3
 
+    /**
+     * The default number of messages buffered by [startLoggingToFile].
+     */
+    const val DEFAULT_FILE_BUFFER_SIZE = 4096
+
     var isDebugEnabled = true // TODO: make false by default
 
-    private var fileWriter: Sink? = null
-    private var fileWriterPath: Path? = null
+    /**
+     * The minimum level of messages to log, for tags without a level set using [setLevel].
+     */
+    @Volatile
+    var minLevel: Int = LEVEL_D
+
+    // Replaced, never modified, so it can be read without locking.
+    @Volatile
+    private var tagLevels: Map<String, Int> = emptyMap()
+
+    @Volatile
+    private var logFile: LogFile? = null
     private var logPrinter: LogPrinter? = null
 
-    fun startLoggingToFile(logPath: Path) {
-        if (fileWriter != null) {
-            w(TAG, "startLoggingToFile: Already logging to file $fileWriterPath")
-            fileWriter!!.close()
-            fileWriter = null
-            fileWriterPath = null
+    private val timeZone: TimeZone by lazy { TimeZone.currentSystemDefault() }
+
+    /**
+     * Sets the minimum level of messages to log for a tag.
+     *
+     * Debug messages are never logged if [isDebugEnabled] is `false`.
+     *
+     * @param tag the tag.
+     * @param level the minimum level, e.g. [LEVEL_W], or `null` to use [minLevel].
+     */
+    fun setLevel(tag: String, level: Int?) {
+        tagLevels = if (level == null) tagLevels - tag else tagLevels + (tag to level)
+    }
+
+    /**
+     * Checks whether a message would be logged.
+     *
+     * @param tag the tag of the message.
+     * @param level the level of the message.
+     * @return `true` if the message would be logged, `false` otherwise.
+     */
+    fun isLoggable(tag: String, level: Int): Boolean {
+        if (level == LEVEL_D && !isDebugEnabled) {
+            return false
         }
-        d(TAG, "Starting logging to file $fileWriterPath")
-        fileWriter = SystemFileSystem.sink(logPath).buffered()
-        fileWriterPath = logPath
+        return level >= (tagLevels[tag] ?: minLevel)
     }
 
-    fun stopLoggingToFile() {
-        if (fileWriter == null) {
-            w(TAG, "startLoggingToFile: Not logging to file")
-            return
+    /**
+     * Starts writing all logged messages to a file.
+     *
+     * Messages are written to the file in the background so logging never waits for file I/O.
+     * If messages are logged faster than they can be written, at most [bufferSize] messages
+     * are kept and the oldest ones are dropped.
+     *
+     * @param logPath the file to write to, overwritten if it exists.
+     * @param bufferSize the maximum number of messages waiting to be written.
+     */
+    fun startLoggingToFile(logPath: Path, bufferSize: Int = DEFAULT_FILE_BUFFER_SIZE) {
+        require(bufferSize > 0) { "Buffer size must be positive" }
+        logFile?.let {
+            w(TAG, "startLoggingToFile: Already logging to file ${it.path}")
+            it.close()
+            logFile = null
+        }
+        d(TAG, "Starting logging to file $logPath")
+        logFile = LogFile(logPath, bufferSize)
+    }
+
+    /**
+     * Stops writing logged messages to a file.
+     *
+     * @return a [Job] which completes when all pending messages have been written and the
+     *   file has been closed.
+     */
+    fun stopLoggingToFile(): Job? {
+        val file = logFile
+        if (file == null) {
+            w(TAG, "stopLoggingToFile: Not logging to file")
+            return null
         }
-        fileWriter!!.close()
-        fileWriter = null
-        d(TAG, "Stopped logging to file ${fileWriterPath!!.name}")
-        fileWriterPath = null
+        logFile = null
+        d(TAG, "Stopped logging to file ${file.path.name}")
+        return file.close()
     }
 
     fun setLogPrinter(logPrinter: LogPrinter?) {
@@ -74,14 +145,14 @@ object Logger {
     }
 
     private fun prepareLine(
+        time: Instant,
         level: Int,
         tag: String,
         msg: String,
         throwable: Throwable?
     ): String {
         val sb = StringBuilder()
-        val now = Clock.System.now()
-        val dt = now.toLocalDateTime(TimeZone.currentSystemDefault())
+        val dt = time.toLocalDateTime(timeZone)
         val timeStamp = dt.format(LocalDateTime.Formats.ISO)
         sb.append(timeStamp)
         sb.append(": ")
@@ -108,76 +179,170 @@ object Logger {
         msg: String,
         throwable: Throwable?
     ) {
-        var logLine: String? = null
+        val now = Clock.System.now()
         if (logPrinter != null) {
             logPrinter!!.printLn(level, tag, msg, throwable)
         } else {
-            logLine = prepareLine(level, tag, msg, throwable)
-            println(logLine)
+            println(prepareLine(now, level, tag, msg, throwable))
         }
-        if (fileWriter != null) {
-            if (logLine == null) {
-                logLine = prepareLine(level, tag, msg, throwable)
-            }
+        logFile?.log(LogRecord(now, level, tag, msg, throwable))
+    }
+
+    /**
+     * Logs a message which has already passed [isLoggable].
+     *
+     * This is used by the inline functions taking a lambda and shouldn't be called directly.
+     */
+    @PublishedApi
+    internal fun log(level: Int, tag: String, msg: String, throwable: Throwable?) {
+        println(level, tag, msg, throwable)
+    }
+
+    private class LogRecord(
+        val time: Instant,
+        val level: Int,
+        val tag: String,
+        val msg: String,
+        val throwable: Throwable?
+    )
+
+    // Writes messages to a file on a background coroutine, flushing once per batch.
+    private class LogFile(val path: Path, bufferSize: Int) {
+        private val sink: Sink = SystemFileSystem.sink(path).buffered()
+        private val records = Channel<LogRecord>(bufferSize, BufferOverflow.DROP_OLDEST)
+
+        private val job = CoroutineScope(Dispatchers.IO).launch {
             try {
-                fileWriter!!.write((logLine + "\n").encodeToByteArray())
-                fileWriter!!.flush()
+                for (record in records) {
+                    write(record)
+                    while (true) {
+                        write(records.tryReceive().getOrNull() ?: break)
+                    }
+                    sink.flush()
+                }
             } catch (e: Throwable) {
-                if (logPrinter != null) {
-                    logPrinter!!.printLn(LEVEL_E, tag, "Error writing log message to file", e)
-                } else {
-                    println("Error writing log message to file: $e")
+                reportError(e)
+            } finally {
+                try {
+                    sink.close()
+                } catch (e: Throwable) {
+                    reportError(e)
                 }
-                e.printStackTrace()
             }
         }
+
+        private fun write(record: LogRecord) {
+            val line = prepareLine(
+                record.time,
+                record.level,
+                record.tag,
+                record.msg,
+                record.throwable
+            )
+            sink.write((line + "\n").encodeToByteArray())
+        }
+
+        private fun reportError(e: Throwable) {
+            if (logPrinter != null) {
+                logPrinter!!.printLn(LEVEL_E, TAG, "Error writing log message to file", e)
+            } else {
+                println("Error writing log message to file: $e")
+            }
+            e.printStackTrace()
+        }
+
+        fun log(record: LogRecord) {
+            records.trySend(record)
+        }
+
+        fun close(): Job {
+            records.close()
+            return job
+        }
     }
 
     fun d(tag: String, msg: String) {
-        if (isDebugEnabled) {
+        if (isLoggable(tag, LEVEL_D)) {
             println(LEVEL_D, tag, msg, null)
         }
     }
 
     fun d(tag: String, msg: String, throwable: Throwable) {
-        if (isDebugEnabled) {
+        if (isLoggable(tag, LEVEL_D)) {
             println(LEVEL_D, tag, msg, throwable)
         }
     }
 
+    inline fun d(tag: String, throwable: Throwable? = null, msg: () -> String) {
+        if (isLoggable(tag, LEVEL_D)) {
+            log(LEVEL_D, tag, msg(), throwable)
+        }
+    }
+
     fun i(tag: String, msg: String) {
-        println(LEVEL_I, tag, msg, null)
+        if (isLoggable(tag, LEVEL_I)) {
+            println(LEVEL_I, tag, msg, null)
+        }
     }
 
     fun i(tag: String, msg: String, throwable: Throwable) {
-        println(LEVEL_I, tag, msg, throwable)
+        if (isLoggable(tag, LEVEL_I)) {
+            println(LEVEL_I, tag, msg, throwable)
+        }
+    }
+
+    inline fun i(tag: String, throwable: Throwable? = null, msg: () -> String) {
+        if (isLoggable(tag, LEVEL_I)) {
+            log(LEVEL_I, tag, msg(), throwable)
+        }
     }
 
     fun w(tag: String, msg: String) {
-        println(LEVEL_W, tag, msg, null)
+        if (isLoggable(tag, LEVEL_W)) {
+            println(LEVEL_W, tag, msg, null)
+        }
     }
 
     fun w(tag: String, msg: String, throwable: Throwable) {
-        println(LEVEL_W, tag, msg, throwable)
+        if (isLoggable(tag, LEVEL_W)) {
+            println(LEVEL_W, tag, msg, throwable)
+        }
+    }
+
+    inline fun w(tag: String, throwable: Throwable? = null, msg: () -> String) {
+        if (isLoggable(tag, LEVEL_W)) {
+            log(LEVEL_W, tag, msg(), throwable)
+        }
     }
 
     fun e(tag: String, msg: String) {
-        println(LEVEL_E, tag, msg, null)
+        if (isLoggable(tag, LEVEL_E)) {
+            println(LEVEL_E, tag, msg, null)
+        }
     }
 
     fun e(tag: String, msg: String, throwable: Throwable) {
-        println(LEVEL_E, tag, msg, throwable)
+        if (isLoggable(tag, LEVEL_E)) {
+            println(LEVEL_E, tag, msg, throwable)
+        }
+    }
+
+    inline fun e(tag: String, throwable: Throwable? = null, msg: () -> String) {
+        if (isLoggable(tag, LEVEL_E)) {
+            log(LEVEL_E, tag, msg(), throwable)
+        }
     }
 
     private fun hex(level: Int, tag: String, message: String, data: ByteArray) {
+        if (!isLoggable(tag, level)) {
+            return
+        }
         val sb = "$message: ${data.size} bytes of data: " + data.toHex()
         println(level, tag, sb, null)
     }
 
     fun dHex(tag: String, message: String, data: ByteArray) {
-        if (isDebugEnabled) {
-            hex(LEVEL_D, tag, message, data)
-        }
+        hex(LEVEL_D, tag, message, data)
     }
 
     fun iHex(tag: String, message: String, data: ByteArray) {
@@ -193,6 +358,9 @@ object Logger {
     }
 
     private fun cbor(level: Int, tag: String, message: String, encodedCbor: ByteArray) {
+        if (!isLoggable(tag, level)) {
+            return
+        }
         val sb = "$message: ${encodedCbor.size} bytes of CBOR: " + encodedCbor.toHex() +
                 "\n" +
                 "In diagnostic notation:\n" +
@@ -204,9 +372,7 @@ object Logger {
     }
 
     fun dCbor(tag: String, message: String, encodedCbor: ByteArray) {
-        if (isDebugEnabled) {
-            cbor(LEVEL_D, tag, message, encodedCbor)
-        }
+        cbor(LEVEL_D, tag, message, encodedCbor)
     }
 
     fun iCbor(tag: String, message: String, encodedCbor: ByteArray) {
@@ -0,0 +1,112 @@
+package com.android.identity.util
+
+/**
+ * A map which evicts the least recently used entries once a weight limit is exceeded.
+ *
+ * Each entry has a weight, determined by [weigher], which is 1 by default so that
+ * [maxWeight] is the maximum number of entries. Entries are ordered by when they were last
+ * accessed using [get] or [put] and when the total weight of all entries exceeds [maxWeight],
+ * entries are evicted starting with the least recently used one until it doesn't. An entry
+ * heavier than [maxWeight] is evicted right away.
+ *
+ * If [maxWeight] is [Long.MAX_VALUE] nothing is ever evicted and entries stay in insertion
+ * order, like in a [LinkedHashMap].
+ *
+ * This class isn't thread-safe, callers must provide their own locking.
+ *
+ * @param maxWeight the maximum total weight of all entries.
+ * @param weigher a function to calculate the weight of an entry, must not be negative and must
+ *   not change while the entry is in the cache.
+ * @param onEvicted called for each entry evicted because of the weight limit.
+ */
+internal class LruCache<K : Any, V : Any>(
+    val maxWeight: Long,
+    private val weigher: (K, V) -> Long = { _, _ -> 1 },
+    private val onEvicted: (K, V) -> Unit = { _, _ -> }
+) {
+    init {
+        require(maxWeight > 0) { "maxWeight must be positive" }
+    }
+
+    // LinkedHashMap iterates in insertion order so entries are re-inserted on access to keep
+    // the least recently used entry first.
+    private val entries = LinkedHashMap<K, Entry<V>>()
+
+    private class Entry<V>(val value: V, val weight: Long)
+
+    /** The total weight of all entries. */
+    var weight: Long = 0
+        private set
+
+    /** The number of entries. */
+    val size: Int
+        get() = entries.size
+
+    /** All values, from least to most recently used. */
+    val values: List<V>
+        get() = entries.values.map { it.value }
+
+    /**
+     * Gets the value for a key and marks it as most recently used.
+     *
+     * @return the value or `null` if not in the cache.
+     */
+    operator fun get(key: K): V? {
+        if (maxWeight == Long.MAX_VALUE) {
+            return entries[key]?.value
+        }
+        val entry = entries.remove(key) ?: return null
+        entries[key] = entry
+        return entry.value
+    }
+
+    /**
+     * Checks whether the cache has a value for a key, without changing its position.
+     */
+    fun containsKey(key: K): Boolean = entries.containsKey(key)
+
+    /**
+     * Puts a value in the cache, replacing any existing value for the key, and evicts entries
+     * if needed.
+     */
+    fun put(key: K, value: V) {
+        val newWeight = weigher(key, value)
+        require(newWeight >= 0) { "Weight must not be negative" }
+        if (maxWeight != Long.MAX_VALUE) {
+            // Move to the end.
+            entries.remove(key)?.let { weight -= it.weight }
+        }
+        entries.put(key, Entry(value, newWeight))?.let { weight -= it.weight }
+        weight += newWeight
+        trim()
+    }
+
+    /**
+     * Removes the value for a key, [onEvicted] isn't called.
+     *
+     * @return the removed value or `null` if not in the cache.
+     */
+    fun remove(key: K): V? {
+        val entry = entries.remove(key) ?: return null
+        weight -= entry.weight
+        return entry.value
+    }
+
+    /**
+     * Removes all values, [onEvicted] isn't called.
+     */
+    fun clear() {
+        entries.clear()
+        weight = 0
+    }
+
+    private fun trim() {
+        val iterator = entries.entries.iterator()
+        while (weight > maxWeight && iterator.hasNext()) {
+            val (key, entry) = iterator.next()
+            iterator.remove()
+            weight -= entry.weight
+            onEvicted(key, entry.value)
+        }
+    }
+}
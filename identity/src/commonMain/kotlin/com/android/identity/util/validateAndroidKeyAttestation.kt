@@ -1,18 +1,52 @@
 package com.android.identity.util
 
+import com.android.identity.crypto.Algorithm
+import com.android.identity.crypto.Crypto
 import com.android.identity.crypto.X509Cert
 import com.android.identity.crypto.X509CertChain
 import kotlinx.io.bytestring.ByteString
+import kotlin.concurrent.Volatile
 
 private const val TAG = "validateAndroidKeyAttestation"
 
+// The maximum number of validated issuer chains to remember, there's typically only a handful
+// of distinct intermediate chains per device model so this is plenty.
+private const val MAX_VALIDATED_ISSUER_CHAINS = 1024
+
+// SHA-256 digests of issuer chains, i.e. everything but the leaf certificate, which are known
+// to validate. All keys attested by the same device share the same issuer chain so this allows
+// checking only the leaf certificate for all but the first one. Validation of a chain doesn't
+// depend on the current time so the result can be cached indefinitely.
+//
+// This is written from multiple threads without locking; replacing the set is atomic and a
+// lost update only means a chain is validated again.
+@Volatile
+private var validatedIssuerChains = emptySet<ByteString>()
+
+/**
+ * Validates an Android Keystore key attestation.
+ *
+ * Validation of the issuer chain, i.e. all certificates but the leaf, is cached so validating
+ * several attestations from the same device only needs to check the signature of each leaf
+ * certificate and its attestation extension.
+ *
+ * @param chain the attestation certificate chain, leaf first.
+ * @param challenge the expected attestation challenge or `null` to not check it.
+ * @param requireGmsAttestation whether the chain must be rooted in the Google attestation root.
+ * @param requireVerifiedBootGreen whether the device must be in the verified boot state.
+ * @param requireAppSignatureCertificateDigests the expected digests of the application signing
+ *   certificates or empty to not check them.
+ * @return the parsed attestation extension of the leaf certificate.
+ * @throws IllegalStateException if the chain doesn't validate.
+ * @throws IllegalArgumentException if the attestation extension doesn't match the requirements.
+ */
 fun validateAndroidKeyAttestation(
     chain: X509CertChain,
     challenge: ByteString?,
     requireGmsAttestation: Boolean,
     requireVerifiedBootGreen: Boolean,
     requireAppSignatureCertificateDigests: List<ByteString>,
-) {
+): AndroidAttestationExtensionParser {
     if (requireGmsAttestation) {
         // Google root certificate uses RSA private key (and not EC key that we currently support
         // in Kotlin Multiplatform code). Instead of comparing the keys, just replace the root
@@ -22,11 +56,11 @@ fun validateAndroidKeyAttestation(
         // certificate and worry about its expiration date.
         val truncatedChain = chain.certificates.subList(0, chain.certificates.lastIndex)
         val chainToVerify = truncatedChain + listOf(GOOGLE_ATTESTATION_ROOT_CERTIFICATE)
-        check(X509CertChain(chainToVerify).validate()) {
+        check(validateChainWithCachedIssuers(chainToVerify)) {
             "Certificate chain did not validate"
         }
     } else {
-        check(chain.validate()) {
+        check(validateChainWithCachedIssuers(chain.certificates)) {
             "Certificate chain did not validate"
         }
     }
@@ -58,18 +92,43 @@ fun validateAndroidKeyAttestation(
         }
 
         // Log the digests for easy copy-pasting into config file.
-        Logger.d(
-            TAG, "Accepting Android client with ${parser.applicationSignatureDigests.size} " +
-                    "signing certificates digests")
-        for (n in 0..<parser.applicationSignatureDigests.size) {
-            Logger.d(TAG,
-                "Digest $n: ${parser.applicationSignatureDigests[n].toByteArray().toBase64Url()}")
+        if (Logger.isLoggable(TAG, Logger.LEVEL_D)) {
+            Logger.d(
+                TAG, "Accepting Android client with ${parser.applicationSignatureDigests.size} " +
+                        "signing certificates digests")
+            for (n in 0..<parser.applicationSignatureDigests.size) {
+                Logger.d(TAG,
+                    "Digest $n: ${parser.applicationSignatureDigests[n].toByteArray().toBase64Url()}")
+            }
         }
+        return parser
     } catch (e: Throwable) {
         throw IllegalArgumentException("Error parsing Android Attestation Extension", e)
     }
 }
 
+private fun validateChainWithCachedIssuers(certificates: List<X509Cert>): Boolean {
+    if (certificates.size < 3) {
+        return X509CertChain(certificates).validate()
+    }
+    val issuers = certificates.subList(1, certificates.size)
+    val issuersDigest = ByteString(
+        Crypto.digest(Algorithm.SHA256, issuers.map { it.encodedCertificate })
+    )
+    if (issuersDigest !in validatedIssuerChains) {
+        if (!X509CertChain(issuers).validate()) {
+            return false
+        }
+        val validated = validatedIssuerChains
+        validatedIssuerChains = if (validated.size >= MAX_VALIDATED_ISSUER_CHAINS) {
+            setOf(issuersDigest)
+        } else {
+            validated + issuersDigest
+        }
+    }
+    return X509CertChain(certificates.subList(0, 2)).validate()
+}
+
 // This certificate is from https://developer.android.com/training/articles/security-key-attestation
 // We really only care about the private key in this certificate.
 // Note that this certificate expires on May 24 2026 GMT.
@@ -11,6 +11,7 @@ import kotlin.test.Test
 import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
 import kotlin.time.Duration.Companion.seconds
 
 class ASN1Tests {
@@ -50,6 +51,40 @@ class ASN1Tests {
         assertEquals(0x1fff, decodeTagFromTLV("1fbf7f00".fromHex()))
     }
 
+    @Test
+    fun testSlice() {
+        val seq = ASN1Sequence(listOf(
+            ASN1Integer(42),
+            ASN1OctetString(ByteArray(200) { it.toByte() }),
+            ASN1TaggedObject(ASN1TagClass.CONTEXT_SPECIFIC, ASN1Encoding.PRIMITIVE, 3, byteArrayOf(1, 2))
+        ))
+        val encoded = byteArrayOf(0x55) + ASN1.encode(seq) + byteArrayOf(0x55)
+        val slice = ASN1Slice.parse(encoded, 1)
+        assertTrue(slice.isA(ASN1TagClass.UNIVERSAL, ASN1Encoding.CONSTRUCTED, ASN1Sequence.TAG_NUMBER))
+        assertEquals(encoded.size - 1, slice.end)
+        assertContentEquals(ASN1.encode(seq), slice.encoded())
+        assertEquals(seq, slice.decode())
+
+        val children = slice.children()
+        assertEquals(3, children.size)
+        assertEquals(ASN1Integer(42), children[0].decode())
+        assertEquals(200, children[1].contentLength)
+        assertContentEquals(ByteArray(200) { it.toByte() }, children[1].content())
+        assertTrue(children[2].isA(ASN1TagClass.CONTEXT_SPECIFIC, ASN1Encoding.PRIMITIVE, 3))
+        assertContentEquals(byteArrayOf(1, 2), children[2].content())
+
+        // Values extending beyond the limit or the array are rejected.
+        assertFailsWith<IllegalArgumentException> {
+            ASN1Slice.parse(encoded, 1, encoded.size - 2)
+        }
+        assertFailsWith<IllegalArgumentException> {
+            ASN1Slice.parse("3005020101".fromHex())
+        }
+        assertFailsWith<IllegalArgumentException> {
+            ASN1Slice.parse("3082".fromHex())
+        }
+    }
+
     @Test
     fun testBoolean() {
         assertContentEquals("010100".fromHex(), ASN1.encode(ASN1Boolean(false)))
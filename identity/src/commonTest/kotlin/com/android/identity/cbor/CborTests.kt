@@ -8,6 +8,8 @@ import kotlin.test.Test
 import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
 
 class CborTests {
 
@@ -979,6 +981,65 @@ class CborTests {
         assertEquals(innerDataItem, dataItem.asTaggedEncodedCbor)
     }
 
+    @Test
+    fun decodeRetainingEncoding() {
+        // Maps with a non-preferred length encoding and a half-float, neither of which is
+        // reproduced when encoding again.
+        val encoded = "82b8016161f93c00d8184681b801616101".fromHex()
+        assertEquals("82a16161fa3f800000d8184681b801616101", Cbor.encode(Cbor.decode(encoded)).toHex())
+
+        val item = Cbor.decode(encoded, retainEncoding = true)
+        assertEquals(Cbor.decode(encoded), item)
+        assertContentEquals(encoded, Cbor.encode(item))
+        assertEquals("b8016161f93c00", Cbor.encode(item[0]).toHex())
+
+        // Retained encodings are reused when part of a larger item...
+        val array = CborArray.builder().add(item[0]).add(1).end().build()
+        assertEquals("82b8016161f93c0001", Cbor.encode(array).toHex())
+
+        // ... and for embedded CBOR.
+        val embedded = item[1].asTaggedEncodedCbor
+        assertEquals("81b801616101", Cbor.encode(embedded).toHex())
+        assertEquals("b801616101", Cbor.encode(embedded[0]).toHex())
+
+        // Items with retained encodings can't be modified, as the bytes would become stale.
+        assertFailsWith<UnsupportedOperationException> { (item as CborArray).items.removeAt(0) }
+        assertFailsWith<UnsupportedOperationException> {
+            (item[0] as CborMap).items[Tstr("b")] = Uint(1UL)
+        }
+        assertFailsWith<UnsupportedOperationException> {
+            (embedded[0] as CborMap).items.entries.first().setValue(Uint(2UL))
+        }
+        assertFailsWith<UnsupportedOperationException> {
+            (embedded[0] as CborMap).items.keys.clear()
+        }
+        assertContentEquals(encoded, Cbor.encode(item))
+
+        // Without retainEncoding, items can be modified as before.
+        val mutable = Cbor.decode(encoded) as CborArray
+        mutable.items.removeAt(1)
+        assertEquals("81a16161fa3f800000", Cbor.encode(mutable).toHex())
+    }
+
+    @Test
+    fun internedKeys() {
+        // Well-known keys are shared, other values are not.
+        assertSame(Tstr.intern("digestID"), "digestID".toDataItem())
+        assertNotSame(Tstr.intern("foo"), Tstr.intern("foo"))
+        assertEquals(Tstr("digestID"), Tstr.intern("digestID"))
+        assertEquals(Tstr("digestID").hashCode(), Tstr.intern("digestID").hashCode())
+        assertEquals("686469676573744944", Cbor.encode(Tstr.intern("digestID")).toHex())
+
+        // Decoded keys are interned as well.
+        val map = Cbor.decode("a26864696765737449440163666f6f02".fromHex())
+        val keys = map.asMap.keys.toList()
+        assertSame(Tstr.intern("digestID"), keys[0])
+        assertEquals(Tstr("foo"), keys[1])
+        assertEquals(1, map["digestID"].asNumber)
+        assertEquals(2, map["foo"].asNumber)
+        assertEquals("a26864696765737449440163666f6f02", Cbor.encode(map).toHex())
+    }
+
     @Test
     fun toDateTimeString() {
         assertEquals(
@@ -30,6 +30,21 @@ class CryptoTests {
         )
     }
 
+    @Test
+    fun digestsOfParts() {
+        assertEquals(
+            "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e",
+            Crypto.digest(
+                Algorithm.SHA256,
+                listOf("Hello".encodeToByteArray(), " ".encodeToByteArray(), "World".encodeToByteArray())
+            ).toHex()
+        )
+        assertEquals(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+            Crypto.digest(Algorithm.SHA256, listOf()).toHex()
+        )
+    }
+
     @Test
     fun macs() {
         // These test vectors are from a zip file that can be downloaded from
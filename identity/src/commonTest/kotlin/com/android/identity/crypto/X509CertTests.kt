@@ -2,6 +2,7 @@ package com.android.identity.crypto
 
 import com.android.identity.asn1.ASN1
 import com.android.identity.asn1.ASN1Integer
+import com.android.identity.asn1.ASN1Sequence
 import com.android.identity.asn1.OID
 import com.android.identity.util.fromHex
 import com.android.identity.util.toHex
@@ -199,6 +200,61 @@ class X509CertTests {
     @Test fun testCertSignedWithCurve_ED25519() = testCertSignedWithCurve(EcCurve.ED25519)
     @Test fun testCertSignedWithCurve_ED448() = testCertSignedWithCurve(EcCurve.ED448)
 
+    @Test
+    fun testExtensions() {
+        val key = Crypto.createEcPrivateKey(EcCurve.P256)
+        val now = Instant.fromEpochSeconds(Clock.System.now().epochSeconds)
+        val cert = X509Cert.Builder(
+            publicKey = key.publicKey,
+            signingKey = key,
+            signatureAlgorithm = Algorithm.ES256,
+            serialNumber = ASN1Integer(1),
+            subject = X500Name.fromName("CN=Foobar"),
+            issuer = X500Name.fromName("CN=Foobar"),
+            validFrom = now - 1.hours,
+            validUntil = now + 1.hours
+        )
+            .includeSubjectKeyIdentifier()
+            .setKeyUsage(setOf(X509KeyUsage.KEY_CERT_SIGN))
+            .addExtension("1.2.3.4", false, byteArrayOf(0x04, 0x01, 0x2a))
+            .build()
+
+        assertEquals(
+            listOf(
+                "1.2.3.4" to false,
+                OID.X509_EXTENSION_KEY_USAGE.oid to true,
+                OID.X509_EXTENSION_SUBJECT_KEY_IDENTIFIER.oid to false
+            ).sortedBy { it.first },
+            cert.extensions.map { it.oid to it.isCritical }.sortedBy { it.first }
+        )
+        assertEquals(setOf(OID.X509_EXTENSION_KEY_USAGE.oid), cert.criticalExtensionOIDs)
+        assertEquals(setOf(X509KeyUsage.KEY_CERT_SIGN), cert.keyUsage)
+        assertEquals(cert.subjectKeyIdentifier!!.toHex(), cert.subjectKeyIdentifierHex)
+        assertEquals(null, cert.authorityKeyIdentifier)
+        assertEquals(null, cert.authorityKeyIdentifierHex)
+        assertEquals(null, cert.getExtensionValue("1.2.3.5"))
+
+        // Callers get their own copy of extension values.
+        val value = cert.getExtensionValue("1.2.3.4")!!
+        assertContentEquals(byteArrayOf(0x04, 0x01, 0x2a), value)
+        value[0] = 0
+        assertContentEquals(byteArrayOf(0x04, 0x01, 0x2a), cert.getExtensionValue("1.2.3.4"))
+
+        // TBSCertificate is returned as found in the certificate.
+        val tbsCertificate = (ASN1.decode(cert.encodedCertificate) as ASN1Sequence).elements[0]
+        assertContentEquals(ASN1.encode(tbsCertificate), cert.tbsCertificate)
+
+        // Cached fields are returned as copies as well.
+        val ski = cert.subjectKeyIdentifier!!
+        val expectedSki = ski.copyOf()
+        ski.fill(0)
+        assertContentEquals(expectedSki, cert.subjectKeyIdentifier)
+        assertEquals(expectedSki.toHex(), cert.subjectKeyIdentifierHex)
+        cert.tbsCertificate.fill(0)
+        assertContentEquals(ASN1.encode(tbsCertificate), cert.tbsCertificate)
+        assertTrue(cert.verify(key.publicKey))
+    }
+
     @Test
     fun testKeyUsageEncoding() {
         assertEquals(
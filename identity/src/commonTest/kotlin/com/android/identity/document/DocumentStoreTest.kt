@@ -29,6 +29,7 @@ import com.android.identity.securearea.software.SoftwareSecureArea
 import com.android.identity.storage.Storage
 import com.android.identity.storage.ephemeral.EphemeralStorage
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
 import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.test.TestScope
@@ -172,6 +173,55 @@ class DocumentStoreTest {
         assertEquals(b, documentStore.lookupDocument(b.identifier))
     }
 
+    @Test
+    fun testBoundedCaches() = runTest {
+        val documentStore = DocumentStore(
+            storage = storage,
+            secureAreaRepository = secureAreaRepository,
+            credentialLoader = credentialLoader,
+            documentMetadataFactory = SimpleDocumentMetadata::create,
+            cacheOptions = DocumentStore.CacheOptions(
+                maxDocuments = 2,
+                maxCredentialWeightPerDocument = 3
+            )
+        )
+        val a = documentStore.createDocument()
+        a.simpleMetadata.setBasicProperties("a", "type", null, null)
+        val b = documentStore.createDocument()
+        assertSame(a, documentStore.lookupDocument(a.identifier))
+        // Evicts b, the least recently used document.
+        val c = documentStore.createDocument()
+        assertSame(a, documentStore.lookupDocument(a.identifier))
+        assertSame(c, documentStore.lookupDocument(c.identifier))
+        val b2 = documentStore.lookupDocument(b.identifier)!!
+        assertNotSame(b, b2)
+        assertEquals(b.identifier, b2.identifier)
+        assertSame(b2, documentStore.lookupDocument(b.identifier))
+
+        // Evicted documents are loaded from storage again, concurrent lookups share one load.
+        documentStore.lookupDocument(c.identifier)
+        val lookups = (0..2).map { async { documentStore.lookupDocument(a.identifier) } }
+        val a2 = lookups.first().await()!!
+        assertNotSame(a, a2)
+        assertEquals("a", a2.simpleMetadata.displayName)
+        lookups.forEach { assertSame(a2, it.await()) }
+
+        // Only three credentials are cached but all are returned.
+        for (n in 0..4) {
+            TestCredential(a2, null, CREDENTIAL_DOMAIN).addToDocument()
+        }
+        val credentials = a2.getCredentials()
+        assertEquals(5, credentials.size)
+        assertEquals(credentials.map { it.identifier }.toSet(), a2.getCredentialIdentifiers().toSet())
+        val first = a2.lookupCredential(credentials[0].identifier)!!
+        assertSame(first, a2.lookupCredential(credentials[0].identifier))
+        for (credential in credentials.drop(1)) {
+            a2.lookupCredential(credential.identifier)
+        }
+        assertNotSame(first, a2.lookupCredential(credentials[0].identifier))
+        assertEquals(5, a2.getCredentials().size)
+    }
+
     @Test
     fun testCredentialUsage() = runDocumentTest { documentStore ->
         val document = documentStore.createDocument()
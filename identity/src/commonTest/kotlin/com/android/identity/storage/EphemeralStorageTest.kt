@@ -71,4 +71,38 @@ class EphemeralStorageTest {
         assertEquals("foo", table.enumerate().iterator().next())
         assertEquals(data, table.get("foo"))
     }
+
+    @Test
+    fun testManyRecords() = runTest {
+        val storage = EphemeralStorage()
+        val table = storage.getTable(StorageTableSpec("many", true, false))
+        val count = 10000
+        fun keyOf(n: Int) = "key" + n.toString().padStart(5, '0')
+        // Insert in an order which is neither ascending nor descending
+        for (i in 0 until count) {
+            val n = (i * 7919) % count
+            table.insert(keyOf(n), ByteString(byteArrayOf(n.toByte())), "p${n % 3}")
+        }
+        for (n in listOf(0, 1, 4999, 9999)) {
+            assertEquals(ByteString(byteArrayOf(n.toByte())), table.get(keyOf(n), "p${n % 3}"))
+        }
+
+        val restored = EphemeralStorage.deserialize(storage.serialize())
+            .getTable(StorageTableSpec("many", true, false))
+        for (partition in listOf("p0", "p1", "p2")) {
+            val keys = mutableListOf<String>()
+            var afterKey: String? = null
+            while (true) {
+                val page = restored.enumerate(partition, afterKey, 1000)
+                if (page.isEmpty()) {
+                    break
+                }
+                keys.addAll(page)
+                afterKey = page.last()
+            }
+            assertEquals(table.enumerate(partition), keys)
+            assertEquals(keys.sorted(), keys)
+        }
+        assertEquals(count, listOf("p0", "p1", "p2").sumOf { restored.enumerate(it).size })
+    }
 }
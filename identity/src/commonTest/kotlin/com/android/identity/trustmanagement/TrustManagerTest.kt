@@ -10,7 +10,9 @@ import kotlinx.datetime.Clock
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
+import kotlin.test.assertNotSame
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 import kotlin.time.Duration.Companion.hours
 
@@ -263,4 +265,25 @@ class TrustManagerTest {
             assertNull(it.trustChain)
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testTrustManagerCachesResults() {
+        val trustManager = TrustManager()
+
+        trustManager.addTrustPoint(TrustPoint(intermediateCertificate))
+        trustManager.addTrustPoint(TrustPoint(caCertificate))
+
+        val result = trustManager.verify(listOf(dsCertificate))
+        assertTrue(result.isTrusted)
+        assertSame(result, trustManager.verify(listOf(dsCertificate)))
+
+        // Changing the trust points invalidates cached results.
+        trustManager.removeTrustPoint(TrustPoint(caCertificate))
+        trustManager.verify(listOf(dsCertificate)).let {
+            assertNotSame(result, it)
+            assertTrue(it.isTrusted)
+            assertEquals(2, it.trustChain!!.certificates.size)
+            assertEquals(intermediateCertificate, it.trustChain.certificates.last())
+        }
+    }
+}
@@ -43,6 +43,20 @@ actual object Crypto {
         }
     }
 
+    actual fun digest(
+        algorithm: Algorithm,
+        messageParts: List<ByteArray>
+    ): ByteArray {
+        // SwiftBridge doesn't expose incremental hashing so concatenate the parts first.
+        val message = ByteArray(messageParts.sumOf { it.size })
+        var offset = 0
+        for (part in messageParts) {
+            part.copyInto(message, offset)
+            offset += part.size
+        }
+        return digest(algorithm, message)
+    }
+
     actual fun mac(
         algorithm: Algorithm,
         key: ByteArray,
@@ -355,27 +369,4 @@ actual object Crypto {
     ): JsonObject {
         throw NotImplementedError("This is not yet implemented")
     }
-
-    internal actual fun jwsSign(
-        key: EcPrivateKey,
-        signatureAlgorithm: Algorithm,
-        claimsSet: JsonObject,
-        type: String?,
-        x5c: X509CertChain?
-    ): JsonElement {
-        throw NotImplementedError("This is not yet implemented")
-    }
-
-    internal actual fun jwsVerify(
-        signedJwt: JsonElement,
-        publicKey: EcPublicKey
-    ) {
-        throw NotImplementedError("This is not yet implemented")
-    }
-
-    internal actual fun jwsGetInfo(
-        signedJwt: JsonElement
-    ): JwsInfo {
-        throw NotImplementedError("This is not yet implemented")
-    }
 }
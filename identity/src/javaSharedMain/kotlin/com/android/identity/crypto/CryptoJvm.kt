@@ -1,8 +1,8 @@
 package com.android.identity.crypto
 
+import com.android.identity.metrics.Metrics
 import com.android.identity.util.UUID
 import com.android.identity.util.fromJavaUuid
-import com.android.identity.util.toBase64Url
 import com.google.crypto.tink.HybridDecrypt
 import com.google.crypto.tink.HybridEncrypt
 import com.google.crypto.tink.InsecureSecretKeyAccess
@@ -23,34 +23,23 @@ import com.google.crypto.tink.proto.OutputPrefixType
 import com.google.crypto.tink.shaded.protobuf.ByteString as TinkByteString
 import com.google.crypto.tink.subtle.EllipticCurves
 import com.nimbusds.jose.EncryptionMethod
-import com.nimbusds.jose.JOSEObjectType
 import com.nimbusds.jose.JWEAlgorithm
 import com.nimbusds.jose.JWEHeader
-import com.nimbusds.jose.JWSAlgorithm
-import com.nimbusds.jose.JWSHeader
-import com.nimbusds.jose.JWSSigner
 import com.nimbusds.jose.crypto.ECDHDecrypter
 import com.nimbusds.jose.crypto.ECDHEncrypter
-import com.nimbusds.jose.crypto.ECDSASigner
 import com.nimbusds.jose.jwk.Curve
 import com.nimbusds.jose.jwk.ECKey
 import com.nimbusds.jose.jwk.JWK
 import com.nimbusds.jose.jwk.JWKSet
-import com.nimbusds.jose.proc.DefaultJOSEObjectTypeVerifier
-import com.nimbusds.jose.proc.JWSKeySelector
-import com.nimbusds.jose.proc.SecurityContext
 import com.nimbusds.jose.util.Base64URL
 import com.nimbusds.jwt.EncryptedJWT
 import com.nimbusds.jwt.JWTClaimsSet
-import com.nimbusds.jwt.SignedJWT
-import com.nimbusds.jwt.proc.DefaultJWTProcessor
 import kotlinx.io.bytestring.ByteString
 import kotlinx.io.bytestring.ByteStringBuilder
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.JsonElement
 import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonPrimitive
-import kotlinx.serialization.json.jsonObject
 import kotlinx.serialization.json.jsonPrimitive
 import org.bouncycastle.crypto.agreement.X25519Agreement
 import org.bouncycastle.crypto.agreement.X448Agreement
@@ -152,6 +141,34 @@ actual object Crypto {
         return MessageDigest.getInstance(algName).digest(message)
     }
 
+    /**
+     * Message digest function for a message made up of several parts.
+     *
+     * @param algorithm must one of [Algorithm.INSECURE_SHA1], [Algorithm.SHA256], [Algorithm.SHA384], [Algorithm.SHA512].
+     * @param messageParts the parts of the message to get a digest of, in order.
+     * @return the digest.
+     * @throws IllegalArgumentException if the given algorithm is not supported.
+     */
+    actual fun digest(
+        algorithm: Algorithm,
+        messageParts: List<ByteArray>
+    ): ByteArray {
+        val algName = when (algorithm) {
+            Algorithm.INSECURE_SHA1 -> "SHA-1"
+            Algorithm.SHA256 -> "SHA-256"
+            Algorithm.SHA384 -> "SHA-384"
+            Algorithm.SHA512 -> "SHA-512"
+            else -> {
+                throw IllegalArgumentException("Unsupported algorithm $algorithm")
+            }
+        }
+        val messageDigest = MessageDigest.getInstance(algName)
+        for (part in messageParts) {
+            messageDigest.update(part)
+        }
+        return messageDigest.digest()
+    }
+
     /**
      * Message authentication code function.
      *
@@ -332,6 +349,20 @@ actual object Crypto {
         message: ByteArray,
         algorithm: Algorithm,
         signature: EcSignature
+    ): Boolean =
+        Metrics.span(
+            "crypto.checkSignature",
+            "algorithm" to algorithm.name,
+            "curve" to publicKey.curve.name
+        ) {
+            checkSignatureUnmetered(publicKey, message, algorithm, signature)
+        }
+
+    private fun checkSignatureUnmetered(
+        publicKey: EcPublicKey,
+        message: ByteArray,
+        algorithm: Algorithm,
+        signature: EcSignature
     ): Boolean {
         val signatureAlgorithm = when (algorithm) {
             Algorithm.UNSET -> throw IllegalArgumentException("Algorithm not set")
@@ -382,6 +413,11 @@ actual object Crypto {
      * @param curve the curve to use.
      */
     actual fun createEcPrivateKey(curve: EcCurve): EcPrivateKey =
+        Metrics.span("crypto.createEcPrivateKey", "curve" to curve.name) {
+            createEcPrivateKeyUnmetered(curve)
+        }
+
+    private fun createEcPrivateKeyUnmetered(curve: EcCurve): EcPrivateKey =
         when (curve) {
             EcCurve.P256,
             EcCurve.P384,
@@ -459,6 +495,19 @@ actual object Crypto {
         key: EcPrivateKey,
         signatureAlgorithm: Algorithm,
         message: ByteArray
+    ): EcSignature =
+        Metrics.span(
+            "crypto.sign",
+            "algorithm" to signatureAlgorithm.name,
+            "curve" to key.curve.name
+        ) {
+            signUnmetered(key, signatureAlgorithm, message)
+        }
+
+    private fun signUnmetered(
+        key: EcPrivateKey,
+        signatureAlgorithm: Algorithm,
+        message: ByteArray
     ): EcSignature = when (key.curve) {
         EcCurve.P256,
         EcCurve.P384,
@@ -475,12 +524,7 @@ actual object Crypto {
                     "Unsupported signing algorithm $signatureAlgorithm for curve ${key.curve}"
                 )
             }
-            val spec = ECPrivateKeySpec(
-                BigIntegers.fromUnsignedByteArray(key.d),
-                ECNamedCurveTable.getParameterSpec(key.curve.SECGName)
-            )
-            val kf = KeyFactory.getInstance("EC")
-            val privateKey = kf.generatePrivate(spec)
+            val privateKey = key.javaPrivateKey
             try {
                 val derEncodedSignature = Signature.getInstance(
                     signatureAlgorithmName,
@@ -537,6 +581,14 @@ actual object Crypto {
     actual fun keyAgreement(
         key: EcPrivateKey,
         otherKey: EcPublicKey
+    ): ByteArray =
+        Metrics.span("crypto.keyAgreement", "curve" to key.curve.name) {
+            keyAgreementUnmetered(key, otherKey)
+        }
+
+    private fun keyAgreementUnmetered(
+        key: EcPrivateKey,
+        otherKey: EcPublicKey
     ): ByteArray =
         when (key.curve) {
             EcCurve.P256,
@@ -695,6 +747,16 @@ actual object Crypto {
         receiverPublicKey: EcPublicKey,
         plainText: ByteArray,
         aad: ByteArray
+    ): Pair<ByteArray, EcPublicKey> =
+        Metrics.span("crypto.hpkeEncrypt", "algorithm" to cipherSuite.name) {
+            hpkeEncryptUnmetered(cipherSuite, receiverPublicKey, plainText, aad)
+        }
+
+    private fun hpkeEncryptUnmetered(
+        cipherSuite: Algorithm,
+        receiverPublicKey: EcPublicKey,
+        plainText: ByteArray,
+        aad: ByteArray
     ): Pair<ByteArray, EcPublicKey> {
         require(cipherSuite == Algorithm.HPKE_BASE_P256_SHA256_AES128GCM) {
             "Only HPKE_BASE_P256_SHA256_AES128GCM is supported right now"
@@ -742,6 +804,23 @@ actual object Crypto {
         cipherText: ByteArray,
         aad: ByteArray,
         encapsulatedPublicKey: EcPublicKey,
+    ): ByteArray =
+        Metrics.span("crypto.hpkeDecrypt", "algorithm" to cipherSuite.name) {
+            hpkeDecryptUnmetered(
+                cipherSuite,
+                receiverPrivateKey,
+                cipherText,
+                aad,
+                encapsulatedPublicKey
+            )
+        }
+
+    private fun hpkeDecryptUnmetered(
+        cipherSuite: Algorithm,
+        receiverPrivateKey: EcPrivateKey,
+        cipherText: ByteArray,
+        aad: ByteArray,
+        encapsulatedPublicKey: EcPublicKey,
     ): ByteArray {
         require(cipherSuite == Algorithm.HPKE_BASE_P256_SHA256_AES128GCM) {
             "Only HPKE_BASE_P256_SHA256_AES128GCM is supported right now"
@@ -865,67 +944,4 @@ actual object Crypto {
         encryptedJWT.decrypt(decrypter)
         return Json.decodeFromString<JsonObject>(encryptedJWT.jwtClaimsSet.toString())
     }
-
-    internal actual fun jwsSign(
-        key: EcPrivateKey,
-        signatureAlgorithm: Algorithm,
-        claimsSet: JsonObject,
-        type: String?,
-        x5c: X509CertChain?
-    ): JsonElement {
-        val ecKey = ECKey(
-            Curve.P_256,
-            key.publicKey.javaPublicKey as ECPublicKey,
-            key.javaPrivateKey as ECPrivateKey,
-            null, null, null, null, null, null, null, null, null
-        )
-        check(signatureAlgorithm == Algorithm.ES256)
-        val builder = JWSHeader.Builder(JWSAlgorithm.ES256)
-        if (x5c != null) {
-            builder.x509CertChain(x5c.certificates.map { cert ->
-                com.nimbusds.jose.util.Base64.from(cert.encodedCertificate.toBase64Url())
-            })
-        }
-        if (type != null) {
-            builder.type(JOSEObjectType(type))
-        }
-        builder.keyID(ecKey.getKeyID())
-        val signedJWT = SignedJWT(
-            builder.build(),
-            JWTClaimsSet.parse(claimsSet.toString())
-        )
-        val signer: JWSSigner = ECDSASigner(ecKey)
-        signedJWT.sign(signer)
-        return Json.parseToJsonElement(signedJWT.serialize())
-    }
-
-    internal actual fun jwsVerify(
-        signedJwt: JsonElement,
-        publicKey: EcPublicKey
-    ) {
-        val sjwt = SignedJWT.parse(signedJwt.jsonPrimitive.content)
-        val jwtProcessor = DefaultJWTProcessor<SecurityContext>()
-        jwtProcessor.jwsTypeVerifier = DefaultJOSEObjectTypeVerifier(
-            sjwt.header.type,
-            JOSEObjectType.JWT,
-            JOSEObjectType(""),
-            null,
-        )
-        jwtProcessor.jwsKeySelector = JWSKeySelector { _, _ ->
-            listOf(publicKey.javaPublicKey)
-        }
-        jwtProcessor.process(sjwt, null)
-    }
-
-    internal actual fun jwsGetInfo(
-        signedJwt: JsonElement
-    ): JwsInfo {
-        val sjwt = SignedJWT.parse(signedJwt.jsonPrimitive.content)
-        val x5c = sjwt.header?.x509CertChain?.mapNotNull { runCatching { X509Cert(it.decode()) }.getOrNull() }
-        return JwsInfo(
-            claimsSet = Json.parseToJsonElement(sjwt.jwtClaimsSet.toString()).jsonObject,
-            type = sjwt.header.type?.toString(),
-            x5c = x5c?.let { X509CertChain(it) }
-        )
-    }
 }
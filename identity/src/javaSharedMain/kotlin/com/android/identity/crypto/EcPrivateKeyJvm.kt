@@ -6,12 +6,14 @@ import org.bouncycastle.asn1.pkcs.PrivateKeyInfo
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier
 import org.bouncycastle.jce.ECNamedCurveTable
 import org.bouncycastle.jce.interfaces.ECPrivateKey
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec
 import org.bouncycastle.jce.spec.ECPrivateKeySpec
 import org.bouncycastle.util.BigIntegers
 import java.security.KeyFactory
 import java.security.PrivateKey
 import java.security.PublicKey
 import java.security.spec.PKCS8EncodedKeySpec
+import java.util.concurrent.ConcurrentHashMap
 
 fun PrivateKey.toEcPrivateKey(publicKey: PublicKey, curve: EcCurve): EcPrivateKey =
     when (curve) {
@@ -38,6 +40,14 @@ fun PrivateKey.toEcPrivateKey(publicKey: PublicKey, curve: EcCurve): EcPrivateKe
         }
     }
 
+// Looking up curve parameters by name is relatively expensive, so only do it once per curve.
+private val namedCurveParameterSpecs = ConcurrentHashMap<EcCurve, ECNamedCurveParameterSpec>()
+
+private val EcCurve.namedCurveParameterSpec: ECNamedCurveParameterSpec
+    get() = namedCurveParameterSpecs.getOrPut(this) {
+        ECNamedCurveTable.getParameterSpec(SECGName)
+    }
+
 val EcPrivateKey.javaPrivateKey: PrivateKey
     get() = when (this.curve) {
         EcCurve.P256,
@@ -51,7 +61,7 @@ val EcPrivateKey.javaPrivateKey: PrivateKey
             keyFactory.generatePrivate(
                 ECPrivateKeySpec(
                     BigIntegers.fromUnsignedByteArray(this.d),
-                    ECNamedCurveTable.getParameterSpec(this.curve.SECGName)
+                    curve.namedCurveParameterSpec
                 )
             )
         }
@@ -15,6 +15,7 @@ import java.security.spec.ECParameterSpec
 import java.security.spec.ECPoint
 import java.security.spec.ECPublicKeySpec
 import java.security.spec.X509EncodedKeySpec
+import java.util.concurrent.ConcurrentHashMap
 
 fun PublicKey.toEcPublicKey(curve: EcCurve): EcPublicKey =
     when (curve) {
@@ -68,6 +69,16 @@ val EcCurve.javaKeyAlgorithm: String
         else -> "EC"
     }
 
+// Looking up curve parameters is relatively expensive, so only do it once per curve.
+private val parameterSpecs = ConcurrentHashMap<EcCurve, ECParameterSpec>()
+
+private val EcCurve.javaParameterSpec: ECParameterSpec
+    get() = parameterSpecs.getOrPut(this) {
+        val params = AlgorithmParameters.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME)
+        params.init(ECGenParameterSpec(SECGName))
+        params.getParameterSpec(ECParameterSpec::class.java)
+    }
+
 val EcPublicKey.javaPublicKey: PublicKey
     get() = when (this) {
         is EcPublicKeyDoubleCoordinate -> {
@@ -77,14 +88,8 @@ val EcPublicKey.javaPublicKey: PublicKey
             val bx = BigInteger(1, x)
             val by = BigInteger(1, y)
             try {
-                val params = AlgorithmParameters.getInstance(
-                    "EC",
-                    BouncyCastleProvider.PROVIDER_NAME
-                )
-                params.init(ECGenParameterSpec(curve.SECGName))
-                val ecParameters = params.getParameterSpec(ECParameterSpec::class.java)
                 val ecPoint = ECPoint(bx, by)
-                val keySpec = ECPublicKeySpec(ecPoint, ecParameters)
+                val keySpec = ECPublicKeySpec(ecPoint, curve.javaParameterSpec)
                 val kf = if (curve.requireBouncyCastle) {
                     KeyFactory.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME)
                 } else {
@@ -0,0 +1,187 @@
+package com.android.identity.metrics
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.DoubleAdder
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * A [MetricsRecorder] which aggregates metrics in memory.
+ *
+ * Counters and histograms are kept per name and set of tags. Use [snapshot] to inspect them,
+ * for example in tests, or [toPrometheusText] to expose them in the Prometheus text format,
+ * which is understood by most metrics backends and agents, e.g. from a `/metrics` endpoint.
+ *
+ * Recording a metric doesn't take any locks once the metric exists.
+ *
+ * @param buckets the upper bounds of the histogram buckets, in increasing order. The default
+ *   buckets are suitable for durations in milliseconds.
+ */
+class InMemoryMetricsRecorder(
+    private val buckets: List<Double> = DEFAULT_BUCKETS
+) : MetricsRecorder {
+
+    init {
+        require(buckets.zipWithNext().all { (a, b) -> a < b }) {
+            "Buckets must be in increasing order"
+        }
+    }
+
+    private data class Key(val name: String, val tags: Map<String, String>)
+
+    private class Histogram(numBuckets: Int) {
+        // The last bucket is for values larger than all bucket bounds.
+        val bucketCounts = Array(numBuckets + 1) { LongAdder() }
+        val sum = DoubleAdder()
+    }
+
+    private val counters = ConcurrentHashMap<Key, LongAdder>()
+    private val histograms = ConcurrentHashMap<Key, Histogram>()
+
+    override fun incrementCounter(name: String, tags: Map<String, String>, amount: Long) {
+        counters.computeIfAbsent(Key(name, tags)) { LongAdder() }.add(amount)
+    }
+
+    override fun recordValue(name: String, tags: Map<String, String>, value: Double) {
+        val histogram = histograms.computeIfAbsent(Key(name, tags)) { Histogram(buckets.size) }
+        var bucket = buckets.binarySearch(value)
+        if (bucket < 0) {
+            bucket = -bucket - 1
+        }
+        histogram.bucketCounts[bucket].increment()
+        histogram.sum.add(value)
+    }
+
+    /**
+     * A point-in-time copy of a histogram.
+     *
+     * @property count the number of recorded values.
+     * @property sum the sum of the recorded values.
+     * @property bucketCounts the number of values in each bucket, not cumulative. The last
+     *   element is the number of values larger than the largest bucket bound.
+     */
+    data class HistogramSnapshot(
+        val count: Long,
+        val sum: Double,
+        val bucketCounts: List<Long>
+    )
+
+    /**
+     * A point-in-time copy of all metrics.
+     *
+     * @property counters the value of each counter, keyed by name and tags.
+     * @property histograms the histograms, keyed by name and tags.
+     */
+    data class Snapshot(
+        val counters: Map<Pair<String, Map<String, String>>, Long>,
+        val histograms: Map<Pair<String, Map<String, String>>, HistogramSnapshot>
+    ) {
+        /**
+         * Gets the value of a counter.
+         *
+         * @param name the name of the counter.
+         * @param tags the tags of the counter.
+         * @return the value of the counter, 0 if it was never incremented.
+         */
+        fun counter(name: String, vararg tags: Pair<String, String>): Long =
+            counters[Pair(name, tags.toMap())] ?: 0
+
+        /**
+         * Gets a histogram.
+         *
+         * @param name the name of the histogram.
+         * @param tags the tags of the histogram.
+         * @return the histogram or `null` if no value was recorded.
+         */
+        fun histogram(name: String, vararg tags: Pair<String, String>): HistogramSnapshot? =
+            histograms[Pair(name, tags.toMap())]
+    }
+
+    /**
+     * Takes a snapshot of all metrics.
+     *
+     * Metrics recorded while taking the snapshot may or may not be included.
+     */
+    fun snapshot(): Snapshot = Snapshot(
+        counters = counters.entries.associate { (key, value) ->
+            Pair(key.name, key.tags) to value.sum()
+        },
+        histograms = histograms.entries.associate { (key, histogram) ->
+            val bucketCounts = histogram.bucketCounts.map { it.sum() }
+            Pair(key.name, key.tags) to HistogramSnapshot(
+                count = bucketCounts.sum(),
+                sum = histogram.sum.sum(),
+                bucketCounts = bucketCounts
+            )
+        }
+    )
+
+    /**
+     * Removes all metrics.
+     */
+    fun clear() {
+        counters.clear()
+        histograms.clear()
+    }
+
+    /**
+     * Formats all metrics in the Prometheus text exposition format.
+     *
+     * Metric names are converted to valid Prometheus names by replacing all unsupported
+     * characters with `_`, counters get a `_total` suffix.
+     */
+    fun toPrometheusText(): String {
+        val snapshot = snapshot()
+        val sb = StringBuilder()
+        for ((name, entries) in snapshot.counters.entries.groupBy { it.key.first }.toSortedMap()) {
+            val metricName = prometheusName(name) + "_total"
+            sb.append("# TYPE $metricName counter\n")
+            for ((key, value) in entries.sortedBy { prometheusLabels(it.key.second) }) {
+                sb.append("$metricName${prometheusLabels(key.second)} $value\n")
+            }
+        }
+        for ((name, entries) in snapshot.histograms.entries.groupBy { it.key.first }.toSortedMap()) {
+            val metricName = prometheusName(name)
+            sb.append("# TYPE $metricName histogram\n")
+            for ((key, histogram) in entries.sortedBy { prometheusLabels(it.key.second) }) {
+                var cumulative = 0L
+                for (n in buckets.indices) {
+                    cumulative += histogram.bucketCounts[n]
+                    val labels = prometheusLabels(key.second + ("le" to buckets[n].toString()))
+                    sb.append("${metricName}_bucket$labels $cumulative\n")
+                }
+                val labels = prometheusLabels(key.second + ("le" to "+Inf"))
+                sb.append("${metricName}_bucket$labels ${histogram.count}\n")
+                sb.append("${metricName}_sum${prometheusLabels(key.second)} ${histogram.sum}\n")
+                sb.append("${metricName}_count${prometheusLabels(key.second)} ${histogram.count}\n")
+            }
+        }
+        return sb.toString()
+    }
+
+    companion object {
+        /**
+         * The default histogram buckets, for durations in milliseconds.
+         */
+        val DEFAULT_BUCKETS = listOf(
+            0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 25.0, 50.0, 100.0, 250.0, 500.0,
+            1000.0, 2500.0, 5000.0, 10000.0
+        )
+
+        private val invalidNameChars = Regex("[^a-zA-Z0-9_:]")
+
+        private fun prometheusName(name: String): String = name.replace(invalidNameChars, "_")
+
+        private fun prometheusLabels(tags: Map<String, String>): String {
+            if (tags.isEmpty()) {
+                return ""
+            }
+            return tags.entries.sortedBy { it.key }.joinToString(",", "{", "}") { (key, value) ->
+                val escapedValue = value
+                    .replace("\\", "\\\\")
+                    .replace("\"", "\\\"")
+                    .replace("\n", "\\n")
+                "${prometheusName(key)}=\"$escapedValue\""
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.android.identity.storage.file
+
+import com.android.identity.storage.StorageTableSpec
+import com.android.identity.storage.base.BaseStorage
+import com.android.identity.storage.base.BaseStorageTable
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import kotlinx.datetime.Clock
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * [com.android.identity.storage.Storage] implementation which keeps its data in files in a
+ * local directory, without an external database.
+ *
+ * Each table is stored in its own append-only log file, with an in-memory index of all keys.
+ * Writes append a single checksummed record to the log, reads use the index and a memory
+ * mapping of the file. A record which was only partially written when the process died is
+ * discarded the next time the storage is opened. Logs are compacted automatically once
+ * most of their content is overwritten, deleted, or expired data.
+ *
+ * Only a single [FileStorage] object (in a single process) may use a given directory at
+ * any time. This is enforced with a lock on a file in the directory, taken when the first
+ * table is opened and held until [close] is called.
+ *
+ * @param directory the directory to store the data in, created if it does not exist.
+ * @param clock the clock used to determine whether records are expired.
+ * @param syncWrites if `true`, every write is flushed to the storage device before it
+ *   completes. Can be set to `false` if losing the most recent writes on power loss is
+ *   acceptable, writes are still atomic in that case.
+ * @param compactionThreshold the size in bytes below which a log is never compacted.
+ */
+class FileStorage(
+    private val directory: Path,
+    clock: Clock = Clock.System,
+    private val syncWrites: Boolean = true,
+    private val compactionThreshold: Long = DEFAULT_COMPACTION_THRESHOLD
+): BaseStorage(clock) {
+    // Logs are kept when a table is re-created for a schema upgrade. Only accessed from
+    // createTable which BaseStorage always calls with its lock held, and from close.
+    private val logs = mutableMapOf<String, FileStorageLog>()
+    private var directoryLock: FileLock? = null
+
+    override suspend fun createTable(tableSpec: StorageTableSpec): BaseStorageTable {
+        // NB: table names are unique in case-insensitive manner, lowercase names work on
+        // case-insensitive file systems as well.
+        val name = tableSpec.name.lowercase()
+        val log = logs.getOrPut(name) {
+            withContext(Dispatchers.IO) {
+                lockDirectory()
+                FileStorageLog(directory.resolve("$name.log"), syncWrites, compactionThreshold)
+            }
+        }
+        return FileStorageTable(this, tableSpec, log)
+    }
+
+    /**
+     * Closes all files and releases the lock on the directory.
+     *
+     * Neither this object nor any table obtained from it may be used afterwards.
+     */
+    suspend fun close() {
+        for (log in logs.values) {
+            log.close()
+        }
+        logs.clear()
+        withContext(Dispatchers.IO) {
+            directoryLock?.let {
+                it.release()
+                it.channel().close()
+            }
+            directoryLock = null
+        }
+    }
+
+    private fun lockDirectory() {
+        if (directoryLock != null) {
+            return
+        }
+        Files.createDirectories(directory)
+        val channel = FileChannel.open(
+            directory.resolve(LOCK_FILE_NAME),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE
+        )
+        val lock = try {
+            channel.tryLock()
+        } catch (err: OverlappingFileLockException) {
+            // Held by another FileStorage in this process.
+            null
+        }
+        if (lock == null) {
+            channel.close()
+            throw IllegalStateException("Directory $directory is used by another FileStorage")
+        }
+        directoryLock = lock
+    }
+
+    companion object {
+        const val DEFAULT_COMPACTION_THRESHOLD = 1024L * 1024
+
+        // Can't clash with the log of a table, those end in ".log".
+        private const val LOCK_FILE_NAME = "FileStorage.lock"
+    }
+}
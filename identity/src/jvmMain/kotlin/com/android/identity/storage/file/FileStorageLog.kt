@@ -0,0 +1,453 @@
+package com.android.identity.storage.file
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import kotlinx.datetime.Instant
+import kotlinx.io.bytestring.ByteString
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.zip.CRC32
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * Append-only log file holding the records of a single table, together with an in-memory index.
+ *
+ * Each record in the file is framed as
+ * ```
+ * int32 payloadLength, int32 crc32(payload), payload
+ * ```
+ * where payload starts with the operation ([OP_PUT], [OP_DELETE] or [OP_DELETE_ALL]). When the
+ * file is opened the log is replayed to rebuild the index. If the last record is incomplete or
+ * fails its checksum (e.g. because the process died in the middle of a write) the file is
+ * truncated before it, so a crash can only ever lose the last, unacknowledged write. A damaged
+ * record anywhere else can't be the result of a crash and opening the log fails with an
+ * [IOException], rather than dropping all the records after it.
+ *
+ * The index maps each partition and key to the location of its value in the file, values are
+ * read through a memory mapping of the file (or a positional read for the part of the file
+ * written since it was last mapped). Once more than half of the file is taken by overwritten,
+ * deleted, or expired records, the live records are copied to a new file which atomically
+ * replaces the old one.
+ *
+ * Mutations must be done inside [withWriteLock]. A [FileStorageLog] is shared by all
+ * [FileStorageTable] instances for the same table name, so that it survives schema upgrades.
+ */
+internal class FileStorageLog(
+    private val path: Path,
+    private val syncWrites: Boolean,
+    private val compactionThreshold: Long
+) {
+    class IndexKey(val partitionId: String?, val key: String): Comparable<IndexKey> {
+        override fun compareTo(other: IndexKey): Int {
+            val c = if (partitionId == null) {
+                if (other.partitionId == null) 0 else -1
+            } else if (other.partitionId == null) {
+                1
+            } else {
+                partitionId.compareTo(other.partitionId)
+            }
+            return if (c != 0) c else key.compareTo(other.key)
+        }
+    }
+
+    class Entry(
+        val valueOffset: Long,
+        val valueSize: Int,
+        val expiration: Instant,
+        val recordSize: Long
+    ) {
+        fun expired(now: Instant): Boolean = expiration < now
+    }
+
+    // Serializes all writers.
+    private val writeLock = Mutex()
+
+    // Held for reading while the index or the file is read, held for writing while compaction
+    // swaps in the new file and index.
+    private val fileLock = ReentrantReadWriteLock()
+
+    private val index = ConcurrentSkipListMap<IndexKey, Entry>()
+    private var channel: FileChannel
+    @Volatile
+    private var mapped: MappedByteBuffer? = null
+    private var size = 0L
+    private var liveBytes = 0L
+
+    init {
+        channel = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )
+        replay()
+        remap()
+    }
+
+    /** Closes the file, the log can't be used afterwards. */
+    suspend fun close() {
+        withWriteLock {
+            fileLock.write {
+                mapped = null
+                channel.close()
+            }
+        }
+    }
+
+    /** Runs [block] on the IO dispatcher with exclusive access to the log. */
+    suspend fun <T> withWriteLock(block: () -> T): T {
+        return writeLock.withLock {
+            withContext(Dispatchers.IO) {
+                block()
+            }
+        }
+    }
+
+    /** Looks up the index entry for the given partition and key. Requires [withWriteLock]. */
+    fun lookup(partitionId: String?, key: String): Entry? {
+        check(writeLock.isLocked)
+        return index[IndexKey(partitionId, key)]
+    }
+
+    fun get(partitionId: String?, key: String, now: Instant): ByteString? {
+        return fileLock.read {
+            val entry = index[IndexKey(partitionId, key)]
+            if (entry == null || entry.expired(now)) null else ByteString(readValue(entry))
+        }
+    }
+
+    fun enumerate(partitionId: String?, afterKey: String?, limit: Int, now: Instant): List<String> {
+        return fileLock.read {
+            val tail = index.tailMap(IndexKey(partitionId, afterKey ?: ""), afterKey == null)
+            val keyList = mutableListOf<String>()
+            for ((indexKey, entry) in tail) {
+                if (keyList.size >= limit || indexKey.partitionId != partitionId) {
+                    break
+                }
+                if (!entry.expired(now)) {
+                    keyList.add(indexKey.key)
+                }
+            }
+            keyList
+        }
+    }
+
+    fun put(
+        partitionId: String?,
+        key: String,
+        data: ByteString,
+        expiration: Instant,
+        now: Instant
+    ) {
+        check(writeLock.isLocked)
+        val indexKey = IndexKey(partitionId, key)
+        val payload = encodePut(indexKey, expiration, data.toByteArray())
+        val offset = append(payload)
+        setEntry(indexKey, newEntry(offset, payload.size, data.size, expiration))
+        compactIfNeeded(now)
+    }
+
+    fun remove(partitionId: String?, key: String, now: Instant) {
+        check(writeLock.isLocked)
+        val indexKey = IndexKey(partitionId, key)
+        append(encodeRecord(OP_DELETE) { writeKey(indexKey) })
+        removeEntry(indexKey)
+        compactIfNeeded(now)
+    }
+
+    fun clear(now: Instant) {
+        check(writeLock.isLocked)
+        append(encodeRecord(OP_DELETE_ALL) {})
+        index.clear()
+        liveBytes = 0
+        compactIfNeeded(now)
+    }
+
+    fun purgeExpired(now: Instant) {
+        check(writeLock.isLocked)
+        // No records need to be written, expired records are skipped when the log is compacted
+        // and are ignored if they are still there when the log is replayed.
+        val iterator = index.values.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry.expired(now)) {
+                iterator.remove()
+                liveBytes -= entry.recordSize
+            }
+        }
+        compactIfNeeded(now)
+    }
+
+    private fun setEntry(indexKey: IndexKey, entry: Entry) {
+        val previous = index.put(indexKey, entry)
+        if (previous != null) {
+            liveBytes -= previous.recordSize
+        }
+        liveBytes += entry.recordSize
+    }
+
+    private fun removeEntry(indexKey: IndexKey) {
+        val previous = index.remove(indexKey)
+        if (previous != null) {
+            liveBytes -= previous.recordSize
+        }
+    }
+
+    private fun newEntry(
+        offset: Long,
+        payloadSize: Int,
+        valueSize: Int,
+        expiration: Instant
+    ): Entry {
+        // The value is always at the very end of the record.
+        val recordSize = HEADER_SIZE + payloadSize.toLong()
+        return Entry(offset + recordSize - valueSize, valueSize, expiration, recordSize)
+    }
+
+    private fun readValue(entry: Entry): ByteArray {
+        val bytes = ByteArray(entry.valueSize)
+        val map = mapped
+        if (map != null && entry.valueOffset + entry.valueSize <= map.capacity()) {
+            map.duplicate().position(entry.valueOffset.toInt()).get(bytes)
+        } else {
+            val buffer = ByteBuffer.wrap(bytes)
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.valueOffset + buffer.position()) < 0) {
+                    throw IOException("Unexpected end of file reading ${path.fileName}")
+                }
+            }
+        }
+        return bytes
+    }
+
+    private fun append(payload: ByteArray): Long {
+        val offset = size
+        size = writeRecord(channel, offset, payload)
+        if (syncWrites) {
+            channel.force(false)
+        }
+        val mappedSize = mapped?.capacity()?.toLong() ?: 0L
+        if (size - mappedSize > maxOf(MIN_REMAP_SIZE, mappedSize / 4)) {
+            remap()
+        }
+        return offset
+    }
+
+    // Maps the file up to its current size. Readers still holding the previous mapping can
+    // keep using it, it stays valid until it's garbage-collected.
+    private fun remap() {
+        val mapSize = minOf(size, Int.MAX_VALUE.toLong())
+        mapped = if (mapSize == 0L) null else channel.map(FileChannel.MapMode.READ_ONLY, 0, mapSize)
+    }
+
+    private fun replay() {
+        val fileSize = channel.size()
+        // NB: not closed, as that would close the channel too.
+        val input = DataInputStream(
+            BufferedInputStream(Channels.newInputStream(channel.position(0)))
+        )
+        var offset = 0L
+        try {
+            while (offset + HEADER_SIZE <= fileSize) {
+                val length = input.readInt()
+                val crc = input.readInt()
+                val end = offset + HEADER_SIZE + length
+                if (length <= 0) {
+                    // Allowed for a header which didn't make it to the disk, in which case
+                    // the rest of the file is all zeros.
+                    if (!isAllZeros(input, fileSize - offset - HEADER_SIZE)) {
+                        throw IOException("Invalid record at offset $offset in ${path.fileName}")
+                    }
+                    break
+                }
+                if (end > fileSize) {
+                    break
+                }
+                val payload = ByteArray(length)
+                input.readFully(payload)
+                if (crc32(payload) != crc) {
+                    if (end < fileSize) {
+                        throw IOException("Corrupt record at offset $offset in ${path.fileName}")
+                    }
+                    break
+                }
+                applyRecord(offset, payload)
+                offset += HEADER_SIZE + length
+            }
+        } catch (err: EOFException) {
+            // Torn write at the end of the file, handled below.
+        }
+        if (offset < fileSize) {
+            // The rest of the file is an incomplete or corrupted record from a crash.
+            channel.truncate(offset)
+            channel.force(true)
+        }
+        size = offset
+    }
+
+    private fun isAllZeros(input: DataInputStream, count: Long): Boolean {
+        var remaining = count
+        while (remaining > 0) {
+            val b = input.read()
+            if (b < 0) {
+                return true
+            }
+            if (b != 0) {
+                return false
+            }
+            remaining--
+        }
+        return true
+    }
+
+    private fun applyRecord(offset: Long, payload: ByteArray) {
+        val input = DataInputStream(ByteArrayInputStream(payload))
+        when (val op = input.readByte().toInt()) {
+            OP_PUT -> {
+                val indexKey = input.readKey()
+                val expiration = Instant.fromEpochSeconds(input.readLong(), input.readInt())
+                val valueSize = input.readInt()
+                setEntry(indexKey, newEntry(offset, payload.size, valueSize, expiration))
+            }
+            OP_DELETE -> removeEntry(input.readKey())
+            OP_DELETE_ALL -> {
+                index.clear()
+                liveBytes = 0
+            }
+            else -> throw IllegalStateException("Unknown record type $op in ${path.fileName}")
+        }
+    }
+
+    private fun compactIfNeeded(now: Instant) {
+        if (size >= compactionThreshold && (size - liveBytes) * 2 > size) {
+            compact(now)
+        }
+    }
+
+    private fun compact(now: Instant) {
+        val compactPath = path.resolveSibling("${path.fileName}.compact")
+        val newEntries = mutableListOf<Pair<IndexKey, Entry>>()
+        var newSize = 0L
+        FileChannel.open(
+            compactPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        ).use { out ->
+            for ((indexKey, entry) in index) {
+                if (entry.expired(now)) {
+                    continue
+                }
+                val payload = encodePut(indexKey, entry.expiration, readValue(entry))
+                val newEntry = newEntry(newSize, payload.size, entry.valueSize, entry.expiration)
+                newEntries.add(Pair(indexKey, newEntry))
+                newSize = writeRecord(out, newSize, payload)
+            }
+            out.force(true)
+        }
+        fileLock.write {
+            channel.close()
+            Files.move(
+                compactPath,
+                path,
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+            )
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            index.clear()
+            liveBytes = 0
+            for ((indexKey, entry) in newEntries) {
+                setEntry(indexKey, entry)
+            }
+            size = newSize
+            remap()
+        }
+    }
+
+    companion object {
+        private const val OP_PUT = 1
+        private const val OP_DELETE = 2
+        private const val OP_DELETE_ALL = 3
+
+        private const val HEADER_SIZE = 8
+        private const val MIN_REMAP_SIZE = 64L * 1024
+
+        private fun crc32(payload: ByteArray): Int {
+            val crc = CRC32()
+            crc.update(payload)
+            return crc.value.toInt()
+        }
+
+        // Writes a framed record at the given offset and returns the offset after it.
+        private fun writeRecord(channel: FileChannel, offset: Long, payload: ByteArray): Long {
+            val buffer = ByteBuffer.allocate(HEADER_SIZE + payload.size)
+            buffer.putInt(payload.size).putInt(crc32(payload)).put(payload).flip()
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position())
+            }
+            return offset + buffer.limit()
+        }
+
+        private fun encodeRecord(op: Int, block: DataOutputStream.() -> Unit): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            val out = DataOutputStream(bytes)
+            out.writeByte(op)
+            out.block()
+            out.flush()
+            return bytes.toByteArray()
+        }
+
+        private fun encodePut(indexKey: IndexKey, expiration: Instant, value: ByteArray) =
+            encodeRecord(OP_PUT) {
+                writeKey(indexKey)
+                writeLong(expiration.epochSeconds)
+                writeInt(expiration.nanosecondsOfSecond)
+                writeInt(value.size)
+                write(value)
+            }
+
+        private fun DataOutputStream.writeKey(indexKey: IndexKey) {
+            writeBoolean(indexKey.partitionId != null)
+            if (indexKey.partitionId != null) {
+                writeString(indexKey.partitionId)
+            }
+            writeString(indexKey.key)
+        }
+
+        private fun DataInputStream.readKey(): IndexKey {
+            val partitionId = if (readBoolean()) readString() else null
+            return IndexKey(partitionId, readString())
+        }
+
+        // NB: not writeUTF(), which is limited to 65535 bytes and uses modified UTF-8.
+        private fun DataOutputStream.writeString(value: String) {
+            val bytes = value.encodeToByteArray()
+            writeInt(bytes.size)
+            write(bytes)
+        }
+
+        private fun DataInputStream.readString(): String {
+            val bytes = ByteArray(readInt())
+            readFully(bytes)
+            return bytes.decodeToString()
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.android.identity.storage.file
+
+import com.android.identity.storage.KeyExistsStorageException
+import com.android.identity.storage.NoRecordStorageException
+import com.android.identity.storage.StorageTableSpec
+import com.android.identity.storage.base.BaseStorageTable
+import com.android.identity.util.toBase64Url
+import kotlinx.datetime.Instant
+import kotlinx.io.bytestring.ByteString
+import kotlin.random.Random
+
+internal class FileStorageTable(
+    override val storage: FileStorage,
+    spec: StorageTableSpec,
+    private val log: FileStorageLog
+): BaseStorageTable(spec) {
+
+    override suspend fun get(key: String, partitionId: String?): ByteString? {
+        checkPartition(partitionId)
+        return log.get(partitionId, key, storage.clock.now())
+    }
+
+    override suspend fun insert(
+        key: String?,
+        data: ByteString,
+        partitionId: String?,
+        expiration: Instant
+    ): String {
+        checkPartition(partitionId)
+        checkExpiration(expiration)
+        if (key != null) {
+            checkKey(key)
+        }
+        return log.withWriteLock {
+            val now = storage.clock.now()
+            val keyToUse = if (key == null) {
+                var newKey: String
+                do {
+                    newKey = Random.Default.nextBytes(9).toBase64Url()
+                } while (log.lookup(partitionId, newKey) != null)
+                newKey
+            } else {
+                val existing = log.lookup(partitionId, key)
+                // Expired entries are stale and can be replaced
+                if (existing != null && !existing.expired(now)) {
+                    throw KeyExistsStorageException(
+                        "Record with ${recordDescription(key, partitionId)} already exists"
+                    )
+                }
+                key
+            }
+            log.put(partitionId, keyToUse, data, expiration, now)
+            keyToUse
+        }
+    }
+
+    override suspend fun update(
+        key: String,
+        data: ByteString,
+        partitionId: String?,
+        expiration: Instant?
+    ) {
+        checkPartition(partitionId)
+        if (expiration != null) {
+            checkExpiration(expiration)
+        }
+        log.withWriteLock {
+            val now = storage.clock.now()
+            val existing = log.lookup(partitionId, key)
+            if (existing == null || existing.expired(now)) {
+                throw NoRecordStorageException(
+                    "No record with ${recordDescription(key, partitionId)}")
+            }
+            log.put(partitionId, key, data, expiration ?: existing.expiration, now)
+        }
+    }
+
+    override suspend fun delete(key: String, partitionId: String?): Boolean {
+        checkPartition(partitionId)
+        return log.withWriteLock {
+            val now = storage.clock.now()
+            val existing = log.lookup(partitionId, key)
+            if (existing == null || existing.expired(now)) {
+                false
+            } else {
+                log.remove(partitionId, key, now)
+                true
+            }
+        }
+    }
+
+    override suspend fun deleteAll() {
+        log.withWriteLock {
+            log.clear(storage.clock.now())
+        }
+    }
+
+    override suspend fun enumerate(
+        partitionId: String?,
+        afterKey: String?,
+        limit: Int
+    ): List<String> {
+        checkPartition(partitionId)
+        checkLimit(limit)
+        if (limit == 0) {
+            return listOf()
+        }
+        return log.enumerate(partitionId, afterKey, limit, storage.clock.now())
+    }
+
+    override suspend fun purgeExpired() {
+        if (!spec.supportExpiration) {
+            throw IllegalStateException("This table does not support expiration")
+        }
+        log.withWriteLock {
+            log.purgeExpired(storage.clock.now())
+        }
+    }
+}
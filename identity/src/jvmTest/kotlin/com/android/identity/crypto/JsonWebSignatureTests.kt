@@ -193,4 +193,66 @@ class JsonWebSignatureTests {
 
         JsonWebSignature.verify(jws, signingKey.publicKey)
     }
+
+    @Test
+    fun compactSerialization() {
+        val signingKey = Crypto.createEcPrivateKey(EcCurve.P256)
+        val header = buildJsonObject {
+            put("typ", JsonPrimitive("dpop+jwt"))
+        }
+        val claimsSet = buildJsonObject {
+            put("htu", JsonPrimitive("https://example.com/token"))
+        }
+        val jws = JsonWebSignature.signCompact(
+            key = signingKey,
+            signatureAlgorithm = Algorithm.ES256,
+            header = header,
+            claimsSet = claimsSet
+        )
+
+        // Check that Nimbus accepts it.
+        val sjwt = SignedJWT.parse(jws)
+        assertEquals(JWSAlgorithm.ES256, sjwt.header.algorithm)
+        assertEquals(JOSEObjectType("dpop+jwt"), sjwt.header.type)
+
+        val compactJws = JsonWebSignature.parseCompact(jws)
+        assertEquals(claimsSet, compactJws.claimsSet)
+        assertEquals("ES256", compactJws.header["alg"]!!.jsonPrimitive.content)
+        compactJws.verifySignature(signingKey.publicKey)
+        assertFails {
+            compactJws.verifySignature(Crypto.createEcPrivateKey(EcCurve.P256).publicKey)
+        }
+        assertFails {
+            JsonWebSignature.parseCompact("not.a jws")
+        }
+        assertFails {
+            JsonWebSignature.signCompact(signingKey, Algorithm.ES384, header, claimsSet)
+        }
+    }
+
+    @Test
+    fun expiredJwtFailsVerification() {
+        val signingKey = Crypto.createEcPrivateKey(EcCurve.P256)
+        val now = Clock.System.now()
+        val expired = JsonWebSignature.signCompact(
+            key = signingKey,
+            signatureAlgorithm = Algorithm.ES256,
+            header = buildJsonObject {},
+            claimsSet = buildJsonObject {
+                put("exp", JsonPrimitive((now - 1.days).epochSeconds))
+            }
+        )
+        assertFails {
+            JsonWebSignature.verify(JsonPrimitive(expired), signingKey.publicKey)
+        }
+        val valid = JsonWebSignature.signCompact(
+            key = signingKey,
+            signatureAlgorithm = Algorithm.ES256,
+            header = buildJsonObject {},
+            claimsSet = buildJsonObject {
+                put("exp", JsonPrimitive((now + 1.days).epochSeconds))
+            }
+        )
+        JsonWebSignature.verify(JsonPrimitive(valid), signingKey.publicKey)
+    }
 }
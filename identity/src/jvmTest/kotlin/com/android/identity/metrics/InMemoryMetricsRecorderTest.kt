@@ -0,0 +1,117 @@
+package com.android.identity.metrics
+
+import com.android.identity.storage.StorageTableSpec
+import com.android.identity.storage.ephemeral.EphemeralStorage
+import kotlinx.coroutines.runBlocking
+import kotlinx.io.bytestring.ByteString
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class InMemoryMetricsRecorderTest {
+    private val recorder = InMemoryMetricsRecorder(buckets = listOf(1.0, 10.0))
+
+    @BeforeTest
+    fun setUp() {
+        Metrics.recorder = recorder
+    }
+
+    @AfterTest
+    fun tearDown() {
+        Metrics.recorder = null
+    }
+
+    @Test
+    fun countersAndHistograms() {
+        Metrics.count("requests", "method" to "get")
+        Metrics.count("requests", "method" to "get", amount = 2)
+        Metrics.count("requests", "method" to "put")
+        Metrics.record("size", 0.5)
+        Metrics.record("size", 10.0)
+        Metrics.record("size", 11.0)
+
+        val snapshot = recorder.snapshot()
+        assertEquals(3, snapshot.counter("requests", "method" to "get"))
+        assertEquals(1, snapshot.counter("requests", "method" to "put"))
+        assertEquals(0, snapshot.counter("requests"))
+        assertEquals(
+            InMemoryMetricsRecorder.HistogramSnapshot(3, 21.5, listOf(1, 1, 1)),
+            snapshot.histogram("size")
+        )
+
+        assertEquals(
+            """
+                # TYPE requests_total counter
+                requests_total{method="get"} 3
+                requests_total{method="put"} 1
+                # TYPE size histogram
+                size_bucket{le="1.0"} 1
+                size_bucket{le="10.0"} 2
+                size_bucket{le="+Inf"} 3
+                size_sum 21.5
+                size_count 3
+
+            """.trimIndent(),
+            recorder.toPrometheusText()
+        )
+    }
+
+    @Test
+    fun spans() {
+        assertEquals(42, Metrics.span("op", "kind" to "a") { 42 })
+        assertFailsWith<IllegalStateException> {
+            Metrics.span("op", "kind" to "a") { throw IllegalStateException() }
+        }
+        val snapshot = recorder.snapshot()
+        assertEquals(1, snapshot.histogram("op", "kind" to "a", "outcome" to "ok")!!.count)
+        assertEquals(1, snapshot.histogram("op", "kind" to "a", "outcome" to "error")!!.count)
+    }
+
+    @Test
+    fun disabled() {
+        Metrics.recorder = null
+        assertFalse(Metrics.isEnabled)
+        assertNull(Metrics.recorder)
+        Metrics.count("requests")
+        assertEquals(42, Metrics.span("op") { 42 })
+        assertTrue(recorder.snapshot().counters.isEmpty())
+        assertTrue(recorder.snapshot().histograms.isEmpty())
+    }
+
+    @Test
+    fun storageOperations() = runBlocking {
+        val table = EphemeralStorage().getTable(
+            StorageTableSpec(name = "Test", supportPartitions = false, supportExpiration = false)
+        )
+        val key = table.insert(key = null, data = ByteString(1, 2, 3))
+        table.get(key)
+        table.get(key)
+        val snapshot = recorder.snapshot()
+        val tags = arrayOf("table" to "Test", "outcome" to "ok")
+        assertEquals(
+            1,
+            snapshot.histogram("storage.operation", "operation" to "insert", *tags)!!.count
+        )
+        assertEquals(
+            2,
+            snapshot.histogram("storage.operation", "operation" to "get", *tags)!!.count
+        )
+    }
+
+    @Test
+    fun storageTableWrappedOnce() = runBlocking {
+        val storage = EphemeralStorage()
+        val spec = StorageTableSpec(
+            name = "Test",
+            supportPartitions = false,
+            supportExpiration = false
+        )
+        assertSame(storage.getTable(spec), storage.getTable(spec))
+    }
+}
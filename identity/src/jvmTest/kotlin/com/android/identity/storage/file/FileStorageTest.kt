@@ -0,0 +1,142 @@
+package com.android.identity.storage.file
+
+import com.android.identity.storage.StorageTableSpec
+import kotlinx.coroutines.test.runTest
+import kotlinx.datetime.Instant
+import kotlinx.io.bytestring.ByteString
+import kotlinx.io.bytestring.encodeToByteString
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class FileStorageTest {
+    private val tableSpec = StorageTableSpec("test", true, false)
+
+    @Test
+    fun testReopen() = runTest {
+        val directory = Files.createTempDirectory("FileStorageTest")
+        val storage = FileStorage(directory)
+        val table = storage.getTable(tableSpec)
+        table.insert("a", "1".encodeToByteString(), "p")
+        table.insert("b", "2".encodeToByteString(), "p")
+        table.insert("c", "3".encodeToByteString(), "q")
+        table.update("a", "4".encodeToByteString(), "p")
+        table.delete("b", "p")
+        storage.close()
+
+        val reopened = FileStorage(directory).getTable(tableSpec)
+        assertEquals("4".encodeToByteString(), reopened.get("a", "p"))
+        assertNull(reopened.get("b", "p"))
+        assertEquals(listOf("a"), reopened.enumerate("p"))
+        assertEquals(listOf("c"), reopened.enumerate("q"))
+    }
+
+    @Test
+    fun testTornWrite() = runTest {
+        val directory = Files.createTempDirectory("FileStorageTest")
+        val storage = FileStorage(directory)
+        val table = storage.getTable(tableSpec)
+        table.insert("a", "1".encodeToByteString(), "p")
+        table.insert("b", "2".encodeToByteString(), "p")
+        storage.close()
+
+        // Simulate a crash in the middle of writing the last record.
+        val logFile = directory.resolve("test.log")
+        val size = Files.size(logFile)
+        Files.newByteChannel(logFile, StandardOpenOption.WRITE).use { it.truncate(size - 3) }
+
+        val reopenedStorage = FileStorage(directory)
+        val reopened = reopenedStorage.getTable(tableSpec)
+        assertEquals("1".encodeToByteString(), reopened.get("a", "p"))
+        assertNull(reopened.get("b", "p"))
+        reopened.insert("b", "5".encodeToByteString(), "p")
+        reopenedStorage.close()
+        val reopenedAgain = FileStorage(directory).getTable(tableSpec)
+        assertEquals(listOf("a", "b"), reopenedAgain.enumerate("p"))
+        assertEquals("5".encodeToByteString(), reopenedAgain.get("b", "p"))
+    }
+
+    @Test
+    fun testCorruptRecord() = runTest {
+        val directory = Files.createTempDirectory("FileStorageTest")
+        val storage = FileStorage(directory)
+        val table = storage.getTable(tableSpec)
+        table.insert("a", "1".encodeToByteString(), "p")
+        table.insert("b", "2".encodeToByteString(), "p")
+        storage.close()
+
+        // Damage the payload of the first record, which can't happen in a crash.
+        val logFile = directory.resolve("test.log")
+        Files.newByteChannel(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE).use {
+            val payloadStart = ByteBuffer.allocate(1)
+            it.position(8).read(payloadStart)
+            payloadStart.put(0, (payloadStart.get(0) + 1).toByte()).rewind()
+            it.position(8).write(payloadStart)
+        }
+
+        assertFailsWith<IOException> { FileStorage(directory).getTable(tableSpec) }
+    }
+
+    @Test
+    fun testDirectoryLock() = runTest {
+        val directory = Files.createTempDirectory("FileStorageTest")
+        val storage = FileStorage(directory)
+        storage.getTable(tableSpec).insert("a", "1".encodeToByteString(), "p")
+
+        assertFailsWith<IllegalStateException> { FileStorage(directory).getTable(tableSpec) }
+
+        storage.close()
+        val reopened = FileStorage(directory).getTable(tableSpec)
+        assertEquals("1".encodeToByteString(), reopened.get("a", "p"))
+    }
+
+    @Test
+    fun testLongKey() = runTest {
+        // Keys are limited in tables, but the log format itself has no limit.
+        val path = Files.createTempDirectory("FileStorageTest").resolve("test.log")
+        val log = FileStorageLog(path, false, FileStorage.DEFAULT_COMPACTION_THRESHOLD)
+        val key = "é".repeat(40000)
+        val now = Instant.fromEpochSeconds(0)
+        log.withWriteLock {
+            log.put("p", key, "1".encodeToByteString(), Instant.DISTANT_FUTURE, now)
+        }
+        log.close()
+
+        val reopened = FileStorageLog(path, false, FileStorage.DEFAULT_COMPACTION_THRESHOLD)
+        assertEquals("1".encodeToByteString(), reopened.get("p", key, now))
+        reopened.close()
+    }
+
+    @Test
+    fun testCompaction() = runTest {
+        val directory = Files.createTempDirectory("FileStorageTest")
+        val storage = FileStorage(directory, compactionThreshold = 4096)
+        val table = storage.getTable(tableSpec)
+        val value = ByteString(ByteArray(100) { it.toByte() })
+        for (i in 0 until 1000) {
+            table.insert("key$i", value, "p")
+        }
+        val logFile = directory.resolve("test.log")
+        val fullSize = Files.size(logFile)
+        for (i in 0 until 1000) {
+            if (i % 10 != 0) {
+                table.delete("key$i", "p")
+            }
+        }
+        assertTrue(Files.size(logFile) < fullSize / 2)
+        val keys = table.enumerate("p")
+        assertEquals(100, keys.size)
+        assertEquals(value, table.get("key990", "p"))
+        storage.close()
+
+        val reopened = FileStorage(directory).getTable(tableSpec)
+        assertEquals(keys, reopened.enumerate("p"))
+        assertEquals(value, reopened.get("key990", "p"))
+    }
+}
@@ -2,8 +2,10 @@ package com.android.identity.storage
 
 import com.android.identity.storage.base.BaseStorage
 import com.android.identity.storage.ephemeral.EphemeralStorage
+import com.android.identity.storage.file.FileStorage
 import com.android.identity.storage.jdbc.JdbcStorage
 import kotlinx.datetime.Clock
+import java.nio.file.Files
 
 var count: Int = 0
 
@@ -20,6 +22,11 @@ actual fun createTransientStorageList(testClock: Clock): List<Storage> {
             jdbc = "jdbc:hsqldb:mem:tmp${count++}",
             clock = testClock,
             keySize = 3),
+        FileStorage(
+            directory = Files.createTempDirectory("FileStorage"),
+            clock = testClock,
+            syncWrites = false,
+            compactionThreshold = 256),
         /*
         // This can be enabled if MySQL installation is available for testing.
         // Steps to initialize suitable database:
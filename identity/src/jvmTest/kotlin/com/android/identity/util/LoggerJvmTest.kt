@@ -0,0 +1,82 @@
+package com.android.identity.util
+
+import kotlinx.coroutines.runBlocking
+import kotlinx.io.files.Path
+import java.io.File
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class LoggerJvmTest {
+    private val lines = mutableListOf<String>()
+
+    private val printer = object : Logger.LogPrinter {
+        override fun printLn(level: Int, tag: String, msg: String, throwable: Throwable?) {
+            lines.add("$level $tag $msg")
+        }
+    }
+
+    @AfterTest
+    fun tearDown() {
+        Logger.setLogPrinter(null)
+        Logger.minLevel = Logger.LEVEL_D
+        Logger.setLevel("Quiet", null)
+        Logger.isDebugEnabled = true
+    }
+
+    @Test
+    fun levels() {
+        Logger.setLogPrinter(printer)
+        Logger.minLevel = Logger.LEVEL_I
+        Logger.setLevel("Quiet", Logger.LEVEL_E)
+
+        assertFalse(Logger.isLoggable("Tag", Logger.LEVEL_D))
+        assertTrue(Logger.isLoggable("Tag", Logger.LEVEL_I))
+        assertFalse(Logger.isLoggable("Quiet", Logger.LEVEL_W))
+        assertTrue(Logger.isLoggable("Quiet", Logger.LEVEL_E))
+
+        Logger.d("Tag", "debug")
+        Logger.i("Tag", "info")
+        Logger.w("Quiet", "warning")
+        Logger.e("Quiet", "error")
+        Logger.iHex("Quiet", "hex", byteArrayOf(1, 2))
+        assertEquals(listOf("1 Tag info", "3 Quiet error"), lines)
+
+        Logger.minLevel = Logger.LEVEL_D
+        Logger.isDebugEnabled = false
+        assertFalse(Logger.isLoggable("Tag", Logger.LEVEL_D))
+    }
+
+    @Test
+    fun lazyMessages() {
+        Logger.setLogPrinter(printer)
+        Logger.minLevel = Logger.LEVEL_W
+        var numBuilt = 0
+        Logger.d("Tag") { "debug ${++numBuilt}" }
+        Logger.i("Tag") { "info ${++numBuilt}" }
+        Logger.w("Tag") { "warning ${++numBuilt}" }
+        Logger.e("Tag", IllegalStateException()) { "error ${++numBuilt}" }
+        assertEquals(2, numBuilt)
+        assertEquals(listOf("2 Tag warning 1", "3 Tag error 2"), lines)
+    }
+
+    @Test
+    fun logToFile() = runBlocking {
+        Logger.setLogPrinter(printer)
+        val file = File.createTempFile("LoggerJvmTest", ".log")
+        try {
+            Logger.startLoggingToFile(Path(file.path))
+            for (n in 0 until 1000) {
+                Logger.i("Tag") { "message $n" }
+            }
+            Logger.stopLoggingToFile()!!.join()
+            val messages = file.readLines().filter { it.contains(": INFO: Tag: message ") }
+            assertEquals(1000, messages.size)
+            assertTrue(messages.last().endsWith(": INFO: Tag: message 999"))
+        } finally {
+            file.delete()
+        }
+    }
+}
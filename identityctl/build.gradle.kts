@@ -26,6 +26,7 @@ dependencies {
     implementation(project(":identity-mdoc"))
 
     implementation(libs.kotlinx.datetime)
+    implementation(libs.kotlinx.coroutines.core)
     implementation(libs.bouncy.castle.bcprov)
     implementation(libs.bouncy.castle.bcpkix)
 }
@@ -7,7 +7,9 @@ import com.android.identity.crypto.EcPrivateKey
 import com.android.identity.crypto.X500Name
 import com.android.identity.crypto.X509Cert
 import com.android.identity.crypto.X509KeyUsage
+import com.android.identity.mdoc.transport.LoopbackTransport
 import com.android.identity.mdoc.util.MdocUtil
+import kotlinx.coroutines.runBlocking
 import kotlinx.datetime.Clock
 import kotlinx.datetime.DateTimePeriod
 import kotlinx.datetime.Instant
@@ -18,8 +20,10 @@ import org.bouncycastle.util.BigIntegers
 import java.io.File
 import java.nio.charset.StandardCharsets
 import java.security.Security
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.io.encoding.ExperimentalEncodingApi
 import kotlin.random.Random
+import kotlin.time.Duration.Companion.milliseconds
 
 @OptIn(ExperimentalEncodingApi::class)
 object IdentityCtl {
@@ -264,10 +268,53 @@ Generate an reader root and corresponding private key:
         [--validity_in_years 3]
         [--curve P384]
 
+Run presentment sessions between an in-process mdoc and mdoc reader and report
+throughput and latency:
+
+    identityctl loadTest
+        [--sessions 1000]
+        [--concurrency 64]
+        [--latency_ms 0]
+        [--bandwidth 0]
+        [--mtu 0]
+        [--packet_overhead 0]
+        [--portrait_size 20000]
+
     identityctl version
 """)
     }
 
+    fun loadTest(args: Array<String>) {
+        val numSessions = getArg(args, "sessions", "1000").toInt()
+        val concurrency = getArg(args, "concurrency", "64").toInt()
+        // Zero means no limit for bandwidth and MTU.
+        val bandwidth = getArg(args, "bandwidth", "0").toLong()
+        val mtu = getArg(args, "mtu", "0").toInt()
+        val linkOptions = LoopbackTransport.Options(
+            latency = getArg(args, "latency_ms", "0").toLong().milliseconds,
+            bandwidth = if (bandwidth > 0) bandwidth else null,
+            mtu = if (mtu > 0) mtu else null,
+            packetOverhead = getArg(args, "packet_overhead", "0").toInt()
+        )
+        val portraitSize = getArg(args, "portrait_size", "20000").toInt()
+
+        val firstFailure = AtomicReference<Throwable>()
+        val result = runBlocking {
+            SessionLoadGenerator(numSessions, concurrency, linkOptions, portraitSize)
+                .run { error -> firstFailure.compareAndSet(null, error) }
+        }
+        println("- Sessions:    ${result.sessionDurations.size} succeeded, ${result.numFailures} failed")
+        println("- Elapsed:     ${result.elapsed}")
+        println("- Throughput:  ${"%.1f".format(result.throughput)} sessions/s")
+        for (percentile in listOf(50.0, 90.0, 99.0, 100.0)) {
+            println("- Latency p${percentile.toInt()}: ${result.durationPercentile(percentile)}")
+        }
+        firstFailure.get()?.let {
+            println("- First failure:")
+            it.printStackTrace()
+        }
+    }
+
     fun version(args: Array<String>) {
         println(BuildConfig.VERSION)
     }
@@ -284,6 +331,7 @@ Generate an reader root and corresponding private key:
                 "generateIaca" -> generateIaca(args)
                 "generateDs" -> generateDs(args)
                 "generateReaderRoot" -> generateReaderRoot(args)
+                "loadTest" -> loadTest(args)
                 "help" -> usage(args)
                 "version" -> version(args)
                 else -> {
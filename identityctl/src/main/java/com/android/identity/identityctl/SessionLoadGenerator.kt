@@ -0,0 +1,368 @@
+package com.android.identity.identityctl
+
+import com.android.identity.asn1.ASN1Integer
+import com.android.identity.cbor.Bstr
+import com.android.identity.cbor.Cbor
+import com.android.identity.cbor.CborArray
+import com.android.identity.cbor.DataItem
+import com.android.identity.cbor.Simple
+import com.android.identity.cbor.Tagged
+import com.android.identity.cbor.toDataItem
+import com.android.identity.cose.Cose
+import com.android.identity.cose.CoseLabel
+import com.android.identity.cose.CoseNumberLabel
+import com.android.identity.crypto.Algorithm
+import com.android.identity.crypto.Crypto
+import com.android.identity.crypto.EcCurve
+import com.android.identity.crypto.EcPrivateKey
+import com.android.identity.crypto.EcPublicKey
+import com.android.identity.crypto.X500Name
+import com.android.identity.crypto.X509Cert
+import com.android.identity.crypto.X509CertChain
+import com.android.identity.document.NameSpacedData
+import com.android.identity.mdoc.engagement.EngagementGenerator
+import com.android.identity.mdoc.engagement.EngagementParser
+import com.android.identity.mdoc.mso.MobileSecurityObjectGenerator
+import com.android.identity.mdoc.mso.StaticAuthDataGenerator
+import com.android.identity.mdoc.mso.StaticAuthDataParser
+import com.android.identity.mdoc.request.DeviceRequestGenerator
+import com.android.identity.mdoc.request.DeviceRequestParser
+import com.android.identity.mdoc.response.DeviceResponseGenerator
+import com.android.identity.mdoc.response.DeviceResponseParser
+import com.android.identity.mdoc.response.DocumentGenerator
+import com.android.identity.mdoc.sessionencryption.SessionEncryption
+import com.android.identity.mdoc.transport.LoopbackTransport
+import com.android.identity.mdoc.transport.MdocTransport
+import com.android.identity.mdoc.util.MdocUtil
+import com.android.identity.securearea.KeyPurpose
+import com.android.identity.securearea.SecureArea
+import com.android.identity.securearea.software.SoftwareCreateKeySettings
+import com.android.identity.securearea.software.SoftwareSecureArea
+import com.android.identity.storage.ephemeral.EphemeralStorage
+import com.android.identity.util.Constants
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
+import kotlin.math.ceil
+import kotlin.random.Random
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.days
+import kotlin.time.TimeSource
+
+/**
+ * Runs complete ISO/IEC 18013-5:2021 presentment sessions between an _mdoc_ and an
+ * _mdoc reader_ in the same process and measures how long they take.
+ *
+ * Each session goes through device engagement, session establishment, a device request
+ * for a mDL, generation of the device response with a [SoftwareSecureArea]-backed
+ * `DeviceKey` and finally parsing and verification of the response by the reader. The
+ * two sides are connected by a [LoopbackTransport] so the link characteristics of the
+ * transport being sized for can be emulated.
+ *
+ * @param numSessions the total number of sessions to run.
+ * @param concurrency the maximum number of sessions running at the same time.
+ * @param linkOptions the characteristics of the emulated link.
+ * @param portraitSize the size of the portrait data element, in bytes.
+ */
+class SessionLoadGenerator(
+    private val numSessions: Int,
+    private val concurrency: Int,
+    private val linkOptions: LoopbackTransport.Options,
+    private val portraitSize: Int
+) {
+    init {
+        require(numSessions > 0) { "Number of sessions must be positive" }
+        require(concurrency > 0) { "Concurrency must be positive" }
+    }
+
+    /**
+     * The outcome of a run.
+     *
+     * @property sessionDurations the durations of all successful sessions, in increasing order.
+     * @property numFailures the number of sessions which failed.
+     * @property elapsed the time between the first session starting and the last one ending.
+     */
+    class Result(
+        val sessionDurations: List<Duration>,
+        val numFailures: Int,
+        val elapsed: Duration
+    ) {
+        /** The number of successful sessions per second. */
+        val throughput: Double
+            get() = sessionDurations.size * 1e6 / elapsed.inWholeMicroseconds.coerceAtLeast(1)
+
+        /**
+         * Gets a percentile of the session durations using the nearest-rank method.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the duration or `null` if no session succeeded.
+         */
+        fun durationPercentile(percentile: Double): Duration? {
+            require(percentile in 0.0..100.0) { "Percentile must be between 0 and 100" }
+            if (sessionDurations.isEmpty()) {
+                return null
+            }
+            val rank = ceil(percentile / 100.0 * sessionDurations.size).toInt()
+            return sessionDurations[(rank - 1).coerceIn(0, sessionDurations.size - 1)]
+        }
+    }
+
+    private class Credential(
+        val secureArea: SecureArea,
+        val keyAlias: String,
+        val nameSpacedData: NameSpacedData,
+        val encodedStaticAuthData: ByteArray
+    )
+
+    /**
+     * Provisions a credential and runs all the sessions against it.
+     *
+     * @param onSessionFailed called with the error for each session which failed.
+     * @return the [Result].
+     */
+    suspend fun run(onSessionFailed: (Throwable) -> Unit = {}): Result = coroutineScope {
+        val credential = provisionCredential()
+        val semaphore = Semaphore(concurrency)
+        val start = TimeSource.Monotonic.markNow()
+        val durations = (0 until numSessions).map {
+            async(Dispatchers.Default) {
+                semaphore.withPermit {
+                    val sessionStart = TimeSource.Monotonic.markNow()
+                    try {
+                        runSession(credential)
+                        sessionStart.elapsedNow()
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        onSessionFailed(e)
+                        null
+                    }
+                }
+            }
+        }.awaitAll()
+        val elapsed = start.elapsedNow()
+        val successful = durations.filterNotNull().sorted()
+        Result(successful, durations.size - successful.size, elapsed)
+    }
+
+    private suspend fun provisionCredential(): Credential {
+        val secureArea = SoftwareSecureArea.create(EphemeralStorage())
+        val keyInfo = secureArea.createKey(
+            null,
+            SoftwareCreateKeySettings.Builder()
+                .setKeyPurposes(setOf(KeyPurpose.SIGN))
+                .build()
+        )
+
+        val nameSpacedData = NameSpacedData.Builder()
+            .putEntryString(MDL_NAMESPACE, "family_name", "Mustermann")
+            .putEntryString(MDL_NAMESPACE, "given_name", "Erika")
+            .putEntryString(MDL_NAMESPACE, "document_number", "987654321")
+            .putEntryString(MDL_NAMESPACE, "issuing_country", "ZZ")
+            .putEntryBoolean(MDL_NAMESPACE, "age_over_18", true)
+            .putEntryByteString(MDL_NAMESPACE, "portrait", Random.nextBytes(portraitSize))
+            .build()
+
+        val now = Instant.fromEpochSeconds(Clock.System.now().epochSeconds)
+        val validUntil = now + 365.days
+        val msoGenerator = MobileSecurityObjectGenerator("SHA-256", MDL_DOCTYPE, keyInfo.publicKey)
+        msoGenerator.setValidityInfo(now, now, validUntil, null)
+        val issuerNameSpaces = MdocUtil.generateIssuerNameSpaces(nameSpacedData, Random, 16, null)
+        for (nameSpaceName in issuerNameSpaces.keys) {
+            val digests = MdocUtil.calculateDigestsForNameSpace(
+                nameSpaceName,
+                issuerNameSpaces,
+                Algorithm.SHA256
+            )
+            msoGenerator.addDigestIdsForNamespace(nameSpaceName, digests)
+        }
+
+        val dsKey = Crypto.createEcPrivateKey(EcCurve.P256)
+        val dsCert = X509Cert.Builder(
+            publicKey = dsKey.publicKey,
+            signingKey = dsKey,
+            signatureAlgorithm = Algorithm.ES256,
+            serialNumber = ASN1Integer(1),
+            subject = X500Name.fromName("CN=Load Generator DS Key,C=ZZ"),
+            issuer = X500Name.fromName("CN=Load Generator DS Key,C=ZZ"),
+            validFrom = now,
+            validUntil = validUntil
+        ).build()
+        val protectedHeaders = mapOf<CoseLabel, DataItem>(
+            Pair(
+                CoseNumberLabel(Cose.COSE_LABEL_ALG),
+                Algorithm.ES256.coseAlgorithmIdentifier.toDataItem()
+            )
+        )
+        val unprotectedHeaders = mapOf<CoseLabel, DataItem>(
+            Pair(
+                CoseNumberLabel(Cose.COSE_LABEL_X5CHAIN),
+                X509CertChain(listOf(dsCert)).toDataItem()
+            )
+        )
+        val encodedIssuerAuth = Cbor.encode(
+            Cose.coseSign1Sign(
+                dsKey,
+                Cbor.encode(Tagged(24, Bstr(msoGenerator.generate()))),
+                true,
+                Algorithm.ES256,
+                protectedHeaders,
+                unprotectedHeaders
+            ).toDataItem()
+        )
+        val encodedStaticAuthData = StaticAuthDataGenerator(
+            MdocUtil.stripIssuerNameSpaces(issuerNameSpaces, emptyMap()),
+            encodedIssuerAuth
+        ).generate()
+        return Credential(secureArea, keyInfo.alias, nameSpacedData, encodedStaticAuthData)
+    }
+
+    private suspend fun runSession(credential: Credential) = coroutineScope {
+        val (mdoc, mdocReader) = LoopbackTransport.createPair(linkOptions)
+        try {
+            val eDeviceKey = Crypto.createEcPrivateKey(EcCurve.P256)
+            val encodedDeviceEngagement = EngagementGenerator(eDeviceKey.publicKey, "1.0")
+                .addConnectionMethods(listOf(mdoc.connectionMethod))
+                .generate()
+            val presentment = async {
+                presentCredential(mdoc, eDeviceKey, encodedDeviceEngagement, credential)
+            }
+            readCredential(mdocReader, encodedDeviceEngagement)
+            presentment.await()
+        } finally {
+            mdocReader.close()
+            mdoc.close()
+        }
+    }
+
+    private suspend fun readCredential(
+        transport: MdocTransport,
+        encodedDeviceEngagement: ByteArray
+    ) {
+        val engagement = EngagementParser(encodedDeviceEngagement).parse()
+        val eReaderKey = Crypto.createEcPrivateKey(EcCurve.P256)
+        val encodedSessionTranscript =
+            generateSessionTranscript(encodedDeviceEngagement, eReaderKey.publicKey)
+        val sessionEncryption = SessionEncryption(
+            SessionEncryption.Role.MDOC_READER,
+            eReaderKey,
+            engagement.eSenderKey,
+            encodedSessionTranscript
+        )
+        transport.open(engagement.eSenderKey)
+
+        val itemsToRequest = mapOf(
+            MDL_NAMESPACE to mapOf(
+                "family_name" to false,
+                "given_name" to false,
+                "age_over_18" to false,
+                "portrait" to false
+            )
+        )
+        val encodedDeviceRequest = DeviceRequestGenerator(encodedSessionTranscript)
+            .addDocumentRequest(MDL_DOCTYPE, itemsToRequest, null, null, Algorithm.UNSET, null)
+            .generate()
+        transport.sendMessage(sessionEncryption.encryptMessage(encodedDeviceRequest, null))
+
+        val (encodedDeviceResponse, _) = sessionEncryption.decryptMessage(transport.waitForMessage())
+        val deviceResponse = DeviceResponseParser(
+            checkNotNull(encodedDeviceResponse) { "No DeviceResponse in message" },
+            encodedSessionTranscript
+        ).setEphemeralReaderKey(eReaderKey).parse()
+        check(deviceResponse.documents.size == 1) {
+            "Expected one document, got ${deviceResponse.documents.size}"
+        }
+        val document = deviceResponse.documents[0]
+        check(document.issuerSignedAuthenticated) { "IssuerSigned not authenticated" }
+        check(document.deviceSignedAuthenticated) { "DeviceSigned not authenticated" }
+        check(document.numIssuerEntryDigestMatchFailures == 0) { "Digest mismatch" }
+
+        transport.sendMessage(
+            sessionEncryption.encryptMessage(null, Constants.SESSION_DATA_STATUS_SESSION_TERMINATION)
+        )
+    }
+
+    private suspend fun presentCredential(
+        transport: MdocTransport,
+        eDeviceKey: EcPrivateKey,
+        encodedDeviceEngagement: ByteArray,
+        credential: Credential
+    ) {
+        transport.advertise()
+        transport.open(eDeviceKey.publicKey)
+
+        val sessionEstablishment = transport.waitForMessage()
+        val eReaderKey = SessionEncryption.getEReaderKey(sessionEstablishment)
+        val encodedSessionTranscript =
+            generateSessionTranscript(encodedDeviceEngagement, eReaderKey)
+        val sessionEncryption = SessionEncryption(
+            SessionEncryption.Role.MDOC,
+            eDeviceKey,
+            eReaderKey,
+            encodedSessionTranscript
+        )
+        val (encodedDeviceRequest, _) = sessionEncryption.decryptMessage(sessionEstablishment)
+        val deviceRequest = DeviceRequestParser(
+            checkNotNull(encodedDeviceRequest) { "No DeviceRequest in message" },
+            encodedSessionTranscript
+        ).parse()
+
+        val deviceResponseGenerator = DeviceResponseGenerator(Constants.DEVICE_RESPONSE_STATUS_OK)
+        val staticAuthData = StaticAuthDataParser(credential.encodedStaticAuthData).parse()
+        for (docRequest in deviceRequest.docRequests) {
+            if (docRequest.docType != MDL_DOCTYPE) {
+                continue
+            }
+            val dataElements = docRequest.namespaces.associateWith { docRequest.getEntryNames(it) }
+            deviceResponseGenerator.addDocument(
+                DocumentGenerator(MDL_DOCTYPE, staticAuthData.issuerAuth, encodedSessionTranscript)
+                    .setIssuerNamespaces(
+                        MdocUtil.mergeIssuerNamesSpaces(
+                            dataElements,
+                            credential.nameSpacedData,
+                            staticAuthData
+                        )
+                    )
+                    .setDeviceNamespacesSignature(
+                        NameSpacedData.Builder().build(),
+                        credential.secureArea,
+                        credential.keyAlias,
+                        null
+                    )
+                    .generate()
+            )
+        }
+        transport.sendMessage(
+            sessionEncryption.encryptMessage(deviceResponseGenerator.generate(), null)
+        )
+
+        val (_, status) = sessionEncryption.decryptMessage(transport.waitForMessage())
+        check(status == Constants.SESSION_DATA_STATUS_SESSION_TERMINATION) {
+            "Expected session termination, got status $status"
+        }
+    }
+
+    companion object {
+        private const val MDL_DOCTYPE = "org.iso.18013.5.1.mDL"
+        private const val MDL_NAMESPACE = "org.iso.18013.5.1"
+
+        // SessionTranscript for QR engagement, see ISO/IEC 18013-5:2021 clause 9.1.5.1.
+        private fun generateSessionTranscript(
+            encodedDeviceEngagement: ByteArray,
+            eReaderKey: EcPublicKey
+        ): ByteArray = Cbor.encode(
+            CborArray.builder()
+                .addTaggedEncodedCbor(encodedDeviceEngagement)
+                .addTaggedEncodedCbor(Cbor.encode(eReaderKey.toCoseKey().toDataItem()))
+                .add(Simple.NULL)
+                .end()
+                .build()
+        )
+    }
+}
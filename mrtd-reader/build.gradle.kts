@@ -18,4 +18,5 @@ dependencies {
     implementation(libs.kotlinx.io.bytestring)
 
     testImplementation(libs.junit)
+    testImplementation(libs.bouncy.castle.bcprov)
 }
@@ -0,0 +1,44 @@
+package com.android.identity.mrtd
+
+import kotlinx.io.bytestring.ByteString
+import org.jmrtd.lds.AbstractImageInfo
+import java.io.InputStream
+
+/**
+ * An image from a passport or ID card, e.g. the facial image from DG2 or the signature from DG7.
+ *
+ * The image data is not copied out of the data group until it's asked for, using [openStream]
+ * or [readBytes].
+ */
+class MrtdImage internal constructor(private val imageInfo: AbstractImageInfo) {
+    /** The media type of the image, e.g. `image/jpeg` or `image/jp2`. */
+    val mediaType: String
+        get() = imageInfo.mimeType
+
+    /** The length of the image data in bytes. */
+    val length: Int
+        get() = imageInfo.imageLength
+
+    /** Opens a stream that reads the image data. */
+    fun openStream(): InputStream = imageInfo.imageInputStream
+
+    /**
+     * Reads the image data.
+     *
+     * @return the image data or `null` if the data group holds less data than [length].
+     */
+    fun readBytes(): ByteString? {
+        val bytes = ByteArray(length)
+        openStream().use { stream ->
+            var offset = 0
+            while (offset < bytes.size) {
+                val len = stream.read(bytes, offset, bytes.size - offset)
+                if (len <= 0) {
+                    return null
+                }
+                offset += len
+            }
+        }
+        return ByteString(bytes)
+    }
+}
@@ -0,0 +1,125 @@
+package com.android.identity.mrtd
+
+import kotlinx.io.bytestring.ByteString
+import org.jmrtd.lds.SODFile
+import org.jmrtd.lds.icao.DG1File
+import org.jmrtd.lds.icao.DG2File
+import org.jmrtd.lds.icao.DG7File
+import java.io.ByteArrayInputStream
+import java.security.MessageDigest
+
+private const val TAG = "MrtdLazyDecodedData"
+
+/**
+ * Data read from the passport or ID card, where each data group is decoded when first used.
+ *
+ * This is produced from [MrtdNfcData] using [MrtdNfcDataDecoder.decodeLazily], which only
+ * validates the SOD. A data group is checked against its hash in the SOD and parsed the
+ * first time one of its properties is read, so for example the large facial image in DG2
+ * isn't touched when only the MRZ data from DG1 is needed. Properties throw if their data
+ * group doesn't match the SOD.
+ *
+ * Properties may be read from any thread.
+ */
+class MrtdLazyDecodedData internal constructor(
+    private val sod: SODFile,
+    private val dataGroups: Map<Int, ByteString>
+) {
+    /** The data from DG1, with [MrtdDecodedData.photo] and [MrtdDecodedData.signature] unset. */
+    val mrzData: MrtdDecodedData by lazy {
+        val dg1 = DG1File(ByteArrayInputStream(validatedDataGroup(1)))
+        val info = dg1.mrzInfo
+        MrtdDecodedData(
+            firstName = info.secondaryIdentifier,
+            lastName = info.primaryIdentifier,
+            firstNameComponents = info.secondaryIdentifierComponents.toList(),
+            issuingState = info.issuingState,
+            nationality = info.nationality,
+            gender = info.gender.toString(),
+            dateOfBirth = info.dateOfBirth,
+            dateOfExpiry = info.dateOfExpiry,
+            documentCode = info.documentCode,
+            documentNumber = info.documentNumber,
+            personalNumber = info.personalNumber,
+            optionalData1 = info.optionalData1,
+            optionalData2 = info.optionalData2,
+            photoMediaType = null,
+            photo = null,
+            signatureMediaType = null,
+            signature = null
+        )
+    }
+
+    /** All facial images in DG2, empty if DG2 wasn't read. */
+    val photos: List<MrtdImage> by lazy {
+        if (!dataGroups.containsKey(2)) {
+            return@lazy emptyList()
+        }
+        val dg2 = DG2File(ByteArrayInputStream(validatedDataGroup(2)))
+        dg2.faceInfos.flatMap { it.faceImageInfos }.map { MrtdImage(it) }
+    }
+
+    /**
+     * The first facial image in DG2 which has all of its data, or `null` if DG2 wasn't read
+     * or has no such image.
+     */
+    val photo: MrtdImage? get() = completePhoto?.first
+
+    // The first complete photo with its data, read only once for [photo] and [toDecodedData].
+    private val completePhoto: Pair<MrtdImage, ByteString>? by lazy { firstComplete(photos) }
+
+    /** All displayed signatures or usual marks in DG7, empty if DG7 wasn't read. */
+    val signatures: List<MrtdImage> by lazy {
+        if (!dataGroups.containsKey(7)) {
+            return@lazy emptyList()
+        }
+        val dg7 = DG7File(ByteArrayInputStream(validatedDataGroup(7)))
+        dg7.images.map { MrtdImage(it) }
+    }
+
+    /** The first image in DG7 which has all of its data, or `null` if there is none. */
+    val signature: MrtdImage? get() = completeSignature?.first
+
+    private val completeSignature: Pair<MrtdImage, ByteString>? by lazy {
+        firstComplete(signatures)
+    }
+
+    /** Decodes all data groups into a [MrtdDecodedData]. */
+    fun toDecodedData(): MrtdDecodedData {
+        val photo = completePhoto
+        val signature = completeSignature
+        return mrzData.copy(
+            photoMediaType = photo?.first?.mediaType,
+            photo = photo?.second,
+            signatureMediaType = signature?.first?.mediaType,
+            signature = signature?.second
+        )
+    }
+
+    // Images whose data is cut short are skipped, as MrtdNfcDataDecoder always did.
+    private fun firstComplete(images: List<MrtdImage>): Pair<MrtdImage, ByteString>? {
+        for (image in images) {
+            val bytes = image.readBytes()
+            if (bytes != null) {
+                return Pair(image, bytes)
+            }
+            mrtdLogW(TAG, "Skipping incomplete ${image.mediaType} image")
+        }
+        return null
+    }
+
+    private fun validatedDataGroup(dataGroup: Int): ByteArray {
+        val bytes = dataGroups[dataGroup]?.toByteArray()
+            ?: throw IllegalStateException("DG$dataGroup was not read")
+        // NB: hash the whole data group up front rather than wrapping the parser's input in a
+        // DigestInputStream: jmrtd parsers are not guaranteed to read to the end of the stream
+        // (seen in real life with DG2 of a UK passport).
+        val digest = MessageDigest.getInstance(sod.digestAlgorithm).digest(bytes)
+        if (!digest.contentEquals(sod.dataGroupHashes[dataGroup])) {
+            mrtdLogE(TAG, "DG$dataGroup digest mismatch")
+            throw Exception("DG$dataGroup stream did not pass validation")
+        }
+        mrtdLogI(TAG, "Decoding DG$dataGroup")
+        return bytes
+    }
+}
@@ -15,7 +15,19 @@ sealed class MrtdNfc {
     object PACEFailed : Status()
     object AttemptingBAC : Status()
     object BACSucceeded : Status()
-    data class ReadingData(val progressPercent: Int) : Status()
+
+    /**
+     * Data is being read from the card.
+     *
+     * @property progressPercent how much of the data has been read, in percent.
+     * @property verifiedDataGroups the data groups read so far whose hashes match the ones in
+     *   the SOD. The SOD signature itself is not checked at this point.
+     */
+    data class ReadingData(
+        val progressPercent: Int,
+        val verifiedDataGroups: Set<Int> = emptySet()
+    ) : Status()
+
     data class TunnelAuthenticating(val progressPercent: Int) : Status()
     data class TunnelReading(val progressPercent: Int) : Status()
     object Finished : Status()
@@ -5,12 +5,34 @@ import kotlinx.io.bytestring.ByteStringBuilder
 import net.sf.scuba.smartcards.CardService
 import net.sf.scuba.smartcards.CardServiceException
 import org.jmrtd.PassportService
+import org.jmrtd.lds.SODFile
+import java.io.ByteArrayInputStream
 import java.io.InputStream
+import java.security.MessageDigest
 import kotlin.IllegalArgumentException
 
 private const val TAG = "MrtdNfcDataReader"
 
-class MrtdNfcDataReader(private val dataGroups: List<Int>) : MrtdNfcReader<MrtdNfcData> {
+/**
+ * Reads the given data groups and the SOD from the card into [MrtdNfcData].
+ *
+ * The SOD is read first, then the data groups from the smallest to the largest, so that small
+ * groups like DG1 are in before a large DG2 image and the time the card has to stay in the
+ * field before they're available is as short as possible. Data groups are hashed while they
+ * are read and those matching the SOD are reported in [MrtdNfc.ReadingData.verifiedDataGroups].
+ * [onSodRead] is called with the parsed SOD before any data group is read, e.g. to check its
+ * signature. It isn't called if the SOD can't be parsed. [onDataGroupRead] is called each time
+ * a data group has been read, with the SOD and all data groups read so far, so that e.g. DG1
+ * can be used while DG2 is still being read. Exceptions thrown by either callback abort the
+ * read.
+ *
+ * The returned [MrtdNfcData] has the data groups in the order given.
+ */
+class MrtdNfcDataReader(
+    private val dataGroups: List<Int>,
+    private val onSodRead: (SODFile) -> Unit = {},
+    private val onDataGroupRead: (MrtdNfcData) -> Unit = {}
+) : MrtdNfcReader<MrtdNfcData> {
     override fun read(rawConnection: CardService, connection: PassportService?,
                       onStatus: (MrtdNfc.Status) -> Unit): MrtdNfcData {
         if (connection == null) {
@@ -46,32 +68,73 @@ class MrtdNfcDataReader(private val dataGroups: List<Int>) : MrtdNfcReader<MrtdN
         val sodLength = sodStream.length
         mrtdLogI(TAG, "SOD length = $sodLength")
         totalLength += sodLength
+        val verifiedDataGroups = mutableSetOf<Int>()
+        var adjustedProgress = groupsRead
         val onProgress = { progress: Int ->
-            val adjustedProgress = groupsRead + progress * (100 - groupsRead) / 100
+            adjustedProgress = groupsRead + progress * (100 - groupsRead) / 100
             mrtdLogI(TAG, "Progress: $adjustedProgress%")
-            onStatus(MrtdNfc.ReadingData(adjustedProgress))
+            onStatus(MrtdNfc.ReadingData(adjustedProgress, verifiedDataGroups.toSet()))
         }
         mrtdLogI(TAG, "Reading SOD")
-        val sod = readStream(0, totalLength, sodStream, onProgress)
+        val sod = readStream(0, totalLength, sodStream, sodLength, onProgress)
+        val sodFile = try {
+            SODFile(ByteArrayInputStream(sod.toByteArray())).also {
+                // Fails here rather than for each data group if the algorithm isn't supported.
+                MessageDigest.getInstance(it.digestAlgorithm)
+            }
+        } catch (err: Exception) {
+            // Not an error here, the data is validated by MrtdNfcDataDecoder.
+            mrtdLogE(TAG, "Can't use SOD, data groups won't be verified while reading", err)
+            null
+        }
+        sodFile?.let(onSodRead)
         var bytesRead = sodLength
-        val dataGroupMap = streams.mapValues { entry ->
-            mrtdLogI(TAG, "Reading DG${entry.key}")
-            val bytes = readStream(bytesRead, totalLength, entry.value!!, onProgress)
-            bytesRead += entry.value!!.length
-            bytes
+        val dataGroupMap = mutableMapOf<Int, ByteString>()
+        for ((dgIndex, stream) in streams.entries.sortedBy { it.value!!.length }) {
+            mrtdLogI(TAG, "Reading DG$dgIndex")
+            val digest = sodFile?.let { MessageDigest.getInstance(it.digestAlgorithm) }
+            dataGroupMap[dgIndex] =
+                readStream(bytesRead, totalLength, stream!!, stream.length, digest, onProgress)
+            bytesRead += stream.length
+            if (sodFile != null && digest != null) {
+                if (digest.digest().contentEquals(sodFile.dataGroupHashes[dgIndex])) {
+                    verifiedDataGroups.add(dgIndex)
+                    onStatus(MrtdNfc.ReadingData(adjustedProgress, verifiedDataGroups.toSet()))
+                } else {
+                    mrtdLogW(TAG, "DG$dgIndex digest does not match the SOD")
+                }
+            }
+            onDataGroupRead(MrtdNfcData(dataGroupMap.toMap(), sod))
         }
         mrtdLogI(TAG, "Finished reading")
-        return MrtdNfcData(dataGroupMap, sod)
+        val orderedDataGroups = dataGroups
+            .filter { dataGroupMap.containsKey(it) }
+            .associateWith { dataGroupMap[it]!! }
+        return MrtdNfcData(orderedDataGroups, sod)
     }
 
     companion object {
+        /**
+         * Reads a stream to the end.
+         *
+         * @param bytesReadInitial the number of bytes read before this stream, for progress.
+         * @param bytesTotal the total number of bytes to read, for progress.
+         * @param inputStream the stream.
+         * @param expectedLength the expected length of the stream, if known, so that the
+         *   result doesn't have to be grown while reading.
+         * @param digest if not `null`, updated with the data as it's read.
+         * @param onProgress called with the progress in percent after each read.
+         * @return the data.
+         */
         fun readStream(
             bytesReadInitial: Int,
             bytesTotal: Int,
             inputStream: InputStream,
+            expectedLength: Int = 0,
+            digest: MessageDigest? = null,
             onProgress: (Int) -> Unit
         ): ByteString {
-            val bytes = ByteStringBuilder()
+            val bytes = ByteStringBuilder(expectedLength)
             val buffer = ByteArray(1024)
             var bytesRead = bytesReadInitial
             while (true) {
@@ -82,6 +145,7 @@ class MrtdNfcDataReader(private val dataGroups: List<Int>) : MrtdNfcReader<MrtdN
                 bytesRead += len
                 onProgress(bytesRead * 100 / bytesTotal)
                 bytes.append(buffer, 0, len)
+                digest?.update(buffer, 0, len)
             }
             return bytes.toByteString()
         }
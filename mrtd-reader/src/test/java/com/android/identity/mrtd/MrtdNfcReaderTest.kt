@@ -4,13 +4,26 @@ import net.sf.scuba.smartcards.CardService
 import net.sf.scuba.smartcards.CommandAPDU
 import net.sf.scuba.smartcards.ISO7816
 import net.sf.scuba.smartcards.ResponseAPDU
+import org.bouncycastle.asn1.DEROctetString
+import org.bouncycastle.asn1.DERSet
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers
+import org.bouncycastle.asn1.cms.ContentInfo
+import org.bouncycastle.asn1.cms.SignedData
+import org.bouncycastle.asn1.icao.DataGroupHash
+import org.bouncycastle.asn1.icao.ICAOObjectIdentifiers
+import org.bouncycastle.asn1.icao.LDSSecurityObject
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier
 import org.jmrtd.Util
+import org.jmrtd.lds.SODFile
 import org.jmrtd.protocol.SecureMessagingWrapper
 import org.junit.Assert
 import org.junit.Before
 import org.junit.Test
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.DataOutputStream
+import java.security.MessageDigest
 import javax.crypto.Cipher
 import javax.crypto.spec.IvParameterSpec
 
@@ -106,7 +119,10 @@ class MrtdNfcReaderTest {
     }
 
     private val chipAccess = MrtdNfcChipAccess(false)  // Don't check mac
-    private val reader = MrtdNfcDataReader(listOf(1, 2))
+    private val partialDataGroups = mutableListOf<Set<Int>>()
+    private val reader = MrtdNfcDataReader(listOf(1, 2)) { partialData ->
+        partialDataGroups.add(partialData.dataGroups.keys)
+    }
 
     @Before
     fun before() {
@@ -183,6 +199,108 @@ class MrtdNfcReaderTest {
         Assert.assertArrayEquals(expectedDG1, data.dataGroups[1]!!.toByteArray())
         Assert.assertArrayEquals(expectedDG2, data.dataGroups[2]!!.toByteArray())
         Assert.assertArrayEquals(expectedSOD, data.sod.toByteArray())
+        Assert.assertEquals(listOf(setOf(1), setOf(1, 2)), partialDataGroups)
+    }
+
+    @Test
+    fun smallestFirst_verifiedWhileReading() {
+        val expectedDG1 = tlv(5, byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11))
+        val expectedDG2 = tlv(6, byteArrayOf(57, 57, 57, 8, 6, 5, 57, 32, 11, 15, 20, 1))
+        // Real SOD structure (unsigned, which is fine for reading) with the right hash for DG1
+        // and a wrong one for DG2.
+        val sha1 = AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)
+        val dg1Hash = MessageDigest.getInstance("SHA-1").digest(expectedDG1)
+        val ldsSecurityObject = LDSSecurityObject(
+            sha1,
+            arrayOf(
+                DataGroupHash(1, DEROctetString(dg1Hash)),
+                DataGroupHash(2, DEROctetString(ByteArray(20)))
+            )
+        )
+        val signedData = SignedData(
+            DERSet(sha1),
+            ContentInfo(
+                ICAOObjectIdentifiers.id_icao_ldsSecurityObject,
+                DEROctetString(ldsSecurityObject)
+            ),
+            null,
+            null,
+            DERSet()
+        )
+        val contentInfo = ContentInfo(CMSObjectIdentifiers.signedData, signedData)
+        val expectedSOD = tlv(0x77, contentInfo.encoded)
+
+        // DG2 is requested first, but DG1 is smaller so it's read first.
+        val partialDataGroups = mutableListOf<Set<Int>>()
+        var sodFile: SODFile? = null
+        val reader = MrtdNfcDataReader(
+            listOf(2, 1),
+            onSodRead = { sodFile = it }
+        ) { partialData ->
+            // The SOD is handed out before any data group is read.
+            Assert.assertNotNull(sodFile)
+            partialDataGroups.add(partialData.dataGroups.keys)
+        }
+        val cardService = MockCardService(
+            chipAccess, listOf(
+                fileNotFound,  // refuse to do PACE
+                noError,  // sending applet
+                responseWithBody(byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8)),  // BAC challenge
+                responseWithBody(ByteArray(40)),  // BAC response
+                noError,  // select file, success
+                responseWithBody(expectedDG2.copyOf(8)),  // prefix
+                noError,  // select file, success
+                responseWithBody(expectedDG1.copyOf(8)),  // prefix
+                noError,  // select file, success
+                responseWithBody(expectedSOD.copyOf(8)),  // prefix
+                responseWithBody(expectedSOD.copyOfRange(8, expectedSOD.size)),  // tail
+                noError,  // select file, success
+                responseWithBody(expectedDG1.copyOfRange(8, expectedDG1.size)),  // tail
+                noError,  // select file, success
+                responseWithBody(expectedDG2.copyOfRange(8, expectedDG2.size)),  // tail
+            )
+        )
+
+        val statusList = mutableListOf<MrtdNfc.Status>()
+        val service = chipAccess.open(cardService, MrtdAccessDataMrz("0000", "940506", "280808")) {
+            statusList.add(it)
+        }
+        val data = reader.read(cardService, service) {
+            statusList.add(it)
+        }
+
+        Assert.assertArrayEquals(expectedDG1, data.dataGroups[1]!!.toByteArray())
+        Assert.assertArrayEquals(expectedDG2, data.dataGroups[2]!!.toByteArray())
+        Assert.assertArrayEquals(expectedSOD, data.sod.toByteArray())
+        Assert.assertEquals(listOf(setOf(1), setOf(1, 2)), partialDataGroups)
+        Assert.assertArrayEquals(dg1Hash, sodFile!!.dataGroupHashes[1])
+        // Returned in the order requested.
+        Assert.assertEquals(listOf(2, 1), data.dataGroups.keys.toList())
+        // DG1 is reported as verified as soon as it's read, DG2 never is.
+        val readingData = statusList.filterIsInstance<MrtdNfc.ReadingData>()
+        Assert.assertEquals(
+            listOf(emptySet(), setOf(1)),
+            readingData.map { it.verifiedDataGroups }.distinct()
+        )
+        Assert.assertEquals(100, readingData.last().progressPercent)
+    }
+
+    @Test
+    fun readStream_digest() {
+        // Larger than the read buffer, so the digest is updated more than once.
+        val expected = ByteArray(3000) { it.toByte() }
+        val digest = MessageDigest.getInstance("SHA-256")
+        val progress = mutableListOf<Int>()
+        val data = MrtdNfcDataReader.readStream(
+            0, expected.size, ByteArrayInputStream(expected), expected.size, digest
+        ) { progress.add(it) }
+
+        Assert.assertArrayEquals(expected, data.toByteArray())
+        Assert.assertArrayEquals(
+            MessageDigest.getInstance("SHA-256").digest(expected),
+            digest.digest()
+        )
+        Assert.assertEquals(100, progress.last())
     }
 }
 
@@ -79,10 +79,10 @@ abstract class BaseFlowHttpServlet : BaseHttpServlet() {
         val remoteHost = getRemoteHost(req)
         val prefix = "tid=$threadId host=$remoteHost"
         val requestLength = req.contentLength
-        Logger.i(TAG, "$prefix: POST $path ($requestLength bytes)")
+        Logger.i(TAG) { "$prefix: POST $path ($requestLength bytes)" }
         val parts = path.split("/")
         if (parts.size != 2) {
-            Logger.i(TAG, "$prefix: malformed request")
+            Logger.i(TAG) { "$prefix: malformed request" }
             throw Exception("Illegal request!")
         }
         val target = parts[0]
@@ -95,23 +95,23 @@ abstract class BaseFlowHttpServlet : BaseHttpServlet() {
                     data = ByteString(requestData)
                 )
             }
-            Logger.i(TAG, "$prefix: POST response status 200 (${bytes.size} bytes)")
+            Logger.i(TAG) { "$prefix: POST response status 200 (${bytes.size} bytes)" }
             resp.outputStream.write(bytes.toByteArray())
         } catch (e: UnsupportedOperationException) {
-            Logger.e(TAG, "$prefix: POST response status 404", e)
+            Logger.e(TAG, e) { "$prefix: POST response status 404" }
             resp.sendError(404, e.message)
         } catch (e: SimpleCipher.DataTamperedException) {
-            Logger.e(TAG, "$prefix: POST response status 405", e)
+            Logger.e(TAG, e) { "$prefix: POST response status 405" }
             resp.sendError(405, "State tampered")
         } catch (e: IllegalStateException) {
-            Logger.e(TAG, "$prefix: POST response status 405", e)
+            Logger.e(TAG, e) { "$prefix: POST response status 405" }
             resp.sendError(405, "IllegalStateException")
         } catch (e: Throwable) {
             // NotificationTimeoutError happens frequently, don't need a stack trace for this...
             if (e is HttpTransport.TimeoutException) {
-                Logger.e(TAG, "$prefix: POST response status 500 (TimeoutException)")
+                Logger.e(TAG) { "$prefix: POST response status 500 (TimeoutException)" }
             } else {
-                Logger.e(TAG, "$prefix: POST response status 500", e)
+                Logger.e(TAG, e) { "$prefix: POST response status 500" }
             }
             resp.sendError(500, e.message)
         }
@@ -11,6 +11,7 @@ import com.android.identity.storage.jdbc.JdbcStorage
 import io.ktor.client.HttpClient
 import io.ktor.client.engine.java.Java
 import java.io.File
+import java.time.Duration
 import kotlin.reflect.KClass
 import kotlin.reflect.cast
 
@@ -57,8 +58,17 @@ fun defaultDatabase(): String {
     return "jdbc:hsqldb:file:${dbFile.absolutePath}"
 }
 
+// Shared by all requests so that connections to other servers (e.g. the OpenID4VCI issuers the
+// wallet server proxies) are pooled and kept alive. HTTP/2 lets concurrent requests to the same
+// server share a connection, the client falls back to HTTP/1.1 if the server doesn't support it.
 private val httpClient = HttpClient(Java) {
     followRedirects = false
+    engine {
+        protocolVersion = java.net.http.HttpClient.Version.HTTP_2
+        config {
+            connectTimeout(Duration.ofSeconds(30))
+        }
+    }
 }
 
 private val secureAreaProvider = SecureAreaProvider {
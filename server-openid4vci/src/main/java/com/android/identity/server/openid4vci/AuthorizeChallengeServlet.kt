@@ -1,7 +1,6 @@
 package com.android.identity.server.openid4vci
 
 import com.android.identity.flow.server.getTable
-import com.android.identity.util.toBase64Url
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
 import kotlinx.coroutines.runBlocking
@@ -28,12 +27,7 @@ class AuthorizeChallengeServlet : BaseServlet() {
             IssuanceState.fromCbor(storage.get(id)!!.toByteArray())
         }
         if (authSession != null) {
-            authorizeWithDpop(
-                state.dpopKey,
-                req,
-                state.dpopNonce?.toByteArray()?.toBase64Url(),
-                null
-            )
+            authorizeWithDpop(state.dpopKey, req, id, nonceRequired = false)
         }
         if (presentation == null) {
             val expirationSeconds = 600
@@ -19,9 +19,8 @@ import kotlinx.coroutines.runBlocking
 import kotlinx.datetime.Clock
 import kotlinx.io.bytestring.ByteString
 import kotlinx.io.bytestring.ByteStringBuilder
-import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.longOrNull
 import kotlin.random.Random
 import kotlin.time.Duration
 
@@ -29,6 +28,7 @@ abstract class BaseServlet: BaseHttpServlet() {
 
     companion object {
         lateinit var cipher: SimpleCipher
+        internal lateinit var nonceService: DpopNonceService
 
         private val rootTableSpec = StorageTableSpec(
             name = "Openid4VciServerRootState",
@@ -53,6 +53,30 @@ abstract class BaseServlet: BaseHttpServlet() {
             }
         }
         cipher = AesGcmCipher(encryptionKey)
+        val nonceKey = runBlocking {
+            val storage = env.getTable(rootTableSpec)
+            val key = storage.get("nonceKey")
+            if (key != null) {
+                key.toByteArray()
+            } else {
+                val newKey = Random.nextBytes(32)
+                storage.insert(
+                    data = ByteString(newKey),
+                    key = "nonceKey"
+                )
+                newKey
+            }
+        }
+        // Recording DPoP proofs in storage is only needed when running several server
+        // instances, otherwise keeping them in memory is enough.
+        val sharedReplayCache = env.getInterface(Configuration::class)!!
+            .getValue("openid4vci.dpop.sharedReplayCache") == "true"
+        val jtiTable = if (sharedReplayCache) {
+            runBlocking { env.getTable(DpopNonceService.jtiTableSpec) }
+        } else {
+            null
+        }
+        nonceService = DpopNonceService(nonceKey, jtiTable)
         return null
     }
 
@@ -107,11 +131,23 @@ abstract class BaseServlet: BaseHttpServlet() {
 
     /**
      * DPoP Authorization validation.
+     *
+     * Checks the DPoP proof signature, its `htu` and `nonce` claims and that it is not a replay
+     * of an earlier proof, see [DpopNonceService].
+     *
+     * @param publicKey the DPoP key of the session.
+     * @param req the request.
+     * @param sessionId the server-side id of the session.
+     * @param nonceRequired whether the proof must have a nonce, if it has one it must always
+     *   be valid.
+     * @param accessToken the access token that must be in the `Authorization` header or `null`
+     *   if there must not be an `Authorization` header.
      */
     protected fun authorizeWithDpop(
         publicKey: EcPublicKey,
         req: HttpServletRequest,
-        dpopNonce: String?,
+        sessionId: String,
+        nonceRequired: Boolean,
         accessToken: String? = null
     ) {
         val auth = req.getHeader("Authorization")
@@ -132,13 +168,16 @@ abstract class BaseServlet: BaseHttpServlet() {
         }
         val dpop = req.getHeader("DPoP")
             ?: throw InvalidRequestException("DPoP header required")
-        val parts = dpop.split('.')
-        if (parts.size != 3) {
+        if (dpop.count { it == '.' } != 2) {
             throw InvalidRequestException("DPoP invalid")
         }
-        checkJwtSignature(publicKey, dpop)
-        val json = Json.parseToJsonElement(String(parts[1].fromBase64Url())) as JsonObject
-        if (json["nonce"]?.jsonPrimitive?.content != dpopNonce) {
+        val json = checkJwtSignature(publicKey, dpop)
+        val nonce = json["nonce"]?.jsonPrimitive?.content
+        if (nonce == null) {
+            if (nonceRequired) {
+                throw InvalidRequestException("DPoP nonce required")
+            }
+        } else if (!nonceService.isNonceValid(DpopNonceService.Purpose.DPOP, sessionId, nonce)) {
             throw InvalidRequestException("Stale or invalid DPoP nonce")
         }
         val serverUrl = environment.getInterface(Configuration::class)!!.getValue("base_url")
@@ -148,5 +187,12 @@ abstract class BaseServlet: BaseHttpServlet() {
         if (actualUrl != expectedUrl) {
             throw InvalidRequestException("Incorrect request URI: $expectedUrl vs $actualUrl")
         }
+        val jti = json["jti"]?.jsonPrimitive?.content
+            ?: throw InvalidRequestException("DPoP 'jti' missing")
+        val issuedAt = json["iat"]?.jsonPrimitive?.longOrNull
+            ?: throw InvalidRequestException("DPoP 'iat' missing")
+        if (!runBlocking { nonceService.checkProof(jti, issuedAt) }) {
+            throw InvalidRequestException("Stale or replayed DPoP proof")
+        }
     }
 }
\ No newline at end of file
@@ -24,6 +24,15 @@ internal interface CredentialFactory {
     suspend fun makeCredential(environment: FlowEnvironment, state: IssuanceState,
                        authenticationKey: EcPublicKey?): String
 
+    /**
+     * Creates a key-bound credential for each of [authenticationKeys], in the same order.
+     *
+     * Factories can override this to share the work that is the same for all credentials.
+     */
+    suspend fun makeCredentials(environment: FlowEnvironment, state: IssuanceState,
+                                authenticationKeys: List<EcPublicKey>): List<String> =
+        authenticationKeys.map { key -> makeCredential(environment, state, key) }
+
     companion object {
         val byOfferId: Map<String, CredentialFactory>
         val supportedScopes: Set<String>
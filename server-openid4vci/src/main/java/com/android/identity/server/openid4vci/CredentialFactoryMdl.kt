@@ -24,6 +24,10 @@ import com.android.identity.mdoc.mso.MobileSecurityObjectGenerator
 import com.android.identity.mdoc.mso.StaticAuthDataGenerator
 import com.android.identity.mdoc.util.MdocUtil
 import com.android.identity.util.toBase64Url
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.datetime.Clock
 import kotlinx.datetime.Instant
 import kotlin.random.Random
@@ -58,7 +62,13 @@ internal class CredentialFactoryMdl : CredentialFactory {
         environment: FlowEnvironment,
         state: IssuanceState,
         authenticationKey: EcPublicKey?
-    ): String {
+    ): String = makeCredentials(environment, state, listOf(authenticationKey!!)).single()
+
+    override suspend fun makeCredentials(
+        environment: FlowEnvironment,
+        state: IssuanceState,
+        authenticationKeys: List<EcPublicKey>
+    ): List<String> {
         val now = Clock.System.now()
 
         // Create AuthKeys and MSOs, make sure they're valid for 30 days. Also make
@@ -69,15 +79,79 @@ internal class CredentialFactoryMdl : CredentialFactory {
         val validFrom = Instant.fromEpochSeconds(now.epochSeconds, 0)
         val validUntil = validFrom + 30.days
 
-        // Generate an MSO and issuer-signed data for this authentication key.
-        val docType = DrivingLicense.MDL_DOCTYPE
-        val msoGenerator = MobileSecurityObjectGenerator(
-            "SHA-256",
-            docType,
-            authenticationKey!!
+        val credentialData = makeCredentialData(environment, state)
+
+        // The data is the same for all credentials, so encode it once and only generate
+        // salts, digests and MSOs per authentication key.
+        val issuerData = MdocUtil.generateIssuerNameSpacesBatch(
+            credentialData,
+            authenticationKeys.size,
+            Random.Default,
+            16,
+            Algorithm.SHA256
+        )
+
+        val resources = environment.getInterface(Resources::class)!!
+        val documentSigningKeyCert = X509Cert.fromPem(
+            resources.getStringResource("ds_certificate.pem")!!)
+        val documentSigningKey = EcPrivateKey.fromPem(
+            resources.getStringResource("ds_private_key.pem")!!,
+            documentSigningKeyCert.ecPublicKey
         )
-        msoGenerator.setValidityInfo(timeSigned, validFrom, validUntil, null)
+        val protectedHeaders = mapOf<CoseLabel, DataItem>(Pair(
+            CoseNumberLabel(Cose.COSE_LABEL_ALG),
+            Algorithm.ES256.coseAlgorithmIdentifier.toDataItem()
+        ))
+        val unprotectedHeaders = mapOf<CoseLabel, DataItem>(Pair(
+            CoseNumberLabel(Cose.COSE_LABEL_X5CHAIN),
+            X509CertChain(listOf(
+                X509Cert(documentSigningKeyCert.encodedCertificate)
+            )
+            ).toDataItem()
+        ))
 
+        return coroutineScope {
+            authenticationKeys.zip(issuerData).map { (authenticationKey, data) ->
+                async(Dispatchers.Default) {
+                    // Generate an MSO for this authentication key.
+                    val msoGenerator = MobileSecurityObjectGenerator(
+                        "SHA-256",
+                        DrivingLicense.MDL_DOCTYPE,
+                        authenticationKey
+                    )
+                    msoGenerator.setValidityInfo(timeSigned, validFrom, validUntil, null)
+                    for ((nameSpaceName, digests) in data.digests) {
+                        msoGenerator.addDigestIdsForNamespace(nameSpaceName, digests)
+                    }
+
+                    val mso = msoGenerator.generate()
+                    val taggedEncodedMso = Cbor.encode(Tagged(Tagged.ENCODED_CBOR, Bstr(mso)))
+                    val encodedIssuerAuth = Cbor.encode(
+                        Cose.coseSign1Sign(
+                            documentSigningKey,
+                            taggedEncodedMso,
+                            true,
+                            Algorithm.ES256,
+                            protectedHeaders,
+                            unprotectedHeaders
+                        ).toDataItem()
+                    )
+
+                    val issuerProvidedAuthenticationData = StaticAuthDataGenerator(
+                        data.issuerNameSpaces,
+                        encodedIssuerAuth
+                    ).generate()
+
+                    issuerProvidedAuthenticationData.toBase64Url()
+                }
+            }.awaitAll()
+        }
+    }
+
+    private fun makeCredentialData(
+        environment: FlowEnvironment,
+        state: IssuanceState
+    ): NameSpacedData {
         val credentialData = NameSpacedData.Builder()
 
         // As we do not have driver license database, just make up some data to fill mDL
@@ -116,59 +190,6 @@ internal class CredentialFactoryMdl : CredentialFactory {
                 .build())
         )
 
-        val randomProvider = Random.Default
-        val issuerNameSpaces = MdocUtil.generateIssuerNameSpaces(
-            credentialData.build(),
-            randomProvider,
-            16,
-            null
-        )
-        for (nameSpaceName in issuerNameSpaces.keys) {
-            val digests = MdocUtil.calculateDigestsForNameSpace(
-                nameSpaceName,
-                issuerNameSpaces,
-                Algorithm.SHA256
-            )
-            msoGenerator.addDigestIdsForNamespace(nameSpaceName, digests)
-        }
-
-        val resources = environment.getInterface(Resources::class)!!
-        val documentSigningKeyCert = X509Cert.fromPem(
-            resources.getStringResource("ds_certificate.pem")!!)
-        val documentSigningKey = EcPrivateKey.fromPem(
-            resources.getStringResource("ds_private_key.pem")!!,
-            documentSigningKeyCert.ecPublicKey
-        )
-
-        val mso = msoGenerator.generate()
-        val taggedEncodedMso = Cbor.encode(Tagged(Tagged.ENCODED_CBOR, Bstr(mso)))
-        val protectedHeaders = mapOf<CoseLabel, DataItem>(Pair(
-            CoseNumberLabel(Cose.COSE_LABEL_ALG),
-            Algorithm.ES256.coseAlgorithmIdentifier.toDataItem()
-        ))
-        val unprotectedHeaders = mapOf<CoseLabel, DataItem>(Pair(
-            CoseNumberLabel(Cose.COSE_LABEL_X5CHAIN),
-            X509CertChain(listOf(
-                X509Cert(documentSigningKeyCert.encodedCertificate)
-            )
-            ).toDataItem()
-        ))
-        val encodedIssuerAuth = Cbor.encode(
-            Cose.coseSign1Sign(
-                documentSigningKey,
-                taggedEncodedMso,
-                true,
-                Algorithm.ES256,
-                protectedHeaders,
-                unprotectedHeaders
-            ).toDataItem()
-        )
-
-        val issuerProvidedAuthenticationData = StaticAuthDataGenerator(
-            issuerNameSpaces,
-            encodedIssuerAuth
-        ).generate()
-
-        return issuerProvidedAuthenticationData.toBase64Url()
+        return credentialData.build()
     }
-}
\ No newline at end of file
+}
@@ -11,6 +11,7 @@ import com.android.identity.cose.CoseNumberLabel
 import com.android.identity.crypto.Algorithm
 import com.android.identity.crypto.EcPrivateKey
 import com.android.identity.crypto.EcPublicKey
+import com.android.identity.crypto.JsonWebSignature
 import com.android.identity.crypto.X509Cert
 import com.android.identity.crypto.X509CertChain
 import com.android.identity.documenttype.knowntypes.EUPersonalID
@@ -26,14 +27,11 @@ import com.android.identity.mdoc.util.MdocUtil
 import com.android.identity.sdjwt.Issuer
 import com.android.identity.sdjwt.SdJwtVcGenerator
 import com.android.identity.sdjwt.util.JsonWebKey
-import com.android.identity.util.fromBase64Url
-import com.android.identity.util.toBase64Url
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
 import kotlinx.coroutines.runBlocking
 import kotlinx.datetime.Clock
 import kotlinx.datetime.Instant
-import kotlinx.io.bytestring.ByteString
 import kotlinx.serialization.encodeToString
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.JsonArray
@@ -51,7 +49,7 @@ import kotlin.time.Duration.Companion.days
 /**
  * Issues a credential based on access token issued by [TokenServlet].
  *
- * TODO: assess token is meant to a single use (verify that). Add replay protection.
+ * DPoP proofs are checked for replay by [BaseServlet.authorizeWithDpop].
  */
 class CredentialServlet : BaseServlet() {
     override fun doPost(req: HttpServletRequest, resp: HttpServletResponse) {
@@ -65,14 +63,11 @@ class CredentialServlet : BaseServlet() {
             val storage = environment.getTable(IssuanceState.tableSpec)
             IssuanceState.fromCbor(storage.get(id)!!.toByteArray())
         }
-        authorizeWithDpop(state.dpopKey, req, state.dpopNonce!!.toByteArray().toBase64Url(), accessToken)
-        val nonce = state.cNonce!!.toByteArray().toBase64Url()  // credential nonce
-        state.dpopNonce = null
-        state.cNonce = null
-        runBlocking {
-            val storage = environment.getTable(IssuanceState.tableSpec)
-            storage.update(id, ByteString(state.toCbor()))
-        }
+        authorizeWithDpop(state.dpopKey, req, id, nonceRequired = true, accessToken)
+        resp.setHeader(
+            "DPoP-Nonce",
+            nonceService.issueNonce(DpopNonceService.Purpose.DPOP, id)
+        )
         val requestString = String(req.inputStream.readNBytes(req.contentLength))
         val json = Json.parseToJsonElement(requestString) as JsonObject
         val format = Openid4VciFormat.fromJson(json)
@@ -135,17 +130,16 @@ class CredentialServlet : BaseServlet() {
 
                 proofs.flatMap { proof ->
                     val keyAttestation = proof.jsonPrimitive.content
-                    checkJwtSignature(
+                    if (keyAttestation.count { it == '.' } != 2) {
+                        throw InvalidRequestException("invalid value for 'proof(s).attestation' parameter")
+                    }
+                    val body = checkJwtSignature(
                         keyAttestationCertificate.certificate.ecPublicKey,
                         keyAttestation
                     )
-                    val parts = keyAttestation.split(".")
-
-                    if (parts.size != 3) {
-                        throw InvalidRequestException("invalid value for 'proof(s).attestation' parameter")
-                    }
-                    val body = Json.parseToJsonElement(String(parts[1].fromBase64Url())).jsonObject
-                    if (body["nonce"]?.jsonPrimitive?.content != nonce) {
+                    val nonce = body["nonce"]?.jsonPrimitive?.content
+                    if (nonce == null || !nonceService.isNonceValid(
+                            DpopNonceService.Purpose.CREDENTIAL, id, nonce)) {
                         throw InvalidRequestException("invalid nonce in 'proof(s).attestation' parameter")
                     }
                     body["attested_keys"]!!.jsonArray.map { key ->
@@ -162,14 +156,13 @@ class CredentialServlet : BaseServlet() {
                 proofs.map { proof ->
                     val jwt = proof.jsonObject["jwt"]?.jsonPrimitive?.content
                         ?: throw InvalidRequestException("either 'proof.attestation' or 'proof.jwt' parameter is required")
-                    val parts = jwt.split(".")
-                    if (parts.size != 3) {
+                    val jws = try {
+                        JsonWebSignature.parseCompact(jwt)
+                    } catch (e: IllegalArgumentException) {
                         throw InvalidRequestException("invalid value for 'proof.jwt' parameter")
                     }
-                    val head =
-                        Json.parseToJsonElement(String(parts[0].fromBase64Url())) as JsonObject
-                    val authenticationKey = JsonWebKey(head).asEcPublicKey
-                    checkJwtSignature(authenticationKey, jwt)
+                    val authenticationKey = JsonWebKey(jws.header).asEcPublicKey
+                    jws.verifySignature(authenticationKey)
                     authenticationKey
                 }
             }
@@ -180,9 +173,7 @@ class CredentialServlet : BaseServlet() {
 
         val credentials =
             runBlocking {
-                authenticationKeys.map { key ->
-                    factory.makeCredential(environment, state, key)
-                }
+                factory.makeCredentials(environment, state, authenticationKeys)
             }
 
         val result = if (singleProof && credentials.size == 1) {
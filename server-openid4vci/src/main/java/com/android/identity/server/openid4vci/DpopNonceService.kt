@@ -0,0 +1,192 @@
+package com.android.identity.server.openid4vci
+
+import com.android.identity.crypto.Algorithm
+import com.android.identity.crypto.Crypto
+import com.android.identity.storage.KeyExistsStorageException
+import com.android.identity.storage.StorageTable
+import com.android.identity.storage.StorageTableSpec
+import com.android.identity.util.fromBase64Url
+import com.android.identity.util.toBase64Url
+import kotlinx.datetime.Clock
+import kotlinx.datetime.Instant
+import kotlinx.io.bytestring.ByteString
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Issues and checks server nonces and protects against DPoP proof replay.
+ *
+ * Nonces are stateless: a nonce is the time it was issued, rounded down to
+ * [NONCE_ROTATION_PERIOD], followed by an HMAC over that time, the purpose of the nonce and
+ * the session id. So checking a nonce doesn't need any storage, nonces change every
+ * [NONCE_ROTATION_PERIOD] and a nonce issued for one session or purpose can't be used for
+ * another one.
+ *
+ * DPoP proofs must have been issued no more than [MAX_PROOF_AGE] ago and their `jti` must
+ * not have been seen before. Seen `jti` values are kept in memory in buckets by the `iat` of
+ * the proof and a bucket is dropped once all proofs in it are too old to be accepted anyway.
+ * If [sharedTable] is given, `jti` values are also recorded there so that replays are detected
+ * across server instances.
+ *
+ * @param key the HMAC key for nonces, must be the same on all server instances.
+ * @param sharedTable the table to record `jti` values in, created with [jtiTableSpec], or
+ *   `null` to only keep them in memory.
+ */
+internal class DpopNonceService(
+    private val key: ByteArray,
+    private val sharedTable: StorageTable?
+) {
+    /** What a nonce is used for. */
+    enum class Purpose {
+        /** The `nonce` claim in DPoP proofs. */
+        DPOP,
+        /** The `c_nonce` for credential request proofs. */
+        CREDENTIAL
+    }
+
+    // Seen jti values, keyed by iat / BUCKET_SECONDS.
+    private val buckets = ConcurrentHashMap<Long, MutableSet<String>>()
+
+    /**
+     * Issues a nonce.
+     *
+     * @param purpose what the nonce is used for.
+     * @param sessionId the server-side id of the session the nonce is used in.
+     * @param now the current time.
+     * @return the nonce.
+     */
+    fun issueNonce(
+        purpose: Purpose,
+        sessionId: String,
+        now: Instant = Clock.System.now()
+    ): String {
+        val seconds = now.epochSeconds
+        return nonce(purpose, sessionId, seconds - seconds.mod(NONCE_ROTATION_PERIOD_SECONDS))
+    }
+
+    /**
+     * Checks a nonce.
+     *
+     * @param purpose what the nonce must have been issued for.
+     * @param sessionId the server-side id of the session the nonce must have been issued for.
+     * @param nonce the nonce.
+     * @param maxAge how long ago the nonce may have been issued.
+     * @param now the current time.
+     * @return `true` if the nonce was issued by [issueNonce] for [purpose] and [sessionId]
+     *   within [maxAge], `false` otherwise.
+     */
+    fun isNonceValid(
+        purpose: Purpose,
+        sessionId: String,
+        nonce: String,
+        maxAge: Duration = NONCE_LIFETIME,
+        now: Instant = Clock.System.now()
+    ): Boolean {
+        val decoded = try {
+            nonce.fromBase64Url()
+        } catch (e: IllegalArgumentException) {
+            return false
+        }
+        if (decoded.size != Long.SIZE_BYTES + MAC_SIZE) {
+            return false
+        }
+        val issuedAt = ByteBuffer.wrap(decoded).getLong()
+        if (issuedAt > now.epochSeconds || now.epochSeconds - issuedAt > maxAge.inWholeSeconds) {
+            return false
+        }
+        return MessageDigest.isEqual(
+            decoded,
+            nonce(purpose, sessionId, issuedAt).fromBase64Url()
+        )
+    }
+
+    /**
+     * Checks that a DPoP proof is recent and records its `jti`.
+     *
+     * @param jti the `jti` claim of the proof.
+     * @param issuedAt the `iat` claim of the proof, in seconds since the epoch.
+     * @param now the current time.
+     * @return `false` if the proof is too old, from the future or its `jti` was seen before,
+     *   `true` otherwise.
+     */
+    suspend fun checkProof(
+        jti: String,
+        issuedAt: Long,
+        now: Instant = Clock.System.now()
+    ): Boolean {
+        val seconds = now.epochSeconds
+        if (issuedAt > seconds + MAX_CLOCK_SKEW.inWholeSeconds ||
+            issuedAt < seconds - MAX_PROOF_AGE.inWholeSeconds) {
+            return false
+        }
+        val bucket = buckets.computeIfAbsent(issuedAt / BUCKET_SECONDS) {
+            ConcurrentHashMap.newKeySet()
+        }
+        if (!bucket.add(jti)) {
+            return false
+        }
+        removeExpiredBuckets(seconds)
+        if (sharedTable != null) {
+            // Storage keys have a limited length and character set, so use a digest.
+            val jtiKey = Crypto.digest(Algorithm.SHA256, jti.encodeToByteArray()).toBase64Url()
+            try {
+                sharedTable.insert(
+                    key = jtiKey,
+                    data = ByteString(),
+                    expiration = Instant.fromEpochSeconds(issuedAt) + MAX_PROOF_AGE
+                )
+            } catch (e: KeyExistsStorageException) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun nonce(purpose: Purpose, sessionId: String, issuedAt: Long): String {
+        val issuedAtBytes = ByteBuffer.allocate(Long.SIZE_BYTES).putLong(issuedAt).array()
+        val mac = Crypto.mac(
+            Algorithm.HMAC_SHA256,
+            key,
+            issuedAtBytes + purpose.ordinal.toByte() + sessionId.encodeToByteArray()
+        )
+        return (issuedAtBytes + mac.copyOf(MAC_SIZE)).toBase64Url()
+    }
+
+    private fun removeExpiredBuckets(nowSeconds: Long) {
+        // Everything in buckets before this one is older than MAX_PROOF_AGE.
+        val oldestBucket = (nowSeconds - MAX_PROOF_AGE.inWholeSeconds) / BUCKET_SECONDS
+        buckets.keys.removeIf { it < oldestBucket }
+    }
+
+    companion object {
+        /** How often nonces change. */
+        val NONCE_ROTATION_PERIOD = 5.minutes
+
+        /**
+         * How long nonces are valid by default, the same as access tokens, so a nonce issued
+         * with an access token can be used for as long as the access token.
+         */
+        val NONCE_LIFETIME = 60.minutes
+
+        /** The maximum age of DPoP proofs. */
+        val MAX_PROOF_AGE = 5.minutes
+
+        /** The maximum clock skew allowed for the `iat` of DPoP proofs. */
+        val MAX_CLOCK_SKEW = 30.seconds
+
+        /** The spec for the shared table to record `jti` values in. */
+        val jtiTableSpec = StorageTableSpec(
+            name = "Openid4VciServerDpopJti",
+            supportPartitions = false,
+            supportExpiration = true
+        )
+
+        private val NONCE_ROTATION_PERIOD_SECONDS = NONCE_ROTATION_PERIOD.inWholeSeconds
+        private const val BUCKET_SECONDS = 60L
+        private const val MAC_SIZE = 16
+    }
+}
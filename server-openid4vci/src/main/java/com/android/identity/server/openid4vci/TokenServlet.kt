@@ -4,13 +4,11 @@ import com.android.identity.crypto.Algorithm
 import com.android.identity.crypto.Crypto
 import com.android.identity.flow.handler.InvalidRequestException
 import com.android.identity.flow.server.getTable
-import com.android.identity.util.toBase64Url
 import jakarta.servlet.http.HttpServletRequest
 import jakarta.servlet.http.HttpServletResponse
 import kotlinx.coroutines.runBlocking
 import kotlinx.io.bytestring.ByteString
 import kotlinx.serialization.json.Json
-import kotlin.random.Random
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.minutes
 
@@ -54,16 +52,19 @@ class TokenServlet : BaseServlet() {
                 throw InvalidRequestException("authorization: bad code_verifier")
             }
         }
-        authorizeWithDpop(state.dpopKey, req, state.dpopNonce?.toByteArray()?.toBase64Url(), null)
-        val dpopNonce = Random.nextBytes(15)
-        state.dpopNonce = ByteString(dpopNonce)
-        resp.setHeader("DPoP-Nonce", dpopNonce.toBase64Url())
-        val cNonce = Random.nextBytes(15)
-        state.redirectUri = null
-        state.cNonce = ByteString(cNonce)
-        runBlocking {
-            val storage = environment.getTable(IssuanceState.tableSpec)
-            storage.update(id, ByteString(state.toCbor()))
+        authorizeWithDpop(state.dpopKey, req, id, nonceRequired = false)
+        // Nonces are derived from the session id, they don't need to be stored.
+        resp.setHeader(
+            "DPoP-Nonce",
+            nonceService.issueNonce(DpopNonceService.Purpose.DPOP, id)
+        )
+        val cNonce = nonceService.issueNonce(DpopNonceService.Purpose.CREDENTIAL, id)
+        if (digest != null || state.redirectUri != null) {
+            state.redirectUri = null
+            runBlocking {
+                val storage = environment.getTable(IssuanceState.tableSpec)
+                storage.update(id, ByteString(state.toCbor()))
+            }
         }
         val expiresIn = 60.minutes
         val accessToken = idToCode(OpaqueIdType.ACCESS_TOKEN, id, expiresIn)
@@ -73,9 +74,9 @@ class TokenServlet : BaseServlet() {
             TokenResponse.serializer(), TokenResponse(
                 accessToken = accessToken,
                 refreshToken = refreshToken,
-                cNonce = cNonce.toBase64Url(),
+                cNonce = cNonce,
                 expiresIn = expiresIn.inWholeSeconds.toInt(),
-                cNonceExpiresIn = expiresIn.inWholeSeconds.toInt(),
+                cNonceExpiresIn = DpopNonceService.NONCE_LIFETIME.inWholeSeconds.toInt(),
                 tokenType = "DPoP"
             )
         )
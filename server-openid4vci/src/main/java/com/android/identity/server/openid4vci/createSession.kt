@@ -9,7 +9,6 @@ import com.android.identity.sdjwt.util.JsonWebKey
 import com.android.identity.util.fromBase64Url
 import jakarta.servlet.http.HttpServletRequest
 import kotlinx.io.bytestring.ByteString
-import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.JsonObject
 
 suspend fun createSession(environment: FlowEnvironment, req: HttpServletRequest): String {
@@ -52,15 +51,13 @@ suspend fun createSession(environment: FlowEnvironment, req: HttpServletRequest)
             val certificate = X509Cert.fromPem(resources.getStringResource(certificateName)!!)
             ClientCertificate(certificate)
         }
-    checkJwtSignature(clientCertificate.certificate.ecPublicKey, sequence[0])
-
-    // Extract session key (used in DPoP authorization for subsequent requests).
-    val parts = sequence[0].split(".")
-    if (parts.size != 3) {
+    if (sequence[0].count { it == '.' } != 2) {
         throw InvalidRequestException("invalid JWT assertion")
     }
-    val assertionBody = Json.parseToJsonElement(String(parts[1].fromBase64Url(), Charsets.UTF_8))
-    val dpopKey = JsonWebKey((assertionBody as JsonObject)["cnf"] as JsonObject).asEcPublicKey
+    val assertionBody = checkJwtSignature(clientCertificate.certificate.ecPublicKey, sequence[0])
+
+    // Extract session key (used in DPoP authorization for subsequent requests).
+    val dpopKey = JsonWebKey(assertionBody["cnf"] as JsonObject).asEcPublicKey
 
     // Create a session
     val storage = environment.getTable(IssuanceState.tableSpec)
@@ -36,8 +36,6 @@ data class IssuanceState(
     val dpopKey: EcPublicKey,
     var redirectUri: String?,
     var codeChallenge: ByteString?,
-    var dpopNonce: ByteString? = null,
-    var cNonce: ByteString? = null,
     var pidReadingKey: EcPrivateKey? = null,
     var pidNonce: String? = null,
     var credentialData: NameSpacedData? = null
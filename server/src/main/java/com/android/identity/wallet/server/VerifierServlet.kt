@@ -326,7 +326,7 @@ class VerifierServlet : BaseHttpServlet() {
             repo.addDocumentType(EUCertificateOfResidence.getDocumentType())
             repo.addDocumentType(UtopiaNaturalization.getDocumentType())
             repo.addDocumentType(UtopiaMovieTicket.getDocumentType())
-            repo
+            repo.freeze()
         }
     }
 
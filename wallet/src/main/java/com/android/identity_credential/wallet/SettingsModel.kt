@@ -186,9 +186,10 @@ class SettingsModel(
         screenLockIsSetup.postValue(value)
     }
 
-    fun clearLog() {
+    suspend fun clearLog() {
         if (loggingEnabled.value!!) {
-            Logger.stopLoggingToFile()
+            // Wait for pending messages to be written so they don't end up in the new file.
+            Logger.stopLoggingToFile()?.join()
         }
         SystemFileSystem.delete(logFile)
         if (loggingEnabled.value!!) {
@@ -152,7 +152,7 @@ fun SettingsScreen(
                     leadingIcon = { Icon(Icons.Outlined.Delete, contentDescription = null) },
                     enabled = settingsModel.loggingEnabled.observeAsState(false).value,
                     onClick = {
-                        settingsModel.clearLog()
+                        coroutineScope.launch { settingsModel.clearLog() }
                         showMenu = false
                     }
                 )